@@ -0,0 +1,61 @@
+package com.breiler.msg.benchmarks;
+
+import com.breiler.msg.impl.BufferFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures allocating and releasing direct buffers, both small ones and
+ * ones too large to be pooled, from one thread and from several threads
+ * contending for the factory. The unreleased variant measures buffers
+ * which are left to the garbage collector.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-XX:MaxDirectMemorySize=512m")
+public class BufferFactoryBenchmark {
+    private static final int SMALL = 12;
+    // Larger than the biggest pooled size class
+    private static final int LARGE = 512 * 1024;
+
+    @Benchmark
+    @Threads(1)
+    public void small() {
+        BufferFactory.release(BufferFactory.newFloatBuffer(SMALL));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void smallContended() {
+        BufferFactory.release(BufferFactory.newFloatBuffer(SMALL));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public FloatBuffer smallUnreleased() {
+        return BufferFactory.newFloatBuffer(SMALL);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void large() {
+        BufferFactory.release(BufferFactory.newFloatBuffer(LARGE));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void largeContended() {
+        BufferFactory.release(BufferFactory.newFloatBuffer(LARGE));
+    }
+}
@@ -0,0 +1,110 @@
+package com.breiler.msg.benchmarks;
+
+import com.breiler.msg.math.Line;
+import com.breiler.msg.math.MathUtils;
+import com.breiler.msg.math.Rotf;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.vecmath.Matrix4f;
+import javax.vecmath.Vector3f;
+import javax.vecmath.Vector4f;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the matrix and vector helpers used while traversing and
+ * picking.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MathUtilsBenchmark {
+    private Matrix4f matrix;
+    private Matrix4f scratch;
+    private Rotf rotation;
+    private Vector3f point;
+    private Vector3f result;
+    private Vector4f vector;
+    private Vector4f vectorResult;
+    private Line line;
+    private float[] data;
+
+    @Setup
+    public void setup() {
+        rotation = new Rotf(new Vector3f(1, 1, 0), 0.5f);
+        matrix = new Matrix4f();
+        matrix.setIdentity();
+        MathUtils.rotate(matrix, rotation);
+        matrix.setTranslation(new Vector3f(1, 2, 3));
+        scratch = new Matrix4f();
+        point = new Vector3f(4, 5, 6);
+        result = new Vector3f();
+        vector = new Vector4f(4, 5, 6, 1);
+        vectorResult = new Vector4f();
+        line = new Line(new Vector3f(0, 0, -1), new Vector3f(1, 1, 10));
+        data = new float[16];
+    }
+
+    @Benchmark
+    public Vector3f xformPt() {
+        MathUtils.xformPt(matrix, point, result);
+        return result;
+    }
+
+    @Benchmark
+    public Vector3f xformDir() {
+        MathUtils.xformDir(matrix, point, result);
+        return result;
+    }
+
+    @Benchmark
+    public Vector4f xformVec() {
+        MathUtils.xformVec(matrix, vector, vectorResult);
+        return vectorResult;
+    }
+
+    @Benchmark
+    public Line xformLine() {
+        return MathUtils.xformLine(matrix, line);
+    }
+
+    @Benchmark
+    public float[] getColumnMajorData() {
+        return MathUtils.getColumnMajorData(matrix, data);
+    }
+
+    @Benchmark
+    public float[] getRowMajorData() {
+        return MathUtils.getRowMajorData(matrix, data);
+    }
+
+    @Benchmark
+    public Matrix4f invertRigid() {
+        scratch.set(matrix);
+        MathUtils.invertRigid(scratch);
+        return scratch;
+    }
+
+    @Benchmark
+    public Matrix4f invertGeneral() {
+        scratch.set(matrix);
+        scratch.invert();
+        return scratch;
+    }
+
+    @Benchmark
+    public Matrix4f rotate() {
+        return MathUtils.rotate(scratch, rotation);
+    }
+}
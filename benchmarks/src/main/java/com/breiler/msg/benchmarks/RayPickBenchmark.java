@@ -0,0 +1,131 @@
+package com.breiler.msg.benchmarks;
+
+import com.breiler.msg.actions.RayPickAction;
+import com.breiler.msg.collections.Vec3fCollection;
+import com.breiler.msg.math.Line;
+import com.breiler.msg.misc.PickedPoint;
+import com.breiler.msg.nodes.Coordinate3;
+import com.breiler.msg.nodes.Group;
+import com.breiler.msg.nodes.IndexedTriangleSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.vecmath.Vector3f;
+import java.nio.IntBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures picking a synthetic height field mesh with rays aimed at
+ * random points on it. The hierarchy used for picking is built during
+ * setup, so only the queries are measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class RayPickBenchmark {
+    private static final int NUM_RAYS = 1024;
+
+    /**
+     * The mesh, shared by all benchmark threads
+     */
+    @State(Scope.Benchmark)
+    public static class Scene {
+        /**
+         * Approximate number of triangles in the mesh
+         */
+        @Param({"1000", "100000", "1000000", "10000000"})
+        private int triangles;
+
+        private Group root;
+        private int size;
+
+        @Setup
+        public void setup() {
+            // Two triangles per grid cell
+            size = Math.max(1, (int) Math.round(Math.sqrt(triangles / 2.0)));
+            final int verticesPerRow = size + 1;
+            final Vec3fCollection data = new Vec3fCollection(verticesPerRow * verticesPerRow);
+            for (int y = 0; y <= size; y++) {
+                for (int x = 0; x <= size; x++) {
+                    final float z = (float) (Math.sin(x * 0.37) * Math.cos(y * 0.23));
+                    data.add(new Vector3f(x, y, z));
+                }
+            }
+            final IntBuffer indices = IntBuffer.allocate(6 * size * size);
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    final int i = y * verticesPerRow + x;
+                    indices.put(i).put(i + 1).put(i + verticesPerRow + 1);
+                    indices.put(i).put(i + verticesPerRow + 1).put(i + verticesPerRow);
+                }
+            }
+            indices.flip();
+
+            final Coordinate3 coords = new Coordinate3();
+            coords.setData(data);
+            final IndexedTriangleSet mesh = new IndexedTriangleSet();
+            mesh.setIndices(indices);
+            root = new Group();
+            root.addChild(coords);
+            root.addChild(mesh);
+
+            // Builds the picking hierarchy
+            final RayPickAction action = new RayPickAction();
+            action.setRay(new Line(new Vector3f(0, 0, -1), new Vector3f(0, 0, 10)));
+            action.apply(root);
+        }
+    }
+
+    /**
+     * The action and rays used by one benchmark thread
+     */
+    @State(Scope.Thread)
+    public static class Picker {
+        /**
+         * Whether to collect all points along the ray or only the closest one
+         */
+        @Param({"true", "false"})
+        private boolean pickAll;
+
+        private RayPickAction action;
+        private Line[] rays;
+        private int next;
+
+        @Setup
+        public void setup(final Scene scene) {
+            action = new RayPickAction();
+            action.setPickAll(pickAll);
+            final Random random = new Random(42);
+            rays = new Line[NUM_RAYS];
+            for (int i = 0; i < NUM_RAYS; i++) {
+                // Slanted rays from above, each crossing several rows of the grid
+                final Vector3f target = new Vector3f(random.nextFloat() * scene.size, random.nextFloat() * scene.size, 0);
+                final Vector3f direction = new Vector3f(random.nextFloat() - 0.5f, random.nextFloat() - 0.5f, -1);
+                final Vector3f origin = new Vector3f(direction);
+                origin.scale(-10);
+                origin.add(target);
+                rays[i] = new Line(direction, origin);
+            }
+        }
+    }
+
+    @Benchmark
+    public PickedPoint pick(final Scene scene, final Picker picker) {
+        final RayPickAction action = picker.action;
+        action.setRay(picker.rays[picker.next++ & (NUM_RAYS - 1)]);
+        action.apply(scene.root);
+        return action.getPickedPoint();
+    }
+}
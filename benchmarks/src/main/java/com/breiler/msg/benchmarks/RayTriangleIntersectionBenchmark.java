@@ -0,0 +1,58 @@
+package com.breiler.msg.benchmarks;
+
+import com.breiler.msg.impl.RayTriangleIntersection;
+import com.breiler.msg.math.Line;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.vecmath.Vector3f;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a single ray-triangle test for a ray hitting the triangle
+ * and for one missing it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RayTriangleIntersectionBenchmark {
+    private RayTriangleIntersection intersection;
+    private Vector3f v0;
+    private Vector3f v1;
+    private Vector3f v2;
+    private Vector3f tuv;
+    private Line hittingRay;
+    private Line missingRay;
+
+    @Setup
+    public void setup() {
+        intersection = new RayTriangleIntersection();
+        v0 = new Vector3f(-1, -1, 0);
+        v1 = new Vector3f(1, -1, 0);
+        v2 = new Vector3f(0, 1, 0);
+        tuv = new Vector3f();
+        hittingRay = new Line(new Vector3f(0.02f, 0.01f, -1), new Vector3f(0, 0, 5));
+        missingRay = new Line(new Vector3f(0.1f, 0.05f, -1), new Vector3f(3, 3, 5));
+    }
+
+    @Benchmark
+    public boolean hit() {
+        return intersection.intersectTriangle(hittingRay, v0, v1, v2, tuv);
+    }
+
+    @Benchmark
+    public boolean miss() {
+        return intersection.intersectTriangle(missingRay, v0, v1, v2, tuv);
+    }
+}
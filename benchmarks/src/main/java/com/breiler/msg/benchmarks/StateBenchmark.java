@@ -0,0 +1,106 @@
+package com.breiler.msg.benchmarks;
+
+import com.breiler.msg.collections.Vec3fCollection;
+import com.breiler.msg.elements.ColorElement;
+import com.breiler.msg.elements.CoordinateElement;
+import com.breiler.msg.elements.ModelMatrixElement;
+import com.breiler.msg.elements.TextureCoordinateElement;
+import com.breiler.msg.misc.State;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.vecmath.Matrix4f;
+import javax.vecmath.Vector3f;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures pushing and popping the traversal state and the lazy
+ * pushing of elements when they are first accessed at a new depth.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@org.openjdk.jmh.annotations.State(Scope.Thread)
+public class StateBenchmark {
+    private static final int NESTING = 8;
+
+    private State state;
+    private Matrix4f matrix;
+    private Vec3fCollection coords;
+
+    @Setup
+    public void setup() {
+        final State defaults = new State();
+        ModelMatrixElement.enable(defaults);
+        CoordinateElement.enable(defaults);
+        ColorElement.enable(defaults);
+        TextureCoordinateElement.enable(defaults);
+        state = new State(defaults);
+        matrix = new Matrix4f();
+        matrix.setIdentity();
+        matrix.setTranslation(new Vector3f(1, 2, 3));
+        coords = new Vec3fCollection();
+        coords.add(new Vector3f());
+    }
+
+    /**
+     * Pushes and pops without touching any element.
+     */
+    @Benchmark
+    public void pushPop() {
+        state.push();
+        state.pop();
+    }
+
+    /**
+     * Reads an element at the current depth, which never pushes it.
+     */
+    @Benchmark
+    public Matrix4f getElement() {
+        return ModelMatrixElement.getInstance(state).getMatrix();
+    }
+
+    /**
+     * Pushes, modifies two elements, which pushes them as well, and
+     * pops, as a group holding a transform and coordinates does.
+     */
+    @Benchmark
+    public Matrix4f pushModifyPop() {
+        state.push();
+        try {
+            ModelMatrixElement.mult(state, matrix);
+            CoordinateElement.set(state, coords);
+            return ModelMatrixElement.getInstance(state).getMatrix();
+        } finally {
+            state.pop();
+        }
+    }
+
+    /**
+     * Pushes and modifies the state several levels deep before popping
+     * all of it again.
+     */
+    @Benchmark
+    public Matrix4f nestedPushModifyPop() {
+        Matrix4f result = null;
+        for (int i = 0; i < NESTING; i++) {
+            state.push();
+            ModelMatrixElement.mult(state, matrix);
+            CoordinateElement.set(state, coords);
+            result = ModelMatrixElement.getInstance(state).getMatrix();
+        }
+        for (int i = 0; i < NESTING; i++) {
+            state.pop();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,145 @@
+package com.breiler.msg.benchmarks;
+
+import com.breiler.msg.actions.Action;
+import com.breiler.msg.actions.GetBoundingBoxAction;
+import com.breiler.msg.collections.Vec3fCollection;
+import com.breiler.msg.elements.CoordinateElement;
+import com.breiler.msg.elements.ModelMatrixElement;
+import com.breiler.msg.misc.ActionTable;
+import com.breiler.msg.misc.State;
+import com.breiler.msg.nodes.Coordinate3;
+import com.breiler.msg.nodes.Group;
+import com.breiler.msg.nodes.Node;
+import com.breiler.msg.nodes.TriangleSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.vecmath.Vector3f;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of traversing a tree of transformed groups, each
+ * level holding coordinates and a shape, without any OpenGL work.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@org.openjdk.jmh.annotations.State(Scope.Thread)
+public class TraversalBenchmark {
+    /**
+     * Number of child groups per group
+     */
+    @Param({"4", "10"})
+    private int fanOut;
+
+    /**
+     * Number of levels of groups below the root
+     */
+    @Param({"3", "5"})
+    private int depth;
+
+    private Group root;
+    private CountingAction countingAction;
+    private GetBoundingBoxAction boundsAction;
+
+    @Setup
+    public void setup() {
+        final Coordinate3 coords = new Coordinate3();
+        final Vec3fCollection data = new Vec3fCollection();
+        data.add(new Vector3f(0, 0, 0));
+        data.add(new Vector3f(1, 0, 0));
+        data.add(new Vector3f(0, 1, 0));
+        coords.setData(data);
+        root = createTree(depth, coords, new TriangleSet());
+        countingAction = new CountingAction();
+        boundsAction = new GetBoundingBoxAction();
+        // Fill the bounds caches so that the benchmark below measures
+        // their validation
+        boundsAction.apply(root);
+    }
+
+    /**
+     * Visits every node, pushing and popping the state and
+     * accumulating the model matrix in every group.
+     */
+    @Benchmark
+    public int traverse() {
+        countingAction.apply(root);
+        return countingAction.getCount();
+    }
+
+    /**
+     * Computes the bounds of a graph whose bounds are already cached.
+     */
+    @Benchmark
+    public Object boundingBoxCached() {
+        boundsAction.apply(root);
+        return boundsAction.getBoundingBox();
+    }
+
+    private Group createTree(final int levels, final Coordinate3 coords, final TriangleSet shape) {
+        final Group group = new Group();
+        group.getTransform().setTranslation(new Vector3f(1, 0, 0));
+        group.addChild(coords);
+        group.addChild(shape);
+        if (levels > 0) {
+            for (int i = 0; i < fanOut; i++) {
+                group.addChild(createTree(levels - 1, coords, shape));
+            }
+        }
+        return group;
+    }
+
+    /**
+     * A minimal action which counts the nodes it visits and otherwise
+     * only lets them update the model matrix and coordinates.
+     */
+    public static class CountingAction extends Action {
+        private static final State defaults = new State();
+        private static final ActionTable<CountingAction> table = new ActionTable<>(CountingAction.class);
+
+        static {
+            ModelMatrixElement.enable(defaults);
+            CoordinateElement.enable(defaults);
+            table.addActionMethod(Node.class, (CountingAction action, Node node) -> {
+                action.count++;
+                node.doAction(action);
+            });
+        }
+
+        private final State state = new State(defaults);
+        private int applyDepth;
+        private int count;
+
+        @Override
+        public void apply(final Node node) {
+            if (applyDepth++ == 0) {
+                count = 0;
+            }
+            try {
+                apply(table, node);
+            } finally {
+                --applyDepth;
+            }
+        }
+
+        @Override
+        public State getState() {
+            return state;
+        }
+
+        public int getCount() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.breiler.msg.benchmarks;
+
+import com.breiler.msg.collections.Vec3fCollection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.vecmath.Vector3f;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures filling, reading, writing and removing from a
+ * Vec3fCollection of a given size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class Vec3fCollectionBenchmark {
+    @Param({"1000", "100000"})
+    private int size;
+
+    private Vec3fCollection collection;
+    private Vector3f value;
+    private float[] values;
+
+    @Setup
+    public void setup() {
+        value = new Vector3f(1, 2, 3);
+        values = new float[3 * size];
+        collection = fill(new Vec3fCollection());
+    }
+
+    /**
+     * Adds all elements to a new collection, growing it as needed.
+     */
+    @Benchmark
+    public Vec3fCollection add() {
+        return fill(new Vec3fCollection());
+    }
+
+    /**
+     * Adds all elements to a new collection in a single bulk copy.
+     */
+    @Benchmark
+    public Vec3fCollection addAll() {
+        final Vec3fCollection target = new Vec3fCollection();
+        target.addAll(values, 0, size);
+        return target;
+    }
+
+    @Benchmark
+    public void get(final Blackhole blackhole) {
+        for (int i = 0; i < size; i++) {
+            blackhole.consume(collection.get(i));
+        }
+    }
+
+    /**
+     * Reads all elements into a single reused vector.
+     */
+    @Benchmark
+    public void getInto(final Blackhole blackhole) {
+        final Vector3f dest = new Vector3f();
+        for (int i = 0; i < size; i++) {
+            blackhole.consume(collection.get(i, dest).x);
+        }
+    }
+
+    /**
+     * Reads all elements into an array in a single bulk copy.
+     */
+    @Benchmark
+    public float[] getRange() {
+        collection.get(0, values, 0, size);
+        return values;
+    }
+
+    @Benchmark
+    public Vec3fCollection set() {
+        for (int i = 0; i < size; i++) {
+            collection.set(i, value);
+        }
+        return collection;
+    }
+
+    /**
+     * Removes the last element and adds it back, keeping the size constant.
+     */
+    @Benchmark
+    public Vec3fCollection removeLast() {
+        collection.add(collection.remove(size - 1));
+        return collection;
+    }
+
+    /**
+     * Removes the first element, moving all others down, and adds it back.
+     */
+    @Benchmark
+    public Vec3fCollection removeFirst() {
+        collection.add(collection.remove(0));
+        return collection;
+    }
+
+    /**
+     * Removes the first element by moving the last one into its place,
+     * and adds it back.
+     */
+    @Benchmark
+    public Vec3fCollection swapRemoveFirst() {
+        collection.swapRemove(0);
+        collection.add(value);
+        return collection;
+    }
+
+    private Vec3fCollection fill(final Vec3fCollection target) {
+        for (int i = 0; i < size; i++) {
+            target.add(value);
+        }
+        return target;
+    }
+}
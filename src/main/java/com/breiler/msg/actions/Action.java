@@ -42,7 +42,7 @@ import com.breiler.msg.misc.Path;
 import com.breiler.msg.misc.State;
 import com.breiler.msg.nodes.Node;
 
-import java.lang.reflect.Method;
+import java.util.function.BiConsumer;
 
 /**
  * The base class of all actions, which are applied to nodes in the
@@ -57,15 +57,26 @@ import java.lang.reflect.Method;
  * from this default. Note that different actions may enable
  * different elements of the global state. <P>
  * <p>
- * Subclasses of Action should also define, by convention, a method <BR>
+ * Subclasses of Action should also define, by convention, the methods <BR>
  * <PRE>  public static void addActionMethod(Class&lt;? extends Node&gt; nodeType, Method m)</PRE>
- * which is used to add action methods to the particular Action
- * class. This may be used by developers to attach new functionality
+ * <PRE>  public static &lt;N extends Node&gt; void addActionMethod(Class&lt;N&gt; nodeType, BiConsumer&lt;? super [Action subclass], ? super N&gt; m)</PRE>
+ * which are used to add action methods to the particular Action
+ * class. These may be used by developers to attach new functionality
  * to the Action for new node types they define.
+ * <P>
+ * <b>Thread safety.</b> An Action instance, along with its State and
+ * Path, must only be used by one thread at a time. Separate instances
+ * may traverse the same scene graph concurrently, provided that the
+ * graph is not being modified during the traversals and that the
+ * actions do not touch OpenGL. {@link RayPickAction RayPickAction} is
+ * such an action, so for example hover picking and selection can run
+ * on worker threads, each with its own RayPickAction, while the
+ * rendering thread applies a {@link GLRenderAction GLRenderAction}.
+ * Registering action methods is thread-safe, but is normally done from
+ * static initializers before traversal starts.
  */
 
 public abstract class Action {
-    private final Object[] argTmp = new Object[2];
     private final Path path = new Path();
 
     /**
@@ -92,21 +103,15 @@ public abstract class Action {
     /**
      * Invokes the appropriate action method for the given Node.
      */
-    protected void apply(ActionTable table, Node node) {
-        try {
-            Method m = table.lookupActionMethod(node);
-            if (m != null) {
-                argTmp[0] = this;
-                argTmp[1] = node;
-                push(node);
-                try {
-                    m.invoke(null, argTmp);
-                } finally {
-                    pop();
-                }
+    protected void apply(ActionTable<?> table, Node node) {
+        BiConsumer<Action, Node> m = table.lookupInvoker(node);
+        if (m != null) {
+            push(node);
+            try {
+                m.accept(this, node);
+            } finally {
+                pop();
             }
-        } catch (Exception e) {
-            throw new RuntimeException(e);
         }
     }
 
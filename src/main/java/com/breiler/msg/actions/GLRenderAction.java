@@ -38,13 +38,26 @@
 package com.breiler.msg.actions;
 
 import java.lang.reflect.Method;
+import java.util.function.BiConsumer;
 
+import com.breiler.msg.elements.ModelMatrixElement;
+import com.breiler.msg.elements.ProjectionMatrixElement;
+import com.breiler.msg.elements.ViewingMatrixElement;
+import com.breiler.msg.math.Box3f;
+import com.breiler.msg.math.Frustum;
+import com.breiler.msg.math.Sphere3f;
 import com.breiler.msg.misc.ActionTable;
+import com.breiler.msg.misc.SceneUpdateQueue;
 import com.breiler.msg.misc.State;
 import com.jogamp.opengl.GL2;
 import com.jogamp.opengl.glu.GLU;
 
 import com.breiler.msg.nodes.Node;
+import com.breiler.msg.nodes.Shape;
+
+import javax.vecmath.Matrix4f;
+import javax.vecmath.Point3f;
+import javax.vecmath.Tuple3f;
 
 /** An action which performs rendering of a scene graph via OpenGL. <P>
 
@@ -54,7 +67,22 @@ import com.breiler.msg.nodes.Node;
     initializes enough OpenGL state to isolate itself, at least in
     theory, from any surrounding OpenGL state that the application may
     have set up. There should in theory be no user-visible OpenGL side
-    effects as a result of rendering with this action.
+    effects as a result of rendering with this action. <P>
+
+    If {@link #setCullingEnabled culling} is enabled, Group nodes
+    whose bounds lie outside the view frustum of the current camera,
+    or project to fewer than a {@link #setMinPixelSize minimum number
+    of pixels}, are skipped along with all of their children. The
+    bounds are the ones cached by the {@link GetBoundingBoxAction},
+    which this action applies to the scene graph before rendering it;
+    nodes whose data other than their transform is modified in place
+    must be {@link Node#touch touched} for culling to pick up the
+    change. <P>
+
+    Threads other than the one rendering may not modify the scene
+    graph directly; they can instead enqueue their changes in a {@link
+    SceneUpdateQueue} {@link #setUpdateQueue set on} this action, which
+    applies them before rendering each frame.
 */
 
 public class GLRenderAction extends Action {
@@ -64,7 +92,7 @@ public class GLRenderAction extends Action {
   public static State getDefaultState() {
     return defaults;
   }
-  private static final ActionTable table = new ActionTable(GLRenderAction.class);
+  private static final ActionTable<GLRenderAction> table = new ActionTable<>(GLRenderAction.class);
 
   /** Adds an action method for the given node type to this action.
       This should only be called by developers adding new node types
@@ -73,6 +101,15 @@ public class GLRenderAction extends Action {
     table.addActionMethod(nodeType, m);
   }
 
+  /** Adds an action method for the given node type to this action in
+      the form of a method reference or lambda expression, avoiding
+      reflection. This should only be called by developers adding new
+      node types and not desiring to use the standard overriding
+      mechanisms. */
+  public static <N extends Node> void addActionMethod(Class<N> nodeType, BiConsumer<? super GLRenderAction, ? super N> m) {
+    table.addActionMethod(nodeType, m);
+  }
+
   private final State state = new State(defaults);
   public State getState() {
     return state;
@@ -86,11 +123,7 @@ public class GLRenderAction extends Action {
     // class. However, factoring the setting of the elements into the
     // nodes provides for more sharing of common functionality among
     // actions.
-    try {
-      addActionMethod(Node.class, GLRenderAction.class.getMethod("render", GLRenderAction.class, Node.class));
-    } catch (Exception e) {
-      throw new RuntimeException("Error initializing action method for GLRenderAction class", e);
-    }
+    addActionMethod(Node.class, GLRenderAction::render);
   }
 
   // For automatically setting the aspect ratios of cameras we encounter
@@ -98,11 +131,47 @@ public class GLRenderAction extends Action {
 
   private int applyDepth = 0;
   private GL2 gl;
+  private final int[] viewport = new int[4];
+
+  // View-frustum culling
+  private boolean cullingEnabled;
+  private float minPixelSize;
+  private GetBoundingBoxAction boundsAction;
+  private final Frustum frustum = new Frustum();
+  private boolean frustumValid;
+  // Whether a camera has loaded the viewing and projection matrices
+  // during the current traversal; until then they are the identity
+  private boolean cameraSeen;
+  // The matrices the frustum was computed from, and their product
+  private final Matrix4f frustumViewing = new Matrix4f();
+  private final Matrix4f frustumProjection = new Matrix4f();
+  private final Matrix4f projView = new Matrix4f();
+  // Scratch storage for transforming bounds into world coordinates
+  private final Box3f tmpBox = new Box3f();
+  private final Sphere3f tmpSphere = new Sphere3f();
+  private final Point3f tmpPoint = new Point3f();
+
+  // Changes made by other threads, applied before each frame
+  private volatile SceneUpdateQueue updateQueue;
+
+  // Statistics for the last frame
+  private int numCulled;
+  private int numDrawn;
 
   public void apply(Node node) {
+    if (applyDepth == 0) {
+      SceneUpdateQueue queue = updateQueue;
+      if (queue != null) {
+        queue.apply();
+      }
+    }
     int depth = applyDepth++;
     try {
       if (depth == 0) {
+        numCulled = 0;
+        numDrawn = 0;
+        frustumValid = false;
+        cameraSeen = false;
         gl = GLU.getCurrentGL().getGL2();
         // Applying to the root of the scene graph
         // Push necessary GL state
@@ -120,9 +189,16 @@ public class GLRenderAction extends Action {
         gl.glDisableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
         // FIXME: should add in disabling of normal array
         // Figure out the aspect ratio of the current viewport
-        int[] viewport = new int[4];
         gl.glGetIntegerv(GL2.GL_VIEWPORT, viewport, 0);
         curAspectRatio = (float) viewport[2] / (float) viewport[3];
+        if (cullingEnabled) {
+          // Brings the bounds cached in the scene graph up to date;
+          // cheap if little has changed since the last frame
+          if (boundsAction == null) {
+            boundsAction = new GetBoundingBoxAction();
+          }
+          boundsAction.apply(node);
+        }
       }
       apply(table, node);
     } finally {
@@ -135,6 +211,21 @@ public class GLRenderAction extends Action {
     }
   }
 
+  /** Sets the queue whose changes are applied to the scene graph
+      each time this action is applied to its root, before anything is
+      rendered. Defaults to null. If a change throws an exception, the
+      exception is propagated after the remaining changes have been
+      applied and the frame is not rendered. */
+  public void setUpdateQueue(SceneUpdateQueue updateQueue) {
+    this.updateQueue = updateQueue;
+  }
+
+  /** Returns the queue whose changes are applied to the scene graph
+      before each frame, or null if there is none. */
+  public SceneUpdateQueue getUpdateQueue() {
+    return updateQueue;
+  }
+
   /** Returns the GL instance being used for rendering. */
   public GL2 getGL() {
     return gl;
@@ -146,8 +237,158 @@ public class GLRenderAction extends Action {
     return curAspectRatio;
   }
 
+  /** Sets whether this action skips Group nodes whose bounds are not
+      visible. Defaults to false. */
+  public void setCullingEnabled(boolean cullingEnabled) {
+    this.cullingEnabled = cullingEnabled;
+  }
+
+  /** Indicates whether this action skips Group nodes whose bounds are
+      not visible. */
+  public boolean isCullingEnabled() {
+    return cullingEnabled;
+  }
+
+  /** Sets the size in pixels below which the projected bounding
+      sphere of a Group node causes it to be skipped when culling is
+      enabled. Defaults to 0, which only culls against the view
+      frustum. */
+  public void setMinPixelSize(float minPixelSize) {
+    this.minPixelSize = minPixelSize;
+  }
+
+  /** Returns the size in pixels below which Group nodes are skipped
+      when culling is enabled. */
+  public float getMinPixelSize() {
+    return minPixelSize;
+  }
+
+  /** Returns the number of Group nodes skipped by culling during the
+      last traversal. */
+  public int getNumCulled() {
+    return numCulled;
+  }
+
+  /** Returns the number of Shape nodes rendered during the last
+      traversal. */
+  public int getNumDrawn() {
+    return numDrawn;
+  }
+
+  /** Called by cameras during scene graph traversal once they have
+      loaded the viewing and projection matrices. End users should not
+      need to call this method. */
+  public void cameraSet() {
+    cameraSeen = true;
+  }
+
+  /** Called during scene graph traversal to determine whether a node
+      with the given bounds, relative to the current model matrix,
+      should be skipped, in which case it is counted as culled. Always
+      returns false if culling is disabled or no camera has been
+      encountered yet. End users should not need to call this
+      method. */
+  public boolean cull(Box3f localBox, Sphere3f localSphere) {
+    if (!cullingEnabled ||
+        !cameraSeen ||
+        !ViewingMatrixElement.isEnabled(state) ||
+        !ProjectionMatrixElement.isEnabled(state)) {
+      return false;
+    }
+    Matrix4f viewing = ViewingMatrixElement.getInstance(state).getMatrix();
+    Matrix4f projection = ProjectionMatrixElement.getInstance(state).getMatrix();
+    if (!frustumValid ||
+        !frustumViewing.equals(viewing) ||
+        !frustumProjection.equals(projection)) {
+      frustumViewing.set(viewing);
+      frustumProjection.set(projection);
+      projView.mul(projection, viewing);
+      frustum.set(projView);
+      frustumValid = true;
+    }
+
+    Matrix4f model = ModelMatrixElement.getInstance(state).getMatrix();
+    tmpSphere.set(localSphere);
+    tmpSphere.transform(model);
+    boolean culled;
+    if (!frustum.intersects(tmpSphere)) {
+      culled = true;
+    } else {
+      tmpBox.set(localBox);
+      tmpBox.transform(model);
+      culled = !frustum.intersects(tmpBox) || isTooSmall(tmpSphere);
+    }
+    if (culled) {
+      ++numCulled;
+    }
+    return culled;
+  }
+
+  /** Returns the distance from the eye of the current camera to the
+      given point, relative to the current model matrix, or 0 if no
+      camera has been encountered. Used by nodes such as {@link
+      com.breiler.msg.nodes.LOD LOD} which adapt to the view. End
+      users should not need to call this method. */
+  public float getEyeDistance(Tuple3f point) {
+    if (!cameraSeen || !ViewingMatrixElement.isEnabled(state)) {
+      return 0;
+    }
+    tmpPoint.set(point);
+    ModelMatrixElement.getInstance(state).getMatrix().transform(tmpPoint);
+    ViewingMatrixElement.getInstance(state).getMatrix().transform(tmpPoint);
+    return (float) Math.sqrt(tmpPoint.x * tmpPoint.x + tmpPoint.y * tmpPoint.y + tmpPoint.z * tmpPoint.z);
+  }
+
+  /** Returns the approximate radius in pixels of the given sphere,
+      relative to the current model matrix, when projected by the
+      current camera. Returns Float.POSITIVE_INFINITY if the sphere
+      reaches behind the eye, or no camera has been encountered. End
+      users should not need to call this method. */
+  public float getProjectedRadius(Sphere3f localSphere) {
+    if (!cameraSeen ||
+        !ViewingMatrixElement.isEnabled(state) ||
+        !ProjectionMatrixElement.isEnabled(state)) {
+      return Float.POSITIVE_INFINITY;
+    }
+    tmpSphere.set(localSphere);
+    tmpSphere.transform(ModelMatrixElement.getInstance(state).getMatrix());
+    return projectedRadius(tmpSphere,
+                           ViewingMatrixElement.getInstance(state).getMatrix(),
+                           ProjectionMatrixElement.getInstance(state).getMatrix());
+  }
+
   /** Action method which dispatches to per-node rendering functionality. */
   public static void render(GLRenderAction action, Node node) {
+    if (node instanceof Shape) {
+      ++action.numDrawn;
+    }
     node.render(action);
   }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private boolean isTooSmall(Sphere3f sphere) {
+    if (minPixelSize <= 0) {
+      return false;
+    }
+    return projectedRadius(sphere, frustumViewing, frustumProjection) < minPixelSize;
+  }
+
+  private float projectedRadius(Sphere3f sphere, Matrix4f viewing, Matrix4f projection) {
+    // The w coordinate in clip space is the distance along the view
+    // direction for perspective projections and 1 for orthographic
+    // ones; the second diagonal element of the projection matrix
+    // scales from there to normalized device coordinates
+    tmpPoint.set(sphere.getCenter());
+    viewing.transform(tmpPoint);
+    float w = projection.getM30() * tmpPoint.x + projection.getM31() * tmpPoint.y +
+      projection.getM32() * tmpPoint.z + projection.getM33();
+    if (w <= sphere.getRadius()) {
+      // Too close to the eye to estimate
+      return Float.POSITIVE_INFINITY;
+    }
+    return sphere.getRadius() * Math.abs(projection.getM11()) / w * viewport[3];
+  }
 }
@@ -38,9 +38,11 @@
 package com.breiler.msg.actions;
 
 import java.lang.reflect.Method;
+import java.util.function.BiConsumer;
 
 import com.breiler.msg.misc.ActionTable;
 import com.breiler.msg.misc.State;
+import com.breiler.msg.nodes.InstancedShape;
 import com.breiler.msg.nodes.Node;
 import com.breiler.msg.nodes.ShaderNode;
 import com.breiler.msg.nodes.Texture2;
@@ -57,7 +59,7 @@ public class GLResetAction extends Action {
   public static State getDefaultState() {
     return defaults;
   }
-  private static final ActionTable table = new ActionTable(GLResetAction.class);
+  private static final ActionTable<GLResetAction> table = new ActionTable<>(GLResetAction.class);
 
   /** Adds an action method for the given node type to this action.
       This should only be called by developers adding new node types
@@ -66,6 +68,15 @@ public class GLResetAction extends Action {
     table.addActionMethod(nodeType, m);
   }
 
+  /** Adds an action method for the given node type to this action in
+      the form of a method reference or lambda expression, avoiding
+      reflection. This should only be called by developers adding new
+      node types and not desiring to use the standard overriding
+      mechanisms. */
+  public static <N extends Node> void addActionMethod(Class<N> nodeType, BiConsumer<? super GLResetAction, ? super N> m) {
+    table.addActionMethod(nodeType, m);
+  }
+
   private final State state = new State(defaults);
   public State getState() {
     return state;
@@ -78,13 +89,9 @@ public class GLResetAction extends Action {
     // attach individual action methods for a couple of node classes
     // to avoid baking in the resetGL notion, which has not been fully
     // thought through yet, at the base Node level.
-    try {
-      addActionMethod(Texture2.class,   GLResetAction.class.getMethod("resetGL", GLResetAction.class, Texture2.class));
-      addActionMethod(ShaderNode.class, GLResetAction.class.getMethod("resetGL", GLResetAction.class, ShaderNode.class));
-      // FIXME: add something for the ShaderNode
-    } catch (Exception e) {
-      throw new RuntimeException("Error initializing action methods for GLResetAction class", e);
-    }
+    addActionMethod(Texture2.class,   GLResetAction::resetGL);
+    addActionMethod(ShaderNode.class, GLResetAction::resetGL);
+    addActionMethod(InstancedShape.class, GLResetAction::resetGL);
   }
 
   public void apply(Node node) {
@@ -100,4 +107,9 @@ public class GLResetAction extends Action {
   public static void resetGL(GLResetAction action, ShaderNode node) {
     node.resetGL(action);
   }
+
+  /** Action method which dispatches to per-node rendering functionality. */
+  public static void resetGL(GLResetAction action, InstancedShape node) {
+    node.resetGL(action);
+  }
 }
@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package com.breiler.msg.actions;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+import com.breiler.msg.collections.Versioned;
+import com.breiler.msg.elements.BoundingBoxElement;
+import com.breiler.msg.elements.ModelMatrixElement;
+import com.breiler.msg.math.Box3f;
+import com.breiler.msg.math.Sphere3f;
+import com.breiler.msg.misc.ActionTable;
+import com.breiler.msg.misc.BoundsCache;
+import com.breiler.msg.misc.State;
+import com.breiler.msg.nodes.Node;
+
+/** An action which computes the world-space bounding box and
+    bounding sphere of a scene graph. <P>
+
+    Nodes cache the bounds they compute. A Group caches the bounds of
+    its children relative to the coordinate system it is in, along
+    with the versions of the coordinate collections they were derived
+    from, so applying this action repeatedly to an unchanged scene
+    graph does not visit any vertices and does not descend into
+    unchanged subtrees. Adding or removing children, fetching a
+    transform to modify it and calling {@link Node#touch Node.touch}
+    invalidate the cached bounds of a node and its ancestors; changes
+    to the contents of coordinate collections are detected through
+    their versions. */
+
+public class GetBoundingBoxAction extends Action {
+  // Boilerplate
+  private static final State defaults = new State();
+  /** Returns the default state all instances of this class are initialized with. */
+  public static State getDefaultState() {
+    return defaults;
+  }
+  private static final ActionTable<GetBoundingBoxAction> table = new ActionTable<>(GetBoundingBoxAction.class);
+
+  /** Adds an action method for the given node type to this action.
+      This should only be called by developers adding new node types
+      and not desiring to use the standard overriding mechanisms. */
+  public static void addActionMethod(Class<? extends Node> nodeType, Method m) {
+    table.addActionMethod(nodeType, m);
+  }
+
+  /** Adds an action method for the given node type to this action in
+      the form of a method reference or lambda expression, avoiding
+      reflection. This should only be called by developers adding new
+      node types and not desiring to use the standard overriding
+      mechanisms. */
+  public static <N extends Node> void addActionMethod(Class<N> nodeType, BiConsumer<? super GetBoundingBoxAction, ? super N> m) {
+    table.addActionMethod(nodeType, m);
+  }
+
+  private final State state = new State(defaults);
+  public State getState() {
+    return state;
+  }
+
+  static {
+    // The elements this action can not do without, regardless of
+    // which node classes have been loaded
+    BoundingBoxElement.enable(defaults);
+    ModelMatrixElement.enable(defaults);
+
+    // Set up action methods
+    addActionMethod(Node.class, GetBoundingBoxAction::getBoundingBox);
+  }
+
+  private int applyDepth = 0;
+
+  // The results of the last traversal
+  private final Box3f box = new Box3f();
+  private final Sphere3f sphere = new Sphere3f();
+
+  // The coordinate collections read since the currently open bounds
+  // caches were begun, along with their versions. Each open cache
+  // remembers where its entries start; entries stay in place when a
+  // cache ends so that they also count for the enclosing ones.
+  private Versioned[] depCollections = new Versioned[16];
+  private int[] depVersions = new int[16];
+  private int numDeps;
+  private int[] cacheStarts = new int[8];
+  private int numOpenCaches;
+
+  public void apply(Node node) {
+    int depth = applyDepth++;
+    try {
+      if (depth == 0) {
+        numDeps = 0;
+        numOpenCaches = 0;
+        // Keep nodes at the top level from modifying the state seen
+        // by the next traversal
+        state.push();
+      }
+      apply(table, node);
+    } finally {
+      --applyDepth;
+      if (depth == 0) {
+        BoundingBoxElement elt = BoundingBoxElement.getInstance(state);
+        box.set(elt.getBox());
+        sphere.set(elt.getSphere());
+        state.pop();
+      }
+    }
+  }
+
+  /** Returns the world-space bounding box computed during the last
+      traversal. The box is empty if no geometry was found. */
+  public Box3f getBoundingBox() {
+    return box;
+  }
+
+  /** Returns the world-space bounding sphere computed during the last
+      traversal. The sphere is empty if no geometry was found. */
+  public Sphere3f getBoundingSphere() {
+    return sphere;
+  }
+
+  /** Starts recording the coordinate collections bounds are computed
+      from, for a node about to compute and cache its bounds. Must be
+      paired with a call to {@link #endCache endCache}. End users
+      should not need to call this method. */
+  public void beginCache() {
+    if (numOpenCaches == cacheStarts.length) {
+      cacheStarts = Arrays.copyOf(cacheStarts, 2 * numOpenCaches);
+    }
+    cacheStarts[numOpenCaches++] = numDeps;
+  }
+
+  /** Finishes recording started by the matching {@link #beginCache
+      beginCache} call and returns a cache entry holding copies of the
+      given bounds along with the collections recorded in between. The
+      inherited collection is the one in effect when the node was
+      reached. End users should not need to call this method. */
+  public BoundsCache endCache(Box3f box, Sphere3f sphere, Versioned inherited) {
+    int start = cacheStarts[--numOpenCaches];
+    Versioned[] collections = Arrays.copyOfRange(depCollections, start, numDeps);
+    int[] versions = Arrays.copyOfRange(depVersions, start, numDeps);
+    if (numOpenCaches == 0) {
+      // Nobody is interested in these any more
+      Arrays.fill(depCollections, 0, numDeps, null);
+      numDeps = 0;
+    }
+    return new BoundsCache(box, sphere, collections, versions, inherited);
+  }
+
+  /** Records that bounds computed during this traversal depend on the
+      given coordinate collection. A null collection indicates
+      coordinate data which can not be tracked, and prevents the
+      enclosing bounds from being cached. End users should not need
+      to call this method. */
+  public void addDependency(Versioned collection) {
+    addDependency(collection, (collection != null) ? collection.getVersion() : 0);
+  }
+
+  /** Records that bounds computed during this traversal depend on the
+      collections the given cached bounds were computed from. End
+      users should not need to call this method. */
+  public void addDependencies(BoundsCache cache) {
+    for (int i = 0, n = cache.getNumDependencies(); i < n; i++) {
+      addDependency(cache.getDependency(i), cache.getDependencyVersion(i));
+    }
+  }
+
+  /** Action method which dispatches to per-node bounding box functionality. */
+  public static void getBoundingBox(GetBoundingBoxAction action, Node node) {
+    node.getBoundingBox(action);
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private void addDependency(Versioned collection, int version) {
+    if (numOpenCaches == 0) {
+      return;
+    }
+    // Siblings frequently share their coordinates; only record them once
+    if (numDeps > cacheStarts[numOpenCaches - 1] &&
+        depCollections[numDeps - 1] == collection &&
+        depVersions[numDeps - 1] == version) {
+      return;
+    }
+    if (numDeps == depCollections.length) {
+      depCollections = Arrays.copyOf(depCollections, 2 * numDeps);
+      depVersions = Arrays.copyOf(depVersions, 2 * numDeps);
+    }
+    depCollections[numDeps] = collection;
+    depVersions[numDeps] = version;
+    ++numDeps;
+  }
+}
@@ -39,10 +39,13 @@ package com.breiler.msg.actions;
 
 import java.awt.Component;
 import java.lang.reflect.Method;
+import java.util.function.BiConsumer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import com.breiler.msg.elements.ModelMatrixElement;
+import com.breiler.msg.math.Box3f;
 import com.breiler.msg.math.Line;
 import com.breiler.msg.misc.ActionTable;
 import com.breiler.msg.misc.PickedPoint;
@@ -59,7 +62,7 @@ public class RayPickAction extends Action {
   public static State getDefaultState() {
     return defaults;
   }
-  private static final ActionTable table = new ActionTable(RayPickAction.class);
+  private static final ActionTable<RayPickAction> table = new ActionTable<>(RayPickAction.class);
 
   /** Adds an action method for the given node type to this action.
       This should only be called by developers adding new node types
@@ -68,6 +71,15 @@ public class RayPickAction extends Action {
     table.addActionMethod(nodeType, m);
   }
 
+  /** Adds an action method for the given node type to this action in
+      the form of a method reference or lambda expression, avoiding
+      reflection. This should only be called by developers adding new
+      node types and not desiring to use the standard overriding
+      mechanisms. */
+  public static <N extends Node> void addActionMethod(Class<N> nodeType, BiConsumer<? super RayPickAction, ? super N> m) {
+    table.addActionMethod(nodeType, m);
+  }
+
   private final State state = new State(defaults);
   public State getState() {
     return state;
@@ -81,11 +93,7 @@ public class RayPickAction extends Action {
     // class. However, factoring the setting of the elements into the
     // nodes provides for more sharing of common functionality among
     // actions.
-    try {
-      addActionMethod(Node.class, RayPickAction.class.getMethod("rayPick", RayPickAction.class, Node.class));
-    } catch (Exception e) {
-      throw new RuntimeException("Error initializing action method for RayPickAction class", e);
-    }
+    addActionMethod(Node.class, RayPickAction::rayPick);
   }
 
   private int applyDepth = 0;
@@ -93,6 +101,24 @@ public class RayPickAction extends Action {
   private Line ray;
 
   private Line computedRay;
+  // Storage for the ray computed from the normalized point
+  private final Line cameraRay = new Line();
+
+  private boolean pickAll = true;
+
+  // The nearest point picked so far when only picking the closest one
+  private PickedPoint closestPoint;
+  private float closestT;
+
+  // The instance of an InstancedShape currently being picked, or -1
+  private int instanceIndex = -1;
+
+  // Computes the bounds of groups reached without valid cached bounds
+  // when only picking the closest point, so that distant groups can
+  // be skipped by the following picks
+  private GetBoundingBoxAction boundsAction;
+  // Scratch storage for culling
+  private final Box3f box = new Box3f();
 
   static class RayPickedPoint implements Comparable<RayPickedPoint> {
     float t;
@@ -159,10 +185,27 @@ public class RayPickAction extends Action {
     normalizedPoint = null;
   }
 
+  /** Sets whether this action collects every point along the ray,
+      which is the default, or only the one closest to the camera.
+      When only the closest point is picked, shapes and groups lying
+      entirely beyond the nearest point found so far are skipped and
+      paths are only copied for points closer than it, which makes
+      picking large scenes considerably cheaper. */
+  public void setPickAll(boolean pickAll) {
+    this.pickAll = pickAll;
+  }
+
+  /** Returns whether this action collects every point along the ray
+      or only the one closest to the camera. */
+  public boolean isPickAll() {
+    return pickAll;
+  }
+
   /** Returns the list of points this action selected during the last
       traversal, sorted in increasing order of distance from the
       camera. Typically applications will only need to deal with the
-      first point in the returned list. */
+      first point in the returned list. If the action is not picking
+      all points, the list contains at most one point. */
   public List<PickedPoint> getPickedPoints() {
     return pickedPoints;
   }
@@ -180,8 +223,9 @@ public class RayPickAction extends Action {
       RayPickAction is using for its picking. If the action is
       configured with on-screen coordinates instead of with a 3D ray,
       then this is automatically updated every time the action
-      traverses a Camera node. May return null if this has not been
-      computed yet. End users should not need to call this method. */
+      traverses a Camera node. Returns null if this has not been
+      computed yet in the current traversal. End users should not
+      need to call this method. */
   public Line getComputedRay() {
     return computedRay;
   }
@@ -191,33 +235,107 @@ public class RayPickAction extends Action {
       coordinates. End users should not need to call this method. */
   public void recomputeRay(Camera camera) {
     if (normalizedPoint != null && ray == null) {
-      if (computedRay == null) {
-        computedRay = new Line();
-      }
-      camera.unproject(normalizedPoint, computedRay);
+      camera.unproject(normalizedPoint, cameraRay);
+      computedRay = cameraRay;
     }
   }
 
+  /** Returns the distance along the computed ray beyond which points
+      are no longer of interest during scene graph traversal: the
+      distance to the nearest point picked so far when only the
+      closest point is picked, and infinity otherwise. Shapes may use
+      this to skip work, and should avoid creating PickedPoints for
+      intersections farther away than this. End users should not
+      need to call this method. */
+  public float getPickTMax() {
+    return pickAll ? Float.POSITIVE_INFINITY : closestT;
+  }
+
+  /** Called during scene graph traversal to test whether geometry
+      inside the given box, specified in the current local coordinate
+      system, can not yield any point of interest, because the ray
+      either misses the box or only enters it beyond {@link
+      #getPickTMax}. Returns true if the geometry can be skipped. End
+      users should not need to call this method. */
+  public boolean cull(Box3f localBox) {
+    if (computedRay == null || localBox.isEmpty()) {
+      return false;
+    }
+    box.set(localBox);
+    box.transform(ModelMatrixElement.getInstance(state).getMatrix());
+    return !box.intersects(computedRay, 0, getPickTMax());
+  }
+
+  /** Called during scene graph traversal by a node whose cached
+      bounds are out of date, to compute them along with those of the
+      nodes below it if they can be used to cull later picks. Does
+      nothing if all points are picked. The bounds are computed as if
+      the node was the root of the scene graph, so nodes inheriting
+      coordinates from above must not call this. End users should not
+      need to call this method. */
+  public void updateBounds(Node node) {
+    if (pickAll) {
+      return;
+    }
+    if (boundsAction == null) {
+      boundsAction = new GetBoundingBoxAction();
+    }
+    boundsAction.apply(node);
+  }
+
+  /** Called during scene graph traversal by shapes drawing their
+      geometry several times to set the index of the instance being
+      picked, which is recorded in the points added until it is reset
+      to -1. End users should not need to call this method. */
+  public void setInstanceIndex(int instanceIndex) {
+    this.instanceIndex = instanceIndex;
+  }
+
   /** Registers a picked point with the RayPickAction during scene
       graph traversal. The t argument is the time parameter indicating
-      the distance from the camera. A reference to the PickedPoint is
-      maintained internally so the caller should add a copy if the
-      original is still mutable. End users should not need to call
-      this method. */
+      the distance from the camera along the computed ray, in world
+      coordinates. A reference to the PickedPoint is maintained
+      internally so the caller should add a copy if the original is
+      still mutable. End users should not need to call this method. */
   public void addPickedPoint(PickedPoint p, float t) {
-    tempPickedPoints.add(new RayPickedPoint(t, p));
+    if (instanceIndex >= 0) {
+      p.setInstanceIndex(instanceIndex);
+    }
+    if (pickAll) {
+      tempPickedPoints.add(new RayPickedPoint(t, p));
+    } else if (t < closestT) {
+      closestPoint = p;
+      closestT = t;
+    }
   }
 
   private void reset() {
+    if (normalizedPoint != null) {
+      // The ray is recomputed by the first camera traversed; until
+      // then, nothing may be culled against the ray of the camera
+      // the previous traversal saw
+      computedRay = null;
+    }
     tempPickedPoints.clear();
     pickedPoints.clear();
+    closestPoint = null;
+    closestT = Float.POSITIVE_INFINITY;
+    instanceIndex = -1;
   }
 
   private void tabulate() {
+    if (!pickAll) {
+      if (closestPoint != null) {
+        pickedPoints.add(closestPoint);
+        closestPoint = null;
+      }
+      return;
+    }
     Collections.sort(tempPickedPoints);
     for (RayPickedPoint p : tempPickedPoints) {
       pickedPoints.add(p.point);
     }
+    tempPickedPoints.clear();
   }
 
   /** Action method which dispatches to per-node rendering functionality. */
@@ -0,0 +1,484 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package com.breiler.msg.collections;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import com.breiler.msg.impl.BufferFactory;
+
+import javax.vecmath.Vector3f;
+
+/** A collection of Vec3f objects stored in a sequence of direct
+    FloatBuffers, or segments, of fixed size rather than a single one.
+    It grows by appending segments, so existing data is never copied,
+    and is indexed with longs, so it can hold far more vectors than
+    fit into a single buffer. <P>
+
+    Every segment but the last is full, so the vector with a given
+    index is found in segment (index / {@link #getSegmentSize
+    getSegmentSize()}). Only the last segment may be smaller than the
+    segment size; it grows until it reaches the segment size before
+    another one is appended, so that small collections stay
+    small. <P>
+
+    Shapes drawing these coordinates issue one draw call per segment,
+    so primitives must not span segments: the segment size should be
+    a multiple of the number of vertices per primitive. The default
+    is a multiple of both two and three. Per-vertex colors and
+    texture coordinates are not applied to segmented coordinates. */
+
+public class SegmentedVec3fCollection implements Versioned {
+  /** The default number of Vec3fs per segment, nine megabytes worth. */
+  public static final int DEFAULT_SEGMENT_SIZE = 3 << 18;
+
+  // Largest segment whose size in bytes still fits into an int
+  private static final int MAX_SEGMENT_SIZE = Integer.MAX_VALUE / 12;
+  private static final int ELEMENT_SIZE = 3;
+
+  private final int segmentSize;
+  private final int segmentFloats;
+  private FloatBuffer[] segments = new FloatBuffer[4];
+  private int numSegments;
+  private long size;
+  // Views of the segments handed out by getSegment(), recreated
+  // lazily after the size of the collection changes
+  private volatile FloatBuffer[] views;
+  // Whether getSegment() has handed out a view of each segment, which
+  // then can not be returned to the BufferFactory pool
+  private boolean[] handedOut = new boolean[4];
+  // Incremented on every modification
+  private int version;
+
+  // Node the segments are accounted to by the BufferFactory, which
+  // is told about modifications
+  private Object owner;
+
+  // Read-only collection last returned by snapshot(), and for each
+  // segment the number of floats at its start shared with it, which
+  // are copied before being overwritten
+  private SegmentedVec3fCollection snapshot;
+  private int[] sharedLimits = new int[4];
+
+  /** Creates an empty SegmentedVec3fCollection with the default
+      segment size. */
+  public SegmentedVec3fCollection() {
+    this(DEFAULT_SEGMENT_SIZE);
+  }
+
+  /** Creates an empty SegmentedVec3fCollection holding the given
+      number of Vec3fs per segment. */
+  public SegmentedVec3fCollection(int segmentSize) throws IllegalArgumentException {
+    if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE) {
+      throw new IllegalArgumentException("segment size must be between 1 and " + MAX_SEGMENT_SIZE);
+    }
+    this.segmentSize = segmentSize;
+    segmentFloats = segmentSize * ELEMENT_SIZE;
+    FloatBuffer first = BufferFactory.newFloatBuffer(Math.min(4 * ELEMENT_SIZE, segmentFloats));
+    first.limit(0);
+    segments[numSegments++] = first;
+  }
+
+  private SegmentedVec3fCollection(int segmentSize, FloatBuffer[] segments, long size) {
+    this.segmentSize = segmentSize;
+    segmentFloats = segmentSize * ELEMENT_SIZE;
+    this.segments = segments;
+    numSegments = segments.length;
+    this.size = size;
+    sharedLimits = new int[numSegments];
+    handedOut = new boolean[numSegments];
+  }
+
+  /** Creates a SegmentedVec3fCollection backed directly by the given
+      number of Vec3fs in a file, starting at the given byte position,
+      mapping each segment separately so that files of any size can
+      be used. As with {@link Vec3fCollection#map Vec3fCollection.map},
+      the data is paged in by the operating system as it is accessed,
+      and must be stored as floats in the platform's native byte
+      order. With {@link FileChannel.MapMode#READ_ONLY READ_ONLY}, all
+      methods modifying the collection throw a ReadOnlyBufferException;
+      with {@link FileChannel.MapMode#PRIVATE PRIVATE}, modifications
+      are not written back to the file. The channel must be open for
+      reading, and unless the mode is READ_ONLY also for writing. */
+  public static SegmentedVec3fCollection map(FileChannel channel, FileChannel.MapMode mode,
+                                             long position, long size, int segmentSize)
+    throws IOException {
+    if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE) {
+      throw new IllegalArgumentException("segment size must be between 1 and " + MAX_SEGMENT_SIZE);
+    }
+    int numSegments = (int) Math.max(1, (size + segmentSize - 1) / segmentSize);
+    FloatBuffer[] segments = new FloatBuffer[numSegments];
+    long segmentBytes = (long) segmentSize * ELEMENT_SIZE * 4;
+    for (int i = 0; i < numSegments; i++) {
+      long count = Math.min(segmentSize, size - (long) i * segmentSize);
+      segments[i] = channel.map(mode, position + i * segmentBytes, count * ELEMENT_SIZE * 4)
+        .order(ByteOrder.nativeOrder())
+        .asFloatBuffer();
+    }
+    return new SegmentedVec3fCollection(segmentSize, segments, size);
+  }
+
+  /** Creates a SegmentedVec3fCollection with the default segment size
+      backed directly by all of the given file, as described for
+      {@link #map(FileChannel, FileChannel.MapMode, long, long, int)
+      map}. Trailing bytes not making up a whole Vec3f are ignored. */
+  public static SegmentedVec3fCollection map(Path file, FileChannel.MapMode mode) throws IOException {
+    try (FileChannel channel = Vec3fCollection.open(file, mode)) {
+      return map(channel, mode, 0, channel.size() / (ELEMENT_SIZE * 4), DEFAULT_SEGMENT_SIZE);
+    }
+  }
+
+  /** Returns the number of Vec3fs per segment. */
+  public int getSegmentSize() {
+    return segmentSize;
+  }
+
+  /** Returns the number of Vec3fs currently in this collection. */
+  public long size() {
+    return size;
+  }
+
+  /** Returns the number of segments currently in this collection.
+      This is at least one, even if the collection is empty. */
+  public int getSegmentCount() {
+    return numSegments;
+  }
+
+  /** Returns the data of the segment with the given index, holding
+      the Vec3fs from index * {@link #getSegmentSize getSegmentSize()}
+      on. As with {@link Vec3fCollection#getData
+      Vec3fCollection.getData}, the returned buffer is shared between
+      callers until the size of the collection changes, so callers
+      must not change its position or limit, and it is safe to call
+      this from several threads as long as the collection is not
+      being modified. */
+  public FloatBuffer getSegment(int index) throws IndexOutOfBoundsException {
+    if (index >= numSegments) {
+      throw new IndexOutOfBoundsException(index + " >= " + numSegments);
+    }
+    FloatBuffer[] v = views;
+    if (v == null) {
+      v = new FloatBuffer[numSegments];
+      for (int i = 0; i < numSegments; i++) {
+        // Positions are always zero outside of the mutators
+        v[i] = segments[i].slice();
+        handedOut[i] = true;
+      }
+      views = v;
+    }
+    return v[index];
+  }
+
+  /** Stores the given Vec3f at the given index. If the collection has
+      not grown to the given size, throws an exception. */
+  public void set(long index, Vector3f value) throws IndexOutOfBoundsException {
+    set(index, value.getX(), value.getY(), value.getZ());
+  }
+
+  /** Stores the given components at the given index. If the
+      collection has not grown to the given size, throws an
+      exception. */
+  public void set(long index, float x, float y, float z) throws IndexOutOfBoundsException {
+    checkWritable();
+    checkIndex(index);
+    int segment = (int) (index / segmentSize);
+    int base = (int) (index % segmentSize) * ELEMENT_SIZE;
+    FloatBuffer buf = unshare(segment, base);
+    buf.put(base,     x);
+    buf.put(base + 1, y);
+    buf.put(base + 2, z);
+    changed();
+  }
+
+  /** Fetches the Vec3f at the given index. If the collection has not
+      grown to the given size, throws an exception. */
+  public Vector3f get(long index) throws IndexOutOfBoundsException {
+    return get(index, new Vector3f());
+  }
+
+  /** Fetches the Vec3f at the given index into the given vector,
+      which is also returned. If the collection has not grown to the
+      given size, throws an exception. */
+  public Vector3f get(long index, Vector3f dest) throws IndexOutOfBoundsException {
+    checkIndex(index);
+    FloatBuffer buf = segments[(int) (index / segmentSize)];
+    int base = (int) (index % segmentSize) * ELEMENT_SIZE;
+    dest.setX(buf.get(base));
+    dest.setY(buf.get(base + 1));
+    dest.setZ(buf.get(base + 2));
+    return dest;
+  }
+
+  /** Adds the given Vec3f to this collection, appending a segment if
+      necessary. */
+  public void add(Vector3f value) {
+    add(value.getX(), value.getY(), value.getZ());
+  }
+
+  /** Adds a Vec3f with the given components to this collection,
+      appending a segment if necessary. */
+  public void add(float x, float y, float z) {
+    checkWritable();
+    FloatBuffer buf = room(ELEMENT_SIZE);
+    int pos = buf.limit();
+    buf.limit(pos + ELEMENT_SIZE);
+    buf.put(pos,     x);
+    buf.put(pos + 1, y);
+    buf.put(pos + 2, z);
+    ++size;
+    views = null;
+    changed();
+  }
+
+  /** Adds count Vec3fs from the given array, starting at the given
+      offset into the array, to this collection. The components are
+      stored consecutively in the array, so count * 3 floats are
+      read. */
+  public void addAll(float[] src, int offset, int count) {
+    checkWritable();
+    int remaining = count * ELEMENT_SIZE;
+    while (remaining > 0) {
+      FloatBuffer buf = room(remaining);
+      int n = Math.min(remaining, buf.capacity() - buf.limit());
+      int pos = buf.limit();
+      buf.limit(pos + n);
+      buf.position(pos);
+      buf.put(src, offset, n);
+      buf.position(0);
+      offset += n;
+      remaining -= n;
+    }
+    size += count;
+    views = null;
+    changed();
+  }
+
+  /** Adds count Vec3fs from the given buffer, starting at the given
+      offset into the buffer, to this collection. The components are
+      stored consecutively in the buffer, so count * 3 floats are
+      read. The position and limit of the buffer are not changed. */
+  public void addAll(FloatBuffer src, int offset, int count) {
+    checkWritable();
+    FloatBuffer range = src.duplicate();
+    range.position(offset);
+    int remaining = count * ELEMENT_SIZE;
+    while (remaining > 0) {
+      FloatBuffer buf = room(remaining);
+      int n = Math.min(remaining, buf.capacity() - buf.limit());
+      int pos = buf.limit();
+      range.limit(range.position() + n);
+      buf.limit(pos + n);
+      buf.position(pos);
+      buf.put(range);
+      buf.position(0);
+      remaining -= n;
+    }
+    size += count;
+    views = null;
+    changed();
+  }
+
+  /** Removes all Vec3fs from this collection, releasing all segments
+      but the first. */
+  public void clear() {
+    checkWritable();
+    for (int i = 1; i < numSegments; i++) {
+      release(i, segments[i]);
+      segments[i] = null;
+    }
+    numSegments = 1;
+    segments[0].limit(0);
+    size = 0;
+    views = null;
+    changed();
+  }
+
+  /** Returns a counter which changes every time the contents of this
+      collection change. */
+  public int getVersion() {
+    return version;
+  }
+
+  /** Returns a read-only collection holding the current contents of
+      this one, which may be read from other threads while this one
+      goes on being modified. As with {@link Vec3fCollection#snapshot
+      Vec3fCollection.snapshot}, the data is shared rather than
+      copied; only segments whose shared data is about to be
+      overwritten are copied, so that appending stays cheap. Calls
+      without modifications in between return the same collection,
+      and read-only collections return themselves. This must not be
+      called concurrently with methods modifying the collection. */
+  public SegmentedVec3fCollection snapshot() {
+    if (segments[0].isReadOnly())
+      return this;
+    SegmentedVec3fCollection s = snapshot;
+    if (s == null || s.version != version) {
+      FloatBuffer[] shared = new FloatBuffer[numSegments];
+      for (int i = 0; i < numSegments; i++) {
+        shared[i] = segments[i].asReadOnlyBuffer();
+        sharedLimits[i] = Math.max(sharedLimits[i], segments[i].limit());
+      }
+      s = new SegmentedVec3fCollection(segmentSize, shared, size);
+      s.version = version;
+      snapshot = s;
+    }
+    return s;
+  }
+
+  /** Sets the object, typically the Node holding this collection,
+      that the memory of the segments is accounted to by the {@link
+      BufferFactory}. An owner implementing {@link CollectionOwner} is
+      told about every modification. */
+  public void setOwner(Object owner) {
+    this.owner = owner;
+    for (int i = 0; i < numSegments; i++) {
+      BufferFactory.setOwner(segments[i], owner);
+    }
+  }
+
+  /** Returns the object the memory of this collection is accounted
+      to, or null if none. */
+  public Object getOwner() {
+    return owner;
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  /** Counts a modification and tells the owner about it. */
+  private void changed() {
+    ++version;
+    Object o = owner;
+    if (o instanceof CollectionOwner) {
+      ((CollectionOwner) o).collectionChanged(this);
+    }
+  }
+
+  /** Returns the last segment, making sure it has room for at least
+      one more Vec3f and, if it is still growing, for the given number
+      of floats if possible. */
+  private FloatBuffer room(int floats) {
+    FloatBuffer buf = unshare(numSegments - 1, segments[numSegments - 1].limit());
+    int free = buf.capacity() - buf.limit();
+    if (free >= floats)
+      return buf;
+    if (buf.capacity() < segmentFloats) {
+      return growLast((int) Math.min(segmentFloats, Math.max((long) buf.limit() + floats,
+                                                              2L * buf.capacity())));
+    }
+    if (free > 0)
+      return buf;
+    return appendSegment();
+  }
+
+  private FloatBuffer growLast(int capacity) {
+    FloatBuffer buf = segments[numSegments - 1];
+    FloatBuffer newBuf = BufferFactory.newFloatBuffer(capacity);
+    newBuf.put(buf);
+    newBuf.rewind();
+    newBuf.limit(buf.limit());
+    segments[numSegments - 1] = newBuf;
+    BufferFactory.setOwner(newBuf, owner);
+    release(numSegments - 1, buf);
+    return newBuf;
+  }
+
+  private FloatBuffer appendSegment() {
+    FloatBuffer buf = BufferFactory.newFloatBuffer(segmentFloats);
+    buf.limit(0);
+    BufferFactory.setOwner(buf, owner);
+    if (numSegments == segments.length) {
+      segments = Arrays.copyOf(segments, 2 * numSegments);
+      sharedLimits = Arrays.copyOf(sharedLimits, 2 * numSegments);
+      handedOut = Arrays.copyOf(handedOut, 2 * numSegments);
+    }
+    segments[numSegments++] = buf;
+    return buf;
+  }
+
+  /** Returns the segment with the given index, first replacing it
+      with a copy if the float at the given position in it is shared
+      with a snapshot and so must not be overwritten. The old segment
+      is left to the garbage collector. */
+  private FloatBuffer unshare(int segment, int pos) {
+    FloatBuffer buf = segments[segment];
+    if (pos < sharedLimits[segment]) {
+      FloatBuffer newBuf = BufferFactory.newFloatBuffer(buf.capacity());
+      newBuf.put(buf);
+      newBuf.rewind();
+      newBuf.limit(buf.limit());
+      segments[segment] = newBuf;
+      BufferFactory.setOwner(newBuf, owner);
+      sharedLimits[segment] = 0;
+      handedOut[segment] = false;
+      views = null;
+      buf = newBuf;
+    }
+    return buf;
+  }
+
+  /** Releases a segment no longer used by this collection, unless a
+      snapshot or views handed out by getSegment(), which may still be
+      in use, refer to it, in which case it is left to the garbage
+      collector. */
+  private void release(int segment, FloatBuffer buf) {
+    if (sharedLimits[segment] == 0 && !handedOut[segment]) {
+      BufferFactory.release(buf);
+    }
+    sharedLimits[segment] = 0;
+    handedOut[segment] = false;
+  }
+
+  private void checkWritable() throws ReadOnlyBufferException {
+    if (segments[0].isReadOnly()) {
+      throw new ReadOnlyBufferException();
+    }
+  }
+
+  private void checkIndex(long index) throws IndexOutOfBoundsException {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException(index + " >= " + size);
+    }
+  }
+}
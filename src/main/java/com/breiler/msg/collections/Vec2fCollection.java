@@ -37,9 +37,12 @@
 
 package com.breiler.msg.collections;
 
+import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.nio.ReadOnlyBufferException;
 
 import com.breiler.msg.impl.BufferFactory;
+import com.breiler.msg.impl.VertexBufferObject;
 
 import javax.vecmath.Vector2f;
 
@@ -47,9 +50,30 @@ import javax.vecmath.Vector2f;
     allowing access to the backing store in the form of a direct
     FloatBuffer to make it easy to pass down to OpenGL. */
 
-public class Vec2fCollection {
+public class Vec2fCollection implements Versioned {
   // Data is stored as a direct FloatBuffer
   private FloatBuffer data;
+  // View of the data handed out by getData(), recreated lazily after
+  // the size of the collection changes
+  private volatile FloatBuffer view;
+  // Whether getData() has handed out a view of the current backing
+  // store, which then can not be returned to the BufferFactory pool
+  private volatile boolean handedOut;
+  // Incremented on every modification
+  private int version;
+
+  // Copy of the data in an OpenGL buffer object, if enabled
+  private volatile VertexBufferObject bufferObject;
+
+  // Node the backing store is accounted to by the BufferFactory,
+  // which is told about modifications
+  private Object owner;
+
+  // Read-only collection last returned by snapshot(), and the number
+  // of floats at the start of the backing store shared with it, which
+  // are copied before being overwritten
+  private Vec2fCollection snapshot;
+  private int sharedLimit;
 
   private static final int ELEMENT_SIZE = 2;
 
@@ -66,90 +90,441 @@ public class Vec2fCollection {
     data.limit(0);
   }
 
+  private Vec2fCollection(FloatBuffer data) {
+    this.data = data;
+  }
+
+  /** Creates a Vec2fCollection backed directly by the remaining floats of
+      the given buffer, without copying them. Trailing floats not
+      making up a whole Vec2f are ignored. The buffer must be direct
+      and in the platform's native byte order, so that it can be
+      passed to OpenGL as is; it is typically a slice of a mapped
+      file. Read-only buffers give a collection whose mutators throw a
+      ReadOnlyBufferException. The memory of a wrapped collection is
+      not accounted to the {@link BufferFactory} until it grows. */
+  public static Vec2fCollection wrap(FloatBuffer data) {
+    if (!data.isDirect() || data.order() != ByteOrder.nativeOrder()) {
+      throw new IllegalArgumentException("data must be a direct buffer in native byte order");
+    }
+    FloatBuffer buf = data.slice();
+    buf.limit(round(buf.limit()));
+    return new Vec2fCollection(buf);
+  }
+
   /** Returns the number of Vec2fs currently in this collection. */
   public int size() {
     return data.limit() / ELEMENT_SIZE;
   }
 
+  /** Ensures that the backing store can hold at least the given
+      number of Vec2fs without growing, so that a known number of
+      vectors can be added without repeated reallocation. */
+  public void ensureCapacity(int minSize) {
+    checkWritable();
+    reserve(minSize * ELEMENT_SIZE);
+  }
+
+  /** Shrinks the backing store to the current size of this
+      collection, returning the memory no longer needed. */
+  public void trimToSize() {
+    checkWritable();
+    if (data.capacity() > data.limit()) {
+      reallocate(data.limit());
+    }
+  }
+
   /** Stores the given Vec2f at the given index. If the collection has
       not grown to the given size, throws an exception. */
   public void set(int index, Vector2f value) throws IndexOutOfBoundsException {
+    set(index, value.getX(), value.getY());
+  }
+
+  /** Stores the given components at the given index. If the
+      collection has not grown to the given size, throws an
+      exception. */
+  public void set(int index, float x, float y) throws IndexOutOfBoundsException {
+    checkWritable();
     if (index >= size()) {
       throw new IndexOutOfBoundsException(index + " >= " + size());
     }
     int base = index * ELEMENT_SIZE;
+    unshare(base);
+    FloatBuffer buf = data;
+    buf.put(base,     x);
+    buf.put(base + 1, y);
+    markDirty(base, base + ELEMENT_SIZE);
+    changed();
+  }
+
+  /** Copies count Vec2fs from the given array, starting at the given
+      offset into the array, over the ones starting at the given
+      index. The components are stored consecutively in the array, so
+      count * 2 floats are read. If the collection has not grown to
+      include all of them, throws an exception. */
+  public void set(int index, float[] src, int offset, int count) throws IndexOutOfBoundsException {
+    checkWritable();
+    checkRange(index, count);
+    unshare(index * ELEMENT_SIZE);
     FloatBuffer buf = data;
-    buf.put(base,     value.getX());
-    buf.put(base + 1, value.getY());
+    buf.position(index * ELEMENT_SIZE);
+    buf.put(src, offset, count * ELEMENT_SIZE);
+    buf.position(0);
+    markDirty(index * ELEMENT_SIZE, (index + count) * ELEMENT_SIZE);
+    changed();
   }
 
   /** Fetches the Vec2f at the given index. If the collection has not
       grown to the given size, throws an exception. */
   public Vector2f get(int index) throws IndexOutOfBoundsException {
+    return get(index, new Vector2f());
+  }
+
+  /** Fetches the Vec2f at the given index into the given vector,
+      which is also returned. If the collection has not grown to the
+      given size, throws an exception. */
+  public Vector2f get(int index, Vector2f dest) throws IndexOutOfBoundsException {
     if (index >= size()) {
       throw new IndexOutOfBoundsException(index + " >= " + size());
     }
     int base = index * ELEMENT_SIZE;
-    // Note: could use a small pool of Vec2fs here if allocation rate
-    // is an issue. However, escape analysis should eventually take
-    // care of this.
     FloatBuffer buf = data;
-    return new Vector2f(buf.get(base), buf.get(base + 1));
+    dest.setX(buf.get(base));
+    dest.setY(buf.get(base + 1));
+    return dest;
+  }
+
+  /** Copies count Vec2fs starting at the given index into the given
+      array, starting at the given offset into the array. The
+      components are stored consecutively, so count * 2 floats are
+      written. If the collection does not include all of them, throws
+      an exception. Like {@link #get(int) get}, this may be called
+      from several threads as long as the collection is not being
+      modified. */
+  public void get(int index, float[] dest, int offset, int count) throws IndexOutOfBoundsException {
+    checkRange(index, count);
+    // Leave the position of the backing buffer alone for concurrent readers
+    FloatBuffer src = data.duplicate();
+    src.position(index * ELEMENT_SIZE);
+    src.get(dest, offset, count * ELEMENT_SIZE);
   }
 
   /** Adds the given Vec2f to this collection, expanding it if
       necessary. */
   public void add(Vector2f value) {
+    add(value.getX(), value.getY());
+  }
+
+  /** Adds a Vec2f with the given components to this collection,
+      expanding it if necessary. */
+  public void add(float x, float y) {
+    checkWritable();
+    unshare(data.limit());
     FloatBuffer buf = data;
-    if (buf.limit() == buf.capacity()) {
-      FloatBuffer newBuf = BufferFactory.newFloatBuffer(Math.max(buf.capacity() + ELEMENT_SIZE,
-                                                                 round((int) (buf.capacity() * 1.5f))));
-      newBuf.put(buf);
-      newBuf.rewind();
-      newBuf.limit(buf.limit());
-      data = newBuf;
-      buf = newBuf;
-    }
     int pos = buf.limit();
+    if (pos == buf.capacity()) {
+      buf = reserve(pos + ELEMENT_SIZE);
+    }
     buf.limit(pos + ELEMENT_SIZE);
-    buf.put(pos,     value.getX());
-    buf.put(pos + 1, value.getY());
+    view = null;
+    buf.put(pos,     x);
+    buf.put(pos + 1, y);
+    markDirty(pos, pos + ELEMENT_SIZE);
+    changed();
+  }
+
+  /** Adds count Vec2fs from the given array, starting at the given
+      offset into the array, to this collection. The components are
+      stored consecutively in the array, so count * 2 floats are
+      read. */
+  public void addAll(float[] src, int offset, int count) {
+    checkWritable();
+    int pos = data.limit();
+    int end = pos + count * ELEMENT_SIZE;
+    unshare(pos);
+    FloatBuffer buf = reserve(end);
+    buf.limit(end);
+    buf.position(pos);
+    buf.put(src, offset, count * ELEMENT_SIZE);
+    buf.position(0);
+    view = null;
+    markDirty(pos, end);
+    changed();
+  }
+
+  /** Adds count Vec2fs from the given buffer, starting at the given
+      offset into the buffer, to this collection. The components are
+      stored consecutively in the buffer, so count * 2 floats are
+      read. The position and limit of the buffer are not changed. */
+  public void addAll(FloatBuffer src, int offset, int count) {
+    checkWritable();
+    FloatBuffer range = src.duplicate();
+    range.limit(offset + count * ELEMENT_SIZE);
+    range.position(offset);
+    int pos = data.limit();
+    int end = pos + count * ELEMENT_SIZE;
+    unshare(pos);
+    FloatBuffer buf = reserve(end);
+    buf.limit(end);
+    buf.position(pos);
+    buf.put(range);
+    buf.position(0);
+    view = null;
+    markDirty(pos, end);
+    changed();
   }
 
   /** Removes the given Vec2f from this collection. Moves all Vec2fs
       above it down one slot. */
   public Vector2f remove(int index) throws IndexOutOfBoundsException {
+    Vector2f res = get(index);
+    removeRange(index, index + 1);
+    return res;
+  }
+
+  /** Removes the Vec2fs from fromIndex, inclusive, to toIndex,
+      exclusive, from this collection, moving all Vec2fs above them
+      down in a single copy. */
+  public void removeRange(int fromIndex, int toIndex) throws IndexOutOfBoundsException {
+    checkWritable();
+    if (fromIndex < 0 || fromIndex > toIndex || toIndex > size()) {
+      throw new IndexOutOfBoundsException(fromIndex + ".." + toIndex + " not within 0.." + size());
+    }
+    if (fromIndex == toIndex)
+      return;
+    unshare(fromIndex * ELEMENT_SIZE);
+    FloatBuffer buf = data;
+    int start = fromIndex * ELEMENT_SIZE;
+    int end = toIndex * ELEMENT_SIZE;
+    int limit = buf.limit();
+    view = null;
+    if (end < limit) {
+      FloatBuffer rest = buf.duplicate();
+      rest.position(end);
+      buf.position(start);
+      buf.put(rest);
+      buf.position(0);
+      markDirty(start, limit - (end - start));
+    }
+    // Otherwise simply lower the limit
+    buf.limit(limit - (end - start));
+    changed();
+  }
+
+  /** Removes the Vec2f at the given index by moving the last one into
+      its slot. Unlike {@link #remove remove}, this takes constant
+      time, but changes the order of the collection. */
+  public void swapRemove(int index) throws IndexOutOfBoundsException {
+    checkWritable();
     if (index >= size()) {
       throw new IndexOutOfBoundsException(index + " >= " + size());
     }
+    unshare(index * ELEMENT_SIZE);
     FloatBuffer buf = data;
     int pos = index * ELEMENT_SIZE;
-    Vector2f res = new Vector2f(buf.get(pos), buf.get(pos + 1));
-    if (index == size() - 1) {
-      // Simply lower the limit
-      buf.limit(buf.limit() - ELEMENT_SIZE);
-    } else {
-      buf.position(pos + ELEMENT_SIZE);
-      FloatBuffer rest = buf.slice();
-      buf.position(pos);
-      buf.put(rest);
-      buf.limit(buf.limit() - ELEMENT_SIZE);
-      buf.rewind();
+    int last = buf.limit() - ELEMENT_SIZE;
+    view = null;
+    if (pos != last) {
+      for (int i = 0; i < ELEMENT_SIZE; i++) {
+        buf.put(pos + i, buf.get(last + i));
+      }
+      markDirty(pos, pos + ELEMENT_SIZE);
     }
-    return res;
+    buf.limit(last);
+    changed();
+  }
+
+  /** Removes all Vec2fs from this collection. The backing store is
+      kept; see {@link #trimToSize trimToSize}. */
+  public void clear() {
+    checkWritable();
+    data.limit(0);
+    view = null;
+    changed();
   }
   
-  /** Returns the backing buffer of this collection. */
+  /** Returns the backing buffer of this collection. The returned
+      buffer is shared between callers until the size of the
+      collection changes, so callers must not change its position or
+      limit. Once the collection grows, buffers returned earlier no
+      longer reflect its contents, but their memory stays valid for as
+      long as they are referenced. It is safe
+      to call this from several threads as long as the collection is
+      not being modified. */
   public FloatBuffer getData() {
-    FloatBuffer buf = data;
-    buf.position(0);
-    return buf.slice();
+    FloatBuffer buf = getTraversalData();
+    if (!handedOut) {
+      handedOut = true;
+    }
+    return buf;
+  }
+
+  /** Returns the same buffer as {@link #getData getData}, for use
+      while traversing the scene graph. Unlike getData, this does not
+      keep the backing store from being returned to the {@link
+      BufferFactory} pool once the collection grows, so the buffer
+      must not be kept beyond the traversal of the node asking for
+      it; the state elements fetch it again each time instead. End
+      users should not need to call this method. */
+  public FloatBuffer getTraversalData() {
+    FloatBuffer buf = view;
+    if (buf == null) {
+      // The position of the backing buffer is always zero outside of
+      // the mutators, so slicing does not need to (and must not, for
+      // concurrent readers) reset it
+      buf = data.slice();
+      view = buf;
+    }
+    return buf;
+  }
+
+  /** Returns a counter which changes every time the contents of this
+      collection change. Data derived from the collection, such as its
+      bounds, can be cached along with this value and reused as long
+      as it stays the same. */
+  public int getVersion() {
+    return version;
+  }
+
+  /** Returns a read-only collection holding the current contents of
+      this one, which may be read from other threads while this one
+      goes on being modified. The data is shared rather than copied;
+      this collection copies its backing store only once data the
+      snapshot refers to is about to be overwritten, so that appending
+      stays cheap. Calls without modifications in between return the
+      same collection, and read-only collections return themselves.
+      Like the methods modifying the collection, this must not be
+      called concurrently with them. */
+  public Vec2fCollection snapshot() {
+    if (data.isReadOnly())
+      return this;
+    Vec2fCollection s = snapshot;
+    if (s == null || s.version != version) {
+      s = new Vec2fCollection(data.asReadOnlyBuffer());
+      s.version = version;
+      snapshot = s;
+      sharedLimit = Math.max(sharedLimit, data.limit());
+    }
+    return s;
+  }
+
+  /** Sets whether this collection keeps a copy of its data in an
+      OpenGL buffer object for rendering. Only the range modified by
+      the methods of this class since the previous frame is
+      then uploaded, so unchanging data
+      costs nothing to draw again. Changes made directly to the buffer
+      returned by {@link #getData getData} are not tracked. Disabled
+      by default. */
+  public void setBufferObjectEnabled(boolean enabled) {
+    VertexBufferObject vbo = bufferObject;
+    if (enabled == (vbo != null))
+      return;
+    if (vbo != null) {
+      vbo.release();
+    }
+    bufferObject = enabled ? new VertexBufferObject() : null;
+  }
+
+  /** Indicates whether this collection keeps a copy of its data in an
+      OpenGL buffer object. */
+  public boolean isBufferObjectEnabled() {
+    return bufferObject != null;
+  }
+
+  /** Returns the buffer object holding a copy of this collection's
+      data, or null if not enabled. End users should not need to call
+      this method. */
+  public VertexBufferObject getBufferObject() {
+    return bufferObject;
+  }
+
+  /** Sets the object, typically the Node holding this collection,
+      that the memory of the backing store is accounted to by the
+      {@link BufferFactory}. Nodes taking a collection set themselves
+      as its owner. An owner implementing {@link CollectionOwner} is
+      told about every modification. */
+  public void setOwner(Object owner) {
+    this.owner = owner;
+    BufferFactory.setOwner(data, owner);
+  }
+
+  /** Returns the object the memory of this collection is accounted
+      to, or null if none. */
+  public Object getOwner() {
+    return owner;
   }
 
   //----------------------------------------------------------------------
   // Internals only below this point
   //
 
+  /** Counts a modification and tells the owner about it. */
+  private void changed() {
+    ++version;
+    Object o = owner;
+    if (o instanceof CollectionOwner) {
+      ((CollectionOwner) o).collectionChanged(this);
+    }
+  }
+
+  private void markDirty(int start, int end) {
+    VertexBufferObject vbo = bufferObject;
+    if (vbo != null) {
+      vbo.markDirty(start, end);
+    }
+  }
+
+  /** Makes sure the backing store has room for the given number of
+      floats, growing it by at least half if it has not, and returns
+      it. */
+  private FloatBuffer reserve(int minCapacity) {
+    FloatBuffer buf = data;
+    if (minCapacity <= buf.capacity())
+      return buf;
+    return reallocate(Math.max(minCapacity, round((int) (buf.capacity() * 1.5f))));
+  }
+
+  /** Moves the contents to a new backing store of the given capacity. */
+  private FloatBuffer reallocate(int capacity) {
+    FloatBuffer buf = data;
+    FloatBuffer newBuf = BufferFactory.newFloatBuffer(capacity);
+    newBuf.put(buf);
+    newBuf.rewind();
+    newBuf.limit(buf.limit());
+    data = newBuf;
+    view = null;
+    BufferFactory.setOwner(newBuf, owner);
+    if (sharedLimit > 0 || handedOut) {
+      // A snapshot or views handed out by getData(), which may still
+      // be in use, refer to the old buffer; leave it to the garbage
+      // collector
+      sharedLimit = 0;
+      handedOut = false;
+    } else {
+      BufferFactory.release(buf);
+    }
+    return newBuf;
+  }
+
+  /** Copies the backing store if the float at the given position is
+      shared with a snapshot, before it is overwritten. */
+  private void unshare(int pos) {
+    if (pos < sharedLimit) {
+      reallocate(data.capacity());
+    }
+  }
+
+  private void checkRange(int index, int count) throws IndexOutOfBoundsException {
+    if (index < 0 || count < 0 || index + count > size()) {
+      throw new IndexOutOfBoundsException(index + ".." + (index + count) + " not within 0.." + size());
+    }
+  }
+
+  private void checkWritable() throws ReadOnlyBufferException {
+    if (data.isReadOnly()) {
+      throw new ReadOnlyBufferException();
+    }
+  }
+
   private static int round(int size) {
     return size - (size % ELEMENT_SIZE);
   }
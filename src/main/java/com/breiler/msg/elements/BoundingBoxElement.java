@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package com.breiler.msg.elements;
+
+import com.breiler.msg.math.Box3f;
+import com.breiler.msg.math.Sphere3f;
+import com.breiler.msg.misc.State;
+import com.breiler.msg.misc.StateIndex;
+
+import javax.vecmath.Matrix4f;
+
+/** Accumulates the bounding box and bounding sphere of the geometry
+    traversed so far. Each push of the state starts a new, empty
+    scope, so the bounds of a subtree can be read back before the
+    state is popped again. Bounds are accumulated in the coordinate
+    system the model matrix transforms into. */
+
+public class BoundingBoxElement extends Element {
+  // Boilerplate
+  private static final StateIndex index = State.registerElementType();
+  public StateIndex getStateIndex() { return index; }
+  public Element newInstance() {
+    return new BoundingBoxElement();
+  }
+  /** Returns the instance of this element in the passed State. */
+  public static BoundingBoxElement getInstance(State state) {
+    return (BoundingBoxElement) state.getElement(index);
+  }
+  /** Enables this element in the passed state, which should be the
+      default for a given action. */
+  public static void enable(State defaultState) {
+    Element tmp = new BoundingBoxElement();
+    defaultState.setElement(tmp.getStateIndex(), tmp);
+  }
+  /** Indicates whether this element is enabled in the given default
+      state for a particular action. */
+  public static boolean isEnabled(State state) {
+    return (state.getDefaults().getElement(index) != null);
+  }
+
+  // The accumulated bounds
+  private final Box3f box = new Box3f();
+  private final Sphere3f sphere = new Sphere3f();
+  // Scratch storage for transforming incoming bounds
+  private final Box3f tmpBox = new Box3f();
+  private final Sphere3f tmpSphere = new Sphere3f();
+
+  public void push(State state) {
+    makeEltEmpty();
+  }
+
+  /** Returns the bounding box accumulated in the current scope;
+      callers should not mutate this directly. */
+  public Box3f getBox() {
+    return box;
+  }
+
+  /** Returns the bounding sphere accumulated in the current scope;
+      callers should not mutate this directly. */
+  public Sphere3f getSphere() {
+    return sphere;
+  }
+
+  /** Extends the bounds in the passed state by the given local
+      bounds, which are transformed by the current model matrix. The
+      ModelMatrixElement must be enabled in the state. */
+  public static void extendBy(State state, Box3f localBox, Sphere3f localSphere) {
+    getInstance(state).extendEltBy(localBox, localSphere,
+                                   ModelMatrixElement.getInstance(state).getMatrix());
+  }
+
+  /** Extends the bounds in this element by the given bounds after
+      transforming them by the given matrix. */
+  public void extendEltBy(Box3f localBox, Sphere3f localSphere, Matrix4f mat) {
+    tmpBox.set(localBox);
+    tmpBox.transform(mat);
+    box.extendBy(tmpBox);
+    tmpSphere.set(localSphere);
+    tmpSphere.transform(mat);
+    sphere.extendBy(tmpSphere);
+  }
+
+  /** Empties the bounds in this element. */
+  public void makeEltEmpty() {
+    box.makeEmpty();
+    sphere.makeEmpty();
+  }
+}
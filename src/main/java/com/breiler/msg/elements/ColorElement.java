@@ -39,6 +39,7 @@ package com.breiler.msg.elements;
 
 import java.nio.FloatBuffer;
 
+import com.breiler.msg.collections.Vec4fCollection;
 import com.breiler.msg.misc.State;
 import com.breiler.msg.misc.StateIndex;
 
@@ -68,8 +69,12 @@ public class ColorElement extends Element {
     return (state.getDefaults().getElement(index) != null);
   }
 
-  // The actual color data
+  // The color data if set as a raw buffer. Data from a collection
+  // is fetched from it each time, since it replaces its buffer as it
+  // grows and may then return the old one to the BufferFactory pool
   protected FloatBuffer colors;
+  // The collection the color data came from, if known
+  protected Vec4fCollection collection;
   // The color binding to material parameter (not yet implemented)
   protected int colorBinding;
 
@@ -78,9 +83,22 @@ public class ColorElement extends Element {
     getInstance(state).setElt(colors);
   }
 
+  /** Sets the color data in the passed state from the given
+      collection, which remains available via {@link #getCollection
+      getCollection}. */
+  public static void set(State state, Vec4fCollection collection) {
+    getInstance(state).setElt(collection);
+  }
+
   /** Returns the color data in the passed state. */
   public static FloatBuffer get(State state) {
-    return getInstance(state).colors;
+    return getInstance(state).getColors();
+  }
+
+  /** Returns the collection the color data in the passed state came
+      from, or null if the data was set as a raw FloatBuffer. */
+  public static Vec4fCollection getCollection(State state) {
+    return getInstance(state).collection;
   }
 
   public void push(State state) {
@@ -88,11 +106,27 @@ public class ColorElement extends Element {
     if (prev != null) {
       // Pull down the data from the previous element
       colors = prev.colors;
+      collection = prev.collection;
     }
   }
 
   /** Sets the color data in this element. */
   public void setElt(FloatBuffer colors) {
     this.colors = colors;
+    collection = null;
+  }
+
+  /** Sets the color data in this element from the given
+      collection. */
+  public void setElt(Vec4fCollection collection) {
+    this.colors = null;
+    this.collection = collection;
+  }
+
+  /** Returns the color data in this element, fetching it from the
+      collection it came from if there is one. */
+  protected FloatBuffer getColors() {
+    Vec4fCollection collection = this.collection;
+    return (collection != null) ? collection.getTraversalData() : colors;
   }
 }
@@ -39,6 +39,9 @@ package com.breiler.msg.elements;
 
 import java.nio.FloatBuffer;
 
+import com.breiler.msg.collections.SegmentedVec3fCollection;
+import com.breiler.msg.collections.Vec3fCollection;
+import com.breiler.msg.collections.Versioned;
 import com.breiler.msg.misc.State;
 import com.breiler.msg.misc.StateIndex;
 
@@ -68,17 +71,59 @@ public class CoordinateElement extends Element {
     return (state.getDefaults().getElement(index) != null);
   }
 
-  // The actual coordinate data
+  // The coordinate data if set as a raw buffer. Data from a collection
+  // is fetched from it each time, since it replaces its buffer as it
+  // grows and may then return the old one to the BufferFactory pool
   protected FloatBuffer coords;
+  // The collection the coordinate data came from, if known
+  protected Vec3fCollection collection;
+  // The segmented coordinate data, in which case coords is null
+  protected SegmentedVec3fCollection segments;
 
   /** Sets the coordinate data in the passed state. */
   public static void set(State state, FloatBuffer coords) {
     getInstance(state).setElt(coords);
   }
 
+  /** Sets the coordinate data in the passed state from the given
+      collection, which remains available via {@link #getCollection
+      getCollection} so that data derived from it can be cached. */
+  public static void set(State state, Vec3fCollection collection) {
+    getInstance(state).setElt(collection);
+  }
+
+  /** Sets segmented coordinate data in the passed state. Since this
+      data does not fit into a single buffer, {@link #get get} then
+      returns null; shapes supporting it use {@link #getSegments
+      getSegments} instead. */
+  public static void set(State state, SegmentedVec3fCollection segments) {
+    getInstance(state).setElt(segments);
+  }
+
   /** Returns the coordinate data in the passed state. */
   public static FloatBuffer get(State state) {
-    return getInstance(state).coords;
+    return getInstance(state).getCoords();
+  }
+
+  /** Returns the collection the coordinate data in the passed state
+      came from, or null if the data was set as a raw FloatBuffer. */
+  public static Vec3fCollection getCollection(State state) {
+    return getInstance(state).collection;
+  }
+
+  /** Returns the segmented coordinate data in the passed state, or
+      null if the data is not segmented. */
+  public static SegmentedVec3fCollection getSegments(State state) {
+    return getInstance(state).segments;
+  }
+
+  /** Returns the collection, segmented or not, the coordinate data in
+      the passed state came from, or null if the data was set as a
+      raw FloatBuffer. Data derived from the coordinates can be cached
+      along with its version. */
+  public static Versioned getSource(State state) {
+    CoordinateElement elt = getInstance(state);
+    return (elt.collection != null) ? elt.collection : elt.segments;
   }
 
   public void push(State state) {
@@ -86,11 +131,37 @@ public class CoordinateElement extends Element {
     if (prev != null) {
       // Pull down the data from the previous element
       coords = prev.coords;
+      collection = prev.collection;
+      segments = prev.segments;
     }
   }
 
   /** Sets the coordinate data in this element. */
   public void setElt(FloatBuffer coords) {
     this.coords = coords;
+    collection = null;
+    segments = null;
+  }
+
+  /** Sets the coordinate data in this element from the given
+      collection. */
+  public void setElt(Vec3fCollection collection) {
+    this.coords = null;
+    this.collection = collection;
+    segments = null;
+  }
+
+  /** Sets segmented coordinate data in this element. */
+  public void setElt(SegmentedVec3fCollection segments) {
+    coords = null;
+    collection = null;
+    this.segments = segments;
+  }
+
+  /** Returns the coordinate data in this element, fetching it from the
+      collection it came from if there is one. */
+  protected FloatBuffer getCoords() {
+    Vec3fCollection collection = this.collection;
+    return (collection != null) ? collection.getTraversalData() : coords;
   }
 }
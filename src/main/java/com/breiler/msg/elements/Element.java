@@ -56,6 +56,12 @@ public abstract class Element {
   // State keeps track of the top of each element stack.
   private Element nextInStack;
 
+  // The stacks are doubly linked, as in Open Inventor: elements which
+  // have been popped stay linked above the top of their stack so
+  // that they can be reused the next time the stack grows instead of
+  // creating new instances during every traversal.
+  private Element prevInStack;
+
   // Additionally we maintain a linked list through all Element
   // instances pushed and popped in the State, so that we don't have
   // to traverse all Element slots when performing a state pop.
@@ -77,6 +83,13 @@ public abstract class Element {
   /** Sets the next element in the stack. */
   public void    setNextInStack(Element nextInStack) { this.nextInStack = nextInStack; }
 
+  /** Returns the previous element in the stack, which is the one
+      above this element; this is the free element to reuse when this
+      element's stack is next pushed. */
+  public Element getPrevInStack()                    { return prevInStack;             }
+  /** Sets the previous element in the stack. */
+  public void    setPrevInStack(Element prevInStack) { this.prevInStack = prevInStack; }
+
   /** Returns the next element in the linked list of elements which
       were modified since the last state push. */
   public Element getNext()             { return next;      }
@@ -39,7 +39,10 @@ package com.breiler.msg.elements;
 
 import java.nio.FloatBuffer;
 
+import com.breiler.msg.collections.Vec4fCollection;
+import com.breiler.msg.impl.VertexBufferObject;
 import com.breiler.msg.misc.State;
+import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL2;
 import com.jogamp.opengl.glu.GLU;
 
@@ -77,26 +80,41 @@ public class GLColorElement extends ColorElement {
     boolean shouldBeEnabled = enabled;
     enabled = prev.enabled;
     // Put things back the way they were
-    setEnabled(shouldBeEnabled);
+    setEnabled(shouldBeEnabled, colors != prev.colors || collection != prev.collection);
   }
 
   public void setElt(FloatBuffer colors) {
     super.setElt(colors);
-    setEnabled(colors != null);
+    setEnabled(colors != null, true);
   }
 
-  private void setEnabled(boolean enabled) {
-    if (this.enabled == enabled)
+  public void setElt(Vec4fCollection collection) {
+    super.setElt(collection);
+    setEnabled(collection != null, true);
+  }
+
+  private void setEnabled(boolean enabled, boolean dataChanged) {
+    if (this.enabled == enabled && !(enabled && dataChanged))
       return;  // No OpenGL work to do
-    this.enabled = enabled;
     GL2 gl = GLU.getCurrentGL().getGL2();
     if (enabled) {
-      gl.glColorPointer(4, GL2.GL_FLOAT, 0, colors);
-      gl.glEnableClientState(GL2.GL_COLOR_ARRAY);
+      FloatBuffer colors = getColors();
+      VertexBufferObject vbo = (collection != null) ? collection.getBufferObject() : null;
+      if (vbo != null) {
+        vbo.bind(gl, colors);
+        gl.glColorPointer(4, GL2.GL_FLOAT, 0, 0L);
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+      } else {
+        gl.glColorPointer(4, GL2.GL_FLOAT, 0, colors);
+      }
+      if (!this.enabled) {
+        gl.glEnableClientState(GL2.GL_COLOR_ARRAY);
+      }
     } else {
       gl.glDisableClientState(GL2.GL_COLOR_ARRAY);
       // Assume we have to reset the current color to the default
       gl.glColor4f(1, 1, 1, 1);
     }
+    this.enabled = enabled;
   }
 }
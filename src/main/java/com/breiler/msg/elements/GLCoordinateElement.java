@@ -39,7 +39,11 @@ package com.breiler.msg.elements;
 
 import java.nio.FloatBuffer;
 
+import com.breiler.msg.collections.SegmentedVec3fCollection;
+import com.breiler.msg.collections.Vec3fCollection;
+import com.breiler.msg.impl.VertexBufferObject;
 import com.breiler.msg.misc.State;
+import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL2;
 import com.jogamp.opengl.glu.GLU;
 
@@ -76,24 +80,69 @@ public class GLCoordinateElement extends CoordinateElement {
     boolean shouldBeEnabled = enabled;
     enabled = prev.enabled;
     // Put things back the way they were
-    setEnabled(shouldBeEnabled);
+    setEnabled(shouldBeEnabled,
+               coords != prev.coords || collection != prev.collection || segments != prev.segments);
   }
 
   public void setElt(FloatBuffer coords) {
     super.setElt(coords);
-    setEnabled(coords != null);
+    setEnabled(coords != null, true);
   }
 
-  private void setEnabled(boolean enabled) {
-    if (this.enabled == enabled)
+  public void setElt(Vec3fCollection collection) {
+    super.setElt(collection);
+    setEnabled(collection != null, true);
+  }
+
+  public void setElt(SegmentedVec3fCollection segments) {
+    super.setElt(segments);
+    setEnabled(segments != null, true);
+  }
+
+  /** Draws the current segmented coordinates with glDrawArrays in the
+      given mode, one segment at a time, pointing OpenGL at each
+      segment in turn. Vertices at the end of a segment which do not
+      make up a whole primitive of the given size are skipped. Does
+      nothing if the coordinates are not segmented. */
+  public void drawSegments(GL2 gl, int mode, int verticesPerPrimitive) {
+    if (segments == null || !enabled)
+      return;
+    for (int i = 0, n = segments.getSegmentCount(); i < n; i++) {
+      FloatBuffer segment = segments.getSegment(i);
+      int count = segment.limit() / 3;
+      count -= count % verticesPerPrimitive;
+      if (count > 0) {
+        gl.glVertexPointer(3, GL2.GL_FLOAT, 0, segment);
+        gl.glDrawArrays(mode, 0, count);
+      }
+    }
+  }
+
+  private void setEnabled(boolean enabled, boolean dataChanged) {
+    if (this.enabled == enabled && !(enabled && dataChanged))
       return;  // No OpenGL work to do
-    this.enabled = enabled;
     GL2 gl = GLU.getCurrentGL().getGL2();
-    if (enabled) {
-      gl.glVertexPointer(3, GL2.GL_FLOAT, 0, coords);
-      gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
+    if (enabled && segments != null) {
+      // The pointer is set for each segment when drawing
+      if (!this.enabled) {
+        gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
+      }
+    } else if (enabled) {
+      FloatBuffer coords = getCoords();
+      VertexBufferObject vbo = (collection != null) ? collection.getBufferObject() : null;
+      if (vbo != null) {
+        vbo.bind(gl, coords);
+        gl.glVertexPointer(3, GL2.GL_FLOAT, 0, 0L);
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+      } else {
+        gl.glVertexPointer(3, GL2.GL_FLOAT, 0, coords);
+      }
+      if (!this.enabled) {
+        gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
+      }
     } else {
       gl.glDisableClientState(GL2.GL_VERTEX_ARRAY);
     }
+    this.enabled = enabled;
   }
 }
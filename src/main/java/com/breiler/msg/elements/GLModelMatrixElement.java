@@ -63,6 +63,8 @@ public class GLModelMatrixElement extends ModelMatrixElement {
 
   // State which we need in order to reset the modelview matrix
   private State state;
+  // Scratch storage for sending matrices to OpenGL
+  private final float[] matrixData = new float[16];
 
   public void push(State state) {
     super.push(state);
@@ -88,19 +90,35 @@ public class GLModelMatrixElement extends ModelMatrixElement {
     Matrix4f mat = ViewingMatrixElement.getInstance(state).getMatrix();
     GL2 gl = GLU.getCurrentGL().getGL2();
     if (gl.isExtensionAvailable("GL_VERSION_1_3")) {
-        gl.glLoadTransposeMatrixf(MathUtils.getRowMajorData(mat), 0);
+        gl.glLoadTransposeMatrixf(MathUtils.getRowMajorData(mat, matrixData), 0);
     } else {
-        gl.glLoadMatrixf(MathUtils.getColumnMajorData(mat), 0);
+        gl.glLoadMatrixf(MathUtils.getColumnMajorData(mat, matrixData), 0);
     }
   }
 
   public void multElt(Matrix4f matrix) {
     super.multElt(matrix);
+    multGL(matrix);
+  }
+
+  public Cache multElt(Matrix4f matrix, Cache cache) {
+    Cache res = super.multElt(matrix, cache);
+    // OpenGL multiplies the modelview matrix either way; products are
+    // only reused for an unchanged transform, so both stay the same
+    multGL(matrix);
+    return res;
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private void multGL(Matrix4f matrix) {
     GL2 gl = GLU.getCurrentGL().getGL2();
     if (gl.isExtensionAvailable("GL_VERSION_1_3")) {
-        gl.glMultTransposeMatrixf(MathUtils.getRowMajorData(matrix), 0);
+        gl.glMultTransposeMatrixf(MathUtils.getRowMajorData(matrix, matrixData), 0);
     } else {
-        gl.glMultMatrixf(MathUtils.getColumnMajorData(matrix), 0);
+        gl.glMultMatrixf(MathUtils.getColumnMajorData(matrix, matrixData), 0);
     }
   }
 }
@@ -61,6 +61,9 @@ public class GLProjectionMatrixElement extends ProjectionMatrixElement {
     defaultState.setElement(tmp.getStateIndex(), tmp);
   }
 
+  // Scratch storage for sending matrices to OpenGL
+  private final float[] matrixData = new float[16];
+
   public void push(State state) {
     super.push(state);
   }
@@ -70,9 +73,9 @@ public class GLProjectionMatrixElement extends ProjectionMatrixElement {
     GL2 gl = GLU.getCurrentGL().getGL2();
     gl.glMatrixMode(GL2.GL_PROJECTION);
     if (gl.isExtensionAvailable("GL_VERSION_1_3")) {
-        gl.glLoadTransposeMatrixf(MathUtils.getRowMajorData(matrix), 0);
+        gl.glLoadTransposeMatrixf(MathUtils.getRowMajorData(matrix, matrixData), 0);
     } else {
-        gl.glLoadMatrixf(MathUtils.getColumnMajorData(matrix), 0);
+        gl.glLoadMatrixf(MathUtils.getColumnMajorData(matrix, matrixData), 0);
     }
     gl.glMatrixMode(GL2.GL_MODELVIEW);
   }
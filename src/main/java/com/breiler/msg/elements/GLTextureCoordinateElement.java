@@ -39,7 +39,10 @@ package com.breiler.msg.elements;
 
 import java.nio.FloatBuffer;
 
+import com.breiler.msg.collections.Vec2fCollection;
+import com.breiler.msg.impl.VertexBufferObject;
 import com.breiler.msg.misc.State;
+import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL2;
 import com.jogamp.opengl.glu.GLU;
 
@@ -77,28 +80,43 @@ public class GLTextureCoordinateElement extends TextureCoordinateElement {
     boolean shouldBeEnabled = enabled;
     enabled = prev.enabled;
     // Put things back the way they were
-    setEnabled(shouldBeEnabled);
+    setEnabled(shouldBeEnabled, coords != prev.coords || collection != prev.collection);
   }
 
   public void setElt(FloatBuffer coords) {
     super.setElt(coords);
-    setEnabled(coords != null);
+    setEnabled(coords != null, true);
   }
 
-  private void setEnabled(boolean enabled) {
-    if (this.enabled == enabled)
+  public void setElt(Vec2fCollection collection) {
+    super.setElt(collection);
+    setEnabled(collection != null, true);
+  }
+
+  private void setEnabled(boolean enabled, boolean dataChanged) {
+    if (this.enabled == enabled && !(enabled && dataChanged))
       return;  // No OpenGL work to do
-    this.enabled = enabled;
     GL2 gl = GLU.getCurrentGL().getGL2();
     if (enabled) {
       // FIXME: may want to link this up with the GLTextureElement so
       // that we only enable the texture coordinate array if we both
       // have a TextureCoordinateElement and a TextureElement active
       // (a little error checking for the application)
-      gl.glTexCoordPointer(2, GL2.GL_FLOAT, 0, coords);
-      gl.glEnableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+      FloatBuffer coords = getCoords();
+      VertexBufferObject vbo = (collection != null) ? collection.getBufferObject() : null;
+      if (vbo != null) {
+        vbo.bind(gl, coords);
+        gl.glTexCoordPointer(2, GL2.GL_FLOAT, 0, 0L);
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+      } else {
+        gl.glTexCoordPointer(2, GL2.GL_FLOAT, 0, coords);
+      }
+      if (!this.enabled) {
+        gl.glEnableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+      }
     } else {
       gl.glDisableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
     }
+    this.enabled = enabled;
   }
 }
@@ -64,6 +64,8 @@ public class GLViewingMatrixElement extends ViewingMatrixElement {
   // State which we need in order to reset the modelview matrix
   private State state;
   protected Matrix4f temp = new Matrix4f();
+  // Scratch storage for sending matrices to OpenGL
+  private final float[] matrixData = new float[16];
 
   public void push(State state) {
     super.push(state);
@@ -77,9 +79,9 @@ public class GLViewingMatrixElement extends ViewingMatrixElement {
     temp.mul(matrix, mdl);
     GL2 gl = GLU.getCurrentGL().getGL2();
     if (gl.isExtensionAvailable("GL_VERSION_1_3")) {
-        gl.glLoadTransposeMatrixf(MathUtils.getRowMajorData(temp), 0);
+        gl.glLoadTransposeMatrixf(MathUtils.getRowMajorData(temp, matrixData), 0);
     } else {
-        gl.glLoadMatrixf(MathUtils.getColumnMajorData(temp), 0);
+        gl.glLoadMatrixf(MathUtils.getColumnMajorData(temp, matrixData), 0);
     }
   }
 }
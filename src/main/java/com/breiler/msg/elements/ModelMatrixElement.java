@@ -68,9 +68,107 @@ public class ModelMatrixElement extends Element {
     return (state.getDefaults().getElement(index) != null);
   }
 
+  /** Holds the product of a model matrix with the transform of a
+      node, along with its inverse once needed, so that traversals
+      reaching the node with the same model matrix can reuse them
+      rather than multiply the matrices again. A node reached with
+      several model matrices, for example because it has several
+      parents, keeps a short chain of caches, one per model matrix.
+      The chain also keeps a copy of the transform, so that products
+      are not reused once the transform has been modified in place.
+      Instances are immutable once created and may be shared between
+      threads. */
+  public static class Cache {
+    /** The cache of the identity matrix, which the model matrix
+        starts out as. */
+    public static final Cache IDENTITY = new Cache(null, identity(), null, null);
+
+    // The most model matrices a node keeps products for
+    private static final int MAX_SIZE = 4;
+    // The number of products left uncached with a full chain before
+    // it is started over, so that chains holding stale products
+    // recover while nodes reached with more model matrices than that
+    // only allocate once in a while
+    private static final int MAX_MISSES = 64;
+
+    // The cache of the model matrix the product was computed from
+    private final Cache incoming;
+    private final Matrix4f matrix;
+    private volatile Matrix4f inverse;
+    // The transform of the node the product was computed with,
+    // shared by all caches of the chain
+    private final Matrix4f transform;
+    // The cache for another model matrix reaching the same node
+    private final Cache next;
+    // The number of caches in the chain starting here
+    private final int size;
+    // Products left uncached since the chain became full; updated
+    // without synchronization as losing a count is harmless
+    private int misses;
+
+    private Cache(Cache incoming, Matrix4f matrix, Matrix4f transform, Cache next) {
+      this.incoming = incoming;
+      this.matrix = new Matrix4f(matrix);
+      if (next != null) {
+        this.transform = next.transform;
+      } else {
+        this.transform = (transform != null) ? new Matrix4f(transform) : null;
+      }
+      this.next = next;
+      size = (next != null) ? next.size + 1 : 1;
+    }
+
+    // Returns the cache in the chain starting here computed from the
+    // given model matrix, or null if there is none
+    private Cache find(Cache incoming) {
+      for (Cache c = this; c != null; c = c.next) {
+        if (c.incoming == incoming)
+          return c;
+      }
+      return null;
+    }
+
+    /** Returns whether the products held by this cache were computed
+        with the given transform, that is, whether the transform has
+        not been modified since. */
+    public boolean isProductOf(Matrix4f transform) {
+      return this.transform != null && this.transform.equals(transform);
+    }
+
+    /** Returns the cached local-to-world matrix, which must not be
+        modified. */
+    public Matrix4f getMatrix() {
+      return matrix;
+    }
+
+    /** Returns the inverse of the cached matrix, the world-to-local
+        matrix, computing it the first time it is needed. The returned
+        matrix must not be modified. */
+    public Matrix4f getInverse() {
+      Matrix4f inv = inverse;
+      if (inv == null) {
+        inv = new Matrix4f(matrix);
+        inv.invert();
+        inverse = inv;
+      }
+      return inv;
+    }
+
+    private static Matrix4f identity() {
+      Matrix4f m = new Matrix4f();
+      m.setIdentity();
+      return m;
+    }
+  }
+
   // The matrix data
   protected Matrix4f matrix;
   protected Matrix4f temp = new Matrix4f();
+  // The cache holding the current matrix, or null if the matrix was
+  // changed without one
+  protected Cache cache = Cache.IDENTITY;
+  // Scratch storage for the inverse of a matrix not held by a cache
+  private final Matrix4f inverse = new Matrix4f();
 
   public ModelMatrixElement() {
     matrix = new Matrix4f();
@@ -81,6 +179,7 @@ public class ModelMatrixElement extends Element {
     ModelMatrixElement prev = (ModelMatrixElement) getNextInStack();
     if (prev != null) {
       matrix.set(prev.matrix);
+      cache = prev.cache;
     }
   }
 
@@ -99,6 +198,7 @@ public class ModelMatrixElement extends Element {
   /** Sets this element to the identity matrix. */
   public void makeEltIdent() {
     matrix.setIdentity();
+    cache = Cache.IDENTITY;
   }
 
   /** Multiplies the current element by the given matrix. */
@@ -107,9 +207,76 @@ public class ModelMatrixElement extends Element {
     elt.multElt(matrix);
   }
 
+  /** Multiplies the current element by the transform of a node,
+      reusing the product held by the given cache, which may be null,
+      if one of its chain was computed from the current matrix.
+      Returns the cache the node should keep and pass in the next
+      time, which is the one passed in if the current matrix is not
+      held by a cache or the product was reused or left uncached.
+      Caches computed with a different transform, as when it has been
+      modified in place, are not reused. */
+  public static Cache mult(State state, Matrix4f matrix, Cache cache) {
+    ModelMatrixElement elt = getInstance(state);
+    return elt.multElt(matrix, cache);
+  }
+
   /** Multiplies this element by the given matrix. */
   public void multElt(Matrix4f matrix) {
     temp.set(this.matrix);
     this.matrix.mul(temp, matrix);
+    cache = null;
+  }
+
+  /** Multiplies this element by the transform of a node, reusing the
+      product held by the given cache if possible; see {@link
+      #mult(State, Matrix4f, Cache) mult}. */
+  public Cache multElt(Matrix4f matrix, Cache cache) {
+    if (cache != null && !cache.isProductOf(matrix)) {
+      // The transform has been modified since; its products are stale
+      cache = null;
+    }
+    Cache incoming = this.cache;
+    Cache hit = (incoming != null && cache != null) ? cache.find(incoming) : null;
+    if (hit != null) {
+      this.matrix.set(hit.matrix);
+      this.cache = hit;
+      return cache;
+    }
+    temp.set(this.matrix);
+    this.matrix.mul(temp, matrix);
+    if (incoming == null) {
+      return cache;
+    }
+    if (cache == null || cache.size < Cache.MAX_SIZE) {
+      cache = new Cache(incoming, this.matrix, matrix, cache);
+    } else if (++cache.misses >= Cache.MAX_MISSES) {
+      cache = new Cache(incoming, this.matrix, matrix, null);
+    } else {
+      // The node is reached with more model matrices than it keeps
+      // products for; rather than allocate a cache on every visit,
+      // leave this product uncached as if multiplied by multElt
+      this.cache = null;
+      return cache;
+    }
+    this.cache = cache;
+    return cache;
+  }
+
+  /** Returns the cache holding the current model matrix, or null if
+      the matrix is not held by one. */
+  public Cache getCache() {
+    return cache;
+  }
+
+  /** Returns the inverse of the current model matrix, which callers
+      must not mutate. Where the matrix is held by a cache, its inverse
+      is only computed once. */
+  public Matrix4f getInverseMatrix() {
+    Cache c = cache;
+    if (c != null)
+      return c.getInverse();
+    inverse.set(matrix);
+    inverse.invert();
+    return inverse;
   }
 }
@@ -39,6 +39,7 @@ package com.breiler.msg.elements;
 
 import java.nio.FloatBuffer;
 
+import com.breiler.msg.collections.Vec2fCollection;
 import com.breiler.msg.misc.State;
 import com.breiler.msg.misc.StateIndex;
 
@@ -68,17 +69,34 @@ public class TextureCoordinateElement extends Element {
     return (state.getDefaults().getElement(index) != null);
   }
 
-  // The actual coordinate data
+  // The texture coordinate data if set as a raw buffer. Data from a collection
+  // is fetched from it each time, since it replaces its buffer as it
+  // grows and may then return the old one to the BufferFactory pool
   protected FloatBuffer coords;
+  // The collection the texture coordinate data came from, if known
+  protected Vec2fCollection collection;
 
   /** Sets the texture coordinate data in the passed state. */
   public static void set(State state, FloatBuffer coords) {
     getInstance(state).setElt(coords);
   }
 
+  /** Sets the texture coordinate data in the passed state from the given
+      collection, which remains available via {@link #getCollection
+      getCollection}. */
+  public static void set(State state, Vec2fCollection collection) {
+    getInstance(state).setElt(collection);
+  }
+
   /** Returns the texture coordinate data in the passed state. */
   public static FloatBuffer get(State state) {
-    return getInstance(state).coords;
+    return getInstance(state).getCoords();
+  }
+
+  /** Returns the collection the texture coordinate data in the passed state came
+      from, or null if the data was set as a raw FloatBuffer. */
+  public static Vec2fCollection getCollection(State state) {
+    return getInstance(state).collection;
   }
 
   public void push(State state) {
@@ -86,11 +104,27 @@ public class TextureCoordinateElement extends Element {
     if (prev != null) {
       // Pull down the data from the previous element
       coords = prev.coords;
+      collection = prev.collection;
     }
   }
 
   /** Sets the texture coordinate data in this element. */
   public void setElt(FloatBuffer coords) {
     this.coords = coords;
+    collection = null;
+  }
+
+  /** Sets the texture coordinate data in this element from the given
+      collection. */
+  public void setElt(Vec2fCollection collection) {
+    this.coords = null;
+    this.collection = collection;
+  }
+
+  /** Returns the texture coordinate data in this element, fetching it from the
+      collection it came from if there is one. */
+  protected FloatBuffer getCoords() {
+    Vec2fCollection collection = this.collection;
+    return (collection != null) ? collection.getTraversalData() : coords;
   }
 }
@@ -37,107 +37,665 @@
 
 package com.breiler.msg.impl;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.DoubleBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.nio.ShortBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.breiler.msg.nodes.Node;
 import com.jogamp.common.nio.Buffers;
 
-/** Assists in allocation of direct Buffers. On some platforms when a
-    small direct Buffer is allocated there is a large amount of
-    rounding up which occurs. This BufferFactory allocates direct
-    Buffers in chunks and hands out slices of those chunks to
-    clients. */
+/** Assists in allocation of direct Buffers. Allocating and freeing
+    direct memory is comparatively expensive, so this BufferFactory
+    keeps the memory of released buffers in pools and hands it out
+    again. <P>
+
+    Buffers of up to one megabyte are rounded up to a power-of-two
+    size class. Each thread keeps a small arena of released blocks for
+    itself, and the rest go to a shared pool. The total size of the
+    pool and the arenas is bounded by {@link #setMaxPooledBytes
+    setMaxPooledBytes}. Larger
+    buffers are allocated individually and never pooled. <P>
+
+    Buffers are returned to the pool with {@link #release release}
+    once the caller is done with them. Buffers which are simply
+    dropped are freed by the garbage collector as usual and forgotten
+    by this factory; they can not be pooled, since views derived from
+    them may still be in use. The contents of a newly allocated buffer
+    are always zero. This class is safe to use from several threads
+    at once. <P>
+
+    The factory keeps track of the direct memory it has handed out,
+    in total, by buffer type and by the type of the node owning each
+    buffer; see {@link #setOwner setOwner}. While {@link
+    #setAllocationSiteCapture allocation site capture} is enabled, it
+    also records where each buffer was allocated and when nodes are
+    removed from the scene graph, so that {@link #getLeakReport
+    getLeakReport} can tell which buffers are kept alive by nodes no
+    longer in use. All statistics are also available through JMX once
+    {@link #registerMXBean registerMXBean} has been called. */
 
 public class BufferFactory {
-  private static ByteBuffer   curByteBuf;
-  private static ShortBuffer  curShortBuf;
-  private static IntBuffer    curIntBuf;
-  private static FloatBuffer  curFloatBuf;
-  private static DoubleBuffer curDoubleBuf;
-
-  // I believe the rounding-up size of direct Buffers on Unix platforms is 8K
-  private static final int CHUNK_SIZE = 8 * 1024;
-
-  public static synchronized ByteBuffer newByteBuffer(final int numElements) {
-    final int sz = numElements * Buffers.SIZEOF_BYTE;
-    if (sz > CHUNK_SIZE) {
-      // Just allocate a fresh ByteBuffer and don't worry about
-      // rounding up its allocation size and re-using the end portion
-      return Buffers.newDirectByteBuffer(numElements);
-    }
-    if (curByteBuf == null || curByteBuf.remaining() < numElements) {
-      curByteBuf = Buffers.newDirectByteBuffer(CHUNK_SIZE / Buffers.SIZEOF_BYTE);
-    }
-    curByteBuf.limit(curByteBuf.position() + numElements);
-    final ByteBuffer res = curByteBuf.slice();
-    curByteBuf.position(curByteBuf.limit());
-    return res;
+  // Smallest and largest pooled block sizes, as powers of two
+  private static final int MIN_CLASS_SHIFT = 6;   // 64 bytes
+  private static final int MAX_CLASS_SHIFT = 20;  // 1 MB
+  private static final int NUM_CLASSES = MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1;
+  // Bytes of released blocks each thread keeps for itself
+  private static final int ARENA_BYTES = 256 * 1024;
+
+  private static volatile long maxPooledBytes = 32L * 1024 * 1024;
+  private static final AtomicLong pooledBytes = new AtomicLong();
+  private static final ConcurrentLinkedQueue<ByteBuffer>[] pool = newPool();
+  private static final ThreadLocal<Arena> arenas = new ThreadLocal<Arena>() {
+      protected Arena initialValue() {
+        Arena arena = new Arena(Thread.currentThread());
+        allArenas.add(arena);
+        return arena;
+      }
+    };
+  // The arenas of all threads, so that the blocks kept by those of
+  // threads which have terminated can be reclaimed
+  private static final ConcurrentLinkedQueue<Arena> allArenas = new ConcurrentLinkedQueue<>();
+
+  // Buffers handed out and not released yet. Those dropped without
+  // being released are removed once the garbage collector notices.
+  private static final ConcurrentHashMap<Object, Allocation> allocations = new ConcurrentHashMap<>();
+  private static final ReferenceQueue<Buffer> dropped = new ReferenceQueue<>();
+
+  private static final byte[] ZEROS = new byte[4096];
+
+  /** The name the management interface is registered under. */
+  public static final String MXBEAN_NAME = "com.breiler.msg:type=BufferFactory";
+  private static final String NO_OWNER = "(none)";
+
+  // Bytes handed out, in total and by buffer and owner type
+  private static final Counter liveBytes = new Counter();
+  private static final AtomicLong liveBuffers = new AtomicLong();
+  private static final ConcurrentHashMap<String, Counter> bufferTypes = new ConcurrentHashMap<>();
+  private static final ConcurrentHashMap<String, Counter> ownerTypes = new ConcurrentHashMap<>();
+  // Bytes of released blocks in the per-thread arenas
+  private static final AtomicLong arenaBytes = new AtomicLong();
+
+  private static volatile boolean captureSites;
+  // Nodes removed from the scene graph while capturing allocation
+  // sites, with the time of their removal
+  private static final Map<Object, Long> detached = Collections.synchronizedMap(new WeakHashMap<>());
+
+  public static ByteBuffer newByteBuffer(final int numElements) {
+    final ByteBuffer block = allocate(numElements * Buffers.SIZEOF_BYTE);
+    return register(view(block), block, "ByteBuffer");
   }
 
-  public static synchronized ShortBuffer newShortBuffer(final int numElements) {
-    final int sz = numElements * Buffers.SIZEOF_SHORT;
-    if (sz > CHUNK_SIZE) {
-      // Just allocate a fresh ShortBuffer and don't worry about
-      // rounding up its allocation size and re-using the end portion
-      return Buffers.newDirectShortBuffer(numElements);
+  public static ShortBuffer newShortBuffer(final int numElements) {
+    final ByteBuffer block = allocate(numElements * Buffers.SIZEOF_SHORT);
+    return register(view(block).asShortBuffer(), block, "ShortBuffer");
+  }
+
+  public static IntBuffer newIntBuffer(final int numElements) {
+    final ByteBuffer block = allocate(numElements * Buffers.SIZEOF_INT);
+    return register(view(block).asIntBuffer(), block, "IntBuffer");
+  }
+
+  public static FloatBuffer newFloatBuffer(final int numElements) {
+    final ByteBuffer block = allocate(numElements * Buffers.SIZEOF_FLOAT);
+    return register(view(block).asFloatBuffer(), block, "FloatBuffer");
+  }
+
+  public static DoubleBuffer newDoubleBuffer(final int numElements) {
+    final ByteBuffer block = allocate(numElements * Buffers.SIZEOF_DOUBLE);
+    return register(view(block).asDoubleBuffer(), block, "DoubleBuffer");
+  }
+
+  /** Returns the memory of a buffer allocated by this factory to the
+      pool. Neither the buffer nor any views derived from it may be
+      used afterward. Buffers not allocated by this factory, or
+      already released, are ignored. */
+  public static void release(final Buffer buffer) {
+    if (buffer == null)
+      return;
+    final Allocation allocation = allocations.remove(new Key(buffer));
+    if (allocation == null)
+      return;
+    allocation.clear();
+    forget(allocation);
+    recycle(allocation.block, allocation.sizeClass);
+  }
+
+  /** Records the object, typically a Node, owning a buffer allocated
+      by this factory, so that its memory is accounted to the owner's
+      type and the buffer can be reported if the owner is removed from
+      the scene graph. A null owner removes the association. Buffers
+      not allocated by this factory are ignored. */
+  public static void setOwner(final Buffer buffer, final Object owner) {
+    if (buffer == null)
+      return;
+    final Allocation allocation = allocations.get(new Key(buffer));
+    if (allocation == null)
+      return;
+    synchronized (allocation) {
+      if (!allocation.live)
+        return;
+      final long bytes = allocation.block.capacity();
+      counter(ownerTypes, allocation.ownerType).add(-bytes);
+      allocation.owner = (owner != null) ? new WeakReference<>(owner) : null;
+      allocation.ownerType = (owner != null) ? owner.getClass().getName() : NO_OWNER;
+      counter(ownerTypes, allocation.ownerType).add(bytes);
     }
-    if (curShortBuf == null || curShortBuf.remaining() < numElements) {
-      curShortBuf = Buffers.newDirectShortBuffer(CHUNK_SIZE / Buffers.SIZEOF_SHORT);
+  }
+
+  /** Sets the maximum number of bytes kept for reuse in the shared
+      pool and the per-thread arenas together, discarding pooled
+      memory above it. The arenas of running threads are not emptied,
+      but receive no more blocks while the limit is exceeded. Defaults
+      to 32 MB. */
+  public static void setMaxPooledBytes(final long maxBytes) {
+    maxPooledBytes = maxBytes;
+    reclaimArenas();
+    // Discard the largest blocks first
+    for (int i = NUM_CLASSES - 1; i >= 0 && getPooledBytes() > maxBytes; i--) {
+      ByteBuffer block;
+      while (getPooledBytes() > maxBytes && (block = pool[i].poll()) != null) {
+        pooledBytes.addAndGet(-block.capacity());
+      }
     }
-    curShortBuf.limit(curShortBuf.position() + numElements);
-    final ShortBuffer res = curShortBuf.slice();
-    curShortBuf.position(curShortBuf.limit());
-    return res;
   }
 
-  public static synchronized IntBuffer newIntBuffer(final int numElements) {
-    final int sz = numElements * Buffers.SIZEOF_INT;
-    if (sz > CHUNK_SIZE) {
-      // Just allocate a fresh IntBuffer and don't worry about
-      // rounding up its allocation size and re-using the end portion
-      return Buffers.newDirectIntBuffer(numElements);
+  /** Returns the maximum number of bytes kept for reuse. */
+  public static long getMaxPooledBytes() {
+    return maxPooledBytes;
+  }
+
+  /** Returns the number of bytes in buffers handed out which have
+      neither been released nor collected yet. Sizes are those of the
+      underlying blocks, so they may exceed the requested sizes. */
+  public static long getLiveBytes() {
+    forgetDropped();
+    return liveBytes.live.get();
+  }
+
+  /** Returns the highest value {@link #getLiveBytes getLiveBytes} has
+      had since the peaks were last {@link #resetPeaks reset}. */
+  public static long getPeakBytes() {
+    return liveBytes.peak.get();
+  }
+
+  /** Returns the number of buffers handed out which have neither been
+      released nor collected yet. */
+  public static long getLiveBuffers() {
+    forgetDropped();
+    return liveBuffers.get();
+  }
+
+  /** Returns the number of bytes of released memory kept for reuse,
+      in the shared pool as well as in the per-thread arenas. This
+      memory is allocated, but not counted as live. */
+  public static long getPooledBytes() {
+    return pooledBytes.get() + arenaBytes.get();
+  }
+
+  /** Returns the live bytes by buffer type, such as "FloatBuffer". */
+  public static Map<String, Long> getLiveBytesByBufferType() {
+    forgetDropped();
+    return snapshot(bufferTypes, false);
+  }
+
+  /** Returns the peak bytes by buffer type, such as "FloatBuffer". */
+  public static Map<String, Long> getPeakBytesByBufferType() {
+    return snapshot(bufferTypes, true);
+  }
+
+  /** Returns the live bytes by the class name of the buffers' owners.
+      Buffers without an owner are listed under "(none)". */
+  public static Map<String, Long> getLiveBytesByOwnerType() {
+    forgetDropped();
+    return snapshot(ownerTypes, false);
+  }
+
+  /** Returns the peak bytes by the class name of the buffers' owners.
+      Buffers without an owner are listed under "(none)". */
+  public static Map<String, Long> getPeakBytesByOwnerType() {
+    return snapshot(ownerTypes, true);
+  }
+
+  /** Resets all peak values to the current live values. */
+  public static void resetPeaks() {
+    forgetDropped();
+    liveBytes.resetPeak();
+    bufferTypes.values().forEach(Counter::resetPeak);
+    ownerTypes.values().forEach(Counter::resetPeak);
+  }
+
+  /** Sets whether a stack trace is captured for every buffer
+      allocated and the removal of nodes from the scene graph is
+      recorded, for use by {@link #getLeakReport getLeakReport}. This
+      makes allocation considerably more expensive and should only be
+      enabled while diagnosing. Disabled by default. */
+  public static void setAllocationSiteCapture(final boolean capture) {
+    captureSites = capture;
+    if (!capture) {
+      detached.clear();
     }
-    if (curIntBuf == null || curIntBuf.remaining() < numElements) {
-      curIntBuf = Buffers.newDirectIntBuffer(CHUNK_SIZE / Buffers.SIZEOF_INT);
+  }
+
+  /** Indicates whether allocation sites are being captured. */
+  public static boolean isAllocationSiteCapture() {
+    return captureSites;
+  }
+
+  /** Returns a description of every buffer still reachable although
+      its owner was removed from the scene graph while allocation
+      site capture was enabled, or has been garbage collected. Each
+      entry includes the stack trace of the allocation if it was
+      captured. Since unreachable buffers are only noticed once the
+      garbage collector has run, it may be worth requesting a
+      collection first. */
+  public static List<String> getLeakReport() {
+    forgetDropped();
+    final long now = System.currentTimeMillis();
+    final List<String> res = new ArrayList<>();
+    for (Allocation allocation : allocations.values()) {
+      final WeakReference<Object> ownerRef;
+      final String ownerType;
+      synchronized (allocation) {
+        ownerRef = allocation.owner;
+        ownerType = allocation.ownerType;
+      }
+      if (ownerRef == null)
+        continue;
+      final Object owner = ownerRef.get();
+      String reason;
+      if (owner == null) {
+        reason = "its owner has been garbage collected";
+      } else {
+        final Long time = detachedSince(owner);
+        if (time == null)
+          continue;
+        reason = "its owner was removed from the scene graph " + (now - time) + " ms ago";
+      }
+      final StringWriter str = new StringWriter();
+      final PrintWriter out = new PrintWriter(str);
+      out.print(allocation.type + " of " + allocation.block.capacity() + " bytes owned by " +
+                ownerType + " is still reachable although " + reason);
+      if (allocation.site != null) {
+        out.println(", allocated at");
+        for (StackTraceElement frame : allocation.site.getStackTrace()) {
+          if (!frame.getClassName().equals(BufferFactory.class.getName())) {
+            out.println("\tat " + frame);
+          }
+        }
+      }
+      out.flush();
+      res.add(str.toString().trim());
     }
-    curIntBuf.limit(curIntBuf.position() + numElements);
-    final IntBuffer res = curIntBuf.slice();
-    curIntBuf.position(curIntBuf.limit());
     return res;
   }
 
-  public static synchronized FloatBuffer newFloatBuffer(final int numElements) {
-    final int sz = numElements * Buffers.SIZEOF_FLOAT;
-    if (sz > CHUNK_SIZE) {
-      // Just allocate a fresh FloatBuffer and don't worry about
-      // rounding up its allocation size and re-using the end portion
-      return Buffers.newDirectFloatBuffer(numElements);
+  /** Called when a node is removed from its parent. End users should
+      not need to call this method. */
+  public static void ownerDetached(final Object owner) {
+    if (captureSites) {
+      detached.put(owner, System.currentTimeMillis());
     }
-    if (curFloatBuf == null || curFloatBuf.remaining() < numElements) {
-      curFloatBuf = Buffers.newDirectFloatBuffer(CHUNK_SIZE / Buffers.SIZEOF_FLOAT);
+  }
+
+  /** Called when a node is added to a parent. End users should not
+      need to call this method. */
+  public static void ownerAttached(final Object owner) {
+    if (!detached.isEmpty()) {
+      detached.remove(owner);
+    }
+  }
+
+  /** Registers the {@link BufferFactoryMXBean management interface}
+      of this factory with the platform MBean server under {@link
+      #MXBEAN_NAME}, unless it already is. */
+  public static synchronized void registerMXBean() {
+    try {
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      final ObjectName name = new ObjectName(MXBEAN_NAME);
+      if (!server.isRegistered(name)) {
+        server.registerMBean(new MXBean(), name);
+      }
+    } catch (JMException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  /** Associates a buffer handed out with the block backing it. */
+  static final class Allocation extends WeakReference<Buffer> {
+    final int hash;
+    final ByteBuffer block;
+    final int sizeClass;
+    final String type;
+    final Throwable site;
+    // Guarded by this Allocation
+    WeakReference<Object> owner;
+    String ownerType = NO_OWNER;
+    boolean live = true;
+
+    Allocation(final Buffer buffer, final ByteBuffer block, final int sizeClass,
+               final String type, final Throwable site) {
+      super(buffer, dropped);
+      this.hash = System.identityHashCode(buffer);
+      this.block = block;
+      this.sizeClass = sizeClass;
+      this.type = type;
+      this.site = site;
+    }
+
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  /** Looks up the Allocation of a buffer by the buffer's identity;
+      Buffer's own equals compares contents. */
+  static final class Key {
+    final Buffer buffer;
+
+    Key(final Buffer buffer) {
+      this.buffer = buffer;
+    }
+
+    public int hashCode() {
+      return System.identityHashCode(buffer);
+    }
+
+    public boolean equals(final Object o) {
+      return (o instanceof Allocation) && ((Allocation) o).get() == buffer;
+    }
+  }
+
+  /** Live and peak byte counts. */
+  static final class Counter {
+    final AtomicLong live = new AtomicLong();
+    final AtomicLong peak = new AtomicLong();
+
+    void add(final long bytes) {
+      final long value = live.addAndGet(bytes);
+      if (bytes > 0) {
+        peak.accumulateAndGet(value, Math::max);
+      }
+    }
+
+    void resetPeak() {
+      peak.set(live.get());
+    }
+  }
+
+  /** Exposes the static statistics through JMX. */
+  static final class MXBean implements BufferFactoryMXBean {
+    public long getLiveBytes() {
+      return BufferFactory.getLiveBytes();
+    }
+
+    public long getPeakBytes() {
+      return BufferFactory.getPeakBytes();
+    }
+
+    public long getLiveBuffers() {
+      return BufferFactory.getLiveBuffers();
+    }
+
+    public long getPooledBytes() {
+      return BufferFactory.getPooledBytes();
+    }
+
+    public long getMaxPooledBytes() {
+      return BufferFactory.getMaxPooledBytes();
+    }
+
+    public void setMaxPooledBytes(long maxBytes) {
+      BufferFactory.setMaxPooledBytes(maxBytes);
+    }
+
+    public Map<String, Long> getLiveBytesByBufferType() {
+      return BufferFactory.getLiveBytesByBufferType();
+    }
+
+    public Map<String, Long> getPeakBytesByBufferType() {
+      return BufferFactory.getPeakBytesByBufferType();
+    }
+
+    public Map<String, Long> getLiveBytesByOwnerType() {
+      return BufferFactory.getLiveBytesByOwnerType();
+    }
+
+    public Map<String, Long> getPeakBytesByOwnerType() {
+      return BufferFactory.getPeakBytesByOwnerType();
+    }
+
+    public boolean isAllocationSiteCapture() {
+      return BufferFactory.isAllocationSiteCapture();
+    }
+
+    public void setAllocationSiteCapture(boolean capture) {
+      BufferFactory.setAllocationSiteCapture(capture);
+    }
+
+    public List<String> getLeakReport() {
+      return BufferFactory.getLeakReport();
+    }
+
+    public void resetPeaks() {
+      BufferFactory.resetPeaks();
+    }
+  }
+
+  /** Released blocks kept by one thread, by size class. */
+  static final class Arena {
+    // The thread owning this arena, the only one accessing it while
+    // it is alive
+    final Thread thread;
+    @SuppressWarnings("unchecked")
+    final ArrayDeque<ByteBuffer>[] blocks = new ArrayDeque[NUM_CLASSES];
+    int bytes;
+
+    Arena(final Thread thread) {
+      this.thread = thread;
+    }
+
+    ByteBuffer take(final int sizeClass) {
+      final ArrayDeque<ByteBuffer> deque = blocks[sizeClass];
+      final ByteBuffer block = (deque != null) ? deque.poll() : null;
+      if (block != null) {
+        bytes -= block.capacity();
+        arenaBytes.addAndGet(-block.capacity());
+      }
+      return block;
+    }
+
+    boolean offer(final int sizeClass, final ByteBuffer block) {
+      if (bytes + block.capacity() > ARENA_BYTES)
+        return false;
+      if (blocks[sizeClass] == null) {
+        blocks[sizeClass] = new ArrayDeque<>();
+      }
+      blocks[sizeClass].push(block);
+      bytes += block.capacity();
+      arenaBytes.addAndGet(block.capacity());
+      return true;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static ConcurrentLinkedQueue<ByteBuffer>[] newPool() {
+    final ConcurrentLinkedQueue<ByteBuffer>[] res = new ConcurrentLinkedQueue[NUM_CLASSES];
+    for (int i = 0; i < NUM_CLASSES; i++) {
+      res[i] = new ConcurrentLinkedQueue<>();
     }
-    curFloatBuf.limit(curFloatBuf.position() + numElements);
-    final FloatBuffer res = curFloatBuf.slice();
-    curFloatBuf.position(curFloatBuf.limit());
     return res;
   }
 
-  public static synchronized DoubleBuffer newDoubleBuffer(final int numElements) {
-    final int sz = numElements * Buffers.SIZEOF_DOUBLE;
-    if (sz > CHUNK_SIZE) {
-      // Just allocate a fresh DoubleBuffer and don't worry about
-      // rounding up its allocation size and re-using the end portion
-      return Buffers.newDirectDoubleBuffer(numElements);
+  /** Returns the size class for the given number of bytes, or -1 if
+      it is too large to be pooled. */
+  private static int sizeClass(final int bytes) {
+    if (bytes > (1 << MAX_CLASS_SHIFT))
+      return -1;
+    final int shift = 32 - Integer.numberOfLeadingZeros(Math.max(bytes, 1) - 1);
+    return Math.max(shift, MIN_CLASS_SHIFT) - MIN_CLASS_SHIFT;
+  }
+
+  /** Returns a zeroed block with room for at least the given number
+      of bytes, with its limit set to that number. */
+  private static ByteBuffer allocate(final int bytes) {
+    forgetDropped();
+    final int sizeClass = sizeClass(bytes);
+    ByteBuffer block = null;
+    if (sizeClass >= 0) {
+      block = arenas.get().take(sizeClass);
+      if (block == null) {
+        block = pool[sizeClass].poll();
+        if (block != null) {
+          pooledBytes.addAndGet(-block.capacity());
+        }
+      }
+      if (block != null) {
+        zero(block);
+      } else {
+        block = Buffers.newDirectByteBuffer(1 << (sizeClass + MIN_CLASS_SHIFT));
+      }
+    } else {
+      block = Buffers.newDirectByteBuffer(bytes);
     }
-    if (curDoubleBuf == null || curDoubleBuf.remaining() < numElements) {
-      curDoubleBuf = Buffers.newDirectDoubleBuffer(CHUNK_SIZE / Buffers.SIZEOF_DOUBLE);
+    block.clear();
+    block.limit(bytes);
+    return block;
+  }
+
+  private static ByteBuffer view(final ByteBuffer block) {
+    // Slicing resets the byte order
+    return block.slice().order(ByteOrder.nativeOrder());
+  }
+
+  private static <B extends Buffer> B register(final B buffer, final ByteBuffer block, final String type) {
+    final Throwable site = captureSites ? new Throwable() : null;
+    final Allocation allocation = new Allocation(buffer, block, sizeClass(block.capacity()), type, site);
+    count(allocation, block.capacity());
+    allocations.put(allocation, allocation);
+    return buffer;
+  }
+
+  /** Removes a buffer no longer handed out from the statistics. */
+  private static void forget(final Allocation allocation) {
+    synchronized (allocation) {
+      if (!allocation.live)
+        return;
+      allocation.live = false;
+      count(allocation, -allocation.block.capacity());
     }
-    curDoubleBuf.limit(curDoubleBuf.position() + numElements);
-    final DoubleBuffer res = curDoubleBuf.slice();
-    curDoubleBuf.position(curDoubleBuf.limit());
+  }
+
+  private static void count(final Allocation allocation, final long bytes) {
+    liveBytes.add(bytes);
+    liveBuffers.addAndGet(bytes > 0 ? 1 : -1);
+    counter(bufferTypes, allocation.type).add(bytes);
+    counter(ownerTypes, allocation.ownerType).add(bytes);
+  }
+
+  private static Counter counter(final ConcurrentHashMap<String, Counter> counters, final String name) {
+    final Counter counter = counters.get(name);
+    return (counter != null) ? counter : counters.computeIfAbsent(name, k -> new Counter());
+  }
+
+  private static Map<String, Long> snapshot(final ConcurrentHashMap<String, Counter> counters,
+                                            final boolean peak) {
+    final Map<String, Long> res = new TreeMap<>();
+    counters.forEach((name, counter) -> res.put(name, (peak ? counter.peak : counter.live).get()));
     return res;
   }
+
+  /** Returns the time the given node or one of its ancestors was
+      removed from the scene graph, or null if none was. */
+  private static Long detachedSince(Object owner) {
+    while (owner != null) {
+      final Long time = detached.get(owner);
+      if (time != null)
+        return time;
+      owner = (owner instanceof Node) ? ((Node) owner).getParent() : null;
+    }
+    return null;
+  }
+
+  private static void recycle(final ByteBuffer block, final int sizeClass) {
+    if (sizeClass < 0)
+      return;
+    if (getPooledBytes() + block.capacity() > maxPooledBytes) {
+      // Terminated threads may be holding on to part of the limit
+      reclaimArenas();
+      if (getPooledBytes() + block.capacity() > maxPooledBytes)
+        return;
+    }
+    if (arenas.get().offer(sizeClass, block))
+      return;
+    pool(block, sizeClass);
+  }
+
+  /** Adds a block to the shared pool unless the limit is reached. */
+  private static void pool(final ByteBuffer block, final int sizeClass) {
+    if (pooledBytes.addAndGet(block.capacity()) + arenaBytes.get() <= maxPooledBytes) {
+      pool[sizeClass].offer(block);
+    } else {
+      pooledBytes.addAndGet(-block.capacity());
+    }
+  }
+
+  /** Moves the blocks kept by the arenas of terminated threads to the
+      shared pool, as far as the limit allows. */
+  private static void reclaimArenas() {
+    for (final Arena arena : allArenas) {
+      // Only one caller gets to empty each arena
+      if (arena.thread.isAlive() || !allArenas.remove(arena))
+        continue;
+      for (int i = 0; i < NUM_CLASSES; i++) {
+        ByteBuffer block;
+        while ((block = arena.take(i)) != null) {
+          pool(block, i);
+        }
+      }
+    }
+  }
+
+  private static void forgetDropped() {
+    Allocation allocation;
+    while ((allocation = (Allocation) dropped.poll()) != null) {
+      if (allocations.remove(allocation) != null) {
+        forget(allocation);
+      }
+    }
+  }
+
+  private static void zero(final ByteBuffer block) {
+    block.clear();
+    while (block.remaining() >= ZEROS.length) {
+      block.put(ZEROS);
+    }
+    block.put(ZEROS, 0, block.remaining());
+  }
 }
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ *
+ */
+
+package com.breiler.msg.impl;
+
+import java.util.List;
+import java.util.Map;
+
+/** Management interface exposing the direct memory statistics of the
+    {@link BufferFactory} through JMX. Each method corresponds to the
+    static BufferFactory method of the same name. Register it with
+    {@link BufferFactory#registerMXBean BufferFactory.registerMXBean}. */
+
+public interface BufferFactoryMXBean {
+  /** Returns the number of bytes in buffers handed out which have
+      neither been released nor collected. */
+  public long getLiveBytes();
+
+  /** Returns the highest value {@link #getLiveBytes} has had since the
+      peaks were last reset. */
+  public long getPeakBytes();
+
+  /** Returns the number of buffers handed out which have neither been
+      released nor collected. */
+  public long getLiveBuffers();
+
+  /** Returns the number of bytes of released memory kept for reuse,
+      including the per-thread arenas. */
+  public long getPooledBytes();
+
+  public long getMaxPooledBytes();
+
+  public void setMaxPooledBytes(long maxBytes);
+
+  /** Returns the live bytes by buffer type, such as "FloatBuffer". */
+  public Map<String, Long> getLiveBytesByBufferType();
+
+  /** Returns the peak bytes by buffer type, such as "FloatBuffer". */
+  public Map<String, Long> getPeakBytesByBufferType();
+
+  /** Returns the live bytes by the class name of the owning node. */
+  public Map<String, Long> getLiveBytesByOwnerType();
+
+  /** Returns the peak bytes by the class name of the owning node. */
+  public Map<String, Long> getPeakBytesByOwnerType();
+
+  public boolean isAllocationSiteCapture();
+
+  public void setAllocationSiteCapture(boolean capture);
+
+  /** Returns a description of every buffer still reachable although
+      its owning node was removed from the scene graph. */
+  public List<String> getLeakReport();
+
+  /** Resets all peak values to the current live values. */
+  public void resetPeaks();
+}
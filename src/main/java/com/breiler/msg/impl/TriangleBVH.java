@@ -0,0 +1,583 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package com.breiler.msg.impl;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.breiler.msg.math.Line;
+
+import javax.vecmath.Vector3f;
+
+/** A bounding volume hierarchy over a set of triangles, supporting
+    fast ray intersection queries. The hierarchy is built top-down
+    using the surface area heuristic evaluated over a fixed number of
+    bins along the longest axis of each node; subtrees of large meshes
+    are built in parallel on the common fork-join pool. <P>
+
+    The triangles are copied into the hierarchy in the order of its
+    leaves, so it does not keep any references to the data it was
+    built from. Once built, a TriangleBVH is immutable and may be
+    queried from several threads at once. */
+
+public class TriangleBVH {
+  /** Receives the triangles hit by a ray during a query. */
+  public interface HitCallback {
+    /** Called for each triangle intersected by the ray within the
+        current [tMin, tMax] range, in no particular order. The point
+        argument holds the intersection point and may be reused
+        between calls, so callers should copy it if necessary.
+
+        @param triangleIndex the index of the triangle in the order
+                             it was passed to {@link #build build}
+        @param t             the parameter of the intersection along the ray
+        @param point         the intersection point
+        @param tMax          the current end of the range
+        @return the new end of the range, which must not be greater
+                than tMax; returning t only reports closer hits
+                from then on
+    */
+    float hit(int triangleIndex, float t, Vector3f point, float tMax);
+  }
+
+  // Leaves hold at least this many triangles unless there are fewer,
+  // and at most MAX_LEAF_SIZE unless all of them have the same centroid
+  private static final int MIN_SPLIT_SIZE = 2;
+  private static final int MAX_LEAF_SIZE = 4;
+  private static final int NUM_BINS = 16;
+  // Cost of traversing a node relative to intersecting a triangle
+  private static final float TRAVERSAL_COST = 1.0f;
+  // Ranges of triangles at least this large have their subtrees
+  // built in parallel
+  private static final int PARALLEL_THRESHOLD = 16 * 1024;
+
+  // Nine floats per triangle, in leaf order
+  private final float[] verts;
+  // The original index of each triangle, in leaf order
+  private final int[] triIndices;
+  // Six floats per node: min x, y, z, max x, y, z
+  private final float[] nodeBounds;
+  // Two ints per node. Leaves: first triangle and triangle count.
+  // Interior nodes: index of the second child, and -1 - split axis;
+  // the first child always directly follows its parent.
+  private final int[] nodeInfo;
+
+  private TriangleBVH(float[] verts, int[] triIndices, float[] nodeBounds, int[] nodeInfo) {
+    this.verts = verts;
+    this.triIndices = triIndices;
+    this.nodeBounds = nodeBounds;
+    this.nodeInfo = nodeInfo;
+  }
+
+  /** Builds a hierarchy over the given triangles, specified by nine
+      floats (three vertices of x, y and z) each. The array is not
+      referenced after this method returns. */
+  public static TriangleBVH build(float[] triangles, int numTriangles) {
+    if (triangles.length < 9 * numTriangles) {
+      throw new IllegalArgumentException("Need " + (9 * numTriangles) + " floats for " +
+                                         numTriangles + " triangles, have " + triangles.length);
+    }
+    Builder builder = new Builder(triangles, numTriangles);
+    BuildNode root = null;
+    if (numTriangles > 0) {
+      BuildTask task = new BuildTask(builder, 0, numTriangles);
+      root = (numTriangles >= PARALLEL_THRESHOLD) ? ForkJoinPool.commonPool().invoke(task) : task.compute();
+    }
+    return builder.flatten(root);
+  }
+
+  /** Returns the number of triangles in this hierarchy. */
+  public int getNumTriangles() {
+    return triIndices.length;
+  }
+
+  /** Returns the number of nodes in this hierarchy. */
+  public int getNumNodes() {
+    return nodeInfo.length / 2;
+  }
+
+  /** Intersects the given ray with the triangles in this hierarchy,
+      calling the callback for every hit with a parameter t along the
+      ray in the range [tMin, tMax]. Infinite bounds are allowed, for
+      example to find the intersections with the entire line. Returns
+      the end of the range as last returned by the callback. */
+  public float intersect(Line ray, float tMin, float tMax, HitCallback cb) {
+    if (nodeInfo.length == 0) {
+      return tMax;
+    }
+    Vector3f origin = ray.getPoint();
+    Vector3f dir = ray.getDirection();
+    float ox = origin.getX(), oy = origin.getY(), oz = origin.getZ();
+    float invX = 1.0f / dir.getX(), invY = 1.0f / dir.getY(), invZ = 1.0f / dir.getZ();
+
+    RayTriangleIntersection rti = new RayTriangleIntersection();
+    Vector3f v0 = new Vector3f();
+    Vector3f v1 = new Vector3f();
+    Vector3f v2 = new Vector3f();
+    Vector3f tuv = new Vector3f();
+    Vector3f point = new Vector3f();
+
+    int[] stack = new int[64];
+    int sp = 0;
+    int node = 0;
+    while (true) {
+      if (hitsNode(node, ox, oy, oz, invX, invY, invZ, tMin, tMax)) {
+        int first = nodeInfo[2 * node];
+        int info = nodeInfo[2 * node + 1];
+        if (info > 0) {
+          // Leaf
+          for (int i = first, end = first + info; i < end; i++) {
+            int base = 9 * i;
+            v0.set(verts[base],     verts[base + 1], verts[base + 2]);
+            v1.set(verts[base + 3], verts[base + 4], verts[base + 5]);
+            v2.set(verts[base + 6], verts[base + 7], verts[base + 8]);
+            if (rti.intersectTriangle(ray, v0, v1, v2, tuv)) {
+              float t = tuv.getX();
+              if (t >= tMin && t <= tMax) {
+                float b = tuv.getY();
+                float c = tuv.getZ();
+                float a = 1.0f - b - c;
+                point.set(a * v0.getX() + b * v1.getX() + c * v2.getX(),
+                          a * v0.getY() + b * v1.getY() + c * v2.getY(),
+                          a * v0.getZ() + b * v1.getZ() + c * v2.getZ());
+                tMax = cb.hit(triIndices[i], t, point, tMax);
+              }
+            }
+          }
+        } else {
+          // Visit the child on the near side of the split first, so
+          // that callbacks shrinking the range can prune the other
+          int axis = -1 - info;
+          float d = (axis == 0) ? dir.getX() : ((axis == 1) ? dir.getY() : dir.getZ());
+          int near = node + 1;
+          int far = first;
+          if (d < 0) {
+            near = first;
+            far = node + 1;
+          }
+          if (sp == stack.length) {
+            stack = Arrays.copyOf(stack, 2 * sp);
+          }
+          stack[sp++] = far;
+          node = near;
+          continue;
+        }
+      }
+      if (sp == 0) {
+        break;
+      }
+      node = stack[--sp];
+    }
+    return tMax;
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private boolean hitsNode(int node,
+                           float ox, float oy, float oz,
+                           float invX, float invY, float invZ,
+                           float lo, float hi) {
+    // Slab test. Where the ray is parallel to a slab and starts on one
+    // of its planes the products are NaN, and the comparisons below
+    // ignore that slab, which is what is wanted.
+    int base = 6 * node;
+    float t0 = (nodeBounds[base]     - ox) * invX;
+    float t1 = (nodeBounds[base + 3] - ox) * invX;
+    if (t0 > t1) { float tmp = t0; t0 = t1; t1 = tmp; }
+    if (t0 > lo) lo = t0;
+    if (t1 < hi) hi = t1;
+    t0 = (nodeBounds[base + 1] - oy) * invY;
+    t1 = (nodeBounds[base + 4] - oy) * invY;
+    if (t0 > t1) { float tmp = t0; t0 = t1; t1 = tmp; }
+    if (t0 > lo) lo = t0;
+    if (t1 < hi) hi = t1;
+    t0 = (nodeBounds[base + 2] - oz) * invZ;
+    t1 = (nodeBounds[base + 5] - oz) * invZ;
+    if (t0 > t1) { float tmp = t0; t0 = t1; t1 = tmp; }
+    if (t0 > lo) lo = t0;
+    if (t1 < hi) hi = t1;
+    return lo <= hi;
+  }
+
+  static class BuildNode {
+    final float[] bounds = new float[6];
+    BuildNode left;
+    BuildNode right;
+    int axis;
+    int start;
+    int count;
+  }
+
+  /** Holds the per-triangle data used while building. */
+  static class Builder {
+    final float[] triangles;
+    final int numTriangles;
+    // Bounds (six floats) and index of each triangle. Both are
+    // partitioned in place as the tree is built, so that every pass
+    // over a range of triangles reads memory sequentially.
+    final float[] refBounds;
+    final int[] order;
+
+    Builder(float[] triangles, int numTriangles) {
+      this.triangles = triangles;
+      this.numTriangles = numTriangles;
+      refBounds = new float[6 * numTriangles];
+      order = new int[numTriangles];
+      for (int i = 0; i < numTriangles; i++) {
+        order[i] = i;
+        int v = 9 * i;
+        int b = 6 * i;
+        for (int axis = 0; axis < 3; axis++) {
+          float p0 = triangles[v + axis];
+          float p1 = triangles[v + 3 + axis];
+          float p2 = triangles[v + 6 + axis];
+          refBounds[b + axis] = Math.min(p0, Math.min(p1, p2));
+          refBounds[b + 3 + axis] = Math.max(p0, Math.max(p1, p2));
+        }
+      }
+    }
+
+    /** Creates the node for the triangles in [start, end). Returns a
+        leaf, or an interior node without children whose triangles
+        have been partitioned at the index stored into the scratch
+        storage. */
+    BuildNode buildNode(int start, int end, Scratch scratch) {
+      BuildNode node = new BuildNode();
+      float[] bounds = node.bounds;
+      // Bounds of the triangles and of their centroids, the latter
+      // stored doubled to save multiplications. Kept in locals rather
+      // than arrays as this loop runs over every triangle on every
+      // level of the tree.
+      float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, minZ = Float.MAX_VALUE;
+      float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE, maxZ = -Float.MAX_VALUE;
+      float cMinX = Float.MAX_VALUE, cMinY = Float.MAX_VALUE, cMinZ = Float.MAX_VALUE;
+      float cMaxX = -Float.MAX_VALUE, cMaxY = -Float.MAX_VALUE, cMaxZ = -Float.MAX_VALUE;
+      float[] refs = refBounds;
+      for (int i = start; i < end; i++) {
+        int b = 6 * i;
+        float x0 = refs[b],     y0 = refs[b + 1], z0 = refs[b + 2];
+        float x1 = refs[b + 3], y1 = refs[b + 4], z1 = refs[b + 5];
+        if (x0 < minX) minX = x0;
+        if (y0 < minY) minY = y0;
+        if (z0 < minZ) minZ = z0;
+        if (x1 > maxX) maxX = x1;
+        if (y1 > maxY) maxY = y1;
+        if (z1 > maxZ) maxZ = z1;
+        float cx = x0 + x1, cy = y0 + y1, cz = z0 + z1;
+        if (cx < cMinX) cMinX = cx;
+        if (cy < cMinY) cMinY = cy;
+        if (cz < cMinZ) cMinZ = cz;
+        if (cx > cMaxX) cMaxX = cx;
+        if (cy > cMaxY) cMaxY = cy;
+        if (cz > cMaxZ) cMaxZ = cz;
+      }
+      bounds[0] = minX; bounds[1] = minY; bounds[2] = minZ;
+      bounds[3] = maxX; bounds[4] = maxY; bounds[5] = maxZ;
+      float[] cBounds = scratch.cBounds;
+      cBounds[0] = cMinX; cBounds[1] = cMinY; cBounds[2] = cMinZ;
+      cBounds[3] = cMaxX; cBounds[4] = cMaxY; cBounds[5] = cMaxZ;
+      int count = end - start;
+      node.start = start;
+      node.count = count;
+      if (count <= MIN_SPLIT_SIZE) {
+        // Splitting this few triangles never pays for the extra node
+        return node;
+      }
+
+      // Bin the triangles along the axis with the largest extent of
+      // centroids. Small nodes, which make up most of the tree, use
+      // fewer bins.
+      int axis = 0;
+      for (int i = 1; i < 3; i++) {
+        if (cBounds[3 + i] - cBounds[i] > cBounds[3 + axis] - cBounds[axis]) {
+          axis = i;
+        }
+      }
+      float cMin = cBounds[axis];
+      float extent = cBounds[3 + axis] - cMin;
+      int numBins = Math.min(NUM_BINS, count + 1);
+      float scale = numBins / extent;
+      float leafCost = count;
+      float bestCost = Float.MAX_VALUE;
+      int bestBin = -1;
+      if (extent > 0) {
+        int[] binCounts = scratch.binCounts;
+        float[] binBounds = scratch.binBounds;
+        for (int b = 0; b < numBins; b++) {
+          binCounts[b] = 0;
+          emptyBounds(binBounds, 6 * b);
+        }
+        for (int i = start; i < end; i++) {
+          int b = 6 * i;
+          int bin = binIndex(refs[b + axis] + refs[b + 3 + axis], cMin, scale, numBins);
+          ++binCounts[bin];
+          extendBox(binBounds, 6 * bin, refs, b);
+        }
+
+        // Find the cheapest split between bins. Sweep from the right to
+        // get the area of everything right of each boundary, then from
+        // the left evaluating the cost.
+        float[] rightAreas = scratch.rightAreas;
+        float[] acc = scratch.acc;
+        float parentArea = halfArea(bounds, 0);
+        emptyBounds(acc, 0);
+        for (int b = numBins - 1; b > 0; b--) {
+          extendBox(acc, 0, binBounds, 6 * b);
+          rightAreas[b] = halfArea(acc, 0);
+        }
+        emptyBounds(acc, 0);
+        int leftCount = 0;
+        for (int b = 0; b < numBins - 1; b++) {
+          extendBox(acc, 0, binBounds, 6 * b);
+          leftCount += binCounts[b];
+          int rightCount = count - leftCount;
+          if (leftCount == 0 || rightCount == 0) {
+            continue;
+          }
+          float cost = TRAVERSAL_COST +
+            (halfArea(acc, 0) * leftCount + rightAreas[b + 1] * rightCount) / parentArea;
+          // Costs overflow for huge coordinates; any split which
+          // separates the centroids beats none
+          if (bestBin < 0 || cost < bestCost) {
+            bestCost = cost;
+            bestBin = b;
+          }
+        }
+      }
+
+      if (bestBin < 0) {
+        // All centroids coincide, so no split can separate them and
+        // the triangles stay in one leaf, however many there are
+        return node;
+      }
+      if (count <= MAX_LEAF_SIZE && leafCost <= bestCost) {
+        return node;
+      }
+      // Partition the triangles by bin, only moving the ones on the
+      // wrong side
+      int i = start;
+      int j = end - 1;
+      while (true) {
+        while (i <= j && binIndex(refs[6 * i + axis] + refs[6 * i + 3 + axis], cMin, scale, numBins) <= bestBin) {
+          ++i;
+        }
+        while (i <= j && binIndex(refs[6 * j + axis] + refs[6 * j + 3 + axis], cMin, scale, numBins) > bestBin) {
+          --j;
+        }
+        if (i >= j) {
+          break;
+        }
+        swap(i++, j--);
+      }
+      int mid = i;
+      if (mid == start || mid == end) {
+        // Should not happen as both sides of the split hold centroids,
+        // but recursing on the same range must be avoided regardless
+        return node;
+      }
+      node.axis = axis;
+      node.count = 0;
+      scratch.split = mid;
+      return node;
+    }
+
+    private void swap(int i, int j) {
+      int tmp = order[i];
+      order[i] = order[j];
+      order[j] = tmp;
+      int bi = 6 * i;
+      int bj = 6 * j;
+      for (int k = 0; k < 6; k++) {
+        float f = refBounds[bi + k];
+        refBounds[bi + k] = refBounds[bj + k];
+        refBounds[bj + k] = f;
+      }
+    }
+
+    TriangleBVH flatten(BuildNode root) {
+      int numNodes = countNodes(root);
+      float[] verts = new float[9 * numTriangles];
+      int[] triIndices = new int[numTriangles];
+      float[] nodeBounds = new float[6 * numNodes];
+      int[] nodeInfo = new int[2 * numNodes];
+      if (root != null) {
+        // Iterative depth-first traversal, first children first
+        BuildNode[] stack = new BuildNode[64];
+        int[] parents = new int[64];
+        int sp = 0;
+        int next = 0;
+        int slot = 0;
+        stack[sp] = root;
+        parents[sp++] = -1;
+        while (sp > 0) {
+          BuildNode n = stack[--sp];
+          int parent = parents[sp];
+          int idx = next++;
+          if (parent >= 0) {
+            // Only second children are pushed with their parent
+            nodeInfo[2 * parent] = idx;
+          }
+          System.arraycopy(n.bounds, 0, nodeBounds, 6 * idx, 6);
+          if (n.left == null) {
+            nodeInfo[2 * idx] = slot;
+            nodeInfo[2 * idx + 1] = n.count;
+            for (int i = n.start; i < n.start + n.count; i++) {
+              int tri = order[i];
+              System.arraycopy(triangles, 9 * tri, verts, 9 * slot, 9);
+              triIndices[slot++] = tri;
+            }
+          } else {
+            nodeInfo[2 * idx + 1] = -1 - n.axis;
+            if (sp + 2 > stack.length) {
+              stack = Arrays.copyOf(stack, 2 * stack.length);
+              parents = Arrays.copyOf(parents, 2 * parents.length);
+            }
+            stack[sp] = n.right;
+            parents[sp++] = idx;
+            stack[sp] = n.left;
+            parents[sp++] = -1;
+          }
+        }
+      }
+      return new TriangleBVH(verts, triIndices, nodeBounds, nodeInfo);
+    }
+
+    private static int countNodes(BuildNode root) {
+      if (root == null) {
+        return 0;
+      }
+      int num = 0;
+      BuildNode[] stack = new BuildNode[64];
+      int sp = 0;
+      stack[sp++] = root;
+      while (sp > 0) {
+        BuildNode n = stack[--sp];
+        ++num;
+        if (n.left != null) {
+          if (sp + 2 > stack.length) {
+            stack = Arrays.copyOf(stack, 2 * stack.length);
+          }
+          stack[sp++] = n.left;
+          stack[sp++] = n.right;
+        }
+      }
+      return num;
+    }
+
+    private static int binIndex(float c, float min, float scale, int numBins) {
+      int b = (int) ((c - min) * scale);
+      return Math.min(Math.max(b, 0), numBins - 1);
+    }
+
+    private static void emptyBounds(float[] b, int off) {
+      b[off] = b[off + 1] = b[off + 2] = Float.MAX_VALUE;
+      b[off + 3] = b[off + 4] = b[off + 5] = -Float.MAX_VALUE;
+    }
+
+    private static void extendBox(float[] b, int off, float[] src, int srcOff) {
+      // Plain comparisons are cheaper than Math.min and Math.max,
+      // which have to take care of NaN and negative zero
+      for (int axis = 0; axis < 3; axis++) {
+        float min = src[srcOff + axis];
+        float max = src[srcOff + 3 + axis];
+        if (min < b[off + axis])     b[off + axis] = min;
+        if (max > b[off + 3 + axis]) b[off + 3 + axis] = max;
+      }
+    }
+
+    private static float halfArea(float[] b, int off) {
+      float dx = b[off + 3] - b[off];
+      float dy = b[off + 4] - b[off + 1];
+      float dz = b[off + 5] - b[off + 2];
+      if (!(dx >= 0 && dy >= 0 && dz >= 0)) {
+        return 0;
+      }
+      return dx * dy + dy * dz + dz * dx;
+    }
+  }
+
+  /** Storage reused while building the nodes of one subtree. */
+  static class Scratch {
+    final float[] cBounds = new float[6];
+    final int[] binCounts = new int[NUM_BINS];
+    final float[] binBounds = new float[6 * NUM_BINS];
+    final float[] rightAreas = new float[NUM_BINS];
+    final float[] acc = new float[6];
+    // Where the last interior node's triangles were partitioned
+    int split;
+  }
+
+  /** Builds a subtree, forking the construction of the children for
+      large ranges of triangles. */
+  static class BuildTask extends RecursiveTask<BuildNode> {
+    private final Builder builder;
+    private final int start;
+    private final int end;
+
+    BuildTask(Builder builder, int start, int end) {
+      this.builder = builder;
+      this.start = start;
+      this.end = end;
+    }
+
+    protected BuildNode compute() {
+      return build(start, end, new Scratch());
+    }
+
+    private BuildNode build(int start, int end, Scratch scratch) {
+      BuildNode node = builder.buildNode(start, end, scratch);
+      if (node.count > 0) {
+        return node;
+      }
+      int mid = scratch.split;
+      if (end - start >= PARALLEL_THRESHOLD) {
+        BuildTask left = new BuildTask(builder, start, mid);
+        left.fork();
+        node.right = build(mid, end, scratch);
+        node.left = left.join();
+      } else {
+        node.left = build(start, mid, scratch);
+        node.right = build(mid, end, scratch);
+      }
+      return node;
+    }
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ *
+ */
+
+package com.breiler.msg.impl;
+
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL;
+
+/** Keeps a copy of the contents of a collection in an OpenGL buffer
+    object, uploading only the range of the collection modified since
+    the previous upload. The buffer object is created the first time
+    it is bound, in the OpenGL context current at that time; the
+    collection must then only be rendered in that context or contexts
+    sharing objects with it. */
+
+public class VertexBufferObject {
+  // Names of buffer objects no longer in use, deleted the next time
+  // any VertexBufferObject is bound since a context is needed for that
+  private static final List<Integer> released = new ArrayList<>();
+
+  private int name;
+  // Number of floats the buffer object has room for
+  private int capacity;
+  // Range of floats modified since the last upload
+  private int dirtyStart = Integer.MAX_VALUE;
+  private int dirtyEnd;
+  // Whether the contents have been modified after the first upload
+  private boolean dynamic;
+  // The index data last uploaded by bindIndices
+  private Buffer uploadedIndices;
+
+  /** Records that the floats in the range [start, end) of the
+      collection have changed. */
+  public synchronized void markDirty(int start, int end) {
+    if (start < dirtyStart) dirtyStart = start;
+    if (end > dirtyEnd)     dirtyEnd = end;
+  }
+
+  /** Binds the buffer object to GL_ARRAY_BUFFER, creating it and
+      uploading the modified portion of the given data first as
+      necessary. The data is the full current contents of the
+      collection, from zero to its limit. */
+  public synchronized void bind(GL gl, FloatBuffer data) {
+    deleteReleased(gl);
+    int size = data.limit();
+    if (name == 0) {
+      int[] tmp = new int[1];
+      gl.glGenBuffers(1, tmp, 0);
+      name = tmp[0];
+      capacity = -1;
+    }
+    gl.glBindBuffer(GL.GL_ARRAY_BUFFER, name);
+    if (size > capacity) {
+      // Leave room for growth if this is not the first allocation, so
+      // that a collection being appended to is not reallocated every frame
+      int newCapacity = (capacity < 0) ? size : Math.max(size, capacity + capacity / 2);
+      gl.glBufferData(GL.GL_ARRAY_BUFFER, (long) newCapacity * Buffers.SIZEOF_FLOAT, null,
+                      dynamic ? GL.GL_DYNAMIC_DRAW : GL.GL_STATIC_DRAW);
+      gl.glBufferSubData(GL.GL_ARRAY_BUFFER, 0, (long) size * Buffers.SIZEOF_FLOAT, data);
+      dynamic |= (capacity >= 0);
+      capacity = newCapacity;
+    } else {
+      int end = Math.min(dirtyEnd, size);
+      if (dirtyStart < end) {
+        FloatBuffer range = data.duplicate();
+        range.position(dirtyStart);
+        gl.glBufferSubData(GL.GL_ARRAY_BUFFER,
+                           (long) dirtyStart * Buffers.SIZEOF_FLOAT,
+                           (long) (end - dirtyStart) * Buffers.SIZEOF_FLOAT,
+                           range);
+        dynamic = true;
+      }
+    }
+    dirtyStart = Integer.MAX_VALUE;
+    dirtyEnd = 0;
+  }
+
+  /** Binds the buffer object to GL_ELEMENT_ARRAY_BUFFER, creating it
+      and uploading the given indices whole first if they are not the
+      ones uploaded the last time. Index data is expected to be
+      replaced rather than modified in place. The indices from zero to
+      the limit of the buffer are uploaded. */
+  public synchronized void bindIndices(GL gl, Buffer indices) {
+    deleteReleased(gl);
+    if (name == 0) {
+      int[] tmp = new int[1];
+      gl.glGenBuffers(1, tmp, 0);
+      name = tmp[0];
+      uploadedIndices = null;
+    }
+    gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, name);
+    if (indices != uploadedIndices) {
+      gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER,
+                      (long) indices.limit() * Buffers.sizeOfBufferElem(indices),
+                      indices, GL.GL_STATIC_DRAW);
+      uploadedIndices = indices;
+    }
+  }
+
+  /** Releases the buffer object. It is deleted the next time any
+      VertexBufferObject is bound, and this object must not be used
+      afterward. */
+  public synchronized void release() {
+    if (name != 0) {
+      synchronized (released) {
+        released.add(name);
+      }
+      name = 0;
+      uploadedIndices = null;
+    }
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private static void deleteReleased(GL gl) {
+    synchronized (released) {
+      if (released.isEmpty())
+        return;
+      int[] names = new int[released.size()];
+      for (int i = 0; i < names.length; i++) {
+        names[i] = released.get(i);
+      }
+      released.clear();
+      gl.glDeleteBuffers(names.length, names, 0);
+    }
+  }
+}
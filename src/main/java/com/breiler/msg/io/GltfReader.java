@@ -0,0 +1,866 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+
+package com.breiler.msg.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import com.breiler.msg.collections.Vec2fCollection;
+import com.breiler.msg.collections.Vec3fCollection;
+import com.breiler.msg.collections.Vec4fCollection;
+import com.breiler.msg.impl.BufferFactory;
+import com.breiler.msg.nodes.Color4;
+import com.breiler.msg.nodes.Coordinate3;
+import com.breiler.msg.nodes.Group;
+import com.breiler.msg.nodes.IndexedTriangleSet;
+import com.breiler.msg.nodes.Texture2;
+import com.breiler.msg.nodes.TextureCoordinate2;
+import com.breiler.msg.nodes.TriangleSet;
+import com.jogamp.opengl.GLProfile;
+import com.jogamp.opengl.util.texture.TextureData;
+import com.jogamp.opengl.util.texture.TextureIO;
+
+import javax.vecmath.Matrix4f;
+import javax.vecmath.Quat4f;
+
+/** Loads glTF 2.0 scenes from binary .glb files and from .gltf
+    files with external or embedded buffers. <P>
+
+    The binary chunk of a .glb file, and each external buffer, is
+    mapped once. Accessors of floats and unsigned int indices which
+    are tightly packed, as exporters usually write them, become
+    collections and index buffers backed directly by slices of the
+    mapping, so that loading takes time in proportion to the number
+    of nodes and primitives rather than vertices. Interleaved
+    accessors, other component types and smaller indices are
+    converted into buffers allocated by the {@link BufferFactory}.
+    Accessors used by several primitives are shared. <P>
+
+    Each glTF node becomes a Group with the node's transform in
+    {@link com.breiler.msg.nodes.Node#getTransform getTransform()}
+    and its mesh and children below it. Each triangle primitive
+    becomes a Group holding, as available, a Texture2 for the base
+    color texture of its material, TextureCoordinate2, Color4 and
+    Coordinate3 nodes, and an IndexedTriangleSet, or a TriangleSet if
+    it is not indexed. Triangle strips and fans are converted into
+    indexed triangles; points and lines are skipped. Normals, other
+    material properties, cameras, skins and animations are
+    ignored. <P>
+
+    Images are decoded on the common fork-join pool while the rest
+    of the file is read. */
+
+public class GltfReader {
+  private static final int GLB_MAGIC = 0x46546C67;
+  private static final int CHUNK_JSON = 0x4E4F534A;
+  private static final int CHUNK_BIN = 0x004E4942;
+
+  // Component types of accessors
+  private static final int BYTE           = 5120;
+  private static final int UNSIGNED_BYTE  = 5121;
+  private static final int SHORT          = 5122;
+  private static final int UNSIGNED_SHORT = 5123;
+  private static final int UNSIGNED_INT   = 5125;
+  private static final int FLOAT          = 5126;
+
+  // Primitive modes
+  private static final int TRIANGLES      = 4;
+  private static final int TRIANGLE_STRIP = 5;
+  private static final int TRIANGLE_FAN   = 6;
+
+  // First of the minification filters using mipmaps
+  private static final int NEAREST_MIPMAP_NEAREST = 9984;
+
+  // Slices of the mapped data can be used as is on little-endian platforms
+  private static final boolean NATIVE_LITTLE_ENDIAN =
+    ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+  private final Map<String, Object> json;
+  private final ByteBuffer[] buffers;
+  private final Path directory;
+  private GLProfile glp;
+  private final boolean[] visiting;
+  // Collections by accessor index and number of components
+  private final Map<Long, Object> vectors = new HashMap<Long, Object>();
+  private final Map<Integer, IntBuffer> indices = new HashMap<Integer, IntBuffer>();
+  // Texture nodes by image index and whether mipmaps are used, and
+  // the images being decoded for them
+  private final Map<Integer, Texture2> textures = new HashMap<Integer, Texture2>();
+  private final Map<Texture2, Future<TextureData>> pendingTextures = new LinkedHashMap<Texture2, Future<TextureData>>();
+
+  private GltfReader(Map<String, Object> json, ByteBuffer[] buffers, Path directory, GLProfile glp)
+    throws IOException {
+    this.json = json;
+    this.buffers = buffers;
+    this.directory = directory;
+    this.glp = glp;
+    List<Object> nodes = list(json, "nodes");
+    visiting = new boolean[(nodes != null) ? nodes.size() : 0];
+  }
+
+  /** Loads the default scene of the given glTF file, mapping its
+      buffers with {@link FileChannel.MapMode#PRIVATE PRIVATE} access
+      so that the scene can be modified without affecting the file.
+      This requires the file to be writable. Images are decoded for
+      the default GLProfile. */
+  public static Group read(Path file) throws IOException {
+    return read(file, FileChannel.MapMode.PRIVATE, null);
+  }
+
+  /** Loads the default scene of the given glTF file, mapping its
+      buffers with the given access mode, as described for {@link
+      SceneReader#read(Path, FileChannel.MapMode, GLProfile)
+      SceneReader.read}. Images are decoded for the given GLProfile,
+      or the default one if it is null. */
+  public static Group read(Path file, FileChannel.MapMode mode, GLProfile glp) throws IOException {
+    Path directory = file.toAbsolutePath().getParent();
+    String text = null;
+    ByteBuffer bin = null;
+    try (FileChannel channel = SceneReader.open(file, mode)) {
+      ByteBuffer header = readFully(channel, 0, (int) Math.min(12, channel.size()));
+      if (header.limit() == 12 && header.getInt(0) == GLB_MAGIC) {
+        if (header.getInt(4) != 2) {
+          throw new IOException("Unsupported glTF version " + header.getInt(4));
+        }
+        long length = Math.min(header.getInt(8) & 0xFFFFFFFFL, channel.size());
+        long pos = 12;
+        while (pos + 8 <= length) {
+          ByteBuffer chunk = readFully(channel, pos, 8);
+          long chunkLength = chunk.getInt(0) & 0xFFFFFFFFL;
+          int type = chunk.getInt(4);
+          if (pos + 8 + chunkLength > length) {
+            throw new IOException("Truncated glTF chunk");
+          }
+          if (chunkLength > Integer.MAX_VALUE) {
+            throw new IOException("glTF chunk of " + chunkLength + " bytes does not fit into a single buffer");
+          }
+          if (type == CHUNK_JSON && text == null) {
+            ByteBuffer bytes = readFully(channel, pos + 8, (int) chunkLength);
+            text = new String(bytes.array(), 0, bytes.limit(), StandardCharsets.UTF_8);
+          } else if (type == CHUNK_BIN && bin == null) {
+            bin = channel.map(mode, pos + 8, chunkLength);
+          }
+          pos += 8 + chunkLength;
+        }
+        if (text == null) {
+          throw new IOException("No JSON chunk in " + file);
+        }
+      } else {
+        if (channel.size() > Integer.MAX_VALUE) {
+          throw new IOException(file + " is too large for a glTF document");
+        }
+        ByteBuffer bytes = readFully(channel, 0, (int) channel.size());
+        text = new String(bytes.array(), 0, bytes.limit(), StandardCharsets.UTF_8);
+      }
+    }
+
+    Map<String, Object> json = map(Json.parse(text));
+    List<Object> bufferList = list(json, "buffers");
+    ByteBuffer[] buffers = new ByteBuffer[(bufferList != null) ? bufferList.size() : 0];
+    for (int i = 0; i < buffers.length; i++) {
+      buffers[i] = loadBuffer(map(bufferList.get(i)), (i == 0) ? bin : null, directory, mode);
+    }
+
+    GltfReader reader = new GltfReader(json, buffers, directory, glp);
+    Group root = reader.readScene();
+    root.setName(file.getFileName().toString());
+    reader.finishTextures();
+    return root;
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private Group readScene() throws IOException {
+    Group root = new Group();
+    List<Object> nodes = list(json, "nodes");
+    List<Object> scenes = list(json, "scenes");
+    if (scenes != null && !scenes.isEmpty()) {
+      Map<String, Object> scene = map(element(scenes, integer(json, "scene", 0), "scene"));
+      List<Object> rootNodes = list(scene, "nodes");
+      if (rootNodes != null) {
+        for (Object node : rootNodes) {
+          root.addChild(readNode(index(node)));
+        }
+      }
+    } else if (nodes != null) {
+      // Without scenes, show all nodes which are not children of another one
+      boolean[] child = new boolean[nodes.size()];
+      for (Object node : nodes) {
+        List<Object> children = list(map(node), "children");
+        if (children != null) {
+          for (Object c : children) {
+            int index = index(c);
+            if (index >= 0 && index < child.length) {
+              child[index] = true;
+            }
+          }
+        }
+      }
+      for (int i = 0; i < child.length; i++) {
+        if (!child[i]) {
+          root.addChild(readNode(i));
+        }
+      }
+    }
+    return root;
+  }
+
+  private Group readNode(int index) throws IOException {
+    Map<String, Object> node = map(element(list(json, "nodes"), index, "node"));
+    if (visiting[index]) {
+      throw new IOException("Invalid glTF: node " + index + " is its own ancestor");
+    }
+    visiting[index] = true;
+
+    Group group = new Group();
+    String name = string(node, "name");
+    if (name != null) {
+      group.setName(name);
+    }
+    readTransform(node, group.getTransform());
+    Integer mesh = integer(node, "mesh");
+    if (mesh != null) {
+      Map<String, Object> m = map(element(list(json, "meshes"), mesh, "mesh"));
+      List<Object> primitives = list(m, "primitives");
+      if (primitives != null) {
+        for (Object primitive : primitives) {
+          Group shape = readPrimitive(map(primitive));
+          if (shape != null) {
+            String meshName = string(m, "name");
+            if (meshName != null) {
+              shape.setName(meshName);
+            }
+            group.addChild(shape);
+          }
+        }
+      }
+    }
+    List<Object> children = list(node, "children");
+    if (children != null) {
+      for (Object child : children) {
+        group.addChild(readNode(index(child)));
+      }
+    }
+
+    visiting[index] = false;
+    return group;
+  }
+
+  private static void readTransform(Map<String, Object> node, Matrix4f transform) throws IOException {
+    float[] matrix = floats(node, "matrix");
+    if (matrix != null) {
+      if (matrix.length != 16) {
+        throw new IOException("Invalid glTF: matrix with " + matrix.length + " elements");
+      }
+      // Stored column by column
+      for (int i = 0; i < 16; i++) {
+        transform.setElement(i % 4, i / 4, matrix[i]);
+      }
+      return;
+    }
+    float[] rotation = floats(node, "rotation");
+    if (rotation != null && rotation.length == 4) {
+      transform.set(new Quat4f(rotation[0], rotation[1], rotation[2], rotation[3]));
+    }
+    float[] scale = floats(node, "scale");
+    if (scale != null && scale.length == 3) {
+      for (int row = 0; row < 3; row++) {
+        for (int col = 0; col < 3; col++) {
+          transform.setElement(row, col, transform.getElement(row, col) * scale[col]);
+        }
+      }
+    }
+    float[] translation = floats(node, "translation");
+    if (translation != null && translation.length == 3) {
+      for (int row = 0; row < 3; row++) {
+        transform.setElement(row, 3, translation[row]);
+      }
+    }
+  }
+
+  /** Returns a Group holding the nodes of the given primitive, or
+      null if it is not made of triangles. */
+  private Group readPrimitive(Map<String, Object> primitive) throws IOException {
+    int mode = integer(primitive, "mode", TRIANGLES);
+    Map<String, Object> attributes = map(primitive.get("attributes"));
+    Integer position = integer(attributes, "POSITION");
+    if ((mode != TRIANGLES && mode != TRIANGLE_STRIP && mode != TRIANGLE_FAN) || position == null) {
+      return null;
+    }
+
+    Group group = new Group();
+    Integer material = integer(primitive, "material");
+    int texCoordSet = -1;
+    if (material != null) {
+      Map<String, Object> m = map(element(list(json, "materials"), material, "material"));
+      Object pbr = m.get("pbrMetallicRoughness");
+      Object baseColorTexture = (pbr != null) ? map(pbr).get("baseColorTexture") : null;
+      if (baseColorTexture != null) {
+        Map<String, Object> info = map(baseColorTexture);
+        Texture2 texture = readTexture(integer(info, "index", 0));
+        if (texture != null) {
+          group.addChild(texture);
+          texCoordSet = integer(info, "texCoord", 0);
+        }
+      }
+    }
+    Integer texCoords = (texCoordSet >= 0) ? integer(attributes, "TEXCOORD_" + texCoordSet) : null;
+    if (texCoords != null) {
+      TextureCoordinate2 node = new TextureCoordinate2();
+      node.setData((Vec2fCollection) vectors(texCoords, 2));
+      group.addChild(node);
+    }
+    Integer colors = integer(attributes, "COLOR_0");
+    if (colors != null) {
+      Color4 node = new Color4();
+      node.setData((Vec4fCollection) vectors(colors, 4));
+      group.addChild(node);
+    }
+    Coordinate3 coords = new Coordinate3();
+    Vec3fCollection data = (Vec3fCollection) vectors(position, 3);
+    coords.setData(data);
+    group.addChild(coords);
+
+    Integer indexAccessor = integer(primitive, "indices");
+    if (mode == TRIANGLES && indexAccessor == null) {
+      group.addChild(new TriangleSet());
+      return group;
+    }
+    IntBuffer triangles = (indexAccessor != null) ? indices(indexAccessor) : null;
+    if (mode != TRIANGLES) {
+      triangles = triangulate(mode, triangles, data.size());
+    }
+    IndexedTriangleSet shape = new IndexedTriangleSet();
+    shape.setIndices(triangles);
+    group.addChild(shape);
+    return group;
+  }
+
+  /** Returns a collection of the given number of components holding
+      the data of the given accessor. */
+  private Object vectors(int index, int size) throws IOException {
+    Long key = ((long) index << 3) | size;
+    Object res = vectors.get(key);
+    if (res != null) {
+      return res;
+    }
+    Accessor a = accessor(index);
+    if (a.componentType == FLOAT && a.components == size && a.data != null &&
+        a.stride == 4 * size && a.data.isDirect() && NATIVE_LITTLE_ENDIAN) {
+      ByteBuffer slice = slice(a.data, a.offset, (long) a.count * a.stride);
+      switch (size) {
+        case 2:  res = Vec2fCollection.wrap(slice.asFloatBuffer()); break;
+        case 3:  res = Vec3fCollection.wrap(slice.asFloatBuffer()); break;
+        default: res = Vec4fCollection.wrap(slice.asFloatBuffer()); break;
+      }
+    } else {
+      float[] values = new float[a.count * size];
+      for (int i = 0, pos = 0; i < a.count; i++) {
+        for (int c = 0; c < size; c++, pos++) {
+          if (c < a.components) {
+            values[pos] = a.get(i, c);
+          } else {
+            // Colors without alpha are opaque
+            values[pos] = (c == 3) ? 1 : 0;
+          }
+        }
+      }
+      switch (size) {
+        case 2: {
+          Vec2fCollection c = new Vec2fCollection(a.count);
+          c.addAll(values, 0, a.count);
+          res = c;
+          break;
+        }
+        case 3: {
+          Vec3fCollection c = new Vec3fCollection(a.count);
+          c.addAll(values, 0, a.count);
+          res = c;
+          break;
+        }
+        default: {
+          Vec4fCollection c = new Vec4fCollection(a.count);
+          c.addAll(values, 0, a.count);
+          res = c;
+          break;
+        }
+      }
+    }
+    vectors.put(key, res);
+    return res;
+  }
+
+  private IntBuffer indices(int index) throws IOException {
+    IntBuffer res = indices.get(index);
+    if (res != null) {
+      return res;
+    }
+    Accessor a = accessor(index);
+    if (a.componentType == UNSIGNED_INT && a.components == 1 && a.data != null &&
+        a.stride == 4 && a.data.isDirect() && NATIVE_LITTLE_ENDIAN) {
+      res = slice(a.data, a.offset, 4L * a.count).asIntBuffer();
+    } else {
+      res = BufferFactory.newIntBuffer(a.count);
+      for (int i = 0; i < a.count; i++) {
+        res.put(i, a.getIndex(i));
+      }
+    }
+    indices.put(index, res);
+    return res;
+  }
+
+  /** Converts a triangle strip or fan into separate triangles. */
+  private static IntBuffer triangulate(int mode, IntBuffer vertices, int numVertices) {
+    int n = (vertices != null) ? vertices.limit() : numVertices;
+    int numTriangles = Math.max(0, n - 2);
+    IntBuffer res = BufferFactory.newIntBuffer(3 * numTriangles);
+    for (int i = 0, pos = 0; i < numTriangles; i++) {
+      int a, b;
+      if (mode == TRIANGLE_FAN) {
+        a = 0;
+        b = i + 1;
+      } else if ((i & 1) == 0) {
+        a = i;
+        b = i + 1;
+      } else {
+        // Every other triangle of a strip is flipped to keep the winding
+        a = i + 1;
+        b = i;
+      }
+      int c = i + 2;
+      res.put(pos++, (vertices != null) ? vertices.get(a) : a);
+      res.put(pos++, (vertices != null) ? vertices.get(b) : b);
+      res.put(pos++, (vertices != null) ? vertices.get(c) : c);
+    }
+    return res;
+  }
+
+  private Accessor accessor(int index) throws IOException {
+    Map<String, Object> accessor = map(element(list(json, "accessors"), index, "accessor"));
+    if (accessor.containsKey("sparse")) {
+      throw new IOException("Sparse glTF accessors are not supported");
+    }
+    Accessor a = new Accessor();
+    a.componentType = integer(accessor, "componentType", FLOAT);
+    a.normalized = Boolean.TRUE.equals(accessor.get("normalized"));
+    a.count = integer(accessor, "count", 0);
+    String type = string(accessor, "type");
+    if ("SCALAR".equals(type)) {
+      a.components = 1;
+    } else if ("VEC2".equals(type)) {
+      a.components = 2;
+    } else if ("VEC3".equals(type)) {
+      a.components = 3;
+    } else if ("VEC4".equals(type)) {
+      a.components = 4;
+    } else {
+      throw new IOException("Unsupported glTF accessor type " + type);
+    }
+    int componentSize;
+    switch (a.componentType) {
+      case BYTE:
+      case UNSIGNED_BYTE:  componentSize = 1; break;
+      case SHORT:
+      case UNSIGNED_SHORT: componentSize = 2; break;
+      case UNSIGNED_INT:
+      case FLOAT:          componentSize = 4; break;
+      default:
+        throw new IOException("Invalid glTF component type " + a.componentType);
+    }
+    a.componentSize = componentSize;
+    int elementSize = componentSize * a.components;
+    a.stride = elementSize;
+    Integer viewIndex = integer(accessor, "bufferView");
+    if (viewIndex != null) {
+      Map<String, Object> view = map(element(list(json, "bufferViews"), viewIndex, "buffer view"));
+      int buffer = integer(view, "buffer", 0);
+      if (buffer < 0 || buffer >= buffers.length || buffers[buffer] == null) {
+        throw new IOException("Invalid glTF: buffer " + buffer + " not found");
+      }
+      a.data = buffers[buffer].duplicate().order(ByteOrder.LITTLE_ENDIAN);
+      a.offset = (long) integer(view, "byteOffset", 0) + integer(accessor, "byteOffset", 0);
+      a.stride = integer(view, "byteStride", elementSize);
+      long end = (a.count == 0) ? a.offset : a.offset + (long) (a.count - 1) * a.stride + elementSize;
+      if (a.count < 0 || a.stride < elementSize || end > a.data.capacity()) {
+        throw new IOException("Invalid glTF: accessor " + index + " exceeds its buffer");
+      }
+    }
+    return a;
+  }
+
+  /** Returns a Texture2 node for the given texture, whose image is
+      decoded in the background, or null if it has no image. */
+  private Texture2 readTexture(int index) throws IOException {
+    Map<String, Object> texture = map(element(list(json, "textures"), index, "texture"));
+    Integer source = integer(texture, "source");
+    if (source == null) {
+      return null;
+    }
+    boolean mipmap = true;
+    Integer sampler = integer(texture, "sampler");
+    if (sampler != null) {
+      Integer minFilter = integer(map(element(list(json, "samplers"), sampler, "sampler")), "minFilter");
+      mipmap = minFilter == null || minFilter >= NEAREST_MIPMAP_NEAREST;
+    }
+    // Primitives using the same image with the same filtering share
+    // one node
+    int key = 2 * source + (mipmap ? 1 : 0);
+    Texture2 res = textures.get(key);
+    if (res == null) {
+      Future<TextureData> data = decodeImage(map(element(list(json, "images"), source, "image")), mipmap);
+      res = new Texture2();
+      textures.put(key, res);
+      pendingTextures.put(res, data);
+    }
+    return res;
+  }
+
+  private Future<TextureData> decodeImage(Map<String, Object> image, final boolean mipmap) throws IOException {
+    final String uri = string(image, "uri");
+    String mimeType = string(image, "mimeType");
+    String suffix = null;
+    if ("image/png".equals(mimeType)) {
+      suffix = TextureIO.PNG;
+    } else if ("image/jpeg".equals(mimeType)) {
+      suffix = TextureIO.JPG;
+    } else if (uri != null && !uri.startsWith("data:") && uri.lastIndexOf('.') >= 0) {
+      suffix = uri.substring(uri.lastIndexOf('.') + 1).toLowerCase();
+    }
+    final String fileSuffix = suffix;
+    // Only looked up for scenes with images, so that meshes can be
+    // loaded without initializing OpenGL
+    if (glp == null) {
+      glp = GLProfile.getDefault();
+    }
+    final GLProfile profile = glp;
+    Integer viewIndex = integer(image, "bufferView");
+    final InputStream stream;
+    final URL url;
+    if (viewIndex != null) {
+      Map<String, Object> view = map(element(list(json, "bufferViews"), viewIndex, "buffer view"));
+      int buffer = integer(view, "buffer", 0);
+      if (buffer < 0 || buffer >= buffers.length || buffers[buffer] == null) {
+        throw new IOException("Invalid glTF: buffer " + buffer + " not found");
+      }
+      stream = new ByteBufferInputStream(slice(buffers[buffer], integer(view, "byteOffset", 0),
+                                               integer(view, "byteLength", 0)));
+      url = null;
+    } else if (uri != null && uri.startsWith("data:")) {
+      stream = new ByteArrayInputStream(decodeDataURI(uri));
+      url = null;
+    } else if (uri != null) {
+      stream = null;
+      url = new URL(directory.toUri().toURL(), uri);
+    } else {
+      throw new IOException("Invalid glTF: image without data");
+    }
+    return ForkJoinPool.commonPool().submit(new Callable<TextureData>() {
+        public TextureData call() throws IOException {
+          if (url != null) {
+            return TextureIO.newTextureData(profile, url, mipmap, fileSuffix);
+          }
+          return TextureIO.newTextureData(profile, stream, mipmap, fileSuffix);
+        }
+      });
+  }
+
+  /** Waits for the images to be decoded and hands them to their
+      Texture2 nodes. */
+  private void finishTextures() throws IOException {
+    try {
+      for (Map.Entry<Texture2, Future<TextureData>> entry : pendingTextures.entrySet()) {
+        entry.getKey().setTexture(entry.getValue().get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while decoding images", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  private static ByteBuffer loadBuffer(Map<String, Object> buffer, ByteBuffer bin, Path directory,
+                                       FileChannel.MapMode mode) throws IOException {
+    String uri = string(buffer, "uri");
+    long length = integer(buffer, "byteLength", 0);
+    ByteBuffer res;
+    if (uri == null) {
+      // The binary chunk of a .glb file
+      res = bin;
+    } else if (uri.startsWith("data:")) {
+      byte[] bytes = decodeDataURI(uri);
+      res = BufferFactory.newByteBuffer(bytes.length);
+      res.put(bytes);
+      res.flip();
+    } else {
+      Path file;
+      try {
+        file = Paths.get(directory.toUri().resolve(uri));
+      } catch (IllegalArgumentException e) {
+        // Not a valid URI, as with unescaped spaces; take it as a path
+        file = directory.resolve(uri);
+      } catch (FileSystemNotFoundException e) {
+        throw new IOException("Unsupported glTF buffer URI " + uri);
+      }
+      try (FileChannel channel = SceneReader.open(file, mode)) {
+        res = channel.map(mode, 0, Math.min(length, channel.size()));
+      }
+    }
+    if (res != null && res.capacity() < length) {
+      throw new IOException("glTF buffer shorter than its byteLength of " + length);
+    }
+    return res;
+  }
+
+  private static byte[] decodeDataURI(String uri) throws IOException {
+    int comma = uri.indexOf(',');
+    if (comma < 0 || !uri.substring(0, comma).endsWith(";base64")) {
+      throw new IOException("Unsupported data URI in glTF file");
+    }
+    try {
+      return Base64.getDecoder().decode(uri.substring(comma + 1));
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Invalid base64 data in glTF file", e);
+    }
+  }
+
+  private static ByteBuffer slice(ByteBuffer buffer, long offset, long length) throws IOException {
+    if (offset < 0 || length < 0 || offset + length > buffer.capacity()) {
+      throw new IOException("Invalid glTF: range exceeds its buffer");
+    }
+    ByteBuffer res = buffer.duplicate();
+    res.limit((int) (offset + length));
+    res.position((int) offset);
+    return res.slice().order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+    ByteBuffer res = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (res.hasRemaining()) {
+      if (channel.read(res, position + res.position()) < 0) {
+        break;
+      }
+    }
+    res.flip();
+    return res;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> map(Object value) throws IOException {
+    if (!(value instanceof Map)) {
+      throw new IOException("Invalid glTF: expected an object");
+    }
+    return (Map<String, Object>) value;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<Object> list(Map<String, Object> map, String key) throws IOException {
+    Object value = map.get(key);
+    if (value != null && !(value instanceof List)) {
+      throw new IOException("Invalid glTF: " + key + " is not an array");
+    }
+    return (List<Object>) value;
+  }
+
+  private static Object element(List<Object> list, int index, String what) throws IOException {
+    if (list == null || index < 0 || index >= list.size()) {
+      throw new IOException("Invalid glTF: " + what + " " + index + " not found");
+    }
+    return list.get(index);
+  }
+
+  private static int index(Object value) throws IOException {
+    if (!(value instanceof Number)) {
+      throw new IOException("Invalid glTF: expected an index");
+    }
+    return ((Number) value).intValue();
+  }
+
+  private static Integer integer(Map<String, Object> map, String key) throws IOException {
+    Object value = map.get(key);
+    return (value != null) ? index(value) : null;
+  }
+
+  private static int integer(Map<String, Object> map, String key, int defaultValue) throws IOException {
+    Integer value = integer(map, key);
+    return (value != null) ? value : defaultValue;
+  }
+
+  private static String string(Map<String, Object> map, String key) {
+    Object value = map.get(key);
+    return (value instanceof String) ? (String) value : null;
+  }
+
+  private static float[] floats(Map<String, Object> map, String key) throws IOException {
+    List<Object> values = list(map, key);
+    if (values == null) {
+      return null;
+    }
+    float[] res = new float[values.size()];
+    for (int i = 0; i < res.length; i++) {
+      Object value = values.get(i);
+      if (!(value instanceof Number)) {
+        throw new IOException("Invalid glTF: " + key + " holds a non-number");
+      }
+      res[i] = ((Number) value).floatValue();
+    }
+    return res;
+  }
+
+  /** The layout of an accessor's data within its buffer. */
+  private static class Accessor {
+    // Null if the accessor has no buffer view, in which case all values are zero
+    ByteBuffer data;
+    long offset;
+    int stride;
+    int count;
+    int componentType;
+    int componentSize;
+    int components;
+    boolean normalized;
+
+    /** Returns the given component of the given element as a float,
+        converting normalized integers to the range 0..1 or -1..1. */
+    float get(int element, int component) {
+      if (data == null) {
+        return 0;
+      }
+      int pos = (int) (offset + (long) element * stride) + component * componentSize;
+      switch (componentType) {
+        case BYTE: {
+          byte b = data.get(pos);
+          return normalized ? Math.max(b / 127.0f, -1.0f) : b;
+        }
+        case UNSIGNED_BYTE: {
+          int b = data.get(pos) & 0xFF;
+          return normalized ? b / 255.0f : b;
+        }
+        case SHORT: {
+          short s = data.getShort(pos);
+          return normalized ? Math.max(s / 32767.0f, -1.0f) : s;
+        }
+        case UNSIGNED_SHORT: {
+          int s = data.getShort(pos) & 0xFFFF;
+          return normalized ? s / 65535.0f : s;
+        }
+        case UNSIGNED_INT:
+          return data.getInt(pos) & 0xFFFFFFFFL;
+        default:
+          return data.getFloat(pos);
+      }
+    }
+
+    /** Returns the given element of an accessor of indices. */
+    int getIndex(int element) {
+      if (data == null) {
+        return 0;
+      }
+      int pos = (int) (offset + (long) element * stride);
+      switch (componentType) {
+        case UNSIGNED_BYTE:
+          return data.get(pos) & 0xFF;
+        case UNSIGNED_SHORT:
+          return data.getShort(pos) & 0xFFFF;
+        default:
+          return data.getInt(pos);
+      }
+    }
+  }
+
+  /** Reads the remaining bytes of a buffer. */
+  private static class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buf;
+
+    ByteBufferInputStream(ByteBuffer buf) {
+      this.buf = buf;
+    }
+
+    public int read() {
+      return buf.hasRemaining() ? (buf.get() & 0xFF) : -1;
+    }
+
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!buf.hasRemaining()) {
+        return -1;
+      }
+      int n = Math.min(len, buf.remaining());
+      buf.get(b, off, n);
+      return n;
+    }
+
+    public int available() {
+      return buf.remaining();
+    }
+  }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+
+package com.breiler.msg.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Minimal parser for the JSON documents of glTF files. Objects
+    become Maps, arrays Lists, numbers Doubles, and true, false and
+    null the corresponding Java values. */
+
+final class Json {
+  private final String text;
+  private int pos;
+
+  private Json(String text) {
+    this.text = text;
+  }
+
+  static Object parse(String text) throws IOException {
+    Json json = new Json(text);
+    Object res = json.value();
+    json.skipSpaces();
+    if (json.pos != text.length()) {
+      throw json.error("Unexpected content");
+    }
+    return res;
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private Object value() throws IOException {
+    skipSpaces();
+    if (pos >= text.length()) {
+      throw error("Unexpected end");
+    }
+    char c = text.charAt(pos);
+    switch (c) {
+      case '{': return object();
+      case '[': return array();
+      case '"': return string();
+      case 't': return literal("true", Boolean.TRUE);
+      case 'f': return literal("false", Boolean.FALSE);
+      case 'n': return literal("null", null);
+      default:  return number();
+    }
+  }
+
+  private Map<String, Object> object() throws IOException {
+    Map<String, Object> res = new LinkedHashMap<String, Object>();
+    pos++;
+    skipSpaces();
+    if (consume('}')) {
+      return res;
+    }
+    do {
+      skipSpaces();
+      if (pos >= text.length() || text.charAt(pos) != '"') {
+        throw error("Expected a key");
+      }
+      String key = string();
+      skipSpaces();
+      expect(':');
+      res.put(key, value());
+      skipSpaces();
+    } while (consume(','));
+    expect('}');
+    return res;
+  }
+
+  private List<Object> array() throws IOException {
+    List<Object> res = new ArrayList<Object>();
+    pos++;
+    skipSpaces();
+    if (consume(']')) {
+      return res;
+    }
+    do {
+      res.add(value());
+      skipSpaces();
+    } while (consume(','));
+    expect(']');
+    return res;
+  }
+
+  private String string() throws IOException {
+    StringBuilder res = new StringBuilder();
+    pos++;
+    while (true) {
+      if (pos >= text.length()) {
+        throw error("Unterminated string");
+      }
+      char c = text.charAt(pos++);
+      if (c == '"') {
+        return res.toString();
+      }
+      if (c != '\\') {
+        res.append(c);
+        continue;
+      }
+      if (pos >= text.length()) {
+        throw error("Unterminated string");
+      }
+      c = text.charAt(pos++);
+      switch (c) {
+        case 'b': res.append('\b'); break;
+        case 'f': res.append('\f'); break;
+        case 'n': res.append('\n'); break;
+        case 'r': res.append('\r'); break;
+        case 't': res.append('\t'); break;
+        case 'u':
+          if (pos + 4 > text.length()) {
+            throw error("Invalid escape");
+          }
+          try {
+            res.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+          } catch (NumberFormatException e) {
+            throw error("Invalid escape");
+          }
+          pos += 4;
+          break;
+        default:
+          res.append(c);
+      }
+    }
+  }
+
+  private Double number() throws IOException {
+    int start = pos;
+    while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+      pos++;
+    }
+    try {
+      return Double.valueOf(text.substring(start, pos));
+    } catch (NumberFormatException e) {
+      pos = start;
+      throw error("Invalid value");
+    }
+  }
+
+  private Object literal(String word, Object value) throws IOException {
+    if (!text.startsWith(word, pos)) {
+      throw error("Invalid value");
+    }
+    pos += word.length();
+    return value;
+  }
+
+  private boolean consume(char c) {
+    if (pos < text.length() && text.charAt(pos) == c) {
+      pos++;
+      return true;
+    }
+    return false;
+  }
+
+  private void expect(char c) throws IOException {
+    if (!consume(c)) {
+      throw error("Expected '" + c + "'");
+    }
+  }
+
+  private void skipSpaces() {
+    while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+      pos++;
+    }
+  }
+
+  private IOException error(String message) {
+    return new IOException(message + " at character " + pos + " of JSON");
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+
+package com.breiler.msg.io;
+
+import java.nio.IntBuffer;
+
+import com.breiler.msg.collections.Vec3fCollection;
+import com.breiler.msg.nodes.Coordinate3;
+import com.breiler.msg.nodes.Group;
+import com.breiler.msg.nodes.IndexedTriangleSet;
+
+/** Growable arrays of vertex positions and indices, into which the
+    importers parse one chunk of a file. */
+
+final class MeshBuffers {
+  // Largest number of vertices or indices whose size in bytes fits
+  // into a single buffer
+  static final int MAX_ELEMENTS = Integer.MAX_VALUE / 12;
+
+  float[] positions = new float[3 * 1024];
+  int numVertices;
+  int[] indices = new int[3 * 1024];
+  int numIndices;
+
+  void addVertex(float x, float y, float z) {
+    int pos = 3 * numVertices;
+    if (pos + 3 > positions.length) {
+      positions = grow(positions);
+    }
+    positions[pos]     = x;
+    positions[pos + 1] = y;
+    positions[pos + 2] = z;
+    numVertices++;
+  }
+
+  void addIndex(int index) {
+    if (numIndices == indices.length) {
+      indices = grow(indices);
+    }
+    indices[numIndices++] = index;
+  }
+
+  /** Returns a group holding a Coordinate3 node with the given
+      vertices followed by an IndexedTriangleSet with the given
+      indices. */
+  static Group newMesh(String name, Vec3fCollection coords, IntBuffer indices) {
+    Coordinate3 coordinates = new Coordinate3();
+    coordinates.setData(coords);
+    IndexedTriangleSet triangles = new IndexedTriangleSet();
+    triangles.setIndices(indices);
+    Group group = new Group();
+    group.setName(name);
+    group.addChild(coordinates);
+    group.addChild(triangles);
+    return group;
+  }
+
+  private static float[] grow(float[] array) {
+    float[] res = new float[newLength(array.length)];
+    System.arraycopy(array, 0, res, 0, array.length);
+    return res;
+  }
+
+  private static int[] grow(int[] array) {
+    int[] res = new int[newLength(array.length)];
+    System.arraycopy(array, 0, res, 0, array.length);
+    return res;
+  }
+
+  private static int newLength(int length) {
+    if (length == Integer.MAX_VALUE - 8) {
+      throw new OutOfMemoryError("Mesh too large");
+    }
+    return (int) Math.min(Integer.MAX_VALUE - 8, length * 2L);
+  }
+}
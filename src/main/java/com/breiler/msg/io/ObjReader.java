@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+
+package com.breiler.msg.io;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import com.breiler.msg.collections.Vec3fCollection;
+import com.breiler.msg.impl.BufferFactory;
+import com.breiler.msg.mesh.VertexWelder;
+import com.breiler.msg.nodes.Group;
+
+/** Loads triangle meshes from Wavefront OBJ files. <P>
+
+    The result is a Group holding a {@link
+    com.breiler.msg.nodes.Coordinate3 Coordinate3} node followed by
+    an {@link com.breiler.msg.nodes.IndexedTriangleSet
+    IndexedTriangleSet}, whose buffers are allocated by the {@link
+    BufferFactory}. All faces of the file go into the one mesh;
+    polygons are split into triangle fans. Only vertex positions are
+    loaded: texture coordinates, normals, objects, groups and
+    materials are ignored. <P>
+
+    The file is parsed straight from the mapped bytes, in chunks in
+    parallel for files larger than a few megabytes. */
+
+public class ObjReader {
+  // Added to relative indices, which are resolved once the number of
+  // vertices in the preceding chunks is known
+  private static final int RELATIVE = 2 * MeshBuffers.MAX_ELEMENTS + 1;
+
+  private ObjReader() {}
+
+  /** Loads the given OBJ file, keeping the vertices as they are. */
+  public static Group read(Path file) throws IOException {
+    return read(file, false);
+  }
+
+  /** Loads the given OBJ file. If weld is true, vertices at identical
+      positions are merged into one. */
+  public static Group read(Path file, boolean weld) throws IOException {
+    List<MeshBuffers> chunks;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      chunks = TextParser.parse(channel, new TextParser.ChunkParser() {
+          public MeshBuffers parse(TextParser text) throws IOException {
+            return parseChunk(text);
+          }
+        });
+    }
+
+    long numVertices = 0;
+    long numIndices = 0;
+    for (MeshBuffers chunk : chunks) {
+      numVertices += chunk.numVertices;
+      numIndices += chunk.numIndices;
+    }
+    if (numVertices > MeshBuffers.MAX_ELEMENTS || numIndices > MeshBuffers.MAX_ELEMENTS) {
+      throw new IOException("Mesh does not fit into a single Coordinate3 and IndexedTriangleSet");
+    }
+
+    Vec3fCollection coords;
+    int[] remap = null;
+    if (weld) {
+      VertexWelder welder = new VertexWelder(3, (int) numVertices);
+      remap = new int[(int) numVertices];
+      int vertex = 0;
+      for (MeshBuffers chunk : chunks) {
+        float[] p = chunk.positions;
+        for (int i = 0; i < chunk.numVertices; i++) {
+          remap[vertex++] = welder.add(p[3 * i], p[3 * i + 1], p[3 * i + 2]);
+        }
+      }
+      coords = welder.toCollection();
+    } else {
+      coords = new Vec3fCollection((int) numVertices);
+      for (MeshBuffers chunk : chunks) {
+        coords.addAll(chunk.positions, 0, chunk.numVertices);
+      }
+    }
+
+    IntBuffer indices = BufferFactory.newIntBuffer((int) numIndices);
+    int pos = 0;
+    int firstVertex = 0;
+    for (MeshBuffers chunk : chunks) {
+      int[] chunkIndices = chunk.indices;
+      for (int i = 0; i < chunk.numIndices; i++) {
+        int index = chunkIndices[i];
+        if (index < 0) {
+          index += firstVertex + RELATIVE;
+        }
+        if (index < 0 || index >= numVertices) {
+          throw new IOException("Face refers to vertex " + (index + 1) + " of " + numVertices);
+        }
+        indices.put(pos++, (remap != null) ? remap[index] : index);
+      }
+      firstVertex += chunk.numVertices;
+    }
+    return MeshBuffers.newMesh(file.getFileName().toString(), coords, indices);
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private static MeshBuffers parseChunk(TextParser text) throws IOException {
+    MeshBuffers res = new MeshBuffers();
+    while (text.hasMore()) {
+      if (text.keyword("v")) {
+        res.addVertex(text.parseFloat(), text.parseFloat(), text.parseFloat());
+      } else if (text.keyword("f")) {
+        int first = parseVertex(text, res);
+        int previous = parseVertex(text, res);
+        int numVertices = 2;
+        while (!text.atEndOfLine()) {
+          int vertex = parseVertex(text, res);
+          res.addIndex(first);
+          res.addIndex(previous);
+          res.addIndex(vertex);
+          previous = vertex;
+          numVertices++;
+        }
+        if (numVertices < 3) {
+          throw new IOException("Face with fewer than three vertices");
+        }
+      }
+      text.skipLine();
+    }
+    return res;
+  }
+
+  /** Parses a vertex of a face, ignoring any texture coordinate and
+      normal indices. Returns the zero-based vertex index, or for
+      relative indices the index relative to the first vertex of the
+      chunk minus RELATIVE. */
+  private static int parseVertex(TextParser text, MeshBuffers chunk) throws IOException {
+    int index = text.parseInt();
+    if (text.skip('/')) {
+      text.skipWord();
+    }
+    if (index > 0 && index <= MeshBuffers.MAX_ELEMENTS) {
+      return index - 1;
+    }
+    if (index < 0 && index >= -MeshBuffers.MAX_ELEMENTS) {
+      return chunk.numVertices + index - RELATIVE;
+    }
+    throw new IOException("Invalid vertex index " + index);
+  }
+}
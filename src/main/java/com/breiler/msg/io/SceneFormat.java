@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+
+package com.breiler.msg.io;
+
+/** Constants of the binary scene graph format written by {@link
+    SceneWriter} and read by {@link SceneReader}. <P>
+
+    A file starts with the four bytes "MSGB", followed by the int
+    0x01020304 in the byte order of the rest of the file, the format
+    version and a reserved int. Everything after the magic number is
+    in the byte order of the platform which wrote the file. <P>
+
+    The header is followed by the root node. A node starts with its
+    type as an int, or with REFERENCE and the index of a node written
+    earlier in the file, in which case nothing else follows. Otherwise
+    come its name, a byte which is 1 if its transform is not the
+    identity followed by the 16 floats of the transform row by row,
+    and finally the fields of the type. Groups end with the number of
+    children and the children themselves. <P>
+
+    Strings are stored as the int number of UTF-8 bytes, or -1 for
+    null, followed by the bytes. Payloads, the contents of the vector
+    collections and index buffers, are referenced by int indices in
+    the order they first appear in the file, -1 standing for null. A
+    payload is stored where it is first referenced: its index is
+    followed by the long number of elements, for segmented
+    collections also the int segment size, and then, starting at the
+    next multiple of {@link #ALIGNMENT} bytes from the start of the
+    file, the raw floats or ints. */
+
+final class SceneFormat {
+  static final int MAGIC = ('M' << 24) | ('S' << 16) | ('G' << 8) | 'B';
+  static final int BYTE_ORDER_MARK = 0x01020304;
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 16;
+  static final int ALIGNMENT = 16;
+
+  static final int REFERENCE            = 0;
+  static final int GROUP                = 1;
+  static final int TRANSFORM            = 2;
+  static final int COORDINATE3          = 3;
+  static final int COLOR4               = 4;
+  static final int TEXTURE_COORDINATE2  = 5;
+  static final int TRIANGLE_SET         = 6;
+  static final int INDEXED_TRIANGLE_SET = 7;
+  static final int TEXTURE2             = 8;
+  static final int BLEND                = 9;
+  static final int DEPTH_TEST           = 10;
+  static final int PERSPECTIVE_CAMERA   = 11;
+  static final int ORTHOGRAPHIC_CAMERA  = 12;
+
+  // Kinds of coordinate data in a Coordinate3 node
+  static final byte NO_DATA        = 0;
+  static final byte PLAIN_DATA     = 1;
+  static final byte SEGMENTED_DATA = 2;
+
+  static final int NULL_PAYLOAD = -1;
+
+  private SceneFormat() {}
+
+  static long align(long position) {
+    return (position + ALIGNMENT - 1) & ~(long) (ALIGNMENT - 1);
+  }
+}
@@ -0,0 +1,509 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+
+package com.breiler.msg.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import com.breiler.msg.collections.SegmentedVec3fCollection;
+import com.breiler.msg.collections.Vec2fCollection;
+import com.breiler.msg.collections.Vec3fCollection;
+import com.breiler.msg.collections.Vec4fCollection;
+import com.breiler.msg.impl.BufferFactory;
+import com.breiler.msg.math.Rotf;
+import com.breiler.msg.nodes.Blend;
+import com.breiler.msg.nodes.Camera;
+import com.breiler.msg.nodes.Color4;
+import com.breiler.msg.nodes.Coordinate3;
+import com.breiler.msg.nodes.DepthTest;
+import com.breiler.msg.nodes.Group;
+import com.breiler.msg.nodes.IndexedTriangleSet;
+import com.breiler.msg.nodes.Node;
+import com.breiler.msg.nodes.OrthographicCamera;
+import com.breiler.msg.nodes.PerspectiveCamera;
+import com.breiler.msg.nodes.Texture2;
+import com.breiler.msg.nodes.TextureCoordinate2;
+import com.breiler.msg.nodes.Transform;
+import com.breiler.msg.nodes.TriangleSet;
+import com.jogamp.opengl.GLProfile;
+
+import javax.vecmath.Matrix4f;
+import javax.vecmath.Vector3f;
+import javax.vecmath.Vector4f;
+
+/** Loads scene graphs saved by {@link SceneWriter}. <P>
+
+    The vertex data and indices of the scene are not parsed: larger
+    collections are mapped directly from the file, as with {@link
+    Vec3fCollection#map Vec3fCollection.map}, so that loading takes
+    time in proportion to the number of nodes rather than vertices,
+    and the operating system pages the data in as it is first drawn.
+    Collections smaller than a few hundred kilobytes, where a mapping
+    costs more than it saves, are read into memory in a single bulk
+    copy, as are all collections of files saved on a platform with a
+    different byte order. <P>
+
+    Textures are loaded from the files or URLs they reference while
+    the scene is read. */
+
+public class SceneReader {
+  // Payloads of at least this many bytes are mapped rather than read
+  private static final long MAP_THRESHOLD = 1 << 18;
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final FileChannel channel;
+  private final FileChannel.MapMode mode;
+  private final Path directory;
+  private GLProfile glp;
+  private ByteOrder order = ByteOrder.BIG_ENDIAN;
+  // Window of the file used for reading everything but payloads
+  private ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+  private long bufStart;
+  private long position;
+  private final List<Node> nodes = new ArrayList<Node>();
+  // Indices of the groups whose children are being read, which may
+  // not be referenced from within themselves
+  private final BitSet open = new BitSet();
+  private final List<Object> payloads = new ArrayList<Object>();
+
+  private SceneReader(FileChannel channel, FileChannel.MapMode mode, Path directory, GLProfile glp) {
+    this.channel = channel;
+    this.mode = mode;
+    this.directory = directory;
+    this.glp = glp;
+    buf.limit(0);
+  }
+
+  /** Loads the scene graph in the given file, mapping larger
+      collections with {@link FileChannel.MapMode#PRIVATE PRIVATE}
+      access so that the scene can be modified without affecting the
+      file. This requires the file to be writable; read-only files
+      can be loaded with {@link FileChannel.MapMode#READ_ONLY
+      READ_ONLY} access. Textures are loaded for the default
+      GLProfile. */
+  public static Node read(Path file) throws IOException {
+    return read(file, FileChannel.MapMode.PRIVATE);
+  }
+
+  /** Loads the scene graph in the given file, mapping larger
+      collections with the given access mode. Textures are loaded for
+      the default GLProfile. */
+  public static Node read(Path file, FileChannel.MapMode mode) throws IOException {
+    return read(file, mode, null);
+  }
+
+  /** Loads the scene graph in the given file, mapping larger
+      collections with the given access mode. With {@link
+      FileChannel.MapMode#READ_ONLY READ_ONLY}, the mapped collections
+      throw a ReadOnlyBufferException when modified, while the smaller
+      ones read into memory can be modified. {@link
+      FileChannel.MapMode#READ_WRITE READ_WRITE} writes modifications
+      of the mapped collections back to the file. Textures are loaded
+      for the given GLProfile, or the default one if it is null. */
+  public static Node read(Path file, FileChannel.MapMode mode, GLProfile glp) throws IOException {
+    // Mappings stay valid after the channel is closed
+    try (FileChannel channel = open(file, mode)) {
+      SceneReader reader = new SceneReader(channel, mode, file.toAbsolutePath().getParent(), glp);
+      reader.readHeader();
+      return reader.readNode();
+    }
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  /** Opens the given file for mapping with the given mode. */
+  static FileChannel open(Path file, FileChannel.MapMode mode) throws IOException {
+    // Private mappings, although never written back, need a writable channel
+    if (mode != FileChannel.MapMode.READ_ONLY) {
+      return FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+    return FileChannel.open(file, StandardOpenOption.READ);
+  }
+
+  private void readHeader() throws IOException {
+    if (readInt() != SceneFormat.MAGIC) {
+      throw new IOException("Not a scene file");
+    }
+    int mark = readInt();
+    if (mark == Integer.reverseBytes(SceneFormat.BYTE_ORDER_MARK)) {
+      order = ByteOrder.LITTLE_ENDIAN;
+    } else if (mark != SceneFormat.BYTE_ORDER_MARK) {
+      throw new IOException("Corrupt scene file header");
+    }
+    buf.order(order);
+    int version = readInt();
+    if (version > SceneFormat.VERSION) {
+      throw new IOException("Unsupported scene file version " + version);
+    }
+    readInt();
+  }
+
+  private Node readNode() throws IOException {
+    int type = readInt();
+    if (type == SceneFormat.REFERENCE) {
+      int index = readInt();
+      if (index < 0 || index >= nodes.size()) {
+        throw new IOException("Corrupt scene file: node " + index + " not defined");
+      }
+      if (open.get(index)) {
+        throw new IOException("Corrupt scene file: node " + index + " is its own ancestor");
+      }
+      return nodes.get(index);
+    }
+    Node node = newNode(type);
+    int nodeIndex = nodes.size();
+    nodes.add(node);
+    node.setName(readString());
+    if (readByte() != 0) {
+      readMatrix(node.getTransform());
+    }
+
+    switch (type) {
+      case SceneFormat.GROUP: {
+        Group group = (Group) node;
+        int numChildren = readInt();
+        open.set(nodeIndex);
+        for (int i = 0; i < numChildren; i++) {
+          group.addChild(readNode());
+        }
+        open.clear(nodeIndex);
+        break;
+      }
+      case SceneFormat.TRANSFORM: {
+        Matrix4f transform = new Matrix4f();
+        readMatrix(transform);
+        ((Transform) node).setTransform(transform);
+        break;
+      }
+      case SceneFormat.COORDINATE3: {
+        Coordinate3 coords = (Coordinate3) node;
+        byte kind = readByte();
+        if (kind == SceneFormat.SEGMENTED_DATA) {
+          coords.setSegmentedData(readPayload(SegmentedVec3fCollection.class));
+        } else if (kind == SceneFormat.PLAIN_DATA) {
+          coords.setData(readPayload(Vec3fCollection.class));
+        }
+        break;
+      }
+      case SceneFormat.COLOR4:
+        ((Color4) node).setData(readPayload(Vec4fCollection.class));
+        break;
+      case SceneFormat.TEXTURE_COORDINATE2:
+        ((TextureCoordinate2) node).setData(readPayload(Vec2fCollection.class));
+        break;
+      case SceneFormat.TRIANGLE_SET:
+        break;
+      case SceneFormat.INDEXED_TRIANGLE_SET:
+        ((IndexedTriangleSet) node).setIndices(readPayload(IntBuffer.class));
+        break;
+      case SceneFormat.TEXTURE2: {
+        Texture2 texture = (Texture2) node;
+        texture.setTexEnvMode(readInt());
+        String source = readString();
+        boolean mipmap = readByte() != 0;
+        String fileSuffix = readString();
+        if (source != null) {
+          if (glp == null) {
+            glp = GLProfile.getDefault();
+          }
+          // Relative references are relative to the directory of the scene file
+          texture.setTexture(glp, new URL(directory.toUri().toURL(), source), mipmap, fileSuffix);
+        }
+        break;
+      }
+      case SceneFormat.BLEND: {
+        Blend blend = (Blend) node;
+        blend.setEnabled(readByte() != 0);
+        ByteBuffer b = fill(28);
+        blend.setBlendColor(new Vector4f(b.getFloat(), b.getFloat(), b.getFloat(), b.getFloat()));
+        blend.setSourceFunc(b.getInt());
+        blend.setDestFunc(b.getInt());
+        blend.setBlendEquation(b.getInt());
+        break;
+      }
+      case SceneFormat.DEPTH_TEST:
+        ((DepthTest) node).setEnabled(readByte() != 0);
+        break;
+      case SceneFormat.PERSPECTIVE_CAMERA:
+        readCamera((Camera) node);
+        ((PerspectiveCamera) node).setHeightAngle(readFloat());
+        break;
+      case SceneFormat.ORTHOGRAPHIC_CAMERA:
+        readCamera((Camera) node);
+        ((OrthographicCamera) node).setHeight(readFloat());
+        break;
+    }
+    return node;
+  }
+
+  private static Node newNode(int type) throws IOException {
+    switch (type) {
+      case SceneFormat.GROUP:                return new Group();
+      case SceneFormat.TRANSFORM:            return new Transform();
+      case SceneFormat.COORDINATE3:          return new Coordinate3();
+      case SceneFormat.COLOR4:               return new Color4();
+      case SceneFormat.TEXTURE_COORDINATE2:  return new TextureCoordinate2();
+      case SceneFormat.TRIANGLE_SET:         return new TriangleSet();
+      case SceneFormat.INDEXED_TRIANGLE_SET: return new IndexedTriangleSet();
+      case SceneFormat.TEXTURE2:             return new Texture2();
+      case SceneFormat.BLEND:                return new Blend();
+      case SceneFormat.DEPTH_TEST:           return new DepthTest();
+      case SceneFormat.PERSPECTIVE_CAMERA:   return new PerspectiveCamera();
+      case SceneFormat.ORTHOGRAPHIC_CAMERA:  return new OrthographicCamera();
+      default:
+        throw new IOException("Corrupt scene file: unknown node type " + type);
+    }
+  }
+
+  private void readCamera(Camera camera) throws IOException {
+    ByteBuffer b = fill(44);
+    camera.setPosition(new Vector3f(b.getFloat(), b.getFloat(), b.getFloat()));
+    Rotf orientation = new Rotf();
+    orientation.set(b.getFloat(), b.getFloat(), b.getFloat(), b.getFloat());
+    camera.setOrientation(orientation);
+    camera.setAspectRatio(b.getFloat());
+    camera.setNearDistance(b.getFloat());
+    camera.setFarDistance(b.getFloat());
+    camera.setFocalDistance(b.getFloat());
+  }
+
+  private void readMatrix(Matrix4f matrix) throws IOException {
+    ByteBuffer b = fill(64);
+    for (int row = 0; row < 4; row++) {
+      for (int col = 0; col < 4; col++) {
+        matrix.setElement(row, col, b.getFloat());
+      }
+    }
+  }
+
+  private String readString() throws IOException {
+    int length = readInt();
+    if (length < 0) {
+      return null;
+    }
+    if (length > channel.size() - position) {
+      throw new EOFException("Scene file truncated");
+    }
+    byte[] bytes = new byte[length];
+    fill(length).get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /** Reads a payload reference, and the payload itself if this is
+      the first reference to it. */
+  private <T> T readPayload(Class<T> type) throws IOException {
+    int index = readInt();
+    if (index == SceneFormat.NULL_PAYLOAD) {
+      return null;
+    }
+    if (index < 0 || index > payloads.size()) {
+      throw new IOException("Corrupt scene file: payload " + index + " not defined");
+    }
+    if (index == payloads.size()) {
+      payloads.add(newPayload(type));
+    }
+    Object payload = payloads.get(index);
+    if (!type.isInstance(payload)) {
+      throw new IOException("Corrupt scene file: payload " + index + " is not a " + type.getSimpleName());
+    }
+    return type.cast(payload);
+  }
+
+  private Object newPayload(Class<?> type) throws IOException {
+    long count = readLong();
+    int segmentSize = (type == SegmentedVec3fCollection.class) ? readInt() : 0;
+    int elementSize;
+    if (type == Vec2fCollection.class) {
+      elementSize = 2;
+    } else if (type == Vec4fCollection.class) {
+      elementSize = 4;
+    } else if (type == IntBuffer.class) {
+      elementSize = 1;
+    } else {
+      elementSize = 3;
+    }
+    if (count < 0 || (type != SegmentedVec3fCollection.class && count * elementSize > Integer.MAX_VALUE)) {
+      throw new IOException("Corrupt scene file: " + count + " elements");
+    }
+    long start = SceneFormat.align(position);
+    long bytes = count * elementSize * 4;
+    if (start + bytes > channel.size()) {
+      throw new EOFException("Scene file truncated");
+    }
+    position = start + bytes;
+    boolean map = order == ByteOrder.nativeOrder() && bytes >= MAP_THRESHOLD;
+
+    if (type == SegmentedVec3fCollection.class) {
+      if (map) {
+        return SegmentedVec3fCollection.map(channel, mode, start, count, segmentSize);
+      }
+      final SegmentedVec3fCollection data = new SegmentedVec3fCollection(segmentSize);
+      copy(start, bytes, new Sink() {
+          public void put(ByteBuffer chunk) {
+            data.addAll(chunk.asFloatBuffer(), 0, chunk.remaining() / 12);
+          }
+        });
+      return data;
+    }
+    if (type == IntBuffer.class) {
+      if (map) {
+        return channel.map(mode, start, bytes).order(order).asIntBuffer();
+      }
+      final IntBuffer data = BufferFactory.newIntBuffer((int) count);
+      copy(start, bytes, new Sink() {
+          public void put(ByteBuffer chunk) {
+            data.put(chunk.asIntBuffer());
+          }
+        });
+      data.flip();
+      return data;
+    }
+    if (type == Vec2fCollection.class) {
+      if (map) {
+        return Vec2fCollection.wrap(channel.map(mode, start, bytes).order(order).asFloatBuffer());
+      }
+      final Vec2fCollection data = new Vec2fCollection((int) count);
+      copy(start, bytes, new Sink() {
+          public void put(ByteBuffer chunk) {
+            data.addAll(chunk.asFloatBuffer(), 0, chunk.remaining() / 8);
+          }
+        });
+      return data;
+    }
+    if (type == Vec4fCollection.class) {
+      if (map) {
+        return Vec4fCollection.wrap(channel.map(mode, start, bytes).order(order).asFloatBuffer());
+      }
+      final Vec4fCollection data = new Vec4fCollection((int) count);
+      copy(start, bytes, new Sink() {
+          public void put(ByteBuffer chunk) {
+            data.addAll(chunk.asFloatBuffer(), 0, chunk.remaining() / 16);
+          }
+        });
+      return data;
+    }
+    if (map) {
+      return Vec3fCollection.wrap(channel.map(mode, start, bytes).order(order).asFloatBuffer());
+    }
+    final Vec3fCollection data = new Vec3fCollection((int) count);
+    copy(start, bytes, new Sink() {
+        public void put(ByteBuffer chunk) {
+          data.addAll(chunk.asFloatBuffer(), 0, chunk.remaining() / 12);
+        }
+      });
+    return data;
+  }
+
+  interface Sink {
+    void put(ByteBuffer chunk);
+  }
+
+  /** Reads the given range of the file in chunks holding a whole
+      number of 2, 3 or 4 component vectors, converting them to the
+      native byte order as they are handed to the sink. */
+  private void copy(long start, long bytes, Sink sink) throws IOException {
+    ByteBuffer chunk = ByteBuffer.allocate((int) Math.min(bytes, 48 * BUFFER_SIZE)).order(order);
+    long pos = start;
+    long end = start + bytes;
+    while (pos < end) {
+      chunk.clear();
+      chunk.limit((int) Math.min(chunk.capacity(), end - pos));
+      while (chunk.hasRemaining()) {
+        int n = channel.read(chunk, pos + chunk.position());
+        if (n < 0) {
+          throw new EOFException("Scene file truncated");
+        }
+      }
+      chunk.flip();
+      pos += chunk.remaining();
+      sink.put(chunk);
+    }
+  }
+
+  private byte readByte() throws IOException {
+    return fill(1).get();
+  }
+
+  private int readInt() throws IOException {
+    return fill(4).getInt();
+  }
+
+  private long readLong() throws IOException {
+    return fill(8).getLong();
+  }
+
+  private float readFloat() throws IOException {
+    return fill(4).getFloat();
+  }
+
+  /** Returns the read buffer positioned at the given number of bytes
+      from the current position in the file, reading more of the file
+      into it if needed, and advances the position past them. */
+  private ByteBuffer fill(int bytes) throws IOException {
+    if (position < bufStart || position - bufStart + bytes > buf.limit()) {
+      if (bytes > buf.capacity()) {
+        buf = ByteBuffer.allocate(bytes).order(order);
+      }
+      buf.clear();
+      bufStart = position;
+      while (buf.position() < bytes) {
+        if (channel.read(buf, bufStart + buf.position()) < 0) {
+          throw new EOFException("Scene file truncated");
+        }
+      }
+      buf.flip();
+    }
+    buf.position((int) (position - bufStart));
+    position += bytes;
+    return buf;
+  }
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+
+package com.breiler.msg.io;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import com.breiler.msg.collections.SegmentedVec3fCollection;
+import com.breiler.msg.collections.Vec2fCollection;
+import com.breiler.msg.collections.Vec3fCollection;
+import com.breiler.msg.collections.Vec4fCollection;
+import com.breiler.msg.math.Rotf;
+import com.breiler.msg.nodes.Blend;
+import com.breiler.msg.nodes.Camera;
+import com.breiler.msg.nodes.Color4;
+import com.breiler.msg.nodes.Coordinate3;
+import com.breiler.msg.nodes.DepthTest;
+import com.breiler.msg.nodes.Group;
+import com.breiler.msg.nodes.IndexedTriangleSet;
+import com.breiler.msg.nodes.Node;
+import com.breiler.msg.nodes.OrthographicCamera;
+import com.breiler.msg.nodes.PerspectiveCamera;
+import com.breiler.msg.nodes.Texture2;
+import com.breiler.msg.nodes.TextureCoordinate2;
+import com.breiler.msg.nodes.Transform;
+import com.breiler.msg.nodes.TriangleSet;
+
+import javax.vecmath.Matrix4f;
+import javax.vecmath.Vector3f;
+import javax.vecmath.Vector4f;
+
+/** Saves scene graphs in a compact binary format which {@link
+    SceneReader} loads without parsing the vertex data. <P>
+
+    Groups, transforms, coordinates, colors, texture coordinates,
+    triangle sets, indexed triangle sets, textures, blending, depth
+    testing and cameras are supported; saving a graph containing any
+    other type of node, including subclasses of these, fails. Node
+    names and transforms are saved along with each node. Nodes and
+    collections referenced more than once are saved once and are
+    shared again when the file is loaded. <P>
+
+    The contents of collections are stored as is, in the byte order
+    of the platform, and streamed to the file in large blocks, so that
+    saving is limited by the speed of the disk rather than the number
+    of vertices. Textures are saved as references to the file or URL
+    they were set up from, relative to the directory of the scene
+    file where possible; textures set up from other sources are saved
+    without their image. */
+
+public class SceneWriter {
+  private static final int BUFFER_SIZE = 1 << 20;
+  private static final Matrix4f IDENTITY = new Matrix4f();
+  static {
+    IDENTITY.setIdentity();
+  }
+
+  private final FileChannel channel;
+  private final Path directory;
+  private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.nativeOrder());
+  // Number of bytes written to the channel so far
+  private long flushed;
+  private final Map<Node, Integer> nodes = new IdentityHashMap<Node, Integer>();
+  private final Map<Object, Integer> payloads = new IdentityHashMap<Object, Integer>();
+
+  private SceneWriter(FileChannel channel, Path directory) {
+    this.channel = channel;
+    this.directory = directory;
+  }
+
+  /** Writes the scene graph starting at the given node to the given
+      file, replacing any previous contents of the file. Throws an
+      IOException if the graph contains nodes of a type which can not
+      be saved. */
+  public static void write(Node root, Path file) throws IOException {
+    if (root == null) {
+      throw new IllegalArgumentException("root may not be null");
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                                                StandardOpenOption.TRUNCATE_EXISTING,
+                                                StandardOpenOption.WRITE)) {
+      SceneWriter writer = new SceneWriter(channel, file.toAbsolutePath().getParent());
+      writer.writeHeader();
+      writer.writeNode(root);
+      writer.flush();
+    }
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private void writeHeader() throws IOException {
+    // The magic number reads the same on all platforms
+    buf.order(ByteOrder.BIG_ENDIAN).putInt(SceneFormat.MAGIC).order(ByteOrder.nativeOrder());
+    buf.putInt(SceneFormat.BYTE_ORDER_MARK);
+    buf.putInt(SceneFormat.VERSION);
+    buf.putInt(0);
+  }
+
+  private void writeNode(Node node) throws IOException {
+    Integer index = nodes.get(node);
+    if (index != null) {
+      room(8).putInt(SceneFormat.REFERENCE).putInt(index);
+      return;
+    }
+    int type = typeOf(node);
+    nodes.put(node, nodes.size());
+    room(4).putInt(type);
+    writeString(node.getName());
+    Matrix4f transform = node.getTransform();
+    if (IDENTITY.equals(transform)) {
+      room(1).put((byte) 0);
+    } else {
+      room(1).put((byte) 1);
+      writeMatrix(transform);
+    }
+
+    switch (type) {
+      case SceneFormat.GROUP: {
+        Group group = (Group) node;
+        room(4).putInt(group.getNumChildren());
+        for (Node child : group) {
+          writeNode(child);
+        }
+        break;
+      }
+      case SceneFormat.TRANSFORM:
+        writeMatrix(((Transform) node).getTransform());
+        break;
+      case SceneFormat.COORDINATE3: {
+        Coordinate3 coords = (Coordinate3) node;
+        SegmentedVec3fCollection segmented = coords.getSegmentedData();
+        if (segmented != null) {
+          room(1).put(SceneFormat.SEGMENTED_DATA);
+          writeSegmented(segmented);
+        } else if (coords.getData() != null) {
+          room(1).put(SceneFormat.PLAIN_DATA);
+          writeVec3f(coords.getData());
+        } else {
+          room(1).put(SceneFormat.NO_DATA);
+        }
+        break;
+      }
+      case SceneFormat.COLOR4: {
+        Vec4fCollection data = ((Color4) node).getData();
+        if (writeReference(data)) {
+          writeFloats(data.size(), data.getTraversalData());
+        }
+        break;
+      }
+      case SceneFormat.TEXTURE_COORDINATE2: {
+        Vec2fCollection data = ((TextureCoordinate2) node).getData();
+        if (writeReference(data)) {
+          writeFloats(data.size(), data.getTraversalData());
+        }
+        break;
+      }
+      case SceneFormat.TRIANGLE_SET:
+        break;
+      case SceneFormat.INDEXED_TRIANGLE_SET: {
+        IntBuffer indices = ((IndexedTriangleSet) node).getIndices();
+        if (writeReference(indices)) {
+          // The indices from zero to the limit are used
+          IntBuffer range = indices.duplicate();
+          range.position(0);
+          writeInts(range);
+        }
+        break;
+      }
+      case SceneFormat.TEXTURE2: {
+        Texture2 texture = (Texture2) node;
+        room(4).putInt(texture.getTexEnvMode());
+        writeString(relativize(texture.getSourceURL()));
+        room(1).put((byte) (texture.getSourceMipmap() ? 1 : 0));
+        writeString(texture.getSourceFileSuffix());
+        break;
+      }
+      case SceneFormat.BLEND: {
+        Blend blend = (Blend) node;
+        Vector4f color = blend.getBlendColor();
+        room(29).put((byte) (blend.getEnabled() ? 1 : 0))
+          .putFloat(color.x).putFloat(color.y).putFloat(color.z).putFloat(color.w)
+          .putInt(blend.getSourceFunc())
+          .putInt(blend.getDestFunc())
+          .putInt(blend.getBlendEquation());
+        break;
+      }
+      case SceneFormat.DEPTH_TEST:
+        room(1).put((byte) (((DepthTest) node).getEnabled() ? 1 : 0));
+        break;
+      case SceneFormat.PERSPECTIVE_CAMERA:
+        writeCamera((Camera) node);
+        room(4).putFloat(((PerspectiveCamera) node).getHeightAngle());
+        break;
+      case SceneFormat.ORTHOGRAPHIC_CAMERA:
+        writeCamera((Camera) node);
+        room(4).putFloat(((OrthographicCamera) node).getHeight());
+        break;
+    }
+  }
+
+  private static int typeOf(Node node) throws IOException {
+    // Subclasses may hold state of their own, so only exact types are saved
+    Class<?> c = node.getClass();
+    if (c == Group.class)              return SceneFormat.GROUP;
+    if (c == Transform.class)          return SceneFormat.TRANSFORM;
+    if (c == Coordinate3.class)        return SceneFormat.COORDINATE3;
+    if (c == Color4.class)             return SceneFormat.COLOR4;
+    if (c == TextureCoordinate2.class) return SceneFormat.TEXTURE_COORDINATE2;
+    if (c == TriangleSet.class)        return SceneFormat.TRIANGLE_SET;
+    if (c == IndexedTriangleSet.class) return SceneFormat.INDEXED_TRIANGLE_SET;
+    if (c == Texture2.class)           return SceneFormat.TEXTURE2;
+    if (c == Blend.class)              return SceneFormat.BLEND;
+    if (c == DepthTest.class)          return SceneFormat.DEPTH_TEST;
+    if (c == PerspectiveCamera.class)  return SceneFormat.PERSPECTIVE_CAMERA;
+    if (c == OrthographicCamera.class) return SceneFormat.ORTHOGRAPHIC_CAMERA;
+    throw new IOException("Can not save nodes of type " + c.getName());
+  }
+
+  private void writeCamera(Camera camera) throws IOException {
+    Vector3f position = camera.getPosition();
+    Rotf orientation = camera.getOrientation();
+    room(44).putFloat(position.x).putFloat(position.y).putFloat(position.z)
+      .putFloat(orientation.x).putFloat(orientation.y).putFloat(orientation.z).putFloat(orientation.w)
+      .putFloat(camera.getAspectRatio())
+      .putFloat(camera.getNearDistance())
+      .putFloat(camera.getFarDistance())
+      .putFloat(camera.getFocalDistance());
+  }
+
+  private void writeMatrix(Matrix4f matrix) throws IOException {
+    ByteBuffer b = room(64);
+    for (int row = 0; row < 4; row++) {
+      for (int col = 0; col < 4; col++) {
+        b.putFloat(matrix.getElement(row, col));
+      }
+    }
+  }
+
+  private void writeString(String s) throws IOException {
+    if (s == null) {
+      room(4).putInt(-1);
+      return;
+    }
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    room(4).putInt(bytes.length);
+    int pos = 0;
+    while (pos < bytes.length) {
+      if (!buf.hasRemaining()) {
+        flush();
+      }
+      int n = Math.min(buf.remaining(), bytes.length - pos);
+      buf.put(bytes, pos, n);
+      pos += n;
+    }
+  }
+
+  private String relativize(URL url) {
+    if (url == null) {
+      return null;
+    }
+    try {
+      return directory.toUri().relativize(url.toURI()).toString();
+    } catch (URISyntaxException e) {
+      return url.toExternalForm();
+    }
+  }
+
+  /** Writes the index of the given payload, or -1 if it is null.
+      Returns true if this is the first reference to the payload, in
+      which case its contents must follow. */
+  private boolean writeReference(Object payload) throws IOException {
+    if (payload == null) {
+      room(4).putInt(SceneFormat.NULL_PAYLOAD);
+      return false;
+    }
+    Integer index = payloads.get(payload);
+    if (index != null) {
+      room(4).putInt(index);
+      return false;
+    }
+    index = payloads.size();
+    payloads.put(payload, index);
+    room(4).putInt(index);
+    return true;
+  }
+
+  private void writeVec3f(Vec3fCollection data) throws IOException {
+    if (writeReference(data)) {
+      writeFloats(data.size(), data.getTraversalData());
+    }
+  }
+
+  private void writeSegmented(SegmentedVec3fCollection data) throws IOException {
+    if (writeReference(data)) {
+      room(12).putLong(data.size()).putInt(data.getSegmentSize());
+      pad();
+      // All segments but the last are full, so they are stored back to back
+      for (int i = 0; i < data.getSegmentCount(); i++) {
+        copy(data.getSegment(i));
+      }
+    }
+  }
+
+  private void writeFloats(long count, FloatBuffer data) throws IOException {
+    room(8).putLong(count);
+    pad();
+    copy(data);
+  }
+
+  private void writeInts(IntBuffer data) throws IOException {
+    room(8).putLong(data.remaining());
+    pad();
+    IntBuffer rest = data.duplicate();
+    while (rest.hasRemaining()) {
+      IntBuffer dest = room(4).asIntBuffer();
+      int n = Math.min(dest.remaining(), rest.remaining());
+      int limit = rest.limit();
+      rest.limit(rest.position() + n);
+      dest.put(rest);
+      rest.limit(limit);
+      buf.position(buf.position() + 4 * n);
+    }
+  }
+
+  /** Appends the remaining floats of the given buffer, which is in
+      native byte order like the file, in bulk copies. */
+  private void copy(FloatBuffer data) throws IOException {
+    FloatBuffer rest = data.duplicate();
+    while (rest.hasRemaining()) {
+      FloatBuffer dest = room(4).asFloatBuffer();
+      int n = Math.min(dest.remaining(), rest.remaining());
+      int limit = rest.limit();
+      rest.limit(rest.position() + n);
+      dest.put(rest);
+      rest.limit(limit);
+      buf.position(buf.position() + 4 * n);
+    }
+  }
+
+  private void pad() throws IOException {
+    long position = flushed + buf.position();
+    int padding = (int) (SceneFormat.align(position) - position);
+    ByteBuffer b = room(padding);
+    for (int i = 0; i < padding; i++) {
+      b.put((byte) 0);
+    }
+  }
+
+  /** Returns the write buffer after making sure it has room for the
+      given number of bytes. */
+  private ByteBuffer room(int bytes) throws IOException {
+    if (buf.remaining() < bytes) {
+      flush();
+    }
+    return buf;
+  }
+
+  private void flush() throws IOException {
+    buf.flip();
+    while (buf.hasRemaining()) {
+      flushed += channel.write(buf);
+    }
+    buf.clear();
+  }
+}
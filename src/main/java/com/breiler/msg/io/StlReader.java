@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+
+package com.breiler.msg.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import com.breiler.msg.collections.Vec3fCollection;
+import com.breiler.msg.impl.BufferFactory;
+import com.breiler.msg.mesh.VertexWelder;
+import com.breiler.msg.nodes.Group;
+
+/** Loads triangle meshes from binary and ASCII STL files. <P>
+
+    The result is a Group holding a {@link
+    com.breiler.msg.nodes.Coordinate3 Coordinate3} node followed by
+    an {@link com.breiler.msg.nodes.IndexedTriangleSet
+    IndexedTriangleSet}, whose buffers are allocated by the {@link
+    BufferFactory}. STL files store every triangle with its own three
+    vertices; by default vertices at identical positions are welded
+    into one, which typically shrinks the coordinates to a sixth. The
+    facet normals are ignored. <P>
+
+    Binary files are mapped and their floats read as is. ASCII files
+    are parsed straight from the mapped bytes, in chunks in parallel
+    for files larger than a few megabytes. */
+
+public class StlReader {
+  private static final int HEADER_SIZE = 84;
+  private static final int TRIANGLE_SIZE = 50;
+  // Number of triangles of a binary file mapped at a time
+  private static final int TRIANGLES_PER_WINDOW = 1 << 20;
+
+  private StlReader() {}
+
+  /** Loads the given STL file, welding vertices at identical
+      positions. */
+  public static Group read(Path file) throws IOException {
+    return read(file, true);
+  }
+
+  /** Loads the given STL file. If weld is false, each triangle keeps
+      its own three vertices, as in the file. */
+  public static Group read(Path file, boolean weld) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      String name = file.getFileName().toString();
+      long triangles = binaryTriangleCount(channel);
+      if (triangles >= 0) {
+        return readBinary(channel, name, triangles, weld);
+      }
+      return readAscii(channel, name, weld);
+    }
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  /** Returns the number of triangles of a binary file, or -1 if the
+      file is ASCII. ASCII files start with "solid", but so do some
+      binary ones, whose size gives them away. */
+  private static long binaryTriangleCount(FileChannel channel) throws IOException {
+    long size = channel.size();
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+    }
+    long count = (header.position() == HEADER_SIZE) ? (header.getInt(80) & 0xFFFFFFFFL) : -1;
+    boolean solid = header.position() >= 5 &&
+      header.get(0) == 's' && header.get(1) == 'o' && header.get(2) == 'l' &&
+      header.get(3) == 'i' && header.get(4) == 'd';
+    if (count >= 0 && HEADER_SIZE + count * TRIANGLE_SIZE == size) {
+      return count;
+    }
+    if (solid) {
+      return -1;
+    }
+    if (count < 0 || HEADER_SIZE + count * TRIANGLE_SIZE > size) {
+      throw new IOException("Not an STL file, or truncated");
+    }
+    return count;
+  }
+
+  private static Group readBinary(FileChannel channel, String name, long triangles, boolean weld)
+    throws IOException {
+    if (3 * triangles > MeshBuffers.MAX_ELEMENTS) {
+      throw new IOException(triangles + " triangles do not fit into a single mesh");
+    }
+    int numIndices = 3 * (int) triangles;
+    IntBuffer indices = BufferFactory.newIntBuffer(numIndices);
+    VertexWelder welder = weld ? new VertexWelder(3, numIndices / 6) : null;
+    Vec3fCollection coords = weld ? null : new Vec3fCollection(numIndices);
+    int index = 0;
+    for (long first = 0; first < triangles; first += TRIANGLES_PER_WINDOW) {
+      int count = (int) Math.min(TRIANGLES_PER_WINDOW, triangles - first);
+      ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY,
+                                      HEADER_SIZE + first * TRIANGLE_SIZE,
+                                      (long) count * TRIANGLE_SIZE)
+        .order(ByteOrder.LITTLE_ENDIAN);
+      for (int i = 0; i < count; i++) {
+        // Skip the normal
+        int pos = i * TRIANGLE_SIZE + 12;
+        for (int v = 0; v < 3; v++, pos += 12) {
+          float x = window.getFloat(pos);
+          float y = window.getFloat(pos + 4);
+          float z = window.getFloat(pos + 8);
+          if (weld) {
+            indices.put(index++, welder.add(x, y, z));
+          } else {
+            coords.add(x, y, z);
+            indices.put(index, index);
+            index++;
+          }
+        }
+      }
+    }
+    return MeshBuffers.newMesh(name, weld ? welder.toCollection() : coords, indices);
+  }
+
+  private static Group readAscii(FileChannel channel, String name, boolean weld) throws IOException {
+    List<MeshBuffers> chunks = TextParser.parse(channel, new TextParser.ChunkParser() {
+        public MeshBuffers parse(TextParser text) throws IOException {
+          MeshBuffers res = new MeshBuffers();
+          while (text.hasMore()) {
+            if (text.keyword("vertex")) {
+              res.addVertex(text.parseFloat(), text.parseFloat(), text.parseFloat());
+            }
+            text.skipLine();
+          }
+          return res;
+        }
+      });
+
+    long numVertices = 0;
+    for (MeshBuffers chunk : chunks) {
+      numVertices += chunk.numVertices;
+    }
+    if (numVertices % 3 != 0) {
+      throw new IOException("Number of vertices " + numVertices + " is not a multiple of three");
+    }
+    if (numVertices > MeshBuffers.MAX_ELEMENTS) {
+      throw new IOException(numVertices + " vertices do not fit into a single mesh");
+    }
+    IntBuffer indices = BufferFactory.newIntBuffer((int) numVertices);
+    if (!weld) {
+      Vec3fCollection coords = new Vec3fCollection((int) numVertices);
+      for (MeshBuffers chunk : chunks) {
+        coords.addAll(chunk.positions, 0, chunk.numVertices);
+      }
+      for (int i = 0; i < numVertices; i++) {
+        indices.put(i, i);
+      }
+      return MeshBuffers.newMesh(name, coords, indices);
+    }
+    VertexWelder welder = new VertexWelder(3, (int) numVertices / 6);
+    int index = 0;
+    for (MeshBuffers chunk : chunks) {
+      float[] p = chunk.positions;
+      for (int i = 0; i < chunk.numVertices; i++) {
+        indices.put(index++, welder.add(p[3 * i], p[3 * i + 1], p[3 * i + 2]));
+      }
+    }
+    return MeshBuffers.newMesh(name, welder.toCollection(), indices);
+  }
+}
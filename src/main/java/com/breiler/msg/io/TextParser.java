@@ -0,0 +1,349 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+
+package com.breiler.msg.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/** Parses the words and numbers of a line-based text format directly
+    from the bytes of a mapped file, without creating Strings. Large
+    files are split into chunks at line boundaries which are parsed
+    in parallel on the common fork-join pool. */
+
+final class TextParser {
+  // Files are split into chunks of about this many bytes
+  static final long CHUNK_SIZE = 16 << 20;
+
+  /** Parses one chunk of a file. */
+  interface ChunkParser {
+    MeshBuffers parse(TextParser text) throws IOException;
+  }
+
+  private static final double[] POWERS_OF_TEN = {
+    1e0,  1e1,  1e2,  1e3,  1e4,  1e5,  1e6,  1e7,  1e8,  1e9,  1e10, 1e11,
+    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  private final ByteBuffer buf;
+  private final long fileOffset;
+  private int pos;
+  private final int end;
+
+  TextParser(ByteBuffer buf, long fileOffset) {
+    this.buf = buf;
+    this.fileOffset = fileOffset;
+    pos = buf.position();
+    end = buf.limit();
+  }
+
+  /** Splits the file into chunks starting at line boundaries and
+      parses them with the given parser, in parallel if there is more
+      than one. Returns the results in the order of the chunks. */
+  static List<MeshBuffers> parse(final FileChannel channel, final ChunkParser parser) throws IOException {
+    long size = channel.size();
+    int numChunks = (int) Math.max(1, (size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    final long[] bounds = new long[numChunks + 1];
+    bounds[numChunks] = size;
+    for (int i = 1; i < numChunks; i++) {
+      bounds[i] = nextLine(channel, Math.max(bounds[i - 1], i * (size / numChunks)));
+    }
+
+    List<MeshBuffers> res = new ArrayList<MeshBuffers>();
+    if (numChunks == 1) {
+      res.add(parseChunk(channel, 0, size, parser));
+      return res;
+    }
+    List<Callable<MeshBuffers>> tasks = new ArrayList<Callable<MeshBuffers>>();
+    for (int i = 0; i < numChunks; i++) {
+      final long start = bounds[i];
+      final long chunkEnd = bounds[i + 1];
+      tasks.add(new Callable<MeshBuffers>() {
+          public MeshBuffers call() throws IOException {
+            return parseChunk(channel, start, chunkEnd - start, parser);
+          }
+        });
+    }
+    try {
+      for (Future<MeshBuffers> f : ForkJoinPool.commonPool().invokeAll(tasks)) {
+        res.add(f.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while parsing", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
+    }
+    return res;
+  }
+
+  /** Returns whether there is anything left to parse. */
+  boolean hasMore() {
+    return pos < end;
+  }
+
+  /** Skips spaces and tabs, but not line ends. */
+  void skipSpaces() {
+    while (pos < end) {
+      byte c = buf.get(pos);
+      if (c != ' ' && c != '\t' && c != '\r') {
+        return;
+      }
+      pos++;
+    }
+  }
+
+  /** Skips the rest of the current line, including its line end. */
+  void skipLine() {
+    while (pos < end) {
+      if (buf.get(pos++) == '\n') {
+        return;
+      }
+    }
+  }
+
+  /** Returns whether only spaces remain on the current line. */
+  boolean atEndOfLine() {
+    skipSpaces();
+    return pos == end || buf.get(pos) == '\n';
+  }
+
+  /** Consumes the given word and returns true if it is next on the
+      line, followed by a space or the end of the line. */
+  boolean keyword(String word) {
+    skipSpaces();
+    int n = word.length();
+    if (pos + n > end) {
+      return false;
+    }
+    for (int i = 0; i < n; i++) {
+      if (buf.get(pos + i) != word.charAt(i)) {
+        return false;
+      }
+    }
+    if (pos + n < end && !isSpace(buf.get(pos + n))) {
+      return false;
+    }
+    pos += n;
+    return true;
+  }
+
+  /** Consumes the given character and returns true if it is next. */
+  boolean skip(char c) {
+    if (pos < end && buf.get(pos) == c) {
+      pos++;
+      return true;
+    }
+    return false;
+  }
+
+  /** Skips characters up to the next space or line end. */
+  void skipWord() {
+    while (pos < end && !isSpace(buf.get(pos))) {
+      pos++;
+    }
+  }
+
+  /** Parses a decimal integer. */
+  int parseInt() throws IOException {
+    skipSpaces();
+    int start = pos;
+    boolean negative = skip('-');
+    if (!negative) {
+      skip('+');
+    }
+    long value = 0;
+    int digitsStart = pos;
+    while (pos < end) {
+      int d = buf.get(pos) - '0';
+      if (d < 0 || d > 9) {
+        break;
+      }
+      value = value * 10 + d;
+      if (value > Integer.MAX_VALUE) {
+        throw error("Integer out of range", start);
+      }
+      pos++;
+    }
+    if (pos == digitsStart) {
+      throw error("Invalid integer", start);
+    }
+    return (int) (negative ? -value : value);
+  }
+
+  /** Parses a floating-point number. Numbers of up to 18 significant
+      digits with small exponents, which covers everything usually
+      found in mesh files, are converted without creating any
+      objects; anything else is handed to Float.parseFloat. */
+  float parseFloat() throws IOException {
+    skipSpaces();
+    int start = pos;
+    boolean negative = skip('-');
+    if (!negative) {
+      skip('+');
+    }
+    long mantissa = 0;
+    int significantDigits = 0;
+    int exponent = 0;
+    boolean anyDigits = false;
+    boolean fraction = false;
+    while (pos < end) {
+      byte c = buf.get(pos);
+      if (c == '.' && !fraction) {
+        fraction = true;
+      } else if (c >= '0' && c <= '9') {
+        anyDigits = true;
+        if (significantDigits < 18) {
+          mantissa = mantissa * 10 + (c - '0');
+          if (mantissa != 0) {
+            significantDigits++;
+          }
+          if (fraction) {
+            exponent--;
+          }
+        } else if (!fraction) {
+          exponent++;
+        }
+      } else {
+        break;
+      }
+      pos++;
+    }
+    if (anyDigits && pos < end && (buf.get(pos) == 'e' || buf.get(pos) == 'E')) {
+      pos++;
+      boolean negativeExponent = skip('-');
+      if (!negativeExponent) {
+        skip('+');
+      }
+      int e = 0;
+      int digitsStart = pos;
+      while (pos < end) {
+        int d = buf.get(pos) - '0';
+        if (d < 0 || d > 9) {
+          break;
+        }
+        if (e < 10000) {
+          e = e * 10 + d;
+        }
+        pos++;
+      }
+      if (pos == digitsStart) {
+        anyDigits = false;
+      }
+      exponent += negativeExponent ? -e : e;
+    }
+    if (!anyDigits || (pos < end && !isSpace(buf.get(pos))) ||
+        exponent < -22 || exponent > 22) {
+      return parseFloatSlowly(start);
+    }
+    double value = (exponent < 0)
+      ? mantissa / POWERS_OF_TEN[-exponent]
+      : mantissa * POWERS_OF_TEN[exponent];
+    return (float) (negative ? -value : value);
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private float parseFloatSlowly(int start) throws IOException {
+    pos = start;
+    skipWord();
+    byte[] bytes = new byte[pos - start];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = buf.get(start + i);
+    }
+    try {
+      return Float.parseFloat(new String(bytes, StandardCharsets.US_ASCII));
+    } catch (NumberFormatException e) {
+      throw error("Invalid number", start);
+    }
+  }
+
+  private IOException error(String message, int at) {
+    return new IOException(message + " at byte " + (fileOffset + at - buf.position()));
+  }
+
+  private static boolean isSpace(byte c) {
+    return c == ' ' || c == '\t' || c == '\r' || c == '\n';
+  }
+
+  private static MeshBuffers parseChunk(FileChannel channel, long start, long length,
+                                        ChunkParser parser) throws IOException {
+    ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+    return parser.parse(new TextParser(buf, start));
+  }
+
+  /** Returns the position just after the next line end at or after
+      the given position, or the size of the file if there is none. */
+  private static long nextLine(FileChannel channel, long from) throws IOException {
+    ByteBuffer window = ByteBuffer.allocate(4096);
+    long pos = from;
+    while (true) {
+      window.clear();
+      int n = channel.read(window, pos);
+      if (n < 0) {
+        return channel.size();
+      }
+      for (int i = 0; i < n; i++) {
+        if (window.get(i) == '\n') {
+          return pos + i + 1;
+        }
+      }
+      pos += n;
+    }
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package com.breiler.msg.math;
+
+import javax.vecmath.Matrix4f;
+import javax.vecmath.Vector3f;
+
+/** Represents an axis-aligned bounding box in 3D space. A newly
+    created box is empty, meaning it contains no points at all. */
+
+public class Box3f {
+  private final Vector3f min = new Vector3f();
+  private final Vector3f max = new Vector3f();
+
+  /** Creates an empty box. */
+  public Box3f() {
+    makeEmpty();
+  }
+
+  /** Creates a box with the same extent as the given one. */
+  public Box3f(Box3f box) {
+    set(box);
+  }
+
+  /** Makes this box empty. */
+  public void makeEmpty() {
+    min.set(Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE);
+    max.set(-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE);
+  }
+
+  /** Indicates whether this box contains no points. */
+  public boolean isEmpty() {
+    return (max.getX() < min.getX() ||
+            max.getY() < min.getY() ||
+            max.getZ() < min.getZ());
+  }
+
+  /** Sets this box to the extent of the given one. */
+  public void set(Box3f box) {
+    min.set(box.min);
+    max.set(box.max);
+  }
+
+  /** Returns the minimum corner of this box; callers should not
+      mutate this directly. */
+  public Vector3f getMin() {
+    return min;
+  }
+
+  /** Returns the maximum corner of this box; callers should not
+      mutate this directly. */
+  public Vector3f getMax() {
+    return max;
+  }
+
+  /** Computes the center of this box into the given vector. The
+      result is undefined if the box is empty. */
+  public void getCenter(Vector3f dest) {
+    dest.set(0.5f * (min.getX() + max.getX()),
+             0.5f * (min.getY() + max.getY()),
+             0.5f * (min.getZ() + max.getZ()));
+  }
+
+  /** Computes the size of this box along each axis into the given
+      vector. The result is undefined if the box is empty. */
+  public void getSize(Vector3f dest) {
+    dest.set(max.getX() - min.getX(),
+             max.getY() - min.getY(),
+             max.getZ() - min.getZ());
+  }
+
+  /** Grows this box to contain the given point. */
+  public void extendBy(float x, float y, float z) {
+    if (x < min.getX()) min.setX(x);
+    if (y < min.getY()) min.setY(y);
+    if (z < min.getZ()) min.setZ(z);
+    if (x > max.getX()) max.setX(x);
+    if (y > max.getY()) max.setY(y);
+    if (z > max.getZ()) max.setZ(z);
+  }
+
+  /** Grows this box to contain the given one. */
+  public void extendBy(Box3f box) {
+    if (box.isEmpty())
+      return;
+    extendBy(box.min.getX(), box.min.getY(), box.min.getZ());
+    extendBy(box.max.getX(), box.max.getY(), box.max.getZ());
+  }
+
+  /** Transforms this box by the given matrix, replacing it with the
+      axis-aligned box enclosing the transformed original. Does not
+      allocate. */
+  public void transform(Matrix4f mat) {
+    if (isEmpty())
+      return;
+    // Arvo's method: for each row of the upper 3x3, the smallest
+    // (largest) product with the original extent picks the minimum
+    // (maximum) corner where the coefficient is positive and the
+    // maximum (minimum) corner where it is negative
+    float minX = min.getX(), minY = min.getY(), minZ = min.getZ();
+    float maxX = max.getX(), maxY = max.getY(), maxZ = max.getZ();
+    min.set(mat.getM03() + rowExtent(mat.getM00(), mat.getM01(), mat.getM02(), minX, minY, minZ, maxX, maxY, maxZ),
+            mat.getM13() + rowExtent(mat.getM10(), mat.getM11(), mat.getM12(), minX, minY, minZ, maxX, maxY, maxZ),
+            mat.getM23() + rowExtent(mat.getM20(), mat.getM21(), mat.getM22(), minX, minY, minZ, maxX, maxY, maxZ));
+    max.set(mat.getM03() + rowExtent(mat.getM00(), mat.getM01(), mat.getM02(), maxX, maxY, maxZ, minX, minY, minZ),
+            mat.getM13() + rowExtent(mat.getM10(), mat.getM11(), mat.getM12(), maxX, maxY, maxZ, minX, minY, minZ),
+            mat.getM23() + rowExtent(mat.getM20(), mat.getM21(), mat.getM22(), maxX, maxY, maxZ, minX, minY, minZ));
+  }
+
+  /** Indicates whether the given line passes through this box at a
+      parameter within [tMin, tMax], where the parameter measures the
+      distance from the line's point along its direction. Infinite
+      bounds are allowed. */
+  public boolean intersects(Line line, float tMin, float tMax) {
+    if (isEmpty())
+      return false;
+    Vector3f p = line.getPoint();
+    Vector3f d = line.getDirection();
+    // Slab test. Where the line is parallel to a slab and starts on
+    // one of its planes the products are NaN, and the comparisons
+    // below ignore that slab, which is what is wanted.
+    for (int i = 0; i < 3; i++) {
+      float o = MathUtils.getVectorElement(p, i);
+      float inv = 1.0f / MathUtils.getVectorElement(d, i);
+      float t0 = (MathUtils.getVectorElement(min, i) - o) * inv;
+      float t1 = (MathUtils.getVectorElement(max, i) - o) * inv;
+      if (t0 > t1) { float tmp = t0; t0 = t1; t1 = tmp; }
+      if (t0 > tMin) tMin = t0;
+      if (t1 < tMax) tMax = t1;
+      if (tMin > tMax)
+        return false;
+    }
+    return true;
+  }
+
+  public String toString() {
+    if (isEmpty())
+      return "[empty]";
+    return "[" + min + " - " + max + "]";
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private static float rowExtent(float m0, float m1, float m2,
+                                 float x0, float y0, float z0,
+                                 float x1, float y1, float z1) {
+    return ((m0 > 0) ? m0 * x0 : m0 * x1) +
+           ((m1 > 0) ? m1 * y0 : m1 * y1) +
+           ((m2 > 0) ? m2 * z0 : m2 * z1);
+  }
+}
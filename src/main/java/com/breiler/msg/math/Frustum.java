@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package com.breiler.msg.math;
+
+import javax.vecmath.Matrix4f;
+
+/** Represents a view frustum as six planes in world coordinates,
+    extracted from a combined projection and viewing matrix. Points
+    on the positive side of every plane are inside the frustum. */
+
+public class Frustum {
+  private static final int NUM_PLANES = 6;
+  // Plane equations (a, b, c, d), with normalized (a, b, c) pointing
+  // into the frustum: left, right, bottom, top, near, far
+  private final float[] planes = new float[4 * NUM_PLANES];
+
+  /** Creates a frustum which contains all points in the canonical
+      view volume of the identity matrix. */
+  public Frustum() {
+    Matrix4f ident = new Matrix4f();
+    ident.setIdentity();
+    set(ident);
+  }
+
+  /** Sets this frustum from the given matrix, which transforms world
+      coordinates into clip coordinates; typically the product of a
+      camera's projection and viewing matrices. */
+  public void set(Matrix4f projView) {
+    for (int i = 0; i < 3; i++) {
+      // Gribb and Hartmann: the planes are the sum and difference of
+      // the fourth row and each of the others
+      setPlane(2 * i,     projView, i,  1);
+      setPlane(2 * i + 1, projView, i, -1);
+    }
+  }
+
+  /** Indicates whether the given sphere is at least partially inside
+      this frustum. Empty spheres are never inside. */
+  public boolean intersects(Sphere3f sphere) {
+    if (sphere.isEmpty())
+      return false;
+    float x = sphere.getCenter().getX();
+    float y = sphere.getCenter().getY();
+    float z = sphere.getCenter().getZ();
+    float r = sphere.getRadius();
+    for (int i = 0; i < 4 * NUM_PLANES; i += 4) {
+      if (planes[i] * x + planes[i + 1] * y + planes[i + 2] * z + planes[i + 3] < -r) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Indicates whether the given box is at least partially inside
+      this frustum. This is conservative: boxes near the corners of
+      the frustum may be reported as intersecting even though they
+      are outside. Empty boxes are never inside. */
+  public boolean intersects(Box3f box) {
+    if (box.isEmpty())
+      return false;
+    float minX = box.getMin().getX(), minY = box.getMin().getY(), minZ = box.getMin().getZ();
+    float maxX = box.getMax().getX(), maxY = box.getMax().getY(), maxZ = box.getMax().getZ();
+    for (int i = 0; i < 4 * NUM_PLANES; i += 4) {
+      float a = planes[i], b = planes[i + 1], c = planes[i + 2];
+      // Test the corner furthest along the plane normal
+      if (a * ((a > 0) ? maxX : minX) +
+          b * ((b > 0) ? maxY : minY) +
+          c * ((c > 0) ? maxZ : minZ) + planes[i + 3] < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private void setPlane(int plane, Matrix4f m, int row, float sign) {
+    float a = m.getElement(3, 0) + sign * m.getElement(row, 0);
+    float b = m.getElement(3, 1) + sign * m.getElement(row, 1);
+    float c = m.getElement(3, 2) + sign * m.getElement(row, 2);
+    float d = m.getElement(3, 3) + sign * m.getElement(row, 3);
+    float len = (float) Math.sqrt(a * a + b * b + c * c);
+    if (len > 0) {
+      a /= len;
+      b /= len;
+      c /= len;
+      d /= len;
+    }
+    int base = 4 * plane;
+    planes[base]     = a;
+    planes[base + 1] = b;
+    planes[base + 2] = c;
+    planes[base + 3] = d;
+  }
+}
@@ -14,7 +14,16 @@ public class MathUtils {
      * @return the matrix as a float array
      */
     public static float[] getColumnMajorData(Matrix4f matrix) {
-        float[] out = new float[16];
+        return getColumnMajorData(matrix, new float[16]);
+    }
+
+    /**
+     * Copies data in column-major (OpenGL format) order into the
+     * given float array, which must have a length of at least 16.
+     *
+     * @return the passed array
+     */
+    public static float[] getColumnMajorData(Matrix4f matrix, float[] out) {
         for (int i = 0; i < 4; i++) {
             for (int j = 0; j < 4; j++) {
                 out[4 * j + i] = matrix.getElement(i, j);
@@ -28,24 +37,34 @@ public class MathUtils {
      * opposite of OpenGL's convention.
      */
     public static float[] getRowMajorData(Matrix4f matrix) {
-        return new float[]{
-                matrix.getM00(),
-                matrix.getM01(),
-                matrix.getM02(),
-                matrix.getM03(),
-                matrix.getM10(),
-                matrix.getM11(),
-                matrix.getM12(),
-                matrix.getM13(),
-                matrix.getM20(),
-                matrix.getM21(),
-                matrix.getM22(),
-                matrix.getM23(),
-                matrix.getM30(),
-                matrix.getM31(),
-                matrix.getM32(),
-                matrix.getM33(),
-        };
+        return getRowMajorData(matrix, new float[16]);
+    }
+
+    /**
+     * Copies the matrix data in row-major format, which is the
+     * opposite of OpenGL's convention, into the given float array,
+     * which must have a length of at least 16.
+     *
+     * @return the passed array
+     */
+    public static float[] getRowMajorData(Matrix4f matrix, float[] out) {
+        out[0] = matrix.getM00();
+        out[1] = matrix.getM01();
+        out[2] = matrix.getM02();
+        out[3] = matrix.getM03();
+        out[4] = matrix.getM10();
+        out[5] = matrix.getM11();
+        out[6] = matrix.getM12();
+        out[7] = matrix.getM13();
+        out[8] = matrix.getM20();
+        out[9] = matrix.getM21();
+        out[10] = matrix.getM22();
+        out[11] = matrix.getM23();
+        out[12] = matrix.getM30();
+        out[13] = matrix.getM31();
+        out[14] = matrix.getM32();
+        out[15] = matrix.getM33();
+        return out;
     }
 
     /**
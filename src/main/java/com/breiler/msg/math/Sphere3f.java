@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package com.breiler.msg.math;
+
+import javax.vecmath.Matrix4f;
+import javax.vecmath.Vector3f;
+
+/** Represents a bounding sphere in 3D space. A newly created sphere
+    is empty, which is indicated by a negative radius. */
+
+public class Sphere3f {
+  private final Vector3f center = new Vector3f();
+  private float radius;
+
+  /** Creates an empty sphere. */
+  public Sphere3f() {
+    makeEmpty();
+  }
+
+  /** Creates a sphere equal to the given one. */
+  public Sphere3f(Sphere3f sphere) {
+    set(sphere);
+  }
+
+  /** Makes this sphere empty. */
+  public void makeEmpty() {
+    center.set(0, 0, 0);
+    radius = -1;
+  }
+
+  /** Indicates whether this sphere contains no points. */
+  public boolean isEmpty() {
+    return radius < 0;
+  }
+
+  /** Sets this sphere to be equal to the given one. */
+  public void set(Sphere3f sphere) {
+    center.set(sphere.center);
+    radius = sphere.radius;
+  }
+
+  /** Sets the center and radius of this sphere. */
+  public void set(Vector3f center, float radius) {
+    this.center.set(center);
+    this.radius = radius;
+  }
+
+  /** Returns the center of this sphere; callers should not mutate
+      this directly. */
+  public Vector3f getCenter() {
+    return center;
+  }
+
+  /** Returns the radius of this sphere, which is negative if the
+      sphere is empty. */
+  public float getRadius() {
+    return radius;
+  }
+
+  /** Grows this sphere to the smallest sphere containing both it and
+      the given one. */
+  public void extendBy(Sphere3f sphere) {
+    if (sphere.isEmpty())
+      return;
+    if (isEmpty()) {
+      set(sphere);
+      return;
+    }
+    float dx = sphere.center.getX() - center.getX();
+    float dy = sphere.center.getY() - center.getY();
+    float dz = sphere.center.getZ() - center.getZ();
+    float dist = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    if (dist + sphere.radius <= radius) {
+      // Already contains the other sphere
+      return;
+    }
+    if (dist + radius <= sphere.radius) {
+      set(sphere);
+      return;
+    }
+    float newRadius = 0.5f * (dist + radius + sphere.radius);
+    // Move the center towards the other sphere so that both touch the
+    // new boundary
+    float s = (newRadius - radius) / dist;
+    center.set(center.getX() + s * dx,
+               center.getY() + s * dy,
+               center.getZ() + s * dz);
+    radius = newRadius;
+  }
+
+  /** Transforms this sphere by the given matrix. The radius is scaled
+      by the largest scale factor in the matrix, so the result still
+      contains the transformed original under non-uniform scaling. */
+  public void transform(Matrix4f mat) {
+    if (isEmpty())
+      return;
+    float x = center.getX(), y = center.getY(), z = center.getZ();
+    center.set(mat.getM00() * x + mat.getM01() * y + mat.getM02() * z + mat.getM03(),
+               mat.getM10() * x + mat.getM11() * y + mat.getM12() * z + mat.getM13(),
+               mat.getM20() * x + mat.getM21() * y + mat.getM22() * z + mat.getM23());
+    float sx = mat.getM00() * mat.getM00() + mat.getM10() * mat.getM10() + mat.getM20() * mat.getM20();
+    float sy = mat.getM01() * mat.getM01() + mat.getM11() * mat.getM11() + mat.getM21() * mat.getM21();
+    float sz = mat.getM02() * mat.getM02() + mat.getM12() * mat.getM12() + mat.getM22() * mat.getM22();
+    radius *= (float) Math.sqrt(Math.max(sx, Math.max(sy, sz)));
+  }
+
+  public String toString() {
+    if (isEmpty())
+      return "[empty]";
+    return "[" + center + ", " + radius + "]";
+  }
+}
@@ -0,0 +1,587 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+
+package com.breiler.msg.mesh;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.breiler.msg.collections.Vec2fCollection;
+import com.breiler.msg.collections.Vec3fCollection;
+import com.breiler.msg.collections.Vec4fCollection;
+import com.breiler.msg.impl.BufferFactory;
+import com.breiler.msg.nodes.Color4;
+import com.breiler.msg.nodes.Coordinate3;
+import com.breiler.msg.nodes.Group;
+import com.breiler.msg.nodes.IndexedTriangleSet;
+import com.breiler.msg.nodes.Node;
+import com.breiler.msg.nodes.TextureCoordinate2;
+import com.breiler.msg.nodes.TriangleSet;
+
+/** Optimizes triangle meshes for rendering and picking. The
+    optimization welds vertices whose position, color and texture
+    coordinate are all identical, and drops triangles which become
+    degenerate. It then reorders the triangles for the post-transform
+    vertex cache using Tipsify (Sander, Nehab and Barczak, "Fast
+    Triangle Reordering for Vertex Locality and Reduced Overdraw",
+    2007), and renumbers the vertices in the order the triangles first
+    use them, so that vertex fetches move through memory
+    sequentially. The result is always indexed. <P>
+
+    Vertex cache efficiency is reported as the average cache miss
+    ratio (ACMR), the number of vertices transformed per triangle for
+    a FIFO cache of a given size: 3 for unindexed triangles, and
+    approaching 0.5 for large regular meshes. */
+
+public class MeshOptimizer {
+  /** The default number of vertices of the simulated FIFO vertex
+      cache. */
+  public static final int DEFAULT_CACHE_SIZE = 16;
+
+  private MeshOptimizer() {}
+
+  /** The optimized data of a mesh along with statistics comparing it
+      to the original. */
+  public static class Result {
+    private final Vec3fCollection coordinates;
+    private final Vec4fCollection colors;
+    private final Vec2fCollection textureCoordinates;
+    private final IntBuffer indices;
+    private final int verticesBefore;
+    private final int verticesAfter;
+    private final int trianglesBefore;
+    private final int trianglesAfter;
+    private final float acmrBefore;
+    private final float acmrAfter;
+    private final long bytesBefore;
+    private final long bytesAfter;
+
+    Result(Vec3fCollection coordinates, Vec4fCollection colors, Vec2fCollection textureCoordinates,
+           IntBuffer indices, int verticesBefore, int trianglesBefore, float acmrBefore,
+           long bytesBefore, float acmrAfter) {
+      this.coordinates = coordinates;
+      this.colors = colors;
+      this.textureCoordinates = textureCoordinates;
+      this.indices = indices;
+      this.verticesBefore = verticesBefore;
+      this.trianglesBefore = trianglesBefore;
+      this.acmrBefore = acmrBefore;
+      this.bytesBefore = bytesBefore;
+      this.acmrAfter = acmrAfter;
+      verticesAfter = coordinates.size();
+      trianglesAfter = indices.limit() / 3;
+      bytesAfter = dataSize(coordinates, colors, textureCoordinates, indices);
+    }
+
+    /** Returns the optimized coordinates. */
+    public Vec3fCollection getCoordinates() {
+      return coordinates;
+    }
+
+    /** Returns the optimized colors, or null if the mesh had none. */
+    public Vec4fCollection getColors() {
+      return colors;
+    }
+
+    /** Returns the optimized texture coordinates, or null if the mesh
+        had none. */
+    public Vec2fCollection getTextureCoordinates() {
+      return textureCoordinates;
+    }
+
+    /** Returns the indices of the optimized triangles. */
+    public IntBuffer getIndices() {
+      return indices;
+    }
+
+    /** Returns the number of vertices before the optimization. */
+    public int getVerticesBefore() {
+      return verticesBefore;
+    }
+
+    /** Returns the number of vertices after the optimization. */
+    public int getVerticesAfter() {
+      return verticesAfter;
+    }
+
+    /** Returns the number of triangles before the optimization. */
+    public int getTrianglesBefore() {
+      return trianglesBefore;
+    }
+
+    /** Returns the number of triangles after the optimization, which
+        is smaller if some became degenerate. */
+    public int getTrianglesAfter() {
+      return trianglesAfter;
+    }
+
+    /** Returns the average cache miss ratio before the optimization. */
+    public float getACMRBefore() {
+      return acmrBefore;
+    }
+
+    /** Returns the average cache miss ratio after the optimization. */
+    public float getACMRAfter() {
+      return acmrAfter;
+    }
+
+    /** Returns the number of bytes of vertex data and indices before
+        the optimization. */
+    public long getBytesBefore() {
+      return bytesBefore;
+    }
+
+    /** Returns the number of bytes of vertex data and indices after
+        the optimization. */
+    public long getBytesAfter() {
+      return bytesAfter;
+    }
+
+    public String toString() {
+      return String.format("%d -> %d vertices, %d -> %d triangles, ACMR %.3f -> %.3f, %d -> %d bytes",
+                           verticesBefore, verticesAfter, trianglesBefore, trianglesAfter,
+                           acmrBefore, acmrAfter, bytesBefore, bytesAfter);
+    }
+  }
+
+  /** Optimizes the given mesh for the default cache size. */
+  public static Result optimize(Vec3fCollection coordinates, Vec4fCollection colors,
+                                Vec2fCollection textureCoordinates, IntBuffer indices) {
+    return optimize(coordinates, colors, textureCoordinates, indices, DEFAULT_CACHE_SIZE);
+  }
+
+  /** Optimizes the given mesh for a vertex cache of the given size.
+      The colors and texture coordinates may be null; if given, there
+      must be one per coordinate. If the indices are null, the mesh is
+      taken to be drawn by a TriangleSet, with each three consecutive
+      coordinates forming a triangle. The given data is not
+      modified. */
+  public static Result optimize(Vec3fCollection coordinates, Vec4fCollection colors,
+                                Vec2fCollection textureCoordinates, IntBuffer indices,
+                                int cacheSize) {
+    if (cacheSize < 3) {
+      throw new IllegalArgumentException("cache size must be at least 3");
+    }
+    int numVertices = coordinates.size();
+    if ((colors != null && colors.size() < numVertices) ||
+        (textureCoordinates != null && textureCoordinates.size() < numVertices)) {
+      throw new IllegalArgumentException("colors and texture coordinates must match the coordinates");
+    }
+    int[] triangles = readIndices(indices, numVertices);
+    float acmrBefore = (indices != null) ? computeACMR(triangles, triangles.length, cacheSize) : 3;
+    long bytesBefore = dataSize(coordinates, colors, textureCoordinates, indices);
+
+    // Gather the attributes of each vertex into one array so that
+    // all of them are compared when welding
+    int components = 3 + (colors != null ? 4 : 0) + (textureCoordinates != null ? 2 : 0);
+    float[] positions = new float[3 * numVertices];
+    coordinates.get(0, positions, 0, numVertices);
+    float[] colorValues = null;
+    if (colors != null) {
+      colorValues = new float[4 * numVertices];
+      colors.get(0, colorValues, 0, numVertices);
+    }
+    float[] texValues = null;
+    if (textureCoordinates != null) {
+      texValues = new float[2 * numVertices];
+      textureCoordinates.get(0, texValues, 0, numVertices);
+    }
+    VertexWelder welder = new VertexWelder(components, numVertices / 2);
+    int[] remap = new int[numVertices];
+    Arrays.fill(remap, -1);
+    float[] vertex = new float[components];
+    int numIndices = 0;
+    for (int i = 0; i < triangles.length; i += 3) {
+      for (int c = 0; c < 3; c++) {
+        int v = triangles[i + c];
+        if (remap[v] < 0) {
+          System.arraycopy(positions, 3 * v, vertex, 0, 3);
+          int pos = 3;
+          if (colorValues != null) {
+            System.arraycopy(colorValues, 4 * v, vertex, pos, 4);
+            pos += 4;
+          }
+          if (texValues != null) {
+            System.arraycopy(texValues, 2 * v, vertex, pos, 2);
+          }
+          remap[v] = welder.add(vertex, 0);
+        }
+      }
+      int a = remap[triangles[i]];
+      int b = remap[triangles[i + 1]];
+      int c = remap[triangles[i + 2]];
+      if (a != b && b != c && c != a) {
+        triangles[numIndices++] = a;
+        triangles[numIndices++] = b;
+        triangles[numIndices++] = c;
+      }
+    }
+
+    int[] ordered = tipsify(triangles, numIndices, welder.size(), cacheSize);
+
+    // Renumber the vertices in the order of first use
+    int numUnique = welder.size();
+    int[] newIndex = new int[numUnique];
+    Arrays.fill(newIndex, -1);
+    float[] values = welder.getValues();
+    float[] newPositions = new float[3 * numUnique];
+    float[] newColors = (colors != null) ? new float[4 * numUnique] : null;
+    float[] newTex = (textureCoordinates != null) ? new float[2 * numUnique] : null;
+    int next = 0;
+    IntBuffer newIndices = BufferFactory.newIntBuffer(numIndices);
+    for (int i = 0; i < numIndices; i++) {
+      int v = ordered[i];
+      if (newIndex[v] < 0) {
+        int src = components * v;
+        System.arraycopy(values, src, newPositions, 3 * next, 3);
+        src += 3;
+        if (newColors != null) {
+          System.arraycopy(values, src, newColors, 4 * next, 4);
+          src += 4;
+        }
+        if (newTex != null) {
+          System.arraycopy(values, src, newTex, 2 * next, 2);
+        }
+        newIndex[v] = next++;
+      }
+      newIndices.put(i, newIndex[v]);
+    }
+
+    Vec3fCollection resCoordinates = new Vec3fCollection(next);
+    resCoordinates.addAll(newPositions, 0, next);
+    Vec4fCollection resColors = null;
+    if (newColors != null) {
+      resColors = new Vec4fCollection(next);
+      resColors.addAll(newColors, 0, next);
+    }
+    Vec2fCollection resTex = null;
+    if (newTex != null) {
+      resTex = new Vec2fCollection(next);
+      resTex.addAll(newTex, 0, next);
+    }
+    float acmrAfter = computeACMR(ordered, numIndices, cacheSize);
+    return new Result(resCoordinates, resColors, resTex, newIndices,
+                      numVertices, triangles.length / 3, acmrBefore, bytesBefore, acmrAfter);
+  }
+
+  /** Optimizes in place all meshes in the scene graph below the given
+      group which can be optimized without affecting other shapes, and
+      returns their results. A mesh is optimized if its group holds a
+      single Coordinate3 node followed by a single TriangleSet or
+      IndexedTriangleSet, with at most one Color4 and one
+      TextureCoordinate2 node before the shape and no groups after
+      the coordinates, which would inherit them; per-vertex colors or
+      texture coordinates inherited from further up also prevent the
+      optimization. TriangleSets are replaced by IndexedTriangleSets.
+      Meshes sharing all of their data are optimized once and keep
+      sharing it. */
+  public static List<Result> optimize(Group root) {
+    List<Result> results = new ArrayList<Result>();
+    optimize(root, false, new HashMap<Key, Result>(), results);
+    return results;
+  }
+
+  /** Returns the average cache miss ratio of the triangles with the
+      given indices, from zero to the limit of the buffer, for a FIFO
+      vertex cache of the given size. */
+  public static float computeACMR(IntBuffer indices, int cacheSize) {
+    int n = indices.limit() - indices.limit() % 3;
+    int[] array = new int[n];
+    for (int i = 0; i < n; i++) {
+      array[i] = indices.get(i);
+    }
+    return computeACMR(array, n, cacheSize);
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private static void optimize(Group group, boolean inheritsAttributes,
+                               Map<Key, Result> done, List<Result> results) {
+    Coordinate3 coordinates = null;
+    Color4 colors = null;
+    TextureCoordinate2 textureCoordinates = null;
+    TriangleSet shape = null;
+    boolean eligible = !inheritsAttributes;
+    boolean attributes = inheritsAttributes;
+    for (int i = 0; i < group.getNumChildren(); i++) {
+      Node child = group.getChild(i);
+      Class<?> c = child.getClass();
+      if (child instanceof Group) {
+        if (coordinates != null) {
+          eligible = false;
+        }
+        optimize((Group) child, attributes, done, results);
+      } else if (c == Coordinate3.class) {
+        eligible &= coordinates == null && shape == null;
+        coordinates = (Coordinate3) child;
+      } else if (c == Color4.class) {
+        attributes = true;
+        if (shape == null) {
+          eligible &= colors == null;
+          colors = (Color4) child;
+        }
+      } else if (c == TextureCoordinate2.class) {
+        attributes = true;
+        if (shape == null) {
+          eligible &= textureCoordinates == null;
+          textureCoordinates = (TextureCoordinate2) child;
+        }
+      } else if (c == TriangleSet.class || c == IndexedTriangleSet.class) {
+        eligible &= shape == null && coordinates != null;
+        shape = (TriangleSet) child;
+      }
+    }
+    if (!eligible || shape == null || coordinates.getData() == null ||
+        coordinates.getSegmentedData() != null) {
+      return;
+    }
+
+    Vec3fCollection coordinateData = coordinates.getData();
+    Vec4fCollection colorData = (colors != null) ? colors.getData() : null;
+    Vec2fCollection texData = (textureCoordinates != null) ? textureCoordinates.getData() : null;
+    IntBuffer indices = (shape instanceof IndexedTriangleSet) ? ((IndexedTriangleSet) shape).getIndices() : null;
+    if ((colorData != null && colorData.size() != coordinateData.size()) ||
+        (texData != null && texData.size() != coordinateData.size()) ||
+        (shape instanceof IndexedTriangleSet && indices == null)) {
+      return;
+    }
+    Key key = new Key(coordinateData, colorData, texData, indices);
+    Result res = done.get(key);
+    if (res == null) {
+      res = optimize(coordinateData, colorData, texData, indices);
+      done.put(key, res);
+      results.add(res);
+    }
+    coordinates.setData(res.getCoordinates());
+    if (colorData != null) {
+      colors.setData(res.getColors());
+    }
+    if (texData != null) {
+      textureCoordinates.setData(res.getTextureCoordinates());
+    }
+    if (shape instanceof IndexedTriangleSet) {
+      ((IndexedTriangleSet) shape).setIndices(res.getIndices());
+    } else {
+      IndexedTriangleSet indexed = new IndexedTriangleSet();
+      indexed.setName(shape.getName());
+      indexed.setIndices(res.getIndices());
+      group.replaceChild(shape, indexed);
+    }
+  }
+
+  private static int[] readIndices(IntBuffer indices, int numVertices) {
+    int n;
+    if (indices == null) {
+      n = numVertices - numVertices % 3;
+    } else {
+      n = indices.limit() - indices.limit() % 3;
+    }
+    int[] res = new int[n];
+    for (int i = 0; i < n; i++) {
+      int v = (indices != null) ? indices.get(i) : i;
+      if (v < 0 || v >= numVertices) {
+        throw new IndexOutOfBoundsException("Index " + v + " not within 0.." + numVertices);
+      }
+      res[i] = v;
+    }
+    return res;
+  }
+
+  /** Reorders the given triangles for a vertex cache of the given
+      size. Tipsify walks the mesh fanning around one vertex at a
+      time, moving on to the neighboring vertex which will still be in
+      the cache after its own triangles have been emitted, or else to
+      the most recently used vertex which has triangles left. */
+  private static int[] tipsify(int[] indices, int numIndices, int numVertices, int cacheSize) {
+    int numTriangles = numIndices / 3;
+    // Triangles around each vertex, and the number of them left
+    int[] live = new int[numVertices];
+    for (int i = 0; i < numIndices; i++) {
+      live[indices[i]]++;
+    }
+    int[] offsets = new int[numVertices + 1];
+    for (int v = 0; v < numVertices; v++) {
+      offsets[v + 1] = offsets[v] + live[v];
+    }
+    int[] fill = new int[numVertices];
+    int[] adjacency = new int[numIndices];
+    for (int i = 0; i < numIndices; i++) {
+      int v = indices[i];
+      adjacency[offsets[v] + fill[v]++] = i / 3;
+    }
+
+    int[] cacheTime = new int[numVertices];
+    boolean[] emitted = new boolean[numTriangles];
+    int[] deadEnd = new int[numIndices];
+    int deadEndSize = 0;
+    int[] candidates = new int[numIndices];
+    int[] res = new int[numIndices];
+    int resSize = 0;
+    int time = cacheSize + 1;
+    int cursor = 0;
+    int fanning = (numTriangles > 0) ? indices[0] : -1;
+    while (fanning >= 0) {
+      int numCandidates = 0;
+      for (int j = offsets[fanning]; j < offsets[fanning + 1]; j++) {
+        int t = adjacency[j];
+        if (emitted[t]) {
+          continue;
+        }
+        emitted[t] = true;
+        for (int c = 0; c < 3; c++) {
+          int v = indices[3 * t + c];
+          res[resSize++] = v;
+          deadEnd[deadEndSize++] = v;
+          candidates[numCandidates++] = v;
+          live[v]--;
+          if (time - cacheTime[v] > cacheSize) {
+            cacheTime[v] = time++;
+          }
+        }
+      }
+
+      // Prefer the candidate which has been in the cache the longest
+      // but will still be in it once its remaining triangles are emitted
+      int next = -1;
+      int bestPriority = -1;
+      for (int i = 0; i < numCandidates; i++) {
+        int v = candidates[i];
+        if (live[v] > 0) {
+          int priority = 0;
+          if (time - cacheTime[v] + 2 * live[v] <= cacheSize) {
+            priority = time - cacheTime[v];
+          }
+          if (priority > bestPriority) {
+            bestPriority = priority;
+            next = v;
+          }
+        }
+      }
+      if (next < 0) {
+        while (deadEndSize > 0) {
+          int v = deadEnd[--deadEndSize];
+          if (live[v] > 0) {
+            next = v;
+            break;
+          }
+        }
+      }
+      while (next < 0 && cursor < numVertices) {
+        if (live[cursor] > 0) {
+          next = cursor;
+        } else {
+          cursor++;
+        }
+      }
+      fanning = next;
+    }
+    return res;
+  }
+
+  private static float computeACMR(int[] indices, int numIndices, int cacheSize) {
+    if (numIndices < 3) {
+      return 0;
+    }
+    int max = 0;
+    for (int i = 0; i < numIndices; i++) {
+      max = Math.max(max, indices[i]);
+    }
+    // A vertex is in the FIFO cache if fewer than cacheSize misses
+    // happened since it was loaded
+    int[] loadedAt = new int[max + 1];
+    int misses = 0;
+    for (int i = 0; i < numIndices; i++) {
+      int v = indices[i];
+      if (loadedAt[v] == 0 || misses - loadedAt[v] >= cacheSize) {
+        loadedAt[v] = ++misses;
+      }
+    }
+    return misses / (float) (numIndices / 3);
+  }
+
+  private static long dataSize(Vec3fCollection coordinates, Vec4fCollection colors,
+                               Vec2fCollection textureCoordinates, IntBuffer indices) {
+    long res = 12L * coordinates.size();
+    if (colors != null) {
+      res += 16L * colors.size();
+    }
+    if (textureCoordinates != null) {
+      res += 8L * textureCoordinates.size();
+    }
+    if (indices != null) {
+      res += 4L * indices.limit();
+    }
+    return res;
+  }
+
+  /** Identifies the data of a mesh by the identities of its parts. */
+  private static final class Key {
+    private final Object[] parts;
+
+    Key(Object... parts) {
+      this.parts = parts;
+    }
+
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Object[] other = ((Key) o).parts;
+      for (int i = 0; i < parts.length; i++) {
+        if (parts[i] != other[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    public int hashCode() {
+      int h = 0;
+      for (Object part : parts) {
+        h = 31 * h + System.identityHashCode(part);
+      }
+      return h;
+    }
+  }
+}
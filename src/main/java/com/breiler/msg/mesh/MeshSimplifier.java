@@ -0,0 +1,745 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+
+package com.breiler.msg.mesh;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import com.breiler.msg.collections.Vec3fCollection;
+import com.breiler.msg.impl.BufferFactory;
+
+/** Simplifies triangle meshes by repeatedly collapsing the edge whose
+    collapse changes the surface the least, as measured by the
+    quadric error metric (Garland and Heckbert, "Surface
+    Simplification Using Quadric Error Metrics", 1997). Each vertex
+    carries a quadric summing the squared distances to the planes of
+    its original triangles, weighted by their area; collapsed vertices
+    are placed where the summed quadric is smallest, and the error of
+    a collapse is the quadric there divided by the summed area, so
+    that it measures a squared distance. Edges on the
+    border of the mesh are held in place by additional planes
+    perpendicular to it, and collapses which would fold over
+    triangles or join separate parts of the surface are skipped. <P>
+
+    The quadrics are computed once when the simplifier is created,
+    using all available processors for large meshes, after which any
+    number of levels of detail can be generated from the same
+    simplifier, concurrently if desired. Only coordinates are
+    simplified; colors and texture coordinates are not carried over
+    to the reduced meshes. */
+
+public class MeshSimplifier {
+  // Weight of the planes holding the border in place, relative to
+  // the planes of the triangles
+  private static final double BORDER_WEIGHT = 100;
+  // Number of vertices below which the quadrics are computed on the
+  // calling thread
+  private static final int PARALLEL_THRESHOLD = 1 << 14;
+
+  private final float[] positions;
+  private final int[] triangles;
+  private final int numVertices;
+  // Ten unique entries of each vertex's symmetric 4x4 quadric
+  private final double[] quadrics;
+  // Area of the triangles around each vertex, the total weight of the
+  // triangle planes in its quadric
+  private final double[] areas;
+
+  /** The reduced mesh produced for one level of detail. */
+  public static class Result {
+    private final Vec3fCollection coordinates;
+    private final IntBuffer indices;
+    private final float error;
+
+    Result(Vec3fCollection coordinates, IntBuffer indices, float error) {
+      this.coordinates = coordinates;
+      this.indices = indices;
+      this.error = error;
+    }
+
+    /** Returns the coordinates of the reduced mesh, which only holds
+        the vertices still in use. */
+    public Vec3fCollection getCoordinates() {
+      return coordinates;
+    }
+
+    /** Returns the indices of the triangles of the reduced mesh. */
+    public IntBuffer getIndices() {
+      return indices;
+    }
+
+    /** Returns the number of triangles of the reduced mesh. */
+    public int getNumTriangles() {
+      return indices.limit() / 3;
+    }
+
+    /** Returns the largest error of the collapses performed, being
+        the square root of the quadric error divided by the area of
+        the triangles it was summed over; this is roughly the distance
+        in model units the surface has moved. */
+    public float getError() {
+      return error;
+    }
+
+    public String toString() {
+      return String.format("%d vertices, %d triangles, error %g",
+                           coordinates.size(), getNumTriangles(), error);
+    }
+  }
+
+  /** Creates a simplifier for the mesh with the given coordinates and
+      triangle indices, from zero to the limit of the buffer. The
+      data is copied, so later changes to it do not affect the
+      simplifier. Degenerate triangles are ignored. */
+  public MeshSimplifier(Vec3fCollection coordinates, IntBuffer indices) {
+    numVertices = coordinates.size();
+    positions = new float[3 * numVertices];
+    coordinates.get(0, positions, 0, numVertices);
+    int n = indices.limit() - indices.limit() % 3;
+    int[] tris = new int[n];
+    int count = 0;
+    for (int i = 0; i < n; i += 3) {
+      int a = indices.get(i);
+      int b = indices.get(i + 1);
+      int c = indices.get(i + 2);
+      checkIndex(a);
+      checkIndex(b);
+      checkIndex(c);
+      if (a != b && b != c && c != a) {
+        tris[count++] = a;
+        tris[count++] = b;
+        tris[count++] = c;
+      }
+    }
+    triangles = (count == n) ? tris : Arrays.copyOf(tris, count);
+    quadrics = new double[10 * numVertices];
+    areas = new double[numVertices];
+    computeQuadrics();
+  }
+
+  /** Returns the number of triangles of the original mesh, not
+      counting degenerate ones. */
+  public int getNumTriangles() {
+    return triangles.length / 3;
+  }
+
+  /** Reduces the mesh to at most the given number of triangles, if
+      possible without folding it over. */
+  public Result simplify(int targetTriangles) {
+    return simplify(targetTriangles, Float.MAX_VALUE);
+  }
+
+  /** Reduces the mesh until it has at most the given number of
+      triangles, or no edge can be collapsed with an error below the
+      given maximum. See {@link Result#getError Result.getError} for
+      the meaning of the error. This method may be called from several
+      threads at once. */
+  public Result simplify(int targetTriangles, float maxError) {
+    return new Collapser().run(targetTriangles, (double) maxError * maxError);
+  }
+
+  /** Generates one reduced mesh per given target number of triangles,
+      processing them in parallel. */
+  public List<Result> simplify(int[] targetTriangles) {
+    List<ForkJoinTask<Result>> tasks = new ArrayList<ForkJoinTask<Result>>();
+    for (final int target : targetTriangles) {
+      tasks.add(ForkJoinPool.commonPool().submit(new Callable<Result>() {
+          public Result call() {
+            return simplify(target);
+          }
+        }));
+    }
+    List<Result> res = new ArrayList<Result>();
+    for (ForkJoinTask<Result> task : tasks) {
+      res.add(task.join());
+    }
+    return res;
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= numVertices) {
+      throw new IndexOutOfBoundsException("Index " + index + " not within 0.." + numVertices);
+    }
+  }
+
+  private void computeQuadrics() {
+    // Corners around each vertex
+    final int[] offsets = new int[numVertices + 1];
+    for (int v : triangles) {
+      offsets[v + 1]++;
+    }
+    for (int v = 0; v < numVertices; v++) {
+      offsets[v + 1] += offsets[v];
+    }
+    final int[] corners = new int[triangles.length];
+    int[] fill = Arrays.copyOf(offsets, numVertices);
+    for (int i = 0; i < triangles.length; i++) {
+      corners[fill[triangles[i]]++] = i;
+    }
+    if (numVertices < PARALLEL_THRESHOLD) {
+      computeQuadrics(offsets, corners, 0, numVertices);
+      return;
+    }
+    // Each vertex only sums into its own quadric, so ranges of them can
+    // be computed independently
+    int numTasks = 4 * ForkJoinPool.getCommonPoolParallelism();
+    int step = Math.max(PARALLEL_THRESHOLD / 4, (numVertices + numTasks - 1) / numTasks);
+    List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+    for (int start = 0; start < numVertices; start += step) {
+      final int from = start;
+      final int to = Math.min(numVertices, start + step);
+      tasks.add(ForkJoinPool.commonPool().submit(new Runnable() {
+          public void run() {
+            computeQuadrics(offsets, corners, from, to);
+          }
+        }));
+    }
+    for (ForkJoinTask<?> task : tasks) {
+      task.join();
+    }
+  }
+
+  private void computeQuadrics(int[] offsets, int[] corners, int from, int to) {
+    double[] normal = new double[3];
+    double[] plane = new double[4];
+    for (int v = from; v < to; v++) {
+      for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+        int c = corners[i];
+        int t = c - c % 3;
+        double area = normal(positions, triangles[t], triangles[t + 1], triangles[t + 2], normal);
+        if (area == 0) {
+          continue;
+        }
+        plane[0] = normal[0];
+        plane[1] = normal[1];
+        plane[2] = normal[2];
+        plane[3] = -dot(normal, positions, v);
+        addPlane(quadrics, v, plane, area);
+        areas[v] += area;
+
+        // The edges from and to this vertex are on the border if no
+        // other triangle around the vertex has them in the opposite
+        // direction
+        int next = triangles[t + (c + 1) % 3];
+        int prev = triangles[t + (c + 2) % 3];
+        if (!hasEdge(offsets, corners, v, next, false)) {
+          addBorderPlane(v, next, normal, plane);
+        }
+        if (!hasEdge(offsets, corners, v, prev, true)) {
+          addBorderPlane(v, prev, normal, plane);
+        }
+      }
+    }
+  }
+
+  /** Tests whether a triangle around the given vertex has an edge to
+      (outgoing) or from (incoming) the other vertex. */
+  private boolean hasEdge(int[] offsets, int[] corners, int v, int other, boolean outgoing) {
+    for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+      int c = corners[i];
+      int t = c - c % 3;
+      int w = triangles[t + (c + (outgoing ? 1 : 2)) % 3];
+      if (w == other) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void addBorderPlane(int v, int other, double[] normal, double[] plane) {
+    double ex = positions[3 * other] - positions[3 * v];
+    double ey = positions[3 * other + 1] - positions[3 * v + 1];
+    double ez = positions[3 * other + 2] - positions[3 * v + 2];
+    // Plane through the edge, perpendicular to the triangle
+    double px = ey * normal[2] - ez * normal[1];
+    double py = ez * normal[0] - ex * normal[2];
+    double pz = ex * normal[1] - ey * normal[0];
+    double len = Math.sqrt(px * px + py * py + pz * pz);
+    if (len == 0) {
+      return;
+    }
+    plane[0] = px / len;
+    plane[1] = py / len;
+    plane[2] = pz / len;
+    plane[3] = -(plane[0] * positions[3 * v] + plane[1] * positions[3 * v + 1] + plane[2] * positions[3 * v + 2]);
+    addPlane(quadrics, v, plane, BORDER_WEIGHT * (ex * ex + ey * ey + ez * ez));
+  }
+
+  private static void addPlane(double[] q, int v, double[] p, double weight) {
+    int o = 10 * v;
+    q[o]     += weight * p[0] * p[0];
+    q[o + 1] += weight * p[0] * p[1];
+    q[o + 2] += weight * p[0] * p[2];
+    q[o + 3] += weight * p[0] * p[3];
+    q[o + 4] += weight * p[1] * p[1];
+    q[o + 5] += weight * p[1] * p[2];
+    q[o + 6] += weight * p[1] * p[3];
+    q[o + 7] += weight * p[2] * p[2];
+    q[o + 8] += weight * p[2] * p[3];
+    q[o + 9] += weight * p[3] * p[3];
+  }
+
+  private static double dot(double[] n, float[] pos, int v) {
+    return n[0] * pos[3 * v] + n[1] * pos[3 * v + 1] + n[2] * pos[3 * v + 2];
+  }
+
+  /** Computes the unit normal of the given triangle and returns its
+      area, or zero if it is degenerate. */
+  private static double normal(float[] pos, int a, int b, int c, double[] dest) {
+    double ux = pos[3 * b] - pos[3 * a];
+    double uy = pos[3 * b + 1] - pos[3 * a + 1];
+    double uz = pos[3 * b + 2] - pos[3 * a + 2];
+    double vx = pos[3 * c] - pos[3 * a];
+    double vy = pos[3 * c + 1] - pos[3 * a + 1];
+    double vz = pos[3 * c + 2] - pos[3 * a + 2];
+    return normalize(uy * vz - uz * vy, uz * vx - ux * vz, ux * vy - uy * vx, dest);
+  }
+
+  private static double normalize(double x, double y, double z, double[] dest) {
+    double len = Math.sqrt(x * x + y * y + z * z);
+    if (len == 0) {
+      return 0;
+    }
+    dest[0] = x / len;
+    dest[1] = y / len;
+    dest[2] = z / len;
+    return len / 2;
+  }
+
+  /** The state of one simplification. Vertices are merged into the
+      first vertex of the collapsed edge; the corners of the triangles
+      around each vertex are kept in a linked list so that the lists
+      of merged vertices can be joined in constant time. */
+  private class Collapser {
+    private final float[] pos = positions.clone();
+    private final double[] q = quadrics.clone();
+    private final double[] w = areas.clone();
+    private final int[] tris = triangles.clone();
+    private final boolean[] removed = new boolean[tris.length / 3];
+    private final int[] head = new int[numVertices];
+    private final int[] tail = new int[numVertices];
+    private final int[] next = new int[tris.length];
+    // Incremented whenever a vertex moves, invalidating queued edges;
+    // -1 once it has been merged into another
+    private final int[] version = new int[numVertices];
+    // Marks used to find the neighbors of vertices
+    private final int[] mark = new int[numVertices];
+    private final int[] mark2 = new int[numVertices];
+    private int markStamp;
+    private final EdgeQueue queue = new EdgeQueue();
+    private int numTriangles = tris.length / 3;
+    private final double[] sum = new double[10];
+    private final double[] target = new double[3];
+    private final double[] n0 = new double[3];
+    private final double[] n1 = new double[3];
+
+    Result run(int targetTriangles, double maxErrorSquared) {
+      Arrays.fill(head, -1);
+      for (int c = tris.length - 1; c >= 0; c--) {
+        int v = tris[c];
+        if (head[v] < 0) {
+          tail[v] = c;
+        }
+        next[c] = head[v];
+        head[v] = c;
+      }
+      for (int t = 0; t < tris.length; t += 3) {
+        for (int k = 0; k < 3; k++) {
+          int a = tris[t + k];
+          int b = tris[t + (k + 1) % 3];
+          // Interior edges are seen from both triangles, so only queue
+          // them once; border edges are only seen from one
+          if (a < b || !hasEdge(b, a)) {
+            push(a, b);
+          }
+        }
+      }
+
+      double maxCost = 0;
+      while (numTriangles > targetTriangles && !queue.isEmpty()) {
+        double cost = queue.cost();
+        int a = queue.a();
+        int b = queue.b();
+        boolean current = version[a] == queue.versionA() && version[b] == queue.versionB();
+        queue.pop();
+        if (!current) {
+          continue;
+        }
+        if (cost > maxErrorSquared) {
+          break;
+        }
+        evaluate(a, b);
+        if (!canCollapse(a, b)) {
+          continue;
+        }
+        collapse(a, b);
+        maxCost = Math.max(maxCost, cost);
+      }
+      return buildResult((float) Math.sqrt(maxCost));
+    }
+
+    private boolean hasEdge(int from, int to) {
+      for (int c = head[from]; c >= 0; c = next[c]) {
+        int t = c - c % 3;
+        if (!removed[t / 3] && tris[t + (c + 1) % 3] == to) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private void push(int a, int b) {
+      double cost = evaluate(a, b);
+      queue.push(cost, a, b, version[a], version[b]);
+    }
+
+    /** Sums the quadrics of the two vertices, finds the position
+        minimizing it into target and returns its error there. */
+    private double evaluate(int a, int b) {
+      for (int i = 0; i < 10; i++) {
+        sum[i] = q[10 * a + i] + q[10 * b + i];
+      }
+      double error = minimize(a, b);
+      // The weights do not change where the quadric is smallest, but
+      // make its value scale with the area of the surface rather than
+      // with the distance the surface moves
+      double weight = w[a] + w[b];
+      return (weight > 0) ? error / weight : error;
+    }
+
+    /** Finds the position minimizing the summed quadric into target
+        and returns its value there. */
+    private double minimize(int a, int b) {
+      double q00 = sum[0], q01 = sum[1], q02 = sum[2], q03 = sum[3];
+      double q11 = sum[4], q12 = sum[5], q13 = sum[6];
+      double q22 = sum[7], q23 = sum[8];
+      double c00 = q11 * q22 - q12 * q12;
+      double c01 = q02 * q12 - q01 * q22;
+      double c02 = q01 * q12 - q02 * q11;
+      double det = q00 * c00 + q01 * c01 + q02 * c02;
+      double scale = q00 + q11 + q22;
+      if (Math.abs(det) > 1e-9 * scale * scale * scale) {
+        double c11 = q00 * q22 - q02 * q02;
+        double c12 = q01 * q02 - q00 * q12;
+        double c22 = q00 * q11 - q01 * q01;
+        target[0] = -(c00 * q03 + c01 * q13 + c02 * q23) / det;
+        target[1] = -(c01 * q03 + c11 * q13 + c12 * q23) / det;
+        target[2] = -(c02 * q03 + c12 * q13 + c22 * q23) / det;
+        return error(target[0], target[1], target[2]);
+      }
+      // The quadric is nearly singular, as on flat or straight parts of
+      // the mesh, so pick the best of the end points and midpoint
+      double best = Double.MAX_VALUE;
+      for (int i = 0; i <= 2; i++) {
+        float s = 0.5f * i;
+        double x = pos[3 * a] + s * (pos[3 * b] - pos[3 * a]);
+        double y = pos[3 * a + 1] + s * (pos[3 * b + 1] - pos[3 * a + 1]);
+        double z = pos[3 * a + 2] + s * (pos[3 * b + 2] - pos[3 * a + 2]);
+        double e = error(x, y, z);
+        if (e < best) {
+          best = e;
+          target[0] = x;
+          target[1] = y;
+          target[2] = z;
+        }
+      }
+      return best;
+    }
+
+    private double error(double x, double y, double z) {
+      double e = sum[0] * x * x + 2 * sum[1] * x * y + 2 * sum[2] * x * z + 2 * sum[3] * x +
+        sum[4] * y * y + 2 * sum[5] * y * z + 2 * sum[6] * y +
+        sum[7] * z * z + 2 * sum[8] * z + sum[9];
+      return Math.max(0, e);
+    }
+
+    /** Tests whether the edge can be collapsed to the target without
+        making the mesh non-manifold or flipping triangles over. */
+    private boolean canCollapse(int a, int b) {
+      // The only vertices adjacent to both should be the ones opposite
+      // the edge in the triangles sharing it
+      int stamp = ++markStamp;
+      int shared = 0;
+      for (int c = head[a]; c >= 0; c = next[c]) {
+        int t = c - c % 3;
+        if (!removed[t / 3]) {
+          mark[tris[t]] = stamp;
+          mark[tris[t + 1]] = stamp;
+          mark[tris[t + 2]] = stamp;
+        }
+      }
+      int common = 0;
+      for (int c = head[b]; c >= 0; c = next[c]) {
+        int t = c - c % 3;
+        if (removed[t / 3]) {
+          continue;
+        }
+        boolean hasA = false;
+        for (int k = 0; k < 3; k++) {
+          int w = tris[t + k];
+          if (w == a) {
+            hasA = true;
+          } else if (w != b && mark[w] == stamp && mark2[w] != stamp) {
+            mark2[w] = stamp;
+            common++;
+          }
+        }
+        if (hasA) {
+          shared++;
+        }
+      }
+      // Vertices which lost their triangles to other collapses may
+      // still have edges queued
+      if (shared == 0 || common > shared) {
+        return false;
+      }
+      return !flips(a, b) && !flips(b, a);
+    }
+
+    /** Tests whether moving v to the target flips over one of its
+        triangles which do not also hold the other vertex. */
+    private boolean flips(int v, int other) {
+      for (int c = head[v]; c >= 0; c = next[c]) {
+        int t = c - c % 3;
+        if (removed[t / 3] ||
+            tris[t] == other || tris[t + 1] == other || tris[t + 2] == other) {
+          continue;
+        }
+        if (normal(pos, tris[t], tris[t + 1], tris[t + 2], n0) == 0) {
+          continue;
+        }
+        int k = c % 3;
+        int p1 = tris[t + (k + 1) % 3];
+        int p2 = tris[t + (k + 2) % 3];
+        double ux = pos[3 * p1] - target[0];
+        double uy = pos[3 * p1 + 1] - target[1];
+        double uz = pos[3 * p1 + 2] - target[2];
+        double wx = pos[3 * p2] - target[0];
+        double wy = pos[3 * p2 + 1] - target[1];
+        double wz = pos[3 * p2 + 2] - target[2];
+        if (normalize(uy * wz - uz * wy, uz * wx - ux * wz, ux * wy - uy * wx, n1) == 0 ||
+            n0[0] * n1[0] + n0[1] * n1[1] + n0[2] * n1[2] < 0.2) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private void collapse(int a, int b) {
+      for (int c = head[b]; c >= 0; c = next[c]) {
+        int t = c - c % 3;
+        if (removed[t / 3]) {
+          continue;
+        }
+        if (tris[t] == a || tris[t + 1] == a || tris[t + 2] == a) {
+          removed[t / 3] = true;
+          numTriangles--;
+        } else {
+          tris[c] = a;
+        }
+      }
+      next[tail[a]] = head[b];
+      tail[a] = tail[b];
+      head[b] = -1;
+      pos[3 * a] = (float) target[0];
+      pos[3 * a + 1] = (float) target[1];
+      pos[3 * a + 2] = (float) target[2];
+      for (int i = 0; i < 10; i++) {
+        q[10 * a + i] += q[10 * b + i];
+      }
+      w[a] += w[b];
+      version[b] = -1;
+      version[a]++;
+
+      // Drop the corners of removed triangles from the list while
+      // queueing the edges to the neighbors again
+      int stamp = ++markStamp;
+      mark[a] = stamp;
+      int last = -1;
+      for (int c = head[a]; c >= 0; c = next[c]) {
+        int t = c - c % 3;
+        if (removed[t / 3]) {
+          continue;
+        }
+        if (last < 0) {
+          head[a] = c;
+        } else {
+          next[last] = c;
+        }
+        last = c;
+        for (int k = 0; k < 3; k++) {
+          int w = tris[t + k];
+          if (mark[w] != stamp) {
+            mark[w] = stamp;
+            push(a, w);
+          }
+        }
+      }
+      if (last < 0) {
+        head[a] = -1;
+      } else {
+        next[last] = -1;
+        tail[a] = last;
+      }
+    }
+
+    private Result buildResult(float error) {
+      int[] newIndex = new int[numVertices];
+      Arrays.fill(newIndex, -1);
+      IntBuffer indices = BufferFactory.newIntBuffer(3 * numTriangles);
+      Vec3fCollection coordinates = new Vec3fCollection();
+      int i = 0;
+      for (int t = 0; t < tris.length; t += 3) {
+        if (removed[t / 3]) {
+          continue;
+        }
+        for (int k = 0; k < 3; k++) {
+          int v = tris[t + k];
+          if (newIndex[v] < 0) {
+            newIndex[v] = coordinates.size();
+            coordinates.add(pos[3 * v], pos[3 * v + 1], pos[3 * v + 2]);
+          }
+          indices.put(i++, newIndex[v]);
+        }
+      }
+      coordinates.trimToSize();
+      return new Result(coordinates, indices, error);
+    }
+  }
+
+  /** A binary min-heap of candidate edges ordered by their cost, with
+      the versions of the vertices at the time they were queued. The
+      heap itself only holds the cost and the slot of each edge packed
+      into longs, which keeps it compact while it is reordered; the
+      edges are kept in slots which are reused once popped. */
+  private static class EdgeQueue {
+    private long[] heap = new long[1024];
+    private int size;
+    private long[] edges = new long[1024];
+    private long[] versions = new long[1024];
+    private int[] freeSlots = new int[1024];
+    private int numFree;
+    private int numSlots;
+
+    boolean isEmpty() {
+      return size == 0;
+    }
+
+    void push(double cost, int a, int b, int versionA, int versionB) {
+      int slot;
+      if (numFree > 0) {
+        slot = freeSlots[--numFree];
+      } else {
+        if (numSlots == edges.length) {
+          edges = Arrays.copyOf(edges, 2 * numSlots);
+          versions = Arrays.copyOf(versions, 2 * numSlots);
+          freeSlots = Arrays.copyOf(freeSlots, 2 * numSlots);
+        }
+        slot = numSlots++;
+      }
+      edges[slot] = ((long) a << 32) | (b & 0xFFFFFFFFL);
+      versions[slot] = ((long) versionA << 32) | (versionB & 0xFFFFFFFFL);
+      // Costs are never negative, so their bits sort like the values
+      long key = ((long) Float.floatToIntBits((float) cost) << 32) | slot;
+      if (size == heap.length) {
+        heap = Arrays.copyOf(heap, 2 * size);
+      }
+      int i = size++;
+      while (i > 0) {
+        int parent = (i - 1) >>> 1;
+        if (heap[parent] <= key) {
+          break;
+        }
+        heap[i] = heap[parent];
+        i = parent;
+      }
+      heap[i] = key;
+    }
+
+    double cost() {
+      return Float.intBitsToFloat((int) (heap[0] >>> 32));
+    }
+
+    int a() {
+      return (int) (edges[(int) heap[0]] >>> 32);
+    }
+
+    int b() {
+      return (int) edges[(int) heap[0]];
+    }
+
+    int versionA() {
+      return (int) (versions[(int) heap[0]] >>> 32);
+    }
+
+    int versionB() {
+      return (int) versions[(int) heap[0]];
+    }
+
+    void pop() {
+      freeSlots[numFree++] = (int) heap[0];
+      long key = heap[--size];
+      int i = 0;
+      while (true) {
+        int child = 2 * i + 1;
+        if (child >= size) {
+          break;
+        }
+        if (child + 1 < size && heap[child + 1] < heap[child]) {
+          child++;
+        }
+        if (heap[child] >= key) {
+          break;
+        }
+        heap[i] = heap[child];
+        i = child;
+      }
+      heap[i] = key;
+    }
+  }
+}
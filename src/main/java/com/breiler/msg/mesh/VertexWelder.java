@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+
+package com.breiler.msg.mesh;
+
+import com.breiler.msg.collections.Vec3fCollection;
+
+/** Merges vertices whose attributes are identical into one, using an
+    open addressing hash table of primitive ints so that no objects
+    are created per vertex. A vertex is any fixed number of floats,
+    such as a position, or a position followed by a color and a
+    texture coordinate. Components are compared by their bits, except
+    that -0 and 0 are taken to be equal. */
+
+public class VertexWelder {
+  private final int components;
+  // Components of the unique vertices
+  private float[] values;
+  private int size;
+  // Indices of the unique vertices plus one, zero marking free slots
+  private int[] table;
+  private int mask;
+  private final float[] scratch;
+
+  /** Creates a VertexWelder for vertices of the given number of
+      components, sized for roughly the given number of unique
+      vertices. */
+  public VertexWelder(int components, int expectedVertices) {
+    if (components <= 0) {
+      throw new IllegalArgumentException("components must be positive");
+    }
+    this.components = components;
+    values = new float[components * Math.max(16, expectedVertices)];
+    int capacity = 16;
+    while (capacity < 2L * expectedVertices && capacity < (1 << 30)) {
+      capacity <<= 1;
+    }
+    table = new int[capacity];
+    mask = capacity - 1;
+    scratch = new float[components];
+  }
+
+  /** Returns the index of the unique vertex at the given position,
+      adding it if there is none yet. May only be used if vertices
+      have three components. */
+  public int add(float x, float y, float z) {
+    if (components != 3) {
+      throw new IllegalStateException("Vertices have " + components + " components");
+    }
+    scratch[0] = x;
+    scratch[1] = y;
+    scratch[2] = z;
+    return add(scratch, 0);
+  }
+
+  /** Returns the index of the unique vertex with the components
+      starting at the given offset into the given array, adding it if
+      there is none yet. */
+  public int add(float[] src, int offset) {
+    int h = 0;
+    for (int i = 0; i < components; i++) {
+      // Adding zero turns -0 into 0, so that the two weld
+      h = mix(h, Float.floatToIntBits(src[offset + i] + 0.0f));
+    }
+    int slot = finish(h) & mask;
+    int entry;
+    while ((entry = table[slot]) != 0) {
+      if (matches(entry - 1, src, offset)) {
+        return entry - 1;
+      }
+      slot = (slot + 1) & mask;
+    }
+
+    int index = size++;
+    int pos = components * index;
+    if (pos + components > values.length) {
+      float[] grown = new float[(int) Math.min(Integer.MAX_VALUE - 8, 2L * values.length)];
+      System.arraycopy(values, 0, grown, 0, pos);
+      values = grown;
+    }
+    for (int i = 0; i < components; i++) {
+      values[pos + i] = src[offset + i] + 0.0f;
+    }
+    table[slot] = index + 1;
+    // Keep the table at most half full
+    if (2 * size > table.length && table.length < (1 << 30)) {
+      rehash();
+    }
+    return index;
+  }
+
+  /** Returns the number of components of each vertex. */
+  public int getComponents() {
+    return components;
+  }
+
+  /** Returns the number of unique vertices. */
+  public int size() {
+    return size;
+  }
+
+  /** Returns the components of the unique vertices in the order they
+      were first added. Only the first size() * getComponents() floats
+      are valid; the array is shared with this welder until more
+      vertices are added. */
+  public float[] getValues() {
+    return values;
+  }
+
+  /** Returns the unique vertices in the order they were first added.
+      May only be used if vertices have three components. */
+  public Vec3fCollection toCollection() {
+    if (components != 3) {
+      throw new IllegalStateException("Vertices have " + components + " components");
+    }
+    Vec3fCollection res = new Vec3fCollection(size);
+    res.addAll(values, 0, size);
+    return res;
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private boolean matches(int index, float[] src, int offset) {
+    int pos = components * index;
+    for (int i = 0; i < components; i++) {
+      if (Float.floatToIntBits(values[pos + i]) != Float.floatToIntBits(src[offset + i] + 0.0f)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void rehash() {
+    table = new int[2 * table.length];
+    mask = table.length - 1;
+    for (int i = 0; i < size; i++) {
+      int h = 0;
+      for (int c = 0; c < components; c++) {
+        h = mix(h, Float.floatToIntBits(values[components * i + c]));
+      }
+      int slot = finish(h) & mask;
+      while (table[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      table[slot] = i + 1;
+    }
+  }
+
+  private static int mix(int h, int bits) {
+    return (h ^ (h >>> 16) ^ bits) * 0x9E3779B1;
+  }
+
+  // Components with few mantissa bits, such as whole numbers, only
+  // differ in their high bits, so these are mixed into the low ones
+  private static int finish(int h) {
+    h ^= h >>> 16;
+    h *= 0x7FEB352D;
+    return h ^ (h >>> 15);
+  }
+}
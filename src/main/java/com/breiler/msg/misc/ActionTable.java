@@ -37,10 +37,16 @@
 
 package com.breiler.msg.misc;
 
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.BiConsumer;
 
 import com.breiler.msg.actions.Action;
 import com.breiler.msg.nodes.Node;
@@ -49,16 +55,42 @@ import com.breiler.msg.nodes.Node;
     type for a given set of Node types. This mechanism is different
     than using the typical Visitor design pattern because Actions,
     even built-in Actions, need to easily support the addition of
-    newly added Node types. Dispatch occurs via reflection on a
-    per-Node-type basis. */
+    newly added Node types. <P>
 
-public class ActionTable {
-  private final Class<? extends Action> actionClass;
-  private final Map<Class<? extends Node>, Method> methodMap = new HashMap<Class<? extends Node>, Method>();
+    Dispatch occurs on a per-Node-type basis. The action method for a
+    given concrete Node class is resolved once, by walking up the
+    class hierarchy, and cached in a {@link ClassValue}. Action
+    methods registered reflectively are converted to typed invokers
+    with {@link LambdaMetafactory} at registration time, so no
+    reflective calls happen during scene graph traversal. */
+
+public class ActionTable<A extends Action> {
+  private final Class<A> actionClass;
+  // The action methods as registered, keyed by the node type they
+  // were registered for. Guarded by this ActionTable's monitor.
+  private final Map<Class<? extends Node>, Entry> methodMap = new HashMap<Class<? extends Node>, Entry>();
+  // Lookup results per concrete node type. Replaced wholesale when a
+  // new action method is added since the registration may shadow
+  // results that were already cached for subtypes.
+  private volatile ClassValue<Entry> cache = newCache();
+
+  // The resolved action method for a particular node type
+  private static class Entry {
+    final Method method;
+    final BiConsumer<Action, Node> invoker;
+
+    Entry(Method method, BiConsumer<Action, Node> invoker) {
+      this.method = method;
+      this.invoker = invoker;
+    }
+  }
+
+  // Cached in place of null for node types without an action method
+  private static final Entry NONE = new Entry(null, null);
 
   /** Creates an ActionTable intended for use with a particular Action
       subclass. */
-  public ActionTable(Class<? extends Action> actionClass) {
+  public ActionTable(Class<A> actionClass) {
     this.actionClass = actionClass;
   }
 
@@ -85,9 +117,8 @@ public class ActionTable {
       action methods can be attached to existing action types to
       handle new node types which are added to the system. <P>
 
-      An action uses reflection to dispatch to these methods at run
-      time, caching lookup results for node types which have not been
-      encountered yet.
+      The method is converted into a directly-callable invoker when
+      it is added; reflection is not used during traversal.
   */
   public void addActionMethod(Class<? extends Node> nodeType, Method actionMethod)
     throws IllegalArgumentException
@@ -111,33 +142,103 @@ public class ActionTable {
       throw new IllegalArgumentException("Action method must take a " + nodeType +
                                          " or superclass as its second argument");
     }
-    methodMap.put(nodeType, actionMethod);
+    put(nodeType, new Entry(actionMethod, makeInvoker(actionMethod)));
   }
 
-  /** Looks up the appropriate action method for the given node.
-      Performs caching internally to avoid excessive reflective
-      lookups. Returns null if no action method was registered. This
-      should only happen if an action method was not registered for
-      the base Node type. */
+  /** Adds an action method for a particular node type to this table
+      in the form of a functional object, typically a method reference
+      or lambda expression. This has the same semantics as {@link
+      #addActionMethod(Class, Method) the reflective variant} but
+      avoids reflection entirely. */
+  @SuppressWarnings("unchecked")
+  public <N extends Node> void addActionMethod(Class<N> nodeType,
+                                               BiConsumer<? super A, ? super N> actionMethod) {
+    if (actionMethod == null) {
+      throw new IllegalArgumentException("Action method may not be null");
+    }
+    // The table only ever hands out invokers for instances of A and N
+    put(nodeType, new Entry(null, (BiConsumer<Action, Node>) (BiConsumer<?, ?>) actionMethod));
+  }
+
+  /** Looks up the reflective action method for the given node.
+      Returns null if no action method was registered for the node's
+      type or any of its supertypes, or if the applicable action
+      method was registered as a functional object rather than a
+      Method. */
   public Method lookupActionMethod(Node node) {
-    Class<? extends Node> nodeType = node.getClass();
-    Class<? extends Node> curType = nodeType;
-    do {
-      Method m = methodMap.get(curType);
-      if (m != null) {
-        // See whether we need to cache this result
-        if (curType != nodeType) {
-          methodMap.put(curType, m);
-        }
-        return m;
+    return cache.get(node.getClass()).method;
+  }
+
+  /** Looks up the invoker for the appropriate action method for the
+      given node. The result is cached per node type. Returns null if
+      no action method was registered. This should only happen if an
+      action method was not registered for the base Node type. */
+  public BiConsumer<Action, Node> lookupInvoker(Node node) {
+    return cache.get(node.getClass()).invoker;
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private synchronized void put(Class<? extends Node> nodeType, Entry entry) {
+    methodMap.put(nodeType, entry);
+    cache = newCache();
+  }
+
+  private synchronized Entry find(Class<?> nodeType) {
+    for (Class<?> curType = nodeType;
+         curType != null && Node.class.isAssignableFrom(curType);
+         curType = curType.getSuperclass()) {
+      Entry e = methodMap.get(curType);
+      if (e != null) {
+        return e;
       }
-      Class<?> nextType = curType.getSuperclass();
-      if (Node.class.isAssignableFrom(nextType)) {
-        curType = (Class<? extends Node>) nextType;
-      } else {
-        curType = null;
+    }
+    return NONE;
+  }
+
+  private ClassValue<Entry> newCache() {
+    return new ClassValue<Entry>() {
+      protected Entry computeValue(Class<?> type) {
+        return find(type);
       }
-    } while (curType != null);
-    return null;
+    };
+  }
+
+  @SuppressWarnings("unchecked")
+  private static BiConsumer<Action, Node> makeInvoker(Method actionMethod) {
+    final MethodHandle handle;
+    try {
+      handle = MethodHandles.publicLookup().unreflect(actionMethod);
+    } catch (IllegalAccessException e) {
+      throw new IllegalArgumentException("Action method " + actionMethod + " is not accessible", e);
+    }
+    try {
+      // Spin a BiConsumer which calls the action method directly
+      MethodHandles.Lookup lookup = MethodHandles.lookup();
+      CallSite site = LambdaMetafactory.metafactory(lookup,
+                                                    "accept",
+                                                    MethodType.methodType(BiConsumer.class),
+                                                    MethodType.methodType(void.class, Object.class, Object.class),
+                                                    handle,
+                                                    handle.type());
+      return (BiConsumer<Action, Node>) site.getTarget().invokeExact();
+    } catch (Throwable t) {
+      // The action method's class may not be visible from this class
+      // loader; fall back to calling through the method handle
+      final MethodHandle generic = handle.asType(MethodType.methodType(void.class, Action.class, Node.class));
+      return new BiConsumer<Action, Node>() {
+        public void accept(Action action, Node node) {
+          try {
+            generic.invokeExact(action, node);
+          } catch (RuntimeException | Error e) {
+            throw e;
+          } catch (Throwable e) {
+            throw new RuntimeException(e);
+          }
+        }
+      };
+    }
   }
 }
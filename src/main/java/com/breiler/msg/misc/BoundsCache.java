@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package com.breiler.msg.misc;
+
+import com.breiler.msg.collections.Versioned;
+import com.breiler.msg.math.Box3f;
+import com.breiler.msg.math.Sphere3f;
+
+/** Holds the bounds of a node computed by a GetBoundingBoxAction
+    along with the coordinate collections they were derived from, so
+    that the bounds can be reused as long as none of those collections
+    has changed. Instances are immutable once created and may be
+    shared between threads. */
+
+public class BoundsCache {
+  private final Box3f box;
+  private final Sphere3f sphere;
+  private final Versioned[] collections;
+  private final int[] versions;
+  private final Versioned inherited;
+  private final boolean cacheable;
+
+  /** Creates a cache entry holding copies of the given bounds. The
+      collections and their versions are the ones the bounds were
+      computed from; a null collection indicates coordinate data the
+      bounds depend on which can not be tracked, in which case the
+      entry is not {@link #isCacheable cacheable}. The inherited
+      collection is the one in effect when traversal of the node
+      started. */
+  public BoundsCache(Box3f box, Sphere3f sphere,
+                     Versioned[] collections, int[] versions,
+                     Versioned inherited) {
+    this.box = new Box3f(box);
+    this.sphere = new Sphere3f(sphere);
+    this.collections = collections;
+    this.versions = versions;
+    boolean cacheable = true;
+    boolean usesInherited = false;
+    for (Versioned c : collections) {
+      if (c == null) {
+        cacheable = false;
+      } else if (c == inherited) {
+        usesInherited = true;
+      }
+    }
+    this.cacheable = cacheable;
+    // Only remember the inherited collection if the bounds actually
+    // depend on it, so that a node reached with different coordinates
+    // in effect can still reuse bounds computed from its own data
+    this.inherited = usesInherited ? inherited : null;
+  }
+
+  /** Returns the cached bounding box; callers must not mutate it. */
+  public Box3f getBox() {
+    return box;
+  }
+
+  /** Returns the cached bounding sphere; callers must not mutate it. */
+  public Sphere3f getSphere() {
+    return sphere;
+  }
+
+  /** Indicates whether this entry may be stored and reused later. */
+  public boolean isCacheable() {
+    return cacheable;
+  }
+
+  /** Indicates whether the bounds are still up to date when the node
+      is reached with the given inherited coordinate collection in
+      effect. */
+  public boolean isValid(Versioned inherited) {
+    if (!cacheable) {
+      return false;
+    }
+    if (this.inherited != null && this.inherited != inherited) {
+      return false;
+    }
+    for (int i = 0; i < collections.length; i++) {
+      if (collections[i].getVersion() != versions[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Returns the number of collections the bounds were computed from. */
+  public int getNumDependencies() {
+    return collections.length;
+  }
+
+  /** Returns the collection with the given index the bounds were
+      computed from. */
+  public Versioned getDependency(int index) {
+    return collections[index];
+  }
+
+  /** Returns the version of the collection with the given index at
+      the time the bounds were computed. */
+  public int getDependencyVersion(int index) {
+    return versions[index];
+  }
+}
@@ -42,6 +42,7 @@ package com.breiler.msg.misc;
 
 public class PickedPoint extends PrimitiveVertex {
   private Path path;
+  private int instanceIndex = -1;
 
   public Object clone() {
     PickedPoint point = (PickedPoint) super.clone();
@@ -69,4 +70,17 @@ public class PickedPoint extends PrimitiveVertex {
   public Path getPath() {
     return path;
   }
+
+  /** Sets the index of the instance of an InstancedShape this point
+      lies on, or -1 if the picked geometry is not instanced. */
+  public void setInstanceIndex(int instanceIndex) {
+    this.instanceIndex = instanceIndex;
+  }
+
+  /** Returns the index of the instance of an InstancedShape this
+      point lies on, or -1 if the picked geometry is not instanced,
+      since the path alone does not tell the instances apart. */
+  public int getInstanceIndex() {
+    return instanceIndex;
+  }
 }
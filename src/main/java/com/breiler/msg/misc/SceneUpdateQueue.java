@@ -0,0 +1,331 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+
+package com.breiler.msg.misc;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.breiler.msg.collections.Vec2fCollection;
+import com.breiler.msg.collections.Vec3fCollection;
+import com.breiler.msg.collections.Vec4fCollection;
+import com.breiler.msg.nodes.Group;
+import com.breiler.msg.nodes.Node;
+
+import javax.vecmath.Matrix4f;
+
+/** Collects changes to a scene graph made by arbitrary threads and
+    applies them later on the thread rendering it. Nodes and
+    collections are not thread-safe, so a scene graph being rendered
+    may only be modified by the rendering thread; other threads enqueue
+    their changes here instead, and the {@link
+    com.breiler.msg.actions.GLRenderAction GLRenderAction} the queue is
+    {@link com.breiler.msg.actions.GLRenderAction#setUpdateQueue set
+    on} applies them all before it begins rendering a frame. <P>
+
+    Enqueueing never blocks and never waits for the rendering thread.
+    Changes are applied in the order they were enqueued, except that a
+    transform or collection contents set again before the earlier
+    change was applied replaces that change, so a producer updating a
+    node faster than frames are rendered costs only the last update.
+    Changes enqueued concurrently by different threads are applied in
+    an unspecified relative order. <P>
+
+    Each change is applied as a whole within one frame, but separate
+    changes enqueued shortly after each other may straddle a frame
+    boundary. Changes which must become visible together, such as
+    adding a node and setting its transform, should be made from a
+    single {@link #update(Runnable) Runnable}. */
+
+public class SceneUpdateQueue {
+  // Most recently enqueued update first
+  private final AtomicReference<Update> head = new AtomicReference<>();
+  // The pending update for each key, so a newer one can supersede it
+  private final ConcurrentHashMap<Object, Update> pending = new ConcurrentHashMap<>();
+
+  /** Enqueues adding the given child to the end of the given group's
+      children. */
+  public void addChild(final Group parent, final Node child) {
+    checkNotNull(parent, "parent");
+    checkNotNull(child, "child");
+    enqueue(null, new Runnable() {
+        public void run() {
+          parent.addChild(child);
+        }
+      });
+  }
+
+  /** Enqueues inserting the given child into the given group so that
+      it becomes the one with the given index. The index is checked
+      against the group's children when the change is applied. */
+  public void insertChild(final Group parent, final int index, final Node child) {
+    checkNotNull(parent, "parent");
+    checkNotNull(child, "child");
+    enqueue(null, new Runnable() {
+        public void run() {
+          parent.insertChild(index, child);
+        }
+      });
+  }
+
+  /** Enqueues removing the given child from the given group. Nothing
+      happens if the node is no longer a child of the group when the
+      change is applied. */
+  public void removeChild(final Group parent, final Node child) {
+    checkNotNull(parent, "parent");
+    checkNotNull(child, "child");
+    enqueue(null, new Runnable() {
+        public void run() {
+          parent.removeChild(child);
+        }
+      });
+  }
+
+  /** Enqueues replacing a child of the given group with a new one.
+      Nothing happens if the old node is no longer a child of the
+      group when the change is applied. */
+  public void replaceChild(final Group parent, final Node oldChild, final Node newChild) {
+    checkNotNull(parent, "parent");
+    checkNotNull(oldChild, "oldChild");
+    checkNotNull(newChild, "newChild");
+    enqueue(null, new Runnable() {
+        public void run() {
+          parent.replaceChild(oldChild, newChild);
+        }
+      });
+  }
+
+  /** Enqueues setting the transform of the given node to a copy of
+      the given matrix. Supersedes a transform
+      enqueued earlier for the same node and not yet applied. */
+  public void setTransform(final Node node, Matrix4f transform) {
+    checkNotNull(node, "node");
+    checkNotNull(transform, "transform");
+    final Matrix4f copy = new Matrix4f(transform);
+    enqueue(new Key(node, Key.TRANSFORM), new Runnable() {
+        public void run() {
+          node.getTransform().set(copy);
+        }
+      });
+  }
+
+  /** Enqueues replacing the contents of the given collection with a
+      copy of the given components, three per element. Supersedes
+      contents enqueued earlier for the same collection and not yet
+      applied. */
+  public void setContents(final Vec3fCollection collection, float[] components) {
+    checkNotNull(collection, "collection");
+    final float[] copy = copyComponents(components, 3);
+    enqueue(new Key(collection, Key.CONTENTS), new Runnable() {
+        public void run() {
+          collection.clear();
+          collection.addAll(copy, 0, copy.length / 3);
+        }
+      });
+  }
+
+  /** Enqueues replacing the contents of the given collection with a
+      copy of the given components, four per element. Supersedes
+      contents enqueued earlier for the same collection and not yet
+      applied. */
+  public void setContents(final Vec4fCollection collection, float[] components) {
+    checkNotNull(collection, "collection");
+    final float[] copy = copyComponents(components, 4);
+    enqueue(new Key(collection, Key.CONTENTS), new Runnable() {
+        public void run() {
+          collection.clear();
+          collection.addAll(copy, 0, copy.length / 4);
+        }
+      });
+  }
+
+  /** Enqueues replacing the contents of the given collection with a
+      copy of the given components, two per element. Supersedes
+      contents enqueued earlier for the same collection and not yet
+      applied. */
+  public void setContents(final Vec2fCollection collection, float[] components) {
+    checkNotNull(collection, "collection");
+    final float[] copy = copyComponents(components, 2);
+    enqueue(new Key(collection, Key.CONTENTS), new Runnable() {
+        public void run() {
+          collection.clear();
+          collection.addAll(copy, 0, copy.length / 2);
+        }
+      });
+  }
+
+  /** Enqueues an arbitrary change, which is run on the rendering
+      thread and may modify any part of the scene graph. The change
+      must not capture data the enqueueing thread goes on to modify. */
+  public void update(Runnable change) {
+    checkNotNull(change, "change");
+    enqueue(null, change);
+  }
+
+  /** Enqueues an arbitrary change which supersedes a change enqueued
+      earlier with an equal key and not yet applied. Keys are compared
+      with <CODE>equals</CODE>, and should be chosen so that a later
+      change makes the earlier one redundant, for example the node
+      being changed together with the aspect of it. */
+  public void update(Object key, Runnable change) {
+    checkNotNull(key, "key");
+    checkNotNull(change, "change");
+    enqueue(key, change);
+  }
+
+  /** Indicates whether no changes have been enqueued since the queue
+      was last applied. */
+  public boolean isEmpty() {
+    return head.get() == null;
+  }
+
+  /** Applies all changes enqueued so far and returns the number
+      applied, not counting superseded ones. This must be called on the
+      thread rendering the scene graph; the GLRenderAction the queue is
+      set on calls it before each frame. Changes enqueued while this
+      method runs are left for the next call. If changes throw
+      exceptions, the remaining changes are still applied and the
+      first exception is then rethrown with the others suppressed. */
+  public synchronized int apply() {
+    Update update = head.getAndSet(null);
+    // Reverse the list into the order the changes were enqueued in
+    Update first = null;
+    while (update != null) {
+      Update next = update.next;
+      update.next = first;
+      first = update;
+      update = next;
+    }
+    int numApplied = 0;
+    RuntimeException failure = null;
+    for (update = first; update != null; update = update.next) {
+      if (update.key != null) {
+        pending.remove(update.key, update);
+      }
+      if (update.superseded) {
+        continue;
+      }
+      try {
+        update.change.run();
+        ++numApplied;
+      } catch (RuntimeException e) {
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+    return numApplied;
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private static class Update {
+    final Object key;
+    final Runnable change;
+    volatile boolean superseded;
+    Update next;
+
+    Update(Object key, Runnable change) {
+      this.key = key;
+      this.change = change;
+    }
+  }
+
+  /** Identifies one aspect of a node or collection, compared by the
+      identity of the target. */
+  private static class Key {
+    static final int TRANSFORM = 0;
+    static final int CONTENTS = 1;
+
+    private final Object target;
+    private final int aspect;
+
+    Key(Object target, int aspect) {
+      this.target = target;
+      this.aspect = aspect;
+    }
+
+    public boolean equals(Object o) {
+      if (!(o instanceof Key))
+        return false;
+      Key other = (Key) o;
+      return target == other.target && aspect == other.aspect;
+    }
+
+    public int hashCode() {
+      return System.identityHashCode(target) * 31 + aspect;
+    }
+  }
+
+  private void enqueue(Object key, Runnable change) {
+    Update update = new Update(key, change);
+    // Registered before being linked in, so that apply() can not see
+    // the update before it is known to be pending
+    if (key != null) {
+      Update previous = pending.put(key, update);
+      if (previous != null) {
+        previous.superseded = true;
+      }
+    }
+    Update h;
+    do {
+      h = head.get();
+      update.next = h;
+    } while (!head.compareAndSet(h, update));
+  }
+
+  private static float[] copyComponents(float[] components, int elementSize) {
+    checkNotNull(components, "components");
+    if (components.length % elementSize != 0)
+      throw new IllegalArgumentException("Number of components (" + components.length +
+                                         ") not a multiple of " + elementSize);
+    return components.clone();
+  }
+
+  private static void checkNotNull(Object o, String name) {
+    if (o == null)
+      throw new IllegalArgumentException(name + " may not be null");
+  }
+}
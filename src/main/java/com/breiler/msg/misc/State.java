@@ -37,13 +37,17 @@
 
 package com.breiler.msg.misc;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 import com.breiler.msg.elements.Element;
 
 /** Represents a collection of state elements, which are updated by
-    actions during scene graph traversal. */
+    actions during scene graph traversal. <P>
+
+    The State owned by an Action instance is confined to the thread
+    applying that action. The default State of an Action class is
+    shared by all of its instances and may be read from any thread;
+    elements are only enabled in it while node classes initialize. */
 
 public class State {
   // Provides each concrete Element subclass a unique slot in the State.
@@ -52,8 +56,17 @@ public class State {
   // Action is decided by which elements are enabled for that action.
   private static int curStateIndex = 0;
   
-  // The representation of the State.
-  private final List<Element> elements = new ArrayList<Element>();
+  // The representation of the State: the top of the stack of each
+  // element slot. Sized for the element types registered when the
+  // State is created and only grown if more are registered later.
+  private Element[] elements;
+
+  // The enabled elements if this is the default State for an Action
+  // class. Node classes enable elements from their static
+  // initializers, which may run while other threads are traversing
+  // with instances of the Action, so the array is replaced rather
+  // than modified.
+  private volatile Element[] defaultElements = new Element[0];
 
   // The default enabled elements for this State. The State instances
   // created by each Action instance point to the default enabled
@@ -83,6 +96,7 @@ public class State {
       should be that for the particular Action class. */
   public State(State defaults) {
     this.defaults = defaults;
+    elements = new Element[getNumElementTypes()];
     // Do a push() to ensure that we always have a non-null and
     // pristine entry at the top of each stack
     push();
@@ -104,7 +118,7 @@ public class State {
     // attempts to guard against that happening.
     assert depth >= ((topElement == null) ? 0 : topElement.getDepth()) :
       "Elements must not be changed while the state is being popped (element being changed: " +
-      elements.get(index.getIndex()).getClass().getName() + ").";
+      elements[index.getIndex()].getClass().getName() + ").";
 
     int idx = index.getIndex();
 
@@ -112,20 +126,20 @@ public class State {
       // This State contains the defaults for a particular Action
       // class. Don't do anything fancy -- just return the element at
       // the particular index.
-      if (idx >= elements.size()) {
+      Element[] elts = defaultElements;
+      if (idx >= elts.length) {
         return null;
       }
-      return elements.get(idx);
+      return elts[idx];
     }
 
-    if (idx >= elements.size()) {
-      // Expand list to the needed size
-      while (idx >= elements.size()) {
-        elements.add(null);
-      }
+    Element[] elts = elements;
+    if (idx >= elts.length) {
+      // The element type was registered after this State was created
+      elts = elements = Arrays.copyOf(elts, Math.max(idx + 1, getNumElementTypes()));
     }
 
-    Element elt = elements.get(idx);
+    Element elt = elts[idx];
     if (elt == null) {
       // Lazily create a copy of the default and put it in place
       elt = defaults.getElement(index);
@@ -134,21 +148,26 @@ public class State {
       }
       elt = elt.newInstance();
       elt.setDepth(0);
-      elements.set(idx, elt);
+      elts[idx] = elt;
     }
 
     // If element is not at current depth, we have to push a new
     // element on the stack
     if (elt.getDepth() < depth) {
-      // FIXME: consider doubly-linked-list scheme as in Inventor to
-      // avoid excessive object creation during scene graph traversal
-      Element newElt = elt.newInstance();
-      newElt.setNextInStack(elt);
+      // As in Inventor, reuse the element left above the top of the
+      // stack by an earlier pop if there is one, so that traversing
+      // an unchanged scene graph does not create any new elements
+      Element newElt = elt.getPrevInStack();
+      if (newElt == null) {
+        newElt = elt.newInstance();
+        newElt.setNextInStack(elt);
+        elt.setPrevInStack(newElt);
+      }
       newElt.setDepth(depth);
-      // Add newly-created element to the all-element stack
+      // Add element to the all-element stack
       newElt.setNext(topElement);
       topElement = newElt;
-      elements.set(idx, newElt);
+      elts[idx] = newElt;
       // Call push on new element in case it has side effects
       newElt.push(this);
       // Return new element
@@ -161,17 +180,15 @@ public class State {
   /** Sets the element at the given state index. This should only be
       used by Action, Element and Node subclasses to initialize the
       default state for a given Action class. */
-  public void setElement(StateIndex index, Element element) {
+  public synchronized void setElement(StateIndex index, Element element) {
     if (defaults != null) {
       throw new RuntimeException("Misuse of setElement(); should only be used to initialize default State for an Action");
     }
     int idx = index.getIndex();
-    if (idx >= elements.size()) {
-      while (idx >= elements.size()) {
-        elements.add(null);
-      }
-    }
-    elements.set(idx, element);
+    Element[] elts = defaultElements;
+    elts = Arrays.copyOf(elts, Math.max(elts.length, idx + 1));
+    elts[idx] = element;
+    defaultElements = elts;
   }
 
   /** Pushes (saves) the current state until a pop() restores it. The
@@ -215,8 +232,9 @@ public class State {
       // Remove from main element list
       topElement = topElement.getNext();
 
-      // Remove from element stack
-      elements.set(poppedElt.getStateIndex().getIndex(), poppedElt.getNextInStack());
+      // Remove from element stack. The popped element stays linked
+      // above the new top of the stack for reuse.
+      elements[poppedElt.getStateIndex().getIndex()] = poppedElt.getNextInStack();
     }
   }
 
@@ -226,4 +244,12 @@ public class State {
   public static synchronized StateIndex registerElementType() {
     return new StateIndex(curStateIndex++);
   }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private static synchronized int getNumElementTypes() {
+    return curStateIndex;
+  }
 }
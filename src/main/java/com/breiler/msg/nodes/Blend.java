@@ -48,7 +48,7 @@ import javax.vecmath.Vector4f;
 
 public class Blend extends Node {
   private boolean enabled;
-  private final Vector4f blendColor = new Vector4f();
+  private Vector4f blendColor = new Vector4f();
   private int srcFunc = ONE;
   private int destFunc = ZERO;
   private int blendEquation = FUNC_ADD;
@@ -103,6 +103,7 @@ public class Blend extends Node {
   /** Sets whether blending is enabled. Defaults to false. */
   public void setEnabled(boolean enabled) {
     this.enabled = enabled;
+    touch();
   }
 
   /** Returns whether blending is enabled. Defaults to false. */
@@ -120,6 +121,7 @@ public class Blend extends Node {
       throw new IllegalArgumentException("Illegal source blending function " + func);
     }
     srcFunc = func;
+    touch();
   }
 
   /** Returns the source blending function. The default is ONE. */
@@ -138,6 +140,7 @@ public class Blend extends Node {
       throw new IllegalArgumentException("Illegal destination blending function " + func);
     }
     destFunc = func;
+    touch();
   }
 
   /** Returns the destination blending function. The default is ZERO. */
@@ -152,6 +155,7 @@ public class Blend extends Node {
       throw new IllegalArgumentException("Illegal blending equation " + equation);
     }
     this.blendEquation = equation;
+    touch();
   }
 
   /** Returns the blending equation. Defaults to FUNC_ADD. */
@@ -163,6 +167,7 @@ public class Blend extends Node {
       for more details. Defaults to [0, 0, 0, 0]. */
   public void setBlendColor(Vector4f color) {
     blendColor.set(color);
+    touch();
   }
 
   /** Gets the blending color; see the documentation for glBlendColor
@@ -181,4 +186,10 @@ public class Blend extends Node {
                        getBlendEquation());
     }
   }
+
+  protected Node copyForSnapshot(SceneSnapshot.Context context) {
+    Blend copy = (Blend) super.copyForSnapshot(context);
+    copy.blendColor = new Vector4f(blendColor);
+    return copy;
+  }
 }
@@ -220,8 +220,10 @@ public abstract class Camera extends Node {
 
     /**
      * Returns the viewing matrix associated with this camera's parameters.
+     * The matrix is lazily recomputed, so this is synchronized to allow
+     * several actions to traverse the camera concurrently.
      */
-    public Matrix4f getViewingMatrix() {
+    public synchronized Matrix4f getViewingMatrix() {
         if (viewDirty) {
             viewMatrix.setIdentity();
             viewDirty = false;
@@ -235,7 +237,10 @@ public abstract class Camera extends Node {
     }
 
     /**
-     * Returns the projection matrix associated with this camera's parameters.
+     * Returns the projection matrix associated with this camera's
+     * parameters. Implementations which compute the matrix lazily must
+     * synchronize, since several actions may traverse the camera
+     * concurrently.
      */
     public abstract Matrix4f getProjectionMatrix();
 
@@ -273,7 +278,9 @@ public abstract class Camera extends Node {
                 1);
         // Compute the cumulative view and projection matrices
         Matrix4f mat = new Matrix4f();
-        mat.mul(getProjectionMatrix(), getViewingMatrix());
+        synchronized (this) {
+            mat.mul(getProjectionMatrix(), getViewingMatrix());
+        }
         // Compute the inverse of this matrix
         mat.invert();
         // Multiply
@@ -305,12 +312,18 @@ public abstract class Camera extends Node {
     protected abstract Vector3f getRayStartPoint(Vector2f point, Vector3f unprojectedPoint);
 
     public void doAction(Action action) {
-
-        if (ViewingMatrixElement.isEnabled(action.getState())) {
-            ViewingMatrixElement.set(action.getState(), getViewingMatrix());
+        // The elements copy the matrices; hold the lock while doing so
+        // in case a concurrent render updates the aspect ratio
+        synchronized (this) {
+            if (ViewingMatrixElement.isEnabled(action.getState())) {
+                ViewingMatrixElement.set(action.getState(), getViewingMatrix());
+            }
+            if (ProjectionMatrixElement.isEnabled(action.getState())) {
+                ProjectionMatrixElement.set(action.getState(), getProjectionMatrix());
+            }
         }
-        if (ProjectionMatrixElement.isEnabled(action.getState())) {
-            ProjectionMatrixElement.set(action.getState(), getProjectionMatrix());
+        if (action instanceof GLRenderAction) {
+            ((GLRenderAction) action).cameraSet();
         }
     }
 
@@ -318,4 +331,13 @@ public abstract class Camera extends Node {
         doAction(action);
         action.recomputeRay(this);
     }
+
+    /**
+     * Returns this camera itself, which snapshots share with the scene graph
+     * since it synchronizes access to its matrices.
+     */
+    @Override
+    protected Node copyForSnapshot(SceneSnapshot.Context context) {
+        return this;
+    }
 }
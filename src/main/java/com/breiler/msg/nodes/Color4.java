@@ -90,7 +90,14 @@ public class Color4 extends Node {
   */
 
   public void setData(Vec4fCollection data) {
+    if (this.data != null && this.data.getOwner() == this) {
+      this.data.setOwner(null);
+    }
     this.data = data;
+    if (data != null) {
+      data.setOwner(this);
+    }
+    touch();
   }
 
   public Vec4fCollection getData() {
@@ -99,7 +106,13 @@ public class Color4 extends Node {
 
   public void doAction(Action action) {
     if (ColorElement.isEnabled(action.getState())) {
-      ColorElement.set(action.getState(), getData().getData());
+      ColorElement.set(action.getState(), getData());
     }
   }
+
+  protected Node copyForSnapshot(SceneSnapshot.Context context) {
+    Color4 copy = (Color4) super.copyForSnapshot(context);
+    copy.data = context.capture(data);
+    return copy;
+  }
 }
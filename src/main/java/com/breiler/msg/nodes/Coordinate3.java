@@ -38,7 +38,9 @@
 package com.breiler.msg.nodes;
 
 import com.breiler.msg.actions.GLRenderAction;
+import com.breiler.msg.actions.GetBoundingBoxAction;
 import com.breiler.msg.actions.RayPickAction;
+import com.breiler.msg.collections.SegmentedVec3fCollection;
 import com.breiler.msg.collections.Vec3fCollection;
 import com.breiler.msg.elements.CoordinateElement;
 import com.breiler.msg.elements.GLCoordinateElement;
@@ -49,17 +51,25 @@ import com.breiler.msg.actions.Action;
 
 public class Coordinate3 extends Node {
   private Vec3fCollection data;
+  private SegmentedVec3fCollection segmentedData;
 
   static {
     // Enable the elements this node affects for known actions
     GLCoordinateElement.enable(GLRenderAction.getDefaultState());
 
     CoordinateElement.enable(RayPickAction.getDefaultState());
+    CoordinateElement.enable(GetBoundingBoxAction.getDefaultState());
   }
 
-  /** Sets the coordinate data in this node. */
+  /** Sets the coordinate data in this node, replacing any segmented
+      data. */
   public void setData(Vec3fCollection data) {
+    disown();
     this.data = data;
+    if (data != null) {
+      data.setOwner(this);
+    }
+    touch();
   }
 
   /** Returns the coordinate data in this node. */
@@ -67,9 +77,53 @@ public class Coordinate3 extends Node {
     return data;
   }
 
+  /** Sets segmented coordinate data in this node, replacing the data
+      set with {@link #setData setData}. Use this for more vertices
+      than fit into a single Vec3fCollection. */
+  public void setSegmentedData(SegmentedVec3fCollection segmentedData) {
+    disown();
+    this.segmentedData = segmentedData;
+    if (segmentedData != null) {
+      segmentedData.setOwner(this);
+    }
+    touch();
+  }
+
+  /** Returns the segmented coordinate data in this node, or null if
+      the data is not segmented. */
+  public SegmentedVec3fCollection getSegmentedData() {
+    return segmentedData;
+  }
+
   public void doAction(Action action) {
     if (CoordinateElement.isEnabled(action.getState())) {
-      CoordinateElement.set(action.getState(), getData().getData());
+      if (segmentedData != null) {
+        CoordinateElement.set(action.getState(), segmentedData);
+      } else {
+        CoordinateElement.set(action.getState(), getData());
+      }
+    }
+  }
+
+  protected Node copyForSnapshot(SceneSnapshot.Context context) {
+    Coordinate3 copy = (Coordinate3) super.copyForSnapshot(context);
+    copy.data = context.capture(data);
+    copy.segmentedData = context.capture(segmentedData);
+    return copy;
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private void disown() {
+    if (data != null && data.getOwner() == this) {
+      data.setOwner(null);
+    }
+    if (segmentedData != null && segmentedData.getOwner() == this) {
+      segmentedData.setOwner(null);
     }
+    data = null;
+    segmentedData = null;
   }
 }
@@ -54,6 +54,7 @@ public class DepthTest extends Node {
   /** Sets whether depth testing is enabled. Defaults to true. */
   public void setEnabled(boolean enabled) {
     this.enabled = enabled;
+    touch();
   }
 
   /** Returns whether depth testing is enabled. Defaults to true. */
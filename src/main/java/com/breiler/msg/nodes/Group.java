@@ -39,21 +39,29 @@ package com.breiler.msg.nodes;
 
 import com.breiler.msg.actions.Action;
 import com.breiler.msg.actions.GLRenderAction;
+import com.breiler.msg.actions.GetBoundingBoxAction;
 import com.breiler.msg.actions.RayPickAction;
+import com.breiler.msg.collections.Versioned;
+import com.breiler.msg.elements.BoundingBoxElement;
+import com.breiler.msg.elements.CoordinateElement;
 import com.breiler.msg.elements.GLModelMatrixElement;
 import com.breiler.msg.elements.GLProjectionMatrixElement;
 import com.breiler.msg.elements.GLViewingMatrixElement;
 import com.breiler.msg.elements.ModelMatrixElement;
 import com.breiler.msg.elements.ProjectionMatrixElement;
 import com.breiler.msg.elements.ViewingMatrixElement;
+import com.breiler.msg.misc.BoundsCache;
 import com.breiler.msg.misc.State;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
 /**
- * A node which manages other Node instances.
+ * A node which manages other Node instances. Groups are not
+ * thread-safe; while a scene graph is being rendered, other threads
+ * should change it through a {@link com.breiler.msg.misc.SceneUpdateQueue}.
  */
 
 public class Group extends Node implements Iterable<Node> {
@@ -61,18 +69,25 @@ public class Group extends Node implements Iterable<Node> {
     static {
         GLModelMatrixElement.enable(GLRenderAction.getDefaultState());
         ModelMatrixElement.enable(RayPickAction.getDefaultState());
+        ModelMatrixElement.enable(GetBoundingBoxAction.getDefaultState());
     }
 
-    private final List<Node> children = new ArrayList<>();
+    private List<Node> children = new ArrayList<>();
+    // Bounds of the children relative to the coordinate system this
+    // group is in, or null if they need to be recomputed
+    private volatile BoundsCache boundsCache;
 
     /**
      * Append a child node to the list of children nodes this group node is managing.
      */
     public void addChild(Node child) {
+        checkNotSnapshot();
         if (child == null)
             throw new IllegalArgumentException("child may not be null");
-        child.setParent(this);
+        child.addParent(this);
         children.add(child);
+        boundsCache = null;
+        snapshotCopy = null;
         listeners.forEach(l -> l.childAdded(new NodeChangeEvent(this, child)));
     }
 
@@ -80,10 +95,13 @@ public class Group extends Node implements Iterable<Node> {
      * Adds a child so that it becomes the one with the given index.
      */
     public void insertChild(int index, Node child) {
+        checkNotSnapshot();
         if (child == null)
             throw new IllegalArgumentException("child may not be null");
-        child.setParent(this);
+        child.addParent(this);
         children.add(index, child);
+        boundsCache = null;
+        snapshotCopy = null;
         listeners.forEach(l -> l.childAdded(new NodeChangeEvent(this, child)));
     }
 
@@ -115,10 +133,13 @@ public class Group extends Node implements Iterable<Node> {
      *                                   greater than the number of children
      */
     public void removeChild(int index) throws IndexOutOfBoundsException {
+        checkNotSnapshot();
         Node child = children.remove(index);
+        boundsCache = null;
+        snapshotCopy = null;
         if (child != null) {
             listeners.forEach(l -> l.childRemoved(new NodeChangeEvent(this, child)));
-            child.setParent(null);
+            child.removeParent(this);
         }
     }
 
@@ -138,11 +159,14 @@ public class Group extends Node implements Iterable<Node> {
      * Removes all children from this Group node.
      */
     public void removeAllChildren() {
+        checkNotSnapshot();
         children.forEach(child -> {
             listeners.forEach(l -> l.childRemoved(new NodeChangeEvent(this, child)));
-            child.setParent(null);
+            child.removeParent(this);
         });
         children.clear();
+        boundsCache = null;
+        snapshotCopy = null;
     }
 
     /**
@@ -183,18 +207,138 @@ public class Group extends Node implements Iterable<Node> {
         return new ArrayList<>(children);
     }
 
+    @Override
+    public void touch() {
+        boundsCache = null;
+        super.touch();
+    }
+
+    @Override
+    public void childAdded(NodeChangeEvent evt) {
+        boundsCache = null;
+        super.childAdded(evt);
+    }
+
+    @Override
+    public void childRemoved(NodeChangeEvent evt) {
+        boundsCache = null;
+        super.childRemoved(evt);
+    }
+
+    @Override
+    public void nodeChanged(NodeChangeEvent evt) {
+        boundsCache = null;
+        super.nodeChanged(evt);
+    }
+
+    public void getBoundingBox(GetBoundingBoxAction action) {
+        State state = action.getState();
+        Versioned coords = CoordinateElement.isEnabled(state) ? CoordinateElement.getSource(state) : null;
+        BoundsCache cache = boundsCache;
+        if (cache != null && cache.isValid(coords)) {
+            action.addDependencies(cache);
+        } else {
+            action.beginCache();
+            state.push();
+            try {
+                // Accumulate the bounds of the children relative to the
+                // coordinate system this group is in, so they stay valid
+                // when the transforms above this group change
+                ModelMatrixElement.makeIdent(state);
+                ModelMatrixElement.mult(state, transform());
+                for (int i = 0, n = children.size(); i < n; i++) {
+                    action.apply(children.get(i));
+                }
+                BoundingBoxElement elt = BoundingBoxElement.getInstance(state);
+                cache = action.endCache(elt.getBox(), elt.getSphere(), coords);
+            } finally {
+                state.pop();
+            }
+            boundsCache = cache.isCacheable() ? cache : null;
+        }
+        BoundingBoxElement.extendBy(state, cache.getBox(), cache.getSphere());
+    }
+
+    public void render(GLRenderAction action) {
+        if (action.isCullingEnabled()) {
+            BoundsCache cache = getValidBounds(action.getState());
+            if (cache != null && action.cull(cache.getBox(), cache.getSphere())) {
+                return;
+            }
+        }
+        doAction(action);
+    }
+
+    public void rayPick(RayPickAction action) {
+        State state = action.getState();
+        BoundsCache cache = getValidBounds(state);
+        if (cache == null && !action.isPickAll() && !inheritsCoordinates(state)) {
+            // Bounds computed on their own are only valid here if
+            // they do not depend on coordinates set above this group
+            action.updateBounds(this);
+            cache = getValidBounds(state);
+        }
+        if (cache != null && action.cull(cache.getBox())) {
+            return;
+        }
+        doAction(action);
+    }
+
     public void doAction(Action action) {
         State state = action.getState();
         state.push();
 
         if (ModelMatrixElement.isEnabled(state)) {
-            ModelMatrixElement.mult(state, getTransform());
+            multModelMatrix(state);
         }
 
         try {
-            forEach(action::apply);
+            // Indexed loop to avoid creating an iterator per traversal
+            for (int i = 0, n = children.size(); i < n; i++) {
+                action.apply(children.get(i));
+            }
         } finally {
             state.pop();
         }
     }
+
+    @Override
+    protected Node copyForSnapshot(SceneSnapshot.Context context) {
+        Group copy = (Group) super.copyForSnapshot(context);
+        // The children are copied by the snapshot itself
+        copy.children = Collections.emptyList();
+        copy.boundsCache = null;
+        return copy;
+    }
+
+    /**
+     * Sets the copies of the children of a group copied for a snapshot.
+     */
+    void setSnapshotChildren(List<Node> children) {
+        this.children = Collections.unmodifiableList(children);
+    }
+
+    /**
+     * Returns the cached bounds of the children, relative to the
+     * coordinate system this group is in, if they are known to be up to
+     * date in the given state, or null otherwise.
+     */
+    BoundsCache getValidBounds(State state) {
+        BoundsCache cache = boundsCache;
+        if (cache != null &&
+                cache.isValid(CoordinateElement.isEnabled(state) ? CoordinateElement.getSource(state) : null)) {
+            return cache;
+        }
+        return null;
+    }
+
+    private static boolean inheritsCoordinates(State state) {
+        return CoordinateElement.isEnabled(state) &&
+                (CoordinateElement.get(state) != null || CoordinateElement.getSegments(state) != null);
+    }
+
+    private void checkNotSnapshot() {
+        if (isSnapshot())
+            throw new UnsupportedOperationException("the nodes of a snapshot can not be modified");
+    }
 }
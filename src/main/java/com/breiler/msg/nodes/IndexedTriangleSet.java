@@ -37,24 +37,55 @@
 
 package com.breiler.msg.nodes;
 
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 
 import com.breiler.msg.actions.Action;
+import com.breiler.msg.elements.ColorElement;
+import com.breiler.msg.elements.CoordinateElement;
+import com.breiler.msg.elements.TextureCoordinateElement;
+import com.breiler.msg.impl.BufferFactory;
+import com.breiler.msg.misc.PrimitiveVertex;
+import com.breiler.msg.misc.State;
 import com.breiler.msg.misc.TriangleCallback;
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+
+import javax.vecmath.Vector2f;
+import javax.vecmath.Vector3f;
+import javax.vecmath.Vector4f;
 
 /** An IndexedTriangleSet assembles the coordinates specified by a
     Coordinate3 node, and any auxiliary nodes such as a
     TextureCoordinate2 node, into a set of triangles by indexing into
-    the pools of coordinates set up by these other nodes. (NOTE:
-    (FIXME) rendering support for this node is not yet
-    implemented.) */
+    the pools of coordinates set up by these other nodes. Every three
+    indices form one triangle, which allows vertices shared between
+    triangles to be stored only once. <P>
+
+    For rendering, the indices are copied into the smallest type able
+    to hold the largest of them: unsigned bytes or shorts where
+    possible, and ints otherwise. Nothing is drawn if any index is
+    negative or refers past the end of the coordinates, and for the
+    same reason no triangles are generated for picking. */
 
-public class IndexedTriangleSet extends TriangleBasedShape {
+public class IndexedTriangleSet extends TriangleSet {
   private IntBuffer indices;
+  // The range of the indices, or null if it needs to be recomputed
+  private volatile IndexRange indexRange;
+  // The indices in the form passed to OpenGL, or null if they need to
+  // be recomputed
+  private volatile Buffer drawIndices;
 
-  /** Sets the indices this node uses to group vertices into triangles. */
+  /** Sets the indices this node uses to group vertices into
+      triangles. The indices from zero to the limit of the buffer are
+      used. If the contents of the buffer are later changed in place,
+      {@link #touch touch} must be called. */
   public void setIndices(IntBuffer indices) {
     this.indices = indices;
+    touch();
   }
 
   /** Returns the indices this node uses to group vertices into triangles. */
@@ -62,11 +93,206 @@ public class IndexedTriangleSet extends TriangleBasedShape {
     return indices;
   }
 
-  public void doAction(Action action) {
-    throw new RuntimeException("Not yet implemented");
+  public void touch() {
+    Buffer draw = drawIndices;
+    indexRange = null;
+    drawIndices = null;
+    if (draw != null) {
+      // Only ever passed to OpenGL, so nothing else refers to it
+      BufferFactory.release(draw);
+    }
+    super.touch();
+  }
+
+  protected void drawTriangles(GL2 gl, State state) {
+    Buffer buf = getDrawIndices(state);
+    if (buf == null)
+      return;
+    int type;
+    if (buf instanceof ByteBuffer) {
+      type = GL.GL_UNSIGNED_BYTE;
+    } else if (buf instanceof ShortBuffer) {
+      type = GL.GL_UNSIGNED_SHORT;
+    } else {
+      type = GL.GL_UNSIGNED_INT;
+    }
+    gl.glDrawElements(GL.GL_TRIANGLES, buf.limit() - (buf.limit() % 3), type, buf);
   }
 
   public void generateTriangles(Action action, TriangleCallback cb) {
-    throw new RuntimeException("Not yet implemented");
+    IntBuffer indices = this.indices;
+    if (indices == null)
+      return;
+    State state = action.getState();
+    FloatBuffer coords = null;
+    FloatBuffer texCoords = null;
+    // FIXME: normals and lighting not supported yet
+    FloatBuffer colors = null;
+    if (CoordinateElement.isEnabled(state)) {
+      coords = CoordinateElement.get(state);
+    }
+    // No point in continuing if we don't have coordinates
+    if (coords == null)
+      return;
+    // Nor if the indices don't fit them; this is what rendering does
+    IndexRange range = getIndexRange(indices);
+    if (!range.isWithin(coords.limit() / 3))
+      return;
+    if (TextureCoordinateElement.isEnabled(state)) {
+      texCoords = TextureCoordinateElement.get(state);
+      if (texCoords != null && !range.isWithin(texCoords.limit() / 2)) {
+        texCoords = null;
+      }
+    }
+    if (ColorElement.isEnabled(state)) {
+      colors = ColorElement.get(state);
+      if (colors != null && !range.isWithin(colors.limit() / 4)) {
+        colors = null;
+      }
+    }
+    PrimitiveVertex v0 = newVertex(texCoords, colors);
+    PrimitiveVertex v1 = newVertex(texCoords, colors);
+    PrimitiveVertex v2 = newVertex(texCoords, colors);
+
+    int numTriangles = indices.limit() / 3;
+    for (int i = 0; i < numTriangles; i++) {
+      int i0 = indices.get(3 * i);
+      int i1 = indices.get(3 * i + 1);
+      int i2 = indices.get(3 * i + 2);
+      setVertex(v0, i0, coords, texCoords, colors);
+      setVertex(v1, i1, coords, texCoords, colors);
+      setVertex(v2, i2, coords, texCoords, colors);
+      cb.triangleCB(i, v0, i0, v1, i1, v2, i2);
+    }
+  }
+
+  protected Node copyForSnapshot(SceneSnapshot.Context context) {
+    IndexedTriangleSet copy = (IndexedTriangleSet) super.copyForSnapshot(context);
+    // The indices may be changed in place, so they are copied
+    IntBuffer indices = this.indices;
+    if (indices != null) {
+      IntBuffer src = indices.duplicate();
+      src.position(0);
+      copy.indices = IntBuffer.allocate(src.limit()).put(src);
+      copy.indices.flip();
+    }
+    copy.indexRange = null;
+    copy.drawIndices = null;
+    return copy;
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  /** The smallest and largest of the indices. */
+  private static class IndexRange {
+    final int min;
+    final int max;
+
+    IndexRange(int min, int max) {
+      this.min = min;
+      this.max = max;
+    }
+
+    /** Returns true if all of the indices refer to one of the given
+        number of vertices. */
+    boolean isWithin(int numVertices) {
+      return min >= 0 && max < numVertices;
+    }
+  }
+
+  private IndexRange getIndexRange(IntBuffer indices) {
+    IndexRange range = indexRange;
+    if (range == null) {
+      int n = indices.limit();
+      int min = 0;
+      int max = 0;
+      for (int i = 0; i < n; i++) {
+        int index = indices.get(i);
+        min = Math.min(min, index);
+        max = Math.max(max, index);
+      }
+      range = new IndexRange(min, max);
+      indexRange = range;
+    }
+    return range;
+  }
+
+  /** Returns the indices in the form passed to OpenGL, converting
+      them first if necessary, or null if there are none or they are
+      not all valid for the coordinates in the given state. Indices
+      can not refer into segmented coordinates. Also used by
+      InstancedShape. */
+  Buffer getDrawIndices(State state) {
+    FloatBuffer coords = CoordinateElement.get(state);
+    if (coords == null)
+      return null;
+    IntBuffer indices = this.indices;
+    if (indices == null)
+      return null;
+    IndexRange range = getIndexRange(indices);
+    // Never drawn, so there is no point in converting anything
+    if (!range.isWithin(coords.limit() / 3))
+      return null;
+    Buffer draw = drawIndices;
+    if (draw == null) {
+      draw = convertIndices(indices, range.max);
+      drawIndices = draw;
+    }
+    return draw;
+  }
+
+  private Buffer convertIndices(IntBuffer indices, int max) {
+    int n = indices.limit();
+    Buffer buf;
+    if (max <= 0xFF) {
+      ByteBuffer bytes = BufferFactory.newByteBuffer(n);
+      for (int i = 0; i < n; i++) {
+        bytes.put(i, (byte) indices.get(i));
+      }
+      buf = bytes;
+    } else if (max <= 0xFFFF) {
+      ShortBuffer shorts = BufferFactory.newShortBuffer(n);
+      for (int i = 0; i < n; i++) {
+        shorts.put(i, (short) indices.get(i));
+      }
+      buf = shorts;
+    } else {
+      // OpenGL reads from the buffer's position and needs a direct
+      // buffer, neither of which is guaranteed for the one passed in
+      IntBuffer ints = BufferFactory.newIntBuffer(n);
+      for (int i = 0; i < n; i++) {
+        ints.put(i, indices.get(i));
+      }
+      buf = ints;
+    }
+    BufferFactory.setOwner(buf, this);
+    return buf;
+  }
+
+  private static PrimitiveVertex newVertex(FloatBuffer texCoords, FloatBuffer colors) {
+    PrimitiveVertex v = new PrimitiveVertex();
+    v.setCoord(new Vector3f());
+    if (texCoords != null) {
+      v.setTexCoord(new Vector2f());
+    }
+    if (colors != null) {
+      v.setColor(new Vector4f());
+    }
+    return v;
+  }
+
+  private static void setVertex(PrimitiveVertex v, int index,
+                                FloatBuffer coords,
+                                FloatBuffer texCoords,
+                                FloatBuffer colors) {
+    v.getCoord().set(coords.get(3 * index), coords.get(3 * index + 1), coords.get(3 * index + 2));
+    if (texCoords != null) {
+      v.getTexCoord().set(texCoords.get(2 * index), texCoords.get(2 * index + 1));
+    }
+    if (colors != null) {
+      v.getColor().set(colors.get(4 * index), colors.get(4 * index + 1), colors.get(4 * index + 2), colors.get(4 * index + 3));
+    }
   }
 }
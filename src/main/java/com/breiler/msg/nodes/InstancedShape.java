@@ -0,0 +1,701 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+
+package com.breiler.msg.nodes;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import com.breiler.msg.actions.Action;
+import com.breiler.msg.actions.GLRenderAction;
+import com.breiler.msg.actions.GLResetAction;
+import com.breiler.msg.actions.GetBoundingBoxAction;
+import com.breiler.msg.actions.RayPickAction;
+import com.breiler.msg.collections.Versioned;
+import com.breiler.msg.elements.BoundingBoxElement;
+import com.breiler.msg.elements.ColorElement;
+import com.breiler.msg.elements.CoordinateElement;
+import com.breiler.msg.elements.ModelMatrixElement;
+import com.breiler.msg.elements.ShaderElement;
+import com.breiler.msg.elements.TextureElement;
+import com.breiler.msg.impl.BufferFactory;
+import com.breiler.msg.impl.VertexBufferObject;
+import com.breiler.msg.math.Box3f;
+import com.breiler.msg.math.Sphere3f;
+import com.breiler.msg.misc.BoundsCache;
+import com.breiler.msg.misc.Shader;
+import com.breiler.msg.misc.State;
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GLContext;
+import com.jogamp.opengl.GLException;
+import com.jogamp.opengl.fixedfunc.GLPointerFunc;
+import com.jogamp.opengl.util.texture.Texture;
+
+import javax.vecmath.Matrix4f;
+import javax.vecmath.Vector4f;
+
+/** Draws many copies of one triangle mesh, each with its own
+    transform and optionally its own color, without a subgraph per
+    copy. The mesh is given by a Coordinate3 node and an
+    IndexedTriangleSet held by this node rather than added to the
+    scene graph; textures and per-vertex colors and texture
+    coordinates are inherited from the scene graph as for other
+    shapes. The instance transforms are kept in one compact buffer of
+    column-major 4x4 matrices. <P>
+
+    Where the OpenGL implementation supports instanced drawing and
+    vertex attribute divisors, all copies are drawn with a single
+    call using a built-in shader; since that shader replaces the
+    fixed-function pipeline, a ShaderNode in effect, or coordinates
+    split into segments, cause the copies to be drawn one after
+    another instead. Ray picking transforms the ray into the space of
+    each copy whose bounds it crosses and tests it against the
+    bounding volume hierarchy of the shared mesh. */
+
+public class InstancedShape extends Shape {
+  // Floats per instance transform and color
+  private static final int MATRIX_SIZE = 16;
+  private static final int COLOR_SIZE = 4;
+
+  private static final String VERTEX_SHADER =
+    "#version 120\n" +
+    "attribute mat4 instanceMatrix;\n" +
+    "attribute vec4 instanceColor;\n" +
+    "uniform bool useInstanceColor;\n" +
+    "void main() {\n" +
+    "  gl_Position = gl_ModelViewProjectionMatrix * (instanceMatrix * gl_Vertex);\n" +
+    "  gl_FrontColor = useInstanceColor ? instanceColor : gl_Color;\n" +
+    "  gl_TexCoord[0] = gl_TextureMatrix[0] * gl_MultiTexCoord0;\n" +
+    "}\n";
+
+  // Emulates the texture environment modes of Texture2, with BLEND
+  // approximated by MODULATE
+  private static final String FRAGMENT_SHADER =
+    "#version 120\n" +
+    "uniform int textureMode;\n" +
+    "uniform sampler2D image;\n" +
+    "void main() {\n" +
+    "  vec4 color = gl_Color;\n" +
+    "  if (textureMode != 0) {\n" +
+    "    vec4 texel = texture2D(image, gl_TexCoord[0].st);\n" +
+    "    if (textureMode == " + Texture2.REPLACE + ") {\n" +
+    "      color = texel;\n" +
+    "    } else if (textureMode == " + Texture2.DECAL + ") {\n" +
+    "      color = vec4(mix(color.rgb, texel.rgb, texel.a), color.a);\n" +
+    "    } else {\n" +
+    "      color *= texel;\n" +
+    "    }\n" +
+    "  }\n" +
+    "  gl_FragColor = color;\n" +
+    "}\n";
+
+  // The instancing shader of each OpenGL context, with a null shader
+  // for contexts which do not support it
+  private static final Map<GLContext, Program> programs = new WeakHashMap<GLContext, Program>();
+
+  private static class Program {
+    final Shader shader;
+    final int matrixLocation;
+    final int colorLocation;
+
+    Program(Shader shader, int matrixLocation, int colorLocation) {
+      this.shader = shader;
+      this.matrixLocation = matrixLocation;
+      this.colorLocation = colorLocation;
+    }
+  }
+
+  /** Bounds of the mesh itself along with the coordinates they were
+      computed from. */
+  private static class MeshBounds {
+    final Versioned source;
+    final int version;
+    final Box3f box;
+    final Sphere3f sphere;
+
+    MeshBounds(Versioned source, Box3f box, Sphere3f sphere) {
+      this.source = source;
+      this.version = (source != null) ? source.getVersion() : 0;
+      this.box = box;
+      this.sphere = sphere;
+    }
+  }
+
+  private Coordinate3 coordinates;
+  private IndexedTriangleSet triangles;
+  private FloatBuffer transforms;
+  // Null until a color is set for some instance
+  private FloatBuffer colors;
+  private int numInstances;
+  private boolean instancingEnabled = true;
+
+  private volatile BoundsCache boundsCache;
+  private volatile MeshBounds meshBounds;
+
+  // OpenGL buffer objects, created in the context rendered into
+  private VertexBufferObject transformBuffer = new VertexBufferObject();
+  private VertexBufferObject colorBuffer = new VertexBufferObject();
+  private VertexBufferObject indexBuffer = new VertexBufferObject();
+  // Scratch storage for the transform of each instance drawn one at a time
+  private float[] drawMatrix = new float[MATRIX_SIZE];
+
+  /** Sets the coordinates of the mesh drawn for each instance. */
+  public void setCoordinates(Coordinate3 coordinates) {
+    if (this.coordinates != null)
+      this.coordinates.removeParent(this);
+    this.coordinates = coordinates;
+    if (coordinates != null)
+      coordinates.addParent(this);
+    touch();
+  }
+
+  /** Returns the coordinates of the mesh drawn for each instance. */
+  public Coordinate3 getCoordinates() {
+    return coordinates;
+  }
+
+  /** Sets the triangles of the mesh drawn for each instance. */
+  public void setTriangles(IndexedTriangleSet triangles) {
+    if (this.triangles != null)
+      this.triangles.removeParent(this);
+    this.triangles = triangles;
+    if (triangles != null)
+      triangles.addParent(this);
+    touch();
+  }
+
+  /** Returns the triangles of the mesh drawn for each instance. */
+  public IndexedTriangleSet getTriangles() {
+    return triangles;
+  }
+
+  /** Returns the number of instances. */
+  public int getNumInstances() {
+    return numInstances;
+  }
+
+  /** Adds an instance with the given transform, relative to the
+      coordinate system of this node, and returns its index. */
+  public int addInstance(Matrix4f transform) {
+    ensureCapacity(numInstances + 1);
+    int index = numInstances++;
+    transforms.limit(numInstances * MATRIX_SIZE);
+    if (colors != null) {
+      colors.limit(numInstances * COLOR_SIZE);
+      putColor(index, 1, 1, 1, 1);
+    }
+    setInstanceTransform(index, transform);
+    return index;
+  }
+
+  /** Adds an instance with the given transform and color and returns
+      its index. */
+  public int addInstance(Matrix4f transform, Vector4f color) {
+    int index = addInstance(transform);
+    setInstanceColor(index, color);
+    return index;
+  }
+
+  /** Sets the transform of the instance with the given index. */
+  public void setInstanceTransform(int index, Matrix4f transform) throws IndexOutOfBoundsException {
+    checkIndex(index);
+    int base = index * MATRIX_SIZE;
+    for (int col = 0; col < 4; col++) {
+      for (int row = 0; row < 4; row++) {
+        transforms.put(base + 4 * col + row, transform.getElement(row, col));
+      }
+    }
+    transformBuffer.markDirty(base, base + MATRIX_SIZE);
+    touch();
+  }
+
+  /** Fetches the transform of the instance with the given index into
+      the given matrix, which is returned. */
+  public Matrix4f getInstanceTransform(int index, Matrix4f dest) throws IndexOutOfBoundsException {
+    checkIndex(index);
+    int base = index * MATRIX_SIZE;
+    for (int col = 0; col < 4; col++) {
+      for (int row = 0; row < 4; row++) {
+        dest.setElement(row, col, transforms.get(base + 4 * col + row));
+      }
+    }
+    return dest;
+  }
+
+  /** Sets the color of the instance with the given index, replacing
+      the colors of its vertices. Once a color has been set for any
+      instance, the others are white until set. */
+  public void setInstanceColor(int index, Vector4f color) throws IndexOutOfBoundsException {
+    checkIndex(index);
+    if (colors == null) {
+      colors = BufferFactory.newFloatBuffer(transforms.capacity() / MATRIX_SIZE * COLOR_SIZE);
+      BufferFactory.setOwner(colors, this);
+      colors.limit(numInstances * COLOR_SIZE);
+      for (int i = 0; i < numInstances; i++) {
+        putColor(i, 1, 1, 1, 1);
+      }
+    }
+    putColor(index, color.getX(), color.getY(), color.getZ(), color.getW());
+    // Colors do not affect the bounds, which stay cached
+    super.touch();
+  }
+
+  /** Fetches the color of the instance with the given index into the
+      given vector and returns it, or returns null if no instance
+      colors have been set. */
+  public Vector4f getInstanceColor(int index, Vector4f dest) throws IndexOutOfBoundsException {
+    checkIndex(index);
+    if (colors == null)
+      return null;
+    int base = index * COLOR_SIZE;
+    dest.set(colors.get(base), colors.get(base + 1), colors.get(base + 2), colors.get(base + 3));
+    return dest;
+  }
+
+  /** Removes the instance with the given index by moving the last
+      instance into its place. */
+  public void removeInstance(int index) throws IndexOutOfBoundsException {
+    checkIndex(index);
+    int last = numInstances - 1;
+    if (index != last) {
+      for (int i = 0; i < MATRIX_SIZE; i++) {
+        transforms.put(index * MATRIX_SIZE + i, transforms.get(last * MATRIX_SIZE + i));
+      }
+      transformBuffer.markDirty(index * MATRIX_SIZE, (index + 1) * MATRIX_SIZE);
+      if (colors != null) {
+        for (int i = 0; i < COLOR_SIZE; i++) {
+          colors.put(index * COLOR_SIZE + i, colors.get(last * COLOR_SIZE + i));
+        }
+        colorBuffer.markDirty(index * COLOR_SIZE, (index + 1) * COLOR_SIZE);
+      }
+    }
+    numInstances = last;
+    transforms.limit(numInstances * MATRIX_SIZE);
+    if (colors != null) {
+      colors.limit(numInstances * COLOR_SIZE);
+    }
+    touch();
+  }
+
+  /** Removes all instances and their colors. */
+  public void clearInstances() {
+    numInstances = 0;
+    if (transforms != null) {
+      transforms.limit(0);
+    }
+    if (colors != null) {
+      BufferFactory.release(colors);
+      colors = null;
+    }
+    touch();
+  }
+
+  /** Sets whether all instances are drawn with a single instanced
+      draw call where supported. Defaults to true. When disabled, the
+      buffer objects holding the instance data are released. */
+  public void setInstancingEnabled(boolean enabled) {
+    instancingEnabled = enabled;
+    if (!enabled) {
+      transformBuffer.release();
+      colorBuffer.release();
+      indexBuffer.release();
+      transformBuffer = new VertexBufferObject();
+      colorBuffer = new VertexBufferObject();
+      indexBuffer = new VertexBufferObject();
+    }
+    super.touch();
+  }
+
+  /** Indicates whether instances are drawn with a single instanced
+      draw call where supported. */
+  public boolean isInstancingEnabled() {
+    return instancingEnabled;
+  }
+
+  /** Discards data this shape has cached, in addition to notifying
+      listeners. */
+  public void touch() {
+    boundsCache = null;
+    super.touch();
+  }
+
+  public void nodeChanged(NodeChangeEvent evt) {
+    boundsCache = null;
+    super.nodeChanged(evt);
+  }
+
+  public void render(GLRenderAction action) {
+    Coordinate3 coordinates = this.coordinates;
+    IndexedTriangleSet triangles = this.triangles;
+    int n = numInstances;
+    if (coordinates == null || triangles == null || n == 0)
+      return;
+    State state = action.getState();
+    state.push();
+    try {
+      coordinates.doAction(action);
+      if (!CoordinateElement.isEnabled(state) ||
+          (CoordinateElement.get(state) == null && CoordinateElement.getSegments(state) == null))
+        return;
+      GL2 gl = action.getGL();
+      boolean shaderActive = ShaderElement.isEnabled(state) && ShaderElement.get(state) != null;
+      if (!instancingEnabled || shaderActive || CoordinateElement.get(state) == null ||
+          !drawInstanced(gl, state, triangles, n)) {
+        drawEach(gl, state, triangles, n);
+      }
+    } finally {
+      state.pop();
+    }
+  }
+
+  public void rayPick(RayPickAction action) {
+    Coordinate3 coordinates = this.coordinates;
+    IndexedTriangleSet triangles = this.triangles;
+    if (coordinates == null || triangles == null || numInstances == 0)
+      return;
+    State state = action.getState();
+    state.push();
+    try {
+      coordinates.doAction(action);
+      MeshBounds mesh = getMeshBounds(action, triangles);
+      if (mesh.box.isEmpty())
+        return;
+      Matrix4f transform = new Matrix4f();
+      for (int i = 0; i < numInstances; i++) {
+        getInstanceTransform(i, transform);
+        state.push();
+        try {
+          ModelMatrixElement.mult(state, transform);
+          // The triangle set transforms the ray into the space of this
+          // instance and tests it against the shared hierarchy
+          if (!action.cull(mesh.box)) {
+            action.setInstanceIndex(i);
+            triangles.rayPick(action);
+          }
+        } finally {
+          action.setInstanceIndex(-1);
+          state.pop();
+        }
+      }
+    } finally {
+      state.pop();
+    }
+  }
+
+  public void getBoundingBox(GetBoundingBoxAction action) {
+    State state = action.getState();
+    Versioned inherited = CoordinateElement.getSource(state);
+    BoundsCache cache = boundsCache;
+    if (cache != null && cache.isValid(inherited)) {
+      action.addDependencies(cache);
+    } else {
+      Box3f box = new Box3f();
+      Sphere3f sphere = new Sphere3f();
+      Versioned source = null;
+      Coordinate3 coordinates = this.coordinates;
+      IndexedTriangleSet triangles = this.triangles;
+      if (coordinates != null && triangles != null) {
+        state.push();
+        try {
+          coordinates.doAction(action);
+          source = CoordinateElement.getSource(state);
+          MeshBounds mesh = getMeshBounds(action, triangles);
+          if (!mesh.box.isEmpty()) {
+            Matrix4f transform = new Matrix4f();
+            Box3f instanceBox = new Box3f();
+            Sphere3f instanceSphere = new Sphere3f();
+            for (int i = 0; i < numInstances; i++) {
+              getInstanceTransform(i, transform);
+              instanceBox.set(mesh.box);
+              instanceBox.transform(transform);
+              box.extendBy(instanceBox);
+              instanceSphere.set(mesh.sphere);
+              instanceSphere.transform(transform);
+              sphere.extendBy(instanceSphere);
+            }
+          }
+        } finally {
+          state.pop();
+        }
+      }
+      action.beginCache();
+      if (coordinates != null && triangles != null) {
+        action.addDependency(source);
+      }
+      cache = action.endCache(box, sphere, inherited);
+      boundsCache = cache.isCacheable() ? cache : null;
+    }
+    BoundingBoxElement.extendBy(state, cache.getBox(), cache.getSphere());
+  }
+
+  /** Forgets the OpenGL objects of this node after the OpenGL context
+      was lost. */
+  public void resetGL(GLResetAction action) {
+    transformBuffer = new VertexBufferObject();
+    colorBuffer = new VertexBufferObject();
+    indexBuffer = new VertexBufferObject();
+    synchronized (programs) {
+      programs.clear();
+    }
+  }
+
+  protected Node copyForSnapshot(SceneSnapshot.Context context) {
+    InstancedShape copy = (InstancedShape) super.copyForSnapshot(context);
+    if (coordinates != null) {
+      copy.coordinates = (Coordinate3) context.copy(coordinates);
+    }
+    if (triangles != null) {
+      copy.triangles = (IndexedTriangleSet) context.copy(triangles);
+    }
+    copy.transforms = copyOf(transforms);
+    copy.colors = copyOf(colors);
+    copy.boundsCache = null;
+    copy.meshBounds = null;
+    copy.transformBuffer = new VertexBufferObject();
+    copy.colorBuffer = new VertexBufferObject();
+    copy.indexBuffer = new VertexBufferObject();
+    copy.drawMatrix = new float[MATRIX_SIZE];
+    return copy;
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private void checkIndex(int index) throws IndexOutOfBoundsException {
+    if (index < 0 || index >= numInstances)
+      throw new IndexOutOfBoundsException("Index " + index + " not within 0.." + numInstances);
+  }
+
+  private void ensureCapacity(int minInstances) {
+    int capacity = (transforms != null) ? transforms.capacity() / MATRIX_SIZE : 0;
+    if (minInstances <= capacity)
+      return;
+    int newCapacity = Math.max(minInstances, Math.max(16, capacity + capacity / 2));
+    transforms = grow(transforms, newCapacity * MATRIX_SIZE, numInstances * MATRIX_SIZE);
+    if (colors != null) {
+      colors = grow(colors, newCapacity * COLOR_SIZE, numInstances * COLOR_SIZE);
+    }
+  }
+
+  private FloatBuffer grow(FloatBuffer old, int capacity, int size) {
+    FloatBuffer res = BufferFactory.newFloatBuffer(capacity);
+    BufferFactory.setOwner(res, this);
+    if (old != null) {
+      FloatBuffer src = old.duplicate();
+      src.position(0);
+      src.limit(size);
+      res.put(src);
+      res.position(0);
+      BufferFactory.release(old);
+    }
+    res.limit(size);
+    return res;
+  }
+
+  private static FloatBuffer copyOf(FloatBuffer buf) {
+    if (buf == null)
+      return null;
+    FloatBuffer res = BufferFactory.newFloatBuffer(buf.limit());
+    FloatBuffer src = buf.duplicate();
+    src.position(0);
+    res.put(src);
+    res.flip();
+    return res;
+  }
+
+  private void putColor(int index, float r, float g, float b, float a) {
+    int base = index * COLOR_SIZE;
+    colors.put(base, r);
+    colors.put(base + 1, g);
+    colors.put(base + 2, b);
+    colors.put(base + 3, a);
+    colorBuffer.markDirty(base, base + COLOR_SIZE);
+  }
+
+  private MeshBounds getMeshBounds(Action action, IndexedTriangleSet triangles) {
+    Versioned source = CoordinateElement.getSource(action.getState());
+    MeshBounds mesh = meshBounds;
+    if (mesh == null || source == null || mesh.source != source || mesh.version != source.getVersion()) {
+      Box3f box = new Box3f();
+      Sphere3f sphere = new Sphere3f();
+      triangles.computeBounds(action, box, sphere);
+      mesh = new MeshBounds(source, box, sphere);
+      if (source != null) {
+        meshBounds = mesh;
+      }
+    }
+    return mesh;
+  }
+
+  /** Draws the instances one after another, changing only the
+      modelview matrix and current color in between. */
+  private void drawEach(GL2 gl, State state, IndexedTriangleSet triangles, int n) {
+    FloatBuffer colors = this.colors;
+    boolean colorArray = colors != null && ColorElement.isEnabled(state) && ColorElement.get(state) != null;
+    Texture tex = triangles.beginTexture(gl, state);
+    if (colors != null) {
+      gl.glPushAttrib(GL2.GL_CURRENT_BIT);
+      if (colorArray) {
+        gl.glDisableClientState(GLPointerFunc.GL_COLOR_ARRAY);
+      }
+    }
+    float[] matrix = drawMatrix;
+    for (int i = 0; i < n; i++) {
+      int base = i * MATRIX_SIZE;
+      for (int j = 0; j < MATRIX_SIZE; j++) {
+        matrix[j] = transforms.get(base + j);
+      }
+      gl.glPushMatrix();
+      gl.glMultMatrixf(matrix, 0);
+      if (colors != null) {
+        int c = i * COLOR_SIZE;
+        gl.glColor4f(colors.get(c), colors.get(c + 1), colors.get(c + 2), colors.get(c + 3));
+      }
+      triangles.drawTriangles(gl, state);
+      gl.glPopMatrix();
+    }
+    if (colors != null) {
+      if (colorArray) {
+        gl.glEnableClientState(GLPointerFunc.GL_COLOR_ARRAY);
+      }
+      gl.glPopAttrib();
+    }
+    triangles.endTexture(gl, state, tex);
+  }
+
+  /** Draws all instances with one call, returning false if this is
+      not supported by the current context. */
+  private boolean drawInstanced(GL2 gl, State state, IndexedTriangleSet triangles, int n) {
+    Program program = getProgram(gl);
+    if (program == null)
+      return false;
+    Buffer indices = triangles.getDrawIndices(state);
+    if (indices == null)
+      return true;
+    FloatBuffer colors = this.colors;
+
+    Texture tex = triangles.beginTexture(gl, state);
+    int textureMode = 0;
+    if (tex != null) {
+      textureMode = TextureElement.get(state).getTexEnvMode();
+    }
+    Shader shader = program.shader;
+    shader.enable();
+    shader.setUniform("textureMode", textureMode);
+    shader.setUniform("image", 0);
+    shader.setUniform("useInstanceColor", (colors != null) ? 1 : 0);
+
+    // A mat4 attribute occupies four consecutive locations, one per column
+    transformBuffer.bind(gl, transforms);
+    for (int col = 0; col < 4; col++) {
+      int loc = program.matrixLocation + col;
+      gl.glEnableVertexAttribArray(loc);
+      gl.glVertexAttribPointer(loc, 4, GL.GL_FLOAT, false, MATRIX_SIZE * 4, 16L * col);
+      gl.glVertexAttribDivisor(loc, 1);
+    }
+    boolean useColors = colors != null && program.colorLocation >= 0;
+    if (useColors) {
+      colorBuffer.bind(gl, colors);
+      gl.glEnableVertexAttribArray(program.colorLocation);
+      gl.glVertexAttribPointer(program.colorLocation, 4, GL.GL_FLOAT, false, 0, 0L);
+      gl.glVertexAttribDivisor(program.colorLocation, 1);
+    }
+    gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+
+    int type;
+    if (indices instanceof ByteBuffer) {
+      type = GL.GL_UNSIGNED_BYTE;
+    } else if (indices instanceof ShortBuffer) {
+      type = GL.GL_UNSIGNED_SHORT;
+    } else {
+      type = GL.GL_UNSIGNED_INT;
+    }
+    indexBuffer.bindIndices(gl, indices);
+    gl.glDrawElementsInstanced(GL.GL_TRIANGLES, indices.limit() - (indices.limit() % 3), type, 0L, n);
+    gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+
+    for (int col = 0; col < 4; col++) {
+      gl.glVertexAttribDivisor(program.matrixLocation + col, 0);
+      gl.glDisableVertexAttribArray(program.matrixLocation + col);
+    }
+    if (useColors) {
+      gl.glVertexAttribDivisor(program.colorLocation, 0);
+      gl.glDisableVertexAttribArray(program.colorLocation);
+    }
+    shader.disable();
+    triangles.endTexture(gl, state, tex);
+    return true;
+  }
+
+  /** Returns the instancing shader of the current context, compiling
+      it the first time, or null if instancing is not supported. */
+  private static Program getProgram(GL2 gl) {
+    GLContext context = GLContext.getCurrent();
+    synchronized (programs) {
+      if (programs.containsKey(context)) {
+        Program program = programs.get(context);
+        return (program.shader != null) ? program : null;
+      }
+      Program program = new Program(null, -1, -1);
+      if (gl.isFunctionAvailable("glDrawElementsInstanced") &&
+          gl.isFunctionAvailable("glVertexAttribDivisor") &&
+          gl.isFunctionAvailable("glVertexAttribPointer")) {
+        try {
+          Shader shader = new Shader(VERTEX_SHADER, FRAGMENT_SHADER);
+          int matrixLocation = gl.glGetAttribLocation(shader.getProgramObject(), "instanceMatrix");
+          int colorLocation = gl.glGetAttribLocation(shader.getProgramObject(), "instanceColor");
+          if (matrixLocation >= 0) {
+            program = new Program(shader, matrixLocation, colorLocation);
+          } else {
+            shader.dispose();
+          }
+        } catch (GLException e) {
+          // Fall back to drawing the instances one by one
+        }
+      }
+      programs.put(context, program);
+      return (program.shader != null) ? program : null;
+    }
+  }
+}
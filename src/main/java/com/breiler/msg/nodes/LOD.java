@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+
+package com.breiler.msg.nodes;
+
+import com.breiler.msg.actions.Action;
+import com.breiler.msg.actions.GLRenderAction;
+import com.breiler.msg.actions.GetBoundingBoxAction;
+import com.breiler.msg.actions.RayPickAction;
+import com.breiler.msg.elements.CoordinateElement;
+import com.breiler.msg.elements.ModelMatrixElement;
+import com.breiler.msg.math.Sphere3f;
+import com.breiler.msg.misc.BoundsCache;
+import com.breiler.msg.misc.State;
+
+import javax.vecmath.Point3f;
+import javax.vecmath.Vector3f;
+
+/** A group which holds versions of the same geometry at decreasing
+    levels of detail, from the most detailed child first, and only
+    renders the one suited to how large the geometry appears. <P>
+
+    The level is selected by comparing a {@link Metric metric} with a
+    list of thresholds: with the eye distance, the first child is
+    rendered until the distance reaches the first threshold, the
+    second until it reaches the second one, and so on; with the
+    projected size, thresholds are passed as the size drops below
+    them. If there are fewer children than levels, the last child is
+    used for the remaining ones. To avoid switching back and forth
+    when the metric hovers around a threshold, the threshold is moved
+    by a fraction of itself, the {@link #setHysteresis hysteresis},
+    away from the current level. <P>
+
+    Ray picking uses the level last rendered unless a fixed {@link
+    #setPickLevel pick level} is set. All other actions, such as
+    computing bounding boxes, visit all children. Since the last
+    rendered level is kept in the node, a node rendered in several
+    views at once selects its level per view but applies hysteresis
+    and picking according to whichever was rendered last. */
+
+public class LOD extends Group {
+  /** The measures by which a level of detail can be selected. */
+  public enum Metric {
+    /** The distance from the eye of the camera to the {@link
+        LOD#setCenter center} of the node. */
+    DISTANCE,
+    /** The radius in pixels the bounding sphere of the children
+        projects to on the screen. */
+    PROJECTED_SIZE
+  }
+
+  /** Pick level which makes picking use the level last rendered. */
+  public static final int LAST_RENDERED = -1;
+
+  private Metric metric = Metric.DISTANCE;
+  private float[] thresholds = new float[0];
+  private float hysteresis = 0.1f;
+  private Vector3f center;
+  private int pickLevel = LAST_RENDERED;
+  private volatile int renderedLevel;
+
+  // Used to compute the bounds of this node when the cached ones are
+  // not up to date, along with scratch storage for selecting the
+  // level; guarded by tmpSphere
+  private GetBoundingBoxAction boundsAction;
+  private final Sphere3f tmpSphere = new Sphere3f();
+  private final Point3f tmpPoint = new Point3f();
+
+  /** Sets the metric the thresholds are compared with. Defaults to
+      {@link Metric#DISTANCE DISTANCE}. */
+  public void setMetric(Metric metric) {
+    if (metric == null)
+      throw new IllegalArgumentException("metric may not be null");
+    this.metric = metric;
+    touch();
+  }
+
+  /** Returns the metric the thresholds are compared with. */
+  public Metric getMetric() {
+    return metric;
+  }
+
+  /** Sets the values of the metric at which the next level is
+      selected: increasing eye distances, or decreasing projected
+      sizes in pixels. With no thresholds, which is the default, the
+      first child is always rendered. */
+  public void setThresholds(float... thresholds) {
+    this.thresholds = thresholds.clone();
+    touch();
+  }
+
+  /** Returns a copy of the thresholds at which the next level is
+      selected. */
+  public float[] getThresholds() {
+    return thresholds.clone();
+  }
+
+  /** Sets the fraction of a threshold by which it is moved away from
+      the current level, so that changing levels again requires the
+      metric to move back past it by that much. Defaults to 0.1. */
+  public void setHysteresis(float hysteresis) {
+    if (hysteresis < 0 || hysteresis >= 1)
+      throw new IllegalArgumentException("hysteresis must be within [0, 1)");
+    this.hysteresis = hysteresis;
+    touch();
+  }
+
+  /** Returns the fraction of a threshold by which it is moved away
+      from the current level. */
+  public float getHysteresis() {
+    return hysteresis;
+  }
+
+  /** Sets the point, in the coordinate system of the children, the
+      eye distance is measured to. If null, which is the default, the
+      center of the bounding sphere of the children is used. */
+  public void setCenter(Vector3f center) {
+    this.center = (center != null) ? new Vector3f(center) : null;
+    touch();
+  }
+
+  /** Returns the point the eye distance is measured to, or null if
+      the center of the bounds is used. */
+  public Vector3f getCenter() {
+    return (center != null) ? new Vector3f(center) : null;
+  }
+
+  /** Sets the index of the child picked by the {@link RayPickAction},
+      or {@link #LAST_RENDERED LAST_RENDERED}, the default, to pick the
+      one last rendered. Setting it to 0 always picks the most
+      detailed geometry, regardless of how it is drawn. */
+  public void setPickLevel(int pickLevel) {
+    if (pickLevel < LAST_RENDERED)
+      throw new IllegalArgumentException("pick level must be a child index or LAST_RENDERED");
+    this.pickLevel = pickLevel;
+    touch();
+  }
+
+  /** Returns the index of the child picked by the RayPickAction, or
+      LAST_RENDERED. */
+  public int getPickLevel() {
+    return pickLevel;
+  }
+
+  /** Returns the level selected the last time this node was
+      rendered. */
+  public int getRenderedLevel() {
+    return renderedLevel;
+  }
+
+  public void doAction(Action action) {
+    int level;
+    if (action instanceof GLRenderAction) {
+      level = selectLevel((GLRenderAction) action);
+      renderedLevel = level;
+    } else if (action instanceof RayPickAction) {
+      level = (pickLevel == LAST_RENDERED) ? renderedLevel : pickLevel;
+    } else {
+      super.doAction(action);
+      return;
+    }
+    int numChildren = getNumChildren();
+    if (numChildren == 0)
+      return;
+    State state = action.getState();
+    state.push();
+    try {
+      if (ModelMatrixElement.isEnabled(state)) {
+        multModelMatrix(state);
+      }
+      action.apply(getChild(Math.min(level, numChildren - 1)));
+    } finally {
+      state.pop();
+    }
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  /** Selects the level for the current camera. Called before this
+      node's own transform is applied, so everything is measured in
+      the coordinate system this node is in. */
+  private int selectLevel(GLRenderAction action) {
+    float[] thresholds = this.thresholds;
+    if (thresholds.length == 0 || getNumChildren() == 0)
+      return 0;
+    float value;
+    synchronized (tmpSphere) {
+      // Views may be rendered by several threads at once
+      if (metric == Metric.DISTANCE && center != null) {
+        tmpPoint.set(center);
+        transform().transform(tmpPoint);
+        value = action.getEyeDistance(tmpPoint);
+      } else {
+        Sphere3f sphere = getBoundingSphere(action.getState());
+        if (sphere.isEmpty())
+          return 0;
+        value = (metric == Metric.DISTANCE) ?
+          action.getEyeDistance(sphere.getCenter()) :
+          action.getProjectedRadius(sphere);
+      }
+    }
+
+    int current = renderedLevel;
+    int level = 0;
+    for (int i = 0; i < thresholds.length; i++) {
+      // Thresholds already passed are moved back towards the finer
+      // levels, and the others further towards the coarser ones
+      boolean passed = i < current;
+      boolean pass;
+      if (metric == Metric.DISTANCE) {
+        pass = value >= thresholds[i] * (passed ? 1 - hysteresis : 1 + hysteresis);
+      } else {
+        pass = value <= thresholds[i] * (passed ? 1 + hysteresis : 1 - hysteresis);
+      }
+      if (!pass)
+        break;
+      level = i + 1;
+    }
+    return level;
+  }
+
+  private Sphere3f getBoundingSphere(State state) {
+    BoundsCache cache = getValidBounds(state);
+    if (cache != null) {
+      return cache.getSphere();
+    }
+    // Bounds are only kept up to date when culling is enabled;
+    // otherwise compute them here, with the coordinates this node
+    // inherits, which caches them until the children or those
+    // coordinates change
+    if (boundsAction == null) {
+      boundsAction = new GetBoundingBoxAction();
+    }
+    State boundsState = boundsAction.getState();
+    boundsState.push();
+    try {
+      inheritCoordinates(state, boundsState);
+      boundsAction.apply(this);
+    } finally {
+      boundsState.pop();
+    }
+    cache = getValidBounds(state);
+    if (cache != null) {
+      return cache.getSphere();
+    }
+    // Not cacheable, as with coordinates set as a raw buffer
+    tmpSphere.set(boundsAction.getBoundingSphere());
+    return tmpSphere;
+  }
+
+  private static void inheritCoordinates(State from, State to) {
+    if (!CoordinateElement.isEnabled(from) || !CoordinateElement.isEnabled(to))
+      return;
+    if (CoordinateElement.getSegments(from) != null) {
+      CoordinateElement.set(to, CoordinateElement.getSegments(from));
+    } else if (CoordinateElement.getCollection(from) != null) {
+      CoordinateElement.set(to, CoordinateElement.getCollection(from));
+    } else if (CoordinateElement.get(from) != null) {
+      CoordinateElement.set(to, CoordinateElement.get(from));
+    }
+  }
+}
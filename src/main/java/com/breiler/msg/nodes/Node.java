@@ -38,35 +38,72 @@
 package com.breiler.msg.nodes;
 
 import com.breiler.msg.actions.Action;
+import com.breiler.msg.actions.GetBoundingBoxAction;
 import com.breiler.msg.actions.GLRenderAction;
 import com.breiler.msg.actions.RayPickAction;
+import com.breiler.msg.collections.CollectionOwner;
+import com.breiler.msg.collections.Versioned;
+import com.breiler.msg.elements.ModelMatrixElement;
+import com.breiler.msg.impl.BufferFactory;
+import com.breiler.msg.misc.State;
 
 import javax.vecmath.Matrix4f;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * The base class for all nodes in the scene graph.
  */
 
-public abstract class Node implements NodeChangeListener {
+public abstract class Node implements NodeChangeListener, CollectionOwner, Cloneable {
     private final UUID uuid = UUID.randomUUID();
-    private final Matrix4f transform;
+    private Matrix4f transform;
     protected Set<NodeChangeListener> listeners = ConcurrentHashMap.newKeySet();
-    private Node parent;
+    // The nodes this node is a child of, once for each time it was
+    // added to one, so that changes to a shared node reach all of them
+    private List<Node> parents = new CopyOnWriteArrayList<>();
     private String name = getClass().getSimpleName();
+    // Whether this node is a copy belonging to a SceneSnapshot
+    private boolean snapshot;
+    // The copy of this node and its children made for the last
+    // snapshot, or null if they or a collection they own have changed
+    // since
+    volatile Node snapshotCopy;
+    // The product of the model matrix this node was last traversed
+    // with and its transform, or null if the transform has changed
+    private volatile ModelMatrixElement.Cache transformCache;
     protected Node() {
         transform = new Matrix4f();
         transform.setIdentity();
     }
 
     /**
-     * Returns this transform matrix which can be used for translating, rotating and scaling
+     * Returns this transform matrix which can be used for translating, rotating and scaling.
+     * The matrix may be modified in place: as the caller may do so, this marks the node as
+     * changed like {@link #touch()}, so that cached data such as bounding boxes and world
+     * matrices is recomputed. Changes made later through a matrix kept from an earlier call
+     * are detected the next time the node is traversed.
      *
      * @return the nodes matrix
      */
     public Matrix4f getTransform() {
+        if (!snapshot) {
+            touch();
+        }
+        return transform;
+    }
+
+    /**
+     * Returns the transform this node applies during traversal without marking the node as
+     * changed, for use by the nodes themselves.
+     */
+    Matrix4f transform() {
         return transform;
     }
 
@@ -105,20 +142,93 @@ public abstract class Node implements NodeChangeListener {
         doAction(action);
     }
 
+    /**
+     * Support for the built-in GetBoundingBoxAction. Note that supplying
+     * virtual methods in Node subclasses to support various actions is
+     * not required due to the framework supporting action methods, but
+     * for built-in actions it may make it simpler.
+     */
+    public void getBoundingBox(GetBoundingBoxAction action) {
+        doAction(action);
+    }
+
+    /**
+     * Marks this node as changed, notifying its listeners so that data
+     * cached by the node's ancestors, such as bounding boxes, is
+     * recomputed. Setters, and {@link #getTransform()}, call this
+     * automatically; it only needs to be called after modifying data
+     * returned by other getters in place, such as the indices of an
+     * {@link IndexedTriangleSet}.
+     */
+    public void touch() {
+        snapshotCopy = null;
+        transformCache = null;
+        NodeChangeEvent evt = new NodeChangeEvent(getParent(), this);
+        listeners.forEach(l -> l.nodeChanged(evt));
+    }
+
+    /**
+     * Returns the parent of this node, or null if it has none. A node shared
+     * by several parents returns the one it was added to first.
+     */
     public Node getParent() {
-        return parent;
+        // Iterates over a snapshot in case the parent is being removed
+        Iterator<Node> iter = parents.iterator();
+        return iter.hasNext() ? iter.next() : null;
+    }
+
+    /**
+     * Returns all parents of this node, each one once.
+     */
+    public List<Node> getParents() {
+        return new ArrayList<>(new LinkedHashSet<>(parents));
     }
 
+    /**
+     * Replaces all parents of this node with the given one, or removes them
+     * if it is null.
+     */
     public void setParent(Node node) {
-        // Remove old parent
-        if (parent != null) {
+        boolean hadParent = !parents.isEmpty();
+        for (Node parent : parents) {
             removeNodeChangeListener(parent);
         }
+        parents.clear();
+        if (node != null) {
+            addParent(node);
+        } else if (hadParent) {
+            BufferFactory.ownerDetached(this);
+        }
+    }
 
-        // Set new parent
-        parent = node;
-        if (parent != null) {
-            addNodeChangeListener(parent);
+    /**
+     * Adds a parent to this node, which is notified of changes to it along
+     * with the others. A node added to the same parent more than once must
+     * be removed from it as often.
+     */
+    public void addParent(Node node) {
+        if (node == null)
+            throw new IllegalArgumentException("parent may not be null");
+        if (!parents.contains(node)) {
+            addNodeChangeListener(node);
+        }
+        parents.add(node);
+        BufferFactory.ownerAttached(this);
+    }
+
+    /**
+     * Removes one occurrence of the given parent from this node. Does nothing
+     * if it is not a parent of this node.
+     */
+    public void removeParent(Node node) {
+        if (!parents.remove(node)) {
+            return;
+        }
+        if (!parents.contains(node)) {
+            removeNodeChangeListener(node);
+        }
+        if (parents.isEmpty()) {
+            BufferFactory.ownerDetached(this);
         }
     }
 
@@ -132,14 +242,45 @@ public abstract class Node implements NodeChangeListener {
 
     @Override
     public void childAdded(NodeChangeEvent evt) {
+        snapshotCopy = null;
         listeners.forEach(l -> l.childAdded(evt));
     }
 
     @Override
     public void childRemoved(NodeChangeEvent evt) {
+        snapshotCopy = null;
         listeners.forEach(l -> l.childRemoved(evt));
     }
 
+    @Override
+    public void nodeChanged(NodeChangeEvent evt) {
+        snapshotCopy = null;
+        listeners.forEach(l -> l.nodeChanged(evt));
+    }
+
+    /**
+     * Called when a collection this node owns is modified. Forgets the copies made of this node
+     * and its ancestors for a {@link SceneSnapshot}, so that the next snapshot copies them again.
+     */
+    @Override
+    public void collectionChanged(Versioned collection) {
+        invalidateSnapshot();
+    }
+
+    /**
+     * Forgets the copy made of this node for a snapshot and those of its ancestors. Stops at nodes
+     * without a copy, since the copies of their ancestors are already gone as well.
+     */
+    void invalidateSnapshot() {
+        if (snapshotCopy == null) {
+            return;
+        }
+        snapshotCopy = null;
+        for (Node parent : parents) {
+            parent.invalidateSnapshot();
+        }
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (this == obj) {
@@ -165,4 +306,56 @@ public abstract class Node implements NodeChangeListener {
     public String getUUID() {
         return uuid.toString();
     }
+
+    /**
+     * Multiplies the model matrix in the given state by the transform of this node, as nodes
+     * applying their transform during traversal do. The product, and with it the local-to-world
+     * and world-to-local matrices of the nodes below, is cached and reused as long as neither
+     * the transform nor the model matrix it was multiplied with changes, so that traversals of
+     * static scenes skip the matrix work. Products are kept for a few model matrices at a time, so
+     * that nodes shared by several parents are cached as well. A transform modified in place is
+     * detected here by comparing it with the one the products were computed with.
+     */
+    protected void multModelMatrix(State state) {
+        Matrix4f transform = transform();
+        ModelMatrixElement.Cache cache = transformCache;
+        if (cache != null && !cache.isProductOf(transform)) {
+            // The matrix was modified in place through a reference kept
+            // from getTransform(); update the data derived from it, such
+            // as the bounds of ancestors
+            touch();
+            cache = null;
+        }
+        transformCache = ModelMatrixElement.mult(state, transform, cache);
+    }
+
+    /**
+     * Indicates whether this node is a copy belonging to a {@link SceneSnapshot},
+     * which must not be modified.
+     */
+    public boolean isSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Returns a copy of this node, not including any children, for a
+     * {@link SceneSnapshot}. The default implementation makes a shallow copy
+     * with its own transform. Subclasses holding further mutable state override
+     * this to copy it too, capturing collections through the given context, or
+     * return the node itself if it may safely be shared with the scene graph.
+     */
+    protected Node copyForSnapshot(SceneSnapshot.Context context) {
+        Node copy;
+        try {
+            copy = (Node) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new InternalError(e);
+        }
+        copy.transform = new Matrix4f(transform);
+        copy.listeners = ConcurrentHashMap.newKeySet();
+        copy.parents = new CopyOnWriteArrayList<>();
+        copy.snapshot = true;
+        copy.snapshotCopy = null;
+        return copy;
+    }
 }
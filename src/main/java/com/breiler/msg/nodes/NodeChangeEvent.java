@@ -11,7 +11,7 @@ public class NodeChangeEvent {
 
     @Override
     public String toString() {
-        return parent.toString() + " -> " + child.toString();
+        return parent + " -> " + child;
     }
 
     public Node getParent() {
@@ -16,4 +16,15 @@ public interface NodeChangeListener {
      *            and child node.
      */
     void childRemoved(NodeChangeEvent evt);
+
+    /**
+     * This method gets called when the contents of a node change, for
+     * example after {@link Node#touch()} was called on it. The default
+     * implementation does nothing.
+     *
+     * @param evt A node change event object describing the changed
+     *            node as the child and its parent.
+     */
+    default void nodeChanged(NodeChangeEvent evt) {
+    }
 }
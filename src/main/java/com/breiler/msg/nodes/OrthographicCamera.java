@@ -49,7 +49,7 @@ public class OrthographicCamera extends Camera {
   // Amount the most recently set height differed from the default
   private float heightScale = 1.0f;
 
-  public Matrix4f getProjectionMatrix() {
+  public synchronized Matrix4f getProjectionMatrix() {
     if (projDirty) {
       projMatrix.setIdentity();
       projDirty = false;
@@ -55,7 +55,7 @@ public class PerspectiveCamera extends Camera {
   // Amount the most recently set height angle differed from the default
   private float vertFOVScale = 1.0f;
   
-  public Matrix4f getProjectionMatrix() {
+  public synchronized Matrix4f getProjectionMatrix() {
     if (projDirty) {
       projMatrix.setIdentity();
       projDirty = false;
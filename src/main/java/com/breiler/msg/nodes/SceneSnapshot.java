@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+
+package com.breiler.msg.nodes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.breiler.msg.collections.SegmentedVec3fCollection;
+import com.breiler.msg.collections.Vec2fCollection;
+import com.breiler.msg.collections.Vec3fCollection;
+import com.breiler.msg.collections.Vec4fCollection;
+
+/** An immutable copy of a scene graph, to which actions such as
+    picking, export or statistics can be applied from any number of
+    threads without locking while the scene graph itself goes on being
+    modified. <P>
+
+    Snapshots are persistent: a subtree which has not changed since it
+    was last copied is not copied again but shared with the earlier
+    snapshot, so taking a snapshot of a large scene graph of which
+    little changed costs time in proportion to the changed nodes and
+    their ancestors. A node counts as changed once it has been {@link
+    Node#touch touched}, which its setters do, or once a collection it
+    owns is modified, which the collection tells it about; see {@link
+    Vec3fCollection#setOwner Vec3fCollection.setOwner}. Nodes referring
+    to collections owned by another object are copied every time. The
+    collections of the copies share their data with the scene graph
+    until it is next modified; see {@link Vec3fCollection#snapshot
+    Vec3fCollection.snapshot}. <P>
+
+    A snapshot must be taken on the thread modifying the scene graph,
+    for example from a change enqueued in a {@link
+    com.breiler.msg.misc.SceneUpdateQueue SceneUpdateQueue}, after
+    which it may be handed to other threads. The copies must not be
+    modified; the children of their groups and their collections can
+    not be. They have no parents, return true from {@link
+    Node#isSnapshot isSnapshot}, and share the UUIDs of the nodes they
+    were copied from, so that nodes picked in a snapshot can be found
+    in the scene graph. Cameras, textures and shaders are not copied
+    but shared with the scene graph, since they either synchronize
+    access to their state themselves or own OpenGL resources. */
+
+public class SceneSnapshot {
+  private final Node root;
+  private final int numCopied;
+  private final int numShared;
+
+  private SceneSnapshot(Node root, int numCopied, int numShared) {
+    this.root = root;
+    this.numCopied = numCopied;
+    this.numShared = numShared;
+  }
+
+  /** Takes a snapshot of the scene graph with the given root. */
+  public static SceneSnapshot take(Node root) {
+    if (root == null)
+      throw new IllegalArgumentException("root may not be null");
+    Context context = new Context();
+    Node copy = context.copy(root);
+    return new SceneSnapshot(copy, context.numCopied, context.numShared);
+  }
+
+  /** Returns the copy of the root of the scene graph. */
+  public Node getRoot() {
+    return root;
+  }
+
+  /** Returns the number of nodes copied while taking this snapshot. */
+  public int getNumCopied() {
+    return numCopied;
+  }
+
+  /** Returns the number of unchanged subtrees shared with earlier
+      snapshots rather than copied. */
+  public int getNumShared() {
+    return numShared;
+  }
+
+  /** Passed to {@link Node#copyForSnapshot Node.copyForSnapshot},
+      through which nodes capture the collections they refer to. */
+  public static class Context {
+    // The node currently being copied
+    private Node node;
+    // Whether the copy of the current node depends on a collection it
+    // does not own, which it would not be told about the changes of
+    private boolean uncacheable;
+    private int numCopied;
+    private int numShared;
+
+    private Context() {
+    }
+
+    /** Returns a read-only snapshot of the given collection, which may
+        be null, and notes whether the node being copied owns it, as
+        only then is the copy of the node replaced once the collection
+        changes. */
+    public Vec3fCollection capture(Vec3fCollection collection) {
+      if (collection == null)
+        return null;
+      checkOwner(collection.getOwner());
+      return collection.snapshot();
+    }
+
+    /** Returns a read-only snapshot of the given collection, which may
+        be null, and notes whether the node being copied owns it, as
+        only then is the copy of the node replaced once the collection
+        changes. */
+    public Vec4fCollection capture(Vec4fCollection collection) {
+      if (collection == null)
+        return null;
+      checkOwner(collection.getOwner());
+      return collection.snapshot();
+    }
+
+    /** Returns a read-only snapshot of the given collection, which may
+        be null, and notes whether the node being copied owns it, as
+        only then is the copy of the node replaced once the collection
+        changes. */
+    public Vec2fCollection capture(Vec2fCollection collection) {
+      if (collection == null)
+        return null;
+      checkOwner(collection.getOwner());
+      return collection.snapshot();
+    }
+
+    /** Returns a read-only snapshot of the given collection, which may
+        be null, and notes whether the node being copied owns it, as
+        only then is the copy of the node replaced once the collection
+        changes. */
+    public SegmentedVec3fCollection capture(SegmentedVec3fCollection collection) {
+      if (collection == null)
+        return null;
+      checkOwner(collection.getOwner());
+      return collection.snapshot();
+    }
+
+    /** Returns the copy of the given node and, for groups, its
+        children, reusing the copy made for an earlier snapshot if
+        nothing changed since. Nodes referring to other nodes than
+        their children copy them through this as well. */
+    Node copy(Node node) {
+      Node copy = node.snapshotCopy;
+      if (copy != null) {
+        ++numShared;
+        return copy;
+      }
+      Node outerNode = this.node;
+      boolean outerUncacheable = uncacheable;
+      this.node = node;
+      uncacheable = false;
+      copy = node.copyForSnapshot(this);
+      ++numCopied;
+      if (node instanceof Group && copy != node) {
+        Group group = (Group) node;
+        int n = group.getNumChildren();
+        List<Node> children = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+          children.add(copy(group.getChild(i)));
+        }
+        ((Group) copy).setSnapshotChildren(children);
+      }
+      // Changes to a collection a node does not own do not reach the
+      // node, so neither it nor its ancestors may keep their copies
+      if (!uncacheable) {
+        node.snapshotCopy = copy;
+      }
+      this.node = outerNode;
+      uncacheable |= outerUncacheable;
+      return copy;
+    }
+
+    private void checkOwner(Object owner) {
+      if (owner != node) {
+        uncacheable = true;
+      }
+    }
+  }
+}
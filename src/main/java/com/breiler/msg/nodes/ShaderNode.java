@@ -454,6 +454,12 @@ public class ShaderNode extends Node {
     }
   }
 
+  /** Returns this node itself, which snapshots share with the scene
+      graph since the shader it manages lives in an OpenGL context. */
+  protected Node copyForSnapshot(SceneSnapshot.Context context) {
+    return this;
+  }
+
   private synchronized void disposeShader() {
     if (shader != null) {
       disposedShaders.add(shader);
@@ -72,6 +72,11 @@ public class Texture2 extends Node {
   private int texEnvMode = MODULATE;
   private boolean dirty;
 
+  // Where the texture was loaded from, if it was set up from a file or URL
+  private URL sourceURL;
+  private boolean sourceMipmap;
+  private String sourceFileSuffix;
+
   // For now, to make things simpler, keep separate state for the sub-image updating
   private TextureData subImageData;
   private int subImageMipmapLevel;
@@ -113,6 +118,7 @@ public class Texture2 extends Node {
     disposeTextureRenderer();
     data = TextureIO.newTextureData(glp, file, mipmap, fileSuffix);
     dirty = true;
+    setSource(file.toURI().toURL(), mipmap, fileSuffix);
   }
 
   /** Initializes this texture from the given InputStream. No OpenGL
@@ -122,6 +128,7 @@ public class Texture2 extends Node {
     disposeTextureRenderer();
     data = TextureIO.newTextureData(glp, stream, mipmap, fileSuffix);
     dirty = true;
+    setSource(null, false, null);
   }
 
   /** Initializes this texture from the given URL. No OpenGL work is
@@ -131,6 +138,7 @@ public class Texture2 extends Node {
     disposeTextureRenderer();
     data = TextureIO.newTextureData(glp, url, mipmap, fileSuffix);
     dirty = true;
+    setSource(url, mipmap, fileSuffix);
   }
 
   /** Initializes this texture from the given BufferedImage. No OpenGL
@@ -140,6 +148,7 @@ public class Texture2 extends Node {
     disposeTextureRenderer();
     data = AWTTextureIO.newTextureData(glp, image, mipmap);
     dirty = true;
+    setSource(null, false, null);
   }
 
   /** Initializes this texture from the given TextureData. No OpenGL
@@ -149,6 +158,30 @@ public class Texture2 extends Node {
     disposeTextureRenderer();
     this.data = data;
     dirty = true;
+    setSource(null, false, null);
+  }
+
+  /** Returns the URL of the file or URL this texture was last set up
+      from, or null if it was set up from another source or not at
+      all. Together with {@link #getSourceMipmap getSourceMipmap} and
+      {@link #getSourceFileSuffix getSourceFileSuffix} this allows the
+      texture to be referenced, rather than embedded, when the scene
+      graph is saved. */
+  public URL getSourceURL() {
+    return sourceURL;
+  }
+
+  /** Returns whether mipmaps were requested when this texture was set
+      up from the URL returned by {@link #getSourceURL getSourceURL}. */
+  public boolean getSourceMipmap() {
+    return sourceMipmap;
+  }
+
+  /** Returns the file suffix given when this texture was set up from
+      the URL returned by {@link #getSourceURL getSourceURL}, which may
+      be null. */
+  public String getSourceFileSuffix() {
+    return sourceFileSuffix;
   }
 
   /** Returns the width of the texture or TextureRenderer this
@@ -237,6 +270,7 @@ public class Texture2 extends Node {
       is used properly. */
   public void initTextureRenderer(final int width, final int height, final boolean alpha) {
     disposeTexture();
+    setSource(null, false, null);
     textureRenderer = new TextureRenderer(width, height, alpha);
   }
 
@@ -308,6 +342,7 @@ public class Texture2 extends Node {
     disposeTexture();
     disposeTextureRenderer();
     lazyDispose(gl);
+    setSource(null, false, null);
     data = null;
     subImageData = null;
     dirty = false;
@@ -332,6 +367,18 @@ public class Texture2 extends Node {
     subImageDirty = false;
   }
 
+  /** Returns this node itself, which snapshots share with the scene
+      graph since the texture it manages lives in an OpenGL context. */
+  protected Node copyForSnapshot(SceneSnapshot.Context context) {
+    return this;
+  }
+
+  private void setSource(final URL url, final boolean mipmap, final String fileSuffix) {
+    sourceURL = url;
+    sourceMipmap = mipmap;
+    sourceFileSuffix = fileSuffix;
+  }
+
   private synchronized void disposeTextureRenderer() {
     if (textureRenderer != null) {
       disposedRenderers.add(textureRenderer);
@@ -59,7 +59,14 @@ public class TextureCoordinate2 extends Node {
 
   /** Sets the texture coordinate data in this node. */
   public void setData(Vec2fCollection data) {
+    if (this.data != null && this.data.getOwner() == this) {
+      this.data.setOwner(null);
+    }
     this.data = data;
+    if (data != null) {
+      data.setOwner(this);
+    }
+    touch();
   }
 
   /** Returns the texture coordinate data in this node. */
@@ -69,7 +76,13 @@ public class TextureCoordinate2 extends Node {
 
   public void doAction(Action action) {
     if (TextureCoordinateElement.isEnabled(action.getState())) {
-      TextureCoordinateElement.set(action.getState(), getData().getData());
+      TextureCoordinateElement.set(action.getState(), getData());
     }
   }
+
+  protected Node copyForSnapshot(SceneSnapshot.Context context) {
+    TextureCoordinate2 copy = (TextureCoordinate2) super.copyForSnapshot(context);
+    copy.data = context.capture(data);
+    return copy;
+  }
 }
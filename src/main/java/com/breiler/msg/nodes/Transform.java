@@ -39,6 +39,7 @@ package com.breiler.msg.nodes;
 
 import com.breiler.msg.actions.Action;
 import com.breiler.msg.actions.GLRenderAction;
+import com.breiler.msg.actions.GetBoundingBoxAction;
 import com.breiler.msg.actions.RayPickAction;
 import com.breiler.msg.elements.GLModelMatrixElement;
 import com.breiler.msg.elements.GLProjectionMatrixElement;
@@ -52,7 +53,7 @@ import javax.vecmath.Matrix4f;
 /** Represents a generalized 4x4 matrix transformation. */
 
 public class Transform extends Node {
-  private final Matrix4f transform;
+  private Matrix4f transform;
   
   static {
     // Enable the elements this node affects for known actions
@@ -64,6 +65,8 @@ public class Transform extends Node {
     ModelMatrixElement.enable(RayPickAction.getDefaultState());
     ProjectionMatrixElement.enable(RayPickAction.getDefaultState());
     ViewingMatrixElement.enable(RayPickAction.getDefaultState());
+
+    ModelMatrixElement.enable(GetBoundingBoxAction.getDefaultState());
   }
 
   public Transform() {
@@ -74,16 +77,31 @@ public class Transform extends Node {
   /** Sets the transformation in thie node. */
   public void setTransform(Matrix4f transform) {
     this.transform.set(transform);
+    touch();
   }
 
-  /** Returns the transformation in thie node. */
+  /** Returns the transformation in thie node, which may be modified
+      in place; see {@link Node#getTransform Node.getTransform}. */
   public Matrix4f getTransform() {
+    if (!isSnapshot()) {
+      touch();
+    }
+    return transform;
+  }
+
+  Matrix4f transform() {
     return transform;
   }
 
   public void doAction(Action action) {
     if (ModelMatrixElement.isEnabled(action.getState())) {
-      ModelMatrixElement.mult(action.getState(), getTransform());
+      multModelMatrix(action.getState());
     }
   }
+
+  protected Node copyForSnapshot(SceneSnapshot.Context context) {
+    Transform copy = (Transform) super.copyForSnapshot(context);
+    copy.transform = new Matrix4f(transform);
+    return copy;
+  }
 }
@@ -38,24 +38,65 @@
 package com.breiler.msg.nodes;
 
 import com.breiler.msg.actions.Action;
+import com.breiler.msg.actions.GetBoundingBoxAction;
 import com.breiler.msg.actions.RayPickAction;
+import com.breiler.msg.collections.SegmentedVec3fCollection;
+import com.breiler.msg.collections.Vec3fCollection;
+import com.breiler.msg.collections.Versioned;
+import com.breiler.msg.elements.BoundingBoxElement;
+import com.breiler.msg.elements.CoordinateElement;
 import com.breiler.msg.elements.ModelMatrixElement;
 import com.breiler.msg.impl.RayTriangleIntersection;
+import com.breiler.msg.impl.TriangleBVH;
+import com.breiler.msg.math.Box3f;
 import com.breiler.msg.math.Line;
 import com.breiler.msg.math.MathUtils;
+import com.breiler.msg.math.Sphere3f;
 import static com.breiler.msg.math.MathUtils.plus;
 import static com.breiler.msg.math.MathUtils.times;
+import com.breiler.msg.misc.BoundsCache;
 import com.breiler.msg.misc.PickedPoint;
 import com.breiler.msg.misc.PrimitiveVertex;
+import com.breiler.msg.misc.State;
 import com.breiler.msg.misc.TriangleCallback;
 
 import javax.vecmath.Matrix4f;
 import javax.vecmath.Vector3f;
+import java.nio.FloatBuffer;
 
 /** The abstract base class for all shapes in the scene graph which
     render themselves as a collection of triangles. */
 
 public abstract class TriangleBasedShape extends Shape {
+  static {
+    CoordinateElement.enable(GetBoundingBoxAction.getDefaultState());
+  }
+
+  // Shapes with fewer triangles than this are picked by testing all
+  // of them rather than building a TriangleBVH
+  private static final int MIN_BVH_TRIANGLES = 64;
+
+  // Local bounds along with the coordinates they were computed from,
+  // or null if they need to be recomputed
+  private volatile BoundsCache boundsCache;
+
+  // The TriangleBVH used for picking along with the coordinates it was
+  // built from, or null if it needs to be rebuilt
+  private volatile BVHCache bvhCache;
+
+  static class BVHCache {
+    final Vec3fCollection coords;
+    final int version;
+    // Null if the shape is too small to benefit
+    final TriangleBVH bvh;
+
+    BVHCache(Vec3fCollection coords, int version, TriangleBVH bvh) {
+      this.coords = coords;
+      this.version = version;
+      this.bvh = bvh;
+    }
+  }
+
   /** Based on the state in the given Action, calls the specified
       triangle callback for each triangle in the shape. Coordinates
       are specified in the local coordinate system of this shape; the
@@ -65,48 +106,245 @@ public abstract class TriangleBasedShape extends Shape {
                                          TriangleCallback cb);
 
   public void rayPick(final RayPickAction action) {
+    // Without a ray, as before the first camera, there is nothing to hit
+    Line worldRay = action.getComputedRay();
+    if (worldRay == null)
+      return;
     // The RayPickAction holds the picking ray in world coordinates.
     // Transform this ray into local coordinates to do intersection testing
-    // Fetch the current local-to-world matrix
-    Matrix4f mat = new Matrix4f(ModelMatrixElement.getInstance(action.getState()).getMatrix());
-    // Invert it to get the world-to-local matrix
-    mat.invert();
+    // Fetch the world-to-local matrix, which is only computed once for
+    // static scenes
+    Matrix4f mat = ModelMatrixElement.getInstance(action.getState()).getInverseMatrix();
     // Transform the RayPickAction's ray by this matrix
-    final Line ray = MathUtils.xformLine(mat, action.getComputedRay());
+    final Line ray = MathUtils.xformLine(mat, worldRay);
+    // Lines keep their directions normalized, so if the matrix scales,
+    // distances along the local ray must be converted back to distances
+    // along the world ray, which is what the action sorts by
+    Vector3f dir = new Vector3f();
+    MathUtils.xformDir(mat, worldRay.getDirection(), dir);
+    final float localToWorld = 1.0f / dir.length();
+    // Intersections behind the start of the ray, or beyond the nearest
+    // point picked so far, are of no interest
+    final float tMax = action.getPickTMax() / localToWorld;
+    final boolean pickAll = action.isPickAll();
+    // The nearest intersection when only the closest point is picked.
+    // Its PickedPoint, including the copy of the path, is only created
+    // once all triangles have been tested.
+    final Vector3f closestPoint = new Vector3f();
+    final float[] closestT = { tMax };
+
+    TriangleBVH bvh = getBVH(action);
+    if (bvh != null) {
+      bvh.intersect(ray, 0, tMax, new TriangleBVH.HitCallback() {
+          public float hit(int triangleIndex, float t, Vector3f point, float tMax) {
+            if (pickAll) {
+              addPickedPoint(action, new Vector3f(point), t * localToWorld);
+              return tMax;
+            }
+            closestPoint.set(point);
+            closestT[0] = t;
+            return t;
+          }
+        });
+    } else {
+      // Temporaries
+      final RayTriangleIntersection rti = new RayTriangleIntersection();
+      final Vector3f tuv = new Vector3f();
+
+      // OK, ready to test
+      generateTriangles(action, new TriangleCallback() {
+          public void triangleCB(int triangleIndex,
+                                 PrimitiveVertex v0,
+                                 int i0,
+                                 PrimitiveVertex v1,
+                                 int i1,
+                                 PrimitiveVertex v2,
+                                 int i2) {
+            if (rti.intersectTriangle(ray,
+                                      v0.getCoord(),
+                                      v1.getCoord(),
+                                      v2.getCoord(),
+                                      tuv)) {
+              float t = tuv.getX();
+              if (t < 0 || t > closestT[0])
+                return;
+              // Compute at least the 3D coordinate of the intersection
+              // point for now
+              // FIXME: need to compute other things such as the texture
+              // coordinates
+              // Compute weights of three vertices
+              float a = 1.0f - tuv.getY() - tuv.getZ();
+              float b = tuv.getY();
+              float c = tuv.getZ();
+              Vector3f loc = plus(plus(times(v0.getCoord(), a), times(v1.getCoord(), b)), times(v2.getCoord(), c));
+              if (pickAll) {
+                addPickedPoint(action, loc, t * localToWorld);
+              } else {
+                closestPoint.set(loc);
+                closestT[0] = t;
+              }
+            }
+          }
+        });
+    }
+
+    if (!pickAll && closestT[0] < tMax) {
+      addPickedPoint(action, closestPoint, closestT[0] * localToWorld);
+    }
+  }
+
+  /** Discards data this shape has cached, in addition to notifying
+      listeners. */
+  public void touch() {
+    boundsCache = null;
+    bvhCache = null;
+    super.touch();
+  }
+
+  /** Returns the TriangleBVH over the triangles this shape generates
+      in the state of the given action, building it if necessary.
+      Returns null if the shape is too small to benefit from one, or
+      if its coordinates did not come from a Vec3fCollection and can
+      therefore not be tracked for changes. */
+  protected TriangleBVH getBVH(Action action) {
+    State state = action.getState();
+    Vec3fCollection coords = CoordinateElement.isEnabled(state) ? CoordinateElement.getCollection(state) : null;
+    if (coords == null) {
+      return null;
+    }
+    BVHCache cache = bvhCache;
+    if (cache == null || cache.coords != coords || cache.version != coords.getVersion()) {
+      // Avoid building the same, potentially large, hierarchy on
+      // several picking threads at once
+      synchronized (this) {
+        cache = bvhCache;
+        if (cache == null || cache.coords != coords || cache.version != coords.getVersion()) {
+          cache = new BVHCache(coords, coords.getVersion(), buildBVH(action));
+          bvhCache = cache;
+        }
+      }
+    }
+    return cache.bvh;
+  }
 
-    // Temporaries
-    final RayTriangleIntersection rti = new RayTriangleIntersection();
-    final Vector3f tuv = new Vector3f();
+  public void getBoundingBox(GetBoundingBoxAction action) {
+    State state = action.getState();
+    Versioned coords = CoordinateElement.getSource(state);
+    BoundsCache cache = boundsCache;
+    if (cache != null && cache.isValid(coords)) {
+      action.addDependencies(cache);
+    } else {
+      Box3f box = new Box3f();
+      Sphere3f sphere = new Sphere3f();
+      computeBounds(action, box, sphere);
+      action.beginCache();
+      // Coordinates set as a raw FloatBuffer can not be tracked, in
+      // which case this records null and nothing gets cached
+      action.addDependency(coords);
+      cache = action.endCache(box, sphere, coords);
+      boundsCache = cache.isCacheable() ? cache : null;
+    }
+    BoundingBoxElement.extendBy(state, cache.getBox(), cache.getSphere());
+  }
+
+  /** Based on the state in the given Action, computes the bounds of
+      this shape in its local coordinate system. The default
+      implementation bounds all of the current coordinates, which is
+      exact for shapes using every coordinate and conservative for
+      the others. */
+  protected void computeBounds(Action action, Box3f box, Sphere3f sphere) {
+    State state = action.getState();
+    FloatBuffer coords = CoordinateElement.get(state);
+    SegmentedVec3fCollection segments = CoordinateElement.getSegments(state);
+    if (coords == null && segments == null)
+      return;
+    int numBuffers = (segments != null) ? segments.getSegmentCount() : 1;
+    for (int s = 0; s < numBuffers; s++) {
+      extendBy(box, (segments != null) ? segments.getSegment(s) : coords);
+    }
+    if (box.isEmpty())
+      return;
+    // Center the sphere on the box, which is tighter than the box's
+    // circumscribed sphere in all but the worst case
+    Vector3f center = new Vector3f();
+    box.getCenter(center);
+    float radiusSquared = 0;
+    for (int s = 0; s < numBuffers; s++) {
+      radiusSquared = Math.max(radiusSquared,
+                               maxDistanceSquared((segments != null) ? segments.getSegment(s) : coords, center));
+    }
+    sphere.set(center, (float) Math.sqrt(radiusSquared));
+  }
+
+  protected Node copyForSnapshot(SceneSnapshot.Context context) {
+    TriangleBasedShape copy = (TriangleBasedShape) super.copyForSnapshot(context);
+    // Computed again for the coordinates of the snapshot
+    copy.boundsCache = null;
+    copy.bvhCache = null;
+    return copy;
+  }
 
-    // OK, ready to test
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private TriangleBVH buildBVH(Action action) {
+    final int[] numTriangles = new int[1];
     generateTriangles(action, new TriangleCallback() {
         public void triangleCB(int triangleIndex,
-                               PrimitiveVertex v0,
-                               int i0,
-                               PrimitiveVertex v1,
-                               int i1,
-                               PrimitiveVertex v2,
-                               int i2) {
-          if (rti.intersectTriangle(ray,
-                                    v0.getCoord(),
-                                    v1.getCoord(),
-                                    v2.getCoord(),
-                                    tuv)) {
-            // Compute at least the 3D coordinate of the intersection
-            // point for now
-            // FIXME: need to compute other things such as the texture
-            // coordinates
-            PickedPoint p = new PickedPoint();
-            // Compute weights of three vertices
-            float a = 1.0f - tuv.getY() - tuv.getZ();
-            float b = tuv.getY();
-            float c = tuv.getZ();
-            Vector3f loc = plus(plus(times(v0.getCoord(), a), times(v1.getCoord(), b)), times(v2.getCoord(), c));
-            p.setCoord(loc);
-            p.setPath(action.getPath().copy());
-            action.addPickedPoint(p, tuv.getX());
-          }
+                               PrimitiveVertex v0, int i0,
+                               PrimitiveVertex v1, int i1,
+                               PrimitiveVertex v2, int i2) {
+          numTriangles[0] = Math.max(numTriangles[0], triangleIndex + 1);
         }
       });
+    if (numTriangles[0] < MIN_BVH_TRIANGLES) {
+      return null;
+    }
+    final float[] triangles = new float[9 * numTriangles[0]];
+    generateTriangles(action, new TriangleCallback() {
+        public void triangleCB(int triangleIndex,
+                               PrimitiveVertex v0, int i0,
+                               PrimitiveVertex v1, int i1,
+                               PrimitiveVertex v2, int i2) {
+          int base = 9 * triangleIndex;
+          copy(v0.getCoord(), triangles, base);
+          copy(v1.getCoord(), triangles, base + 3);
+          copy(v2.getCoord(), triangles, base + 6);
+        }
+      });
+    return TriangleBVH.build(triangles, numTriangles[0]);
+  }
+
+  private static void extendBy(Box3f box, FloatBuffer coords) {
+    int n = coords.limit() - (coords.limit() % 3);
+    for (int i = 0; i < n; i += 3) {
+      box.extendBy(coords.get(i), coords.get(i + 1), coords.get(i + 2));
+    }
+  }
+
+  private static float maxDistanceSquared(FloatBuffer coords, Vector3f center) {
+    int n = coords.limit() - (coords.limit() % 3);
+    float res = 0;
+    for (int i = 0; i < n; i += 3) {
+      float dx = coords.get(i)     - center.getX();
+      float dy = coords.get(i + 1) - center.getY();
+      float dz = coords.get(i + 2) - center.getZ();
+      res = Math.max(res, dx * dx + dy * dy + dz * dz);
+    }
+    return res;
+  }
+
+  private static void addPickedPoint(RayPickAction action, Vector3f coord, float t) {
+    PickedPoint p = new PickedPoint();
+    p.setCoord(coord);
+    p.setPath(action.getPath().copy());
+    action.addPickedPoint(p, t);
+  }
+
+  private static void copy(Vector3f v, float[] dest, int offset) {
+    dest[offset]     = v.getX();
+    dest[offset + 1] = v.getY();
+    dest[offset + 2] = v.getZ();
   }
 }
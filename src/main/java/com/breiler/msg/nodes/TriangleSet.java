@@ -39,8 +39,10 @@ package com.breiler.msg.nodes;
 
 import com.breiler.msg.actions.Action;
 import com.breiler.msg.actions.GLRenderAction;
+import com.breiler.msg.collections.SegmentedVec3fCollection;
 import com.breiler.msg.elements.ColorElement;
 import com.breiler.msg.elements.CoordinateElement;
+import com.breiler.msg.elements.GLCoordinateElement;
 import com.breiler.msg.elements.TextureCoordinateElement;
 import com.breiler.msg.elements.TextureElement;
 import com.breiler.msg.math.MathUtils;
@@ -69,18 +71,81 @@ import java.nio.FloatBuffer;
 public class TriangleSet extends TriangleBasedShape {
     // Helper routine for setting up a texture matrix to allow texture
     // coords in the scene graph to always be specified from (0..1)
-    private final Matrix4f textureMatrix = new Matrix4f();
+    private Matrix4f textureMatrix = new Matrix4f();
 
     public void render(final GLRenderAction action) {
         final State state = action.getState();
-        if (!CoordinateElement.isEnabled(state) || CoordinateElement.get(state) == null) {
+        if (!CoordinateElement.isEnabled(state) ||
+                (CoordinateElement.get(state) == null && CoordinateElement.getSegments(state) == null)) {
             return;
         }
 
         // OK, we have coordinates to send down, at least
 
         final GL2 gl = action.getGL();
+        final Texture tex = beginTexture(gl, state);
+        drawTriangles(gl, state);
+        endTexture(gl, state, tex);
+    }
+
+    /**
+     * Issues the draw call for this shape once the vertex arrays and
+     * texture matrix are set up. Subclasses assembling the coordinates
+     * into triangles differently override this.
+     */
+    protected void drawTriangles(final GL2 gl, final State state) {
+        if (CoordinateElement.getSegments(state) != null) {
+            drawSegments(gl, state);
+            return;
+        }
+        // For now, assume the triangle set and the number of available
+        // coordinates match -- may want to add debugging information
+        // for this later
+        int numTriangles = CoordinateElement.get(state).limit() / 3 / 3;
+        gl.glDrawArrays(GL.GL_TRIANGLES, 0, 3 * numTriangles);
+    }
+
+    public void generateTriangles(final Action action, final TriangleCallback cb) {
+        final State state = action.getState();
+        FloatBuffer coords = null;
+        FloatBuffer texCoords = null;
+        // FIXME: normals and lighting not supported yet
+        //    FloatBuffer normals   = null;
+        FloatBuffer colors = null;
+        if (CoordinateElement.isEnabled(state)) {
+            coords = CoordinateElement.get(state);
+        }
+        final SegmentedVec3fCollection segments = CoordinateElement.isEnabled(state) ? CoordinateElement.getSegments(state) : null;
+        // No point in continuing if we don't have coordinates
+        if (coords == null && segments == null) return;
+        if (TextureCoordinateElement.isEnabled(state)) {
+            texCoords = TextureCoordinateElement.get(state);
+        }
+        //    if (NormalElement.isEnabled(state)) {
+        //      texCoords = NormalElement.get(state);
+        //    }
+        if (ColorElement.isEnabled(state)) {
+            colors = ColorElement.get(state);
+        }
+        if (segments != null) {
+            // Per-vertex data is not applied to segmented coordinates
+            int firstTriangle = 0;
+            for (int i = 0, n = segments.getSegmentCount(); i < n; i++) {
+                final FloatBuffer segment = segments.getSegment(i);
+                generateTriangles(segment, null, null, firstTriangle, cb);
+                firstTriangle += segment.limit() / 3 / 3;
+            }
+        } else {
+            generateTriangles(coords, texCoords, colors, 0, cb);
+        }
+    }
 
+    /**
+     * Sets up the texture matrix for the current texture, if any, before
+     * drawing, and returns the texture. Shared with nodes drawing this
+     * shape several times, such as InstancedShape.
+     */
+    Texture beginTexture(final GL2 gl, final State state) {
         Texture tex = null;
         boolean haveTexCoords = false;
 
@@ -108,45 +173,64 @@ public class TriangleSet extends TriangleBasedShape {
             // FIXME: not 100% sure whether we need to do this, but think we should
             gl.glDisableClientState(GLPointerFunc.GL_TEXTURE_COORD_ARRAY);
         }
+        return tex;
+    }
 
-        // For now, assume the triangle set and the number of available
-        // coordinates match -- may want to add debugging information
-        // for this later
-        int numTriangles = CoordinateElement.get(state).limit() / 3 / 3;
-        gl.glDrawArrays(GL.GL_TRIANGLES, 0, 3 * numTriangles);
-
+    /**
+     * Undoes the setup done by {@link #beginTexture beginTexture}, which
+     * returned the given texture.
+     */
+    void endTexture(final GL2 gl, final State state, final Texture tex) {
         if (tex != null) {
             gl.glMatrixMode(GL.GL_TEXTURE);
             gl.glPopMatrix();
             gl.glMatrixMode(GLMatrixFunc.GL_MODELVIEW);
-        } else if (haveTexCoords) {
+        } else if (TextureElement.isEnabled(state) && TextureCoordinateElement.isEnabled(state) &&
+                TextureCoordinateElement.get(state) != null) {
             // Might want this the next time we render a shape
             gl.glEnableClientState(GLPointerFunc.GL_TEXTURE_COORD_ARRAY);
         }
+    }
 
+    @Override
+    protected Node copyForSnapshot(final SceneSnapshot.Context context) {
+        final TriangleSet copy = (TriangleSet) super.copyForSnapshot(context);
+        copy.textureMatrix = new Matrix4f();
+        return copy;
     }
 
-    public void generateTriangles(final Action action, final TriangleCallback cb) {
-        final State state = action.getState();
-        FloatBuffer coords = null;
-        FloatBuffer texCoords = null;
-        // FIXME: normals and lighting not supported yet
-        //    FloatBuffer normals   = null;
-        FloatBuffer colors = null;
-        if (CoordinateElement.isEnabled(state)) {
-            coords = CoordinateElement.get(state);
+    //----------------------------------------------------------------------
+    // Internals only below this point
+    //
+
+    private void drawSegments(final GL2 gl, final State state) {
+        // Colors and texture coordinates do not line up with the
+        // segments, so leave them out
+        final boolean haveColors = ColorElement.isEnabled(state) && ColorElement.get(state) != null;
+        final boolean haveTexCoords = TextureCoordinateElement.isEnabled(state) &&
+                TextureCoordinateElement.get(state) != null;
+        if (haveColors) {
+            gl.glDisableClientState(GLPointerFunc.GL_COLOR_ARRAY);
         }
-        // No point in continuing if we don't have coordinates
-        if (coords == null) return;
-        if (TextureCoordinateElement.isEnabled(state)) {
-            texCoords = TextureCoordinateElement.get(state);
+        if (haveTexCoords) {
+            gl.glDisableClientState(GLPointerFunc.GL_TEXTURE_COORD_ARRAY);
         }
-        //    if (NormalElement.isEnabled(state)) {
-        //      texCoords = NormalElement.get(state);
-        //    }
-        if (ColorElement.isEnabled(state)) {
-            colors = ColorElement.get(state);
+        GLCoordinateElement.getInstance(state).drawSegments(gl, GL.GL_TRIANGLES, 3);
+        if (haveColors) {
+            gl.glEnableClientState(GLPointerFunc.GL_COLOR_ARRAY);
         }
+        if (haveTexCoords) {
+            gl.glEnableClientState(GLPointerFunc.GL_TEXTURE_COORD_ARRAY);
+        }
+    }
+
+    /**
+     * Calls the callback for the triangles in the given coordinates,
+     * numbering them from the given index on.
+     */
+    private static void generateTriangles(final FloatBuffer coords, final FloatBuffer texCoords,
+                                          final FloatBuffer colors, final int firstTriangle,
+                                          final TriangleCallback cb) {
         final PrimitiveVertex v0 = new PrimitiveVertex();
         final PrimitiveVertex v1 = new PrimitiveVertex();
         final PrimitiveVertex v2 = new PrimitiveVertex();
@@ -195,7 +279,8 @@ public class TriangleSet extends TriangleBasedShape {
             }
 
             // Call callback
-            cb.triangleCB(i, v0, 3 * i, v1, 3 * i + 1, v2, 3 * i + 2);
+            final int t = firstTriangle + i;
+            cb.triangleCB(t, v0, 3 * t, v1, 3 * t + 1, v2, 3 * t + 2);
 
             coordIdx += 3;
         }
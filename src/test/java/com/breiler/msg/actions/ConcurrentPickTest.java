@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ *
+ */
+
+package com.breiler.msg.actions;
+
+import com.breiler.msg.collections.Vec3fCollection;
+import com.breiler.msg.misc.PickedPoint;
+import com.breiler.msg.nodes.Coordinate3;
+import com.breiler.msg.nodes.Group;
+import com.breiler.msg.nodes.PerspectiveCamera;
+import com.breiler.msg.nodes.TriangleSet;
+import org.junit.jupiter.api.Test;
+
+import javax.vecmath.Vector2f;
+import javax.vecmath.Vector3f;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Applies RayPickActions to one shared scene graph from several
+ * threads at once and checks that every thread sees exactly the
+ * results of a single-threaded reference run. Half of the threads only
+ * pick the closest point.
+ */
+public class ConcurrentPickTest {
+    private static final int GRID_SIZE = 16;
+    private static final int TILES = 8;
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 20;
+
+    @Test
+    public void concurrentPicksMatchSingleThreadedResults() throws InterruptedException {
+        final Group root = createScene();
+        final List<Vector2f> points = new ArrayList<>();
+        for (int y = 0; y < GRID_SIZE; y++) {
+            for (int x = 0; x < GRID_SIZE; x++) {
+                points.add(new Vector2f((x + 0.5f) / GRID_SIZE, (y + 0.5f) / GRID_SIZE));
+            }
+        }
+
+        // Reference results computed on this thread
+        final List<String> expected = pickAll(new RayPickAction(), root, points);
+        final RayPickAction closestAction = new RayPickAction();
+        closestAction.setPickAll(false);
+        final List<String> expectedClosest = pickAll(closestAction, root, points);
+        assertTrue(expected.stream().anyMatch(s -> !s.isEmpty()), "reference run picked nothing");
+
+        final AtomicInteger mismatches = new AtomicInteger();
+        final List<Throwable> errors = new ArrayList<>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            final boolean closest = (i % 2) == 1;
+            final Thread thread = new Thread(() -> {
+                final RayPickAction action = new RayPickAction();
+                action.setPickAll(!closest);
+                try {
+                    start.await();
+                    for (int j = 0; j < ITERATIONS; j++) {
+                        if (!(closest ? expectedClosest : expected).equals(pickAll(action, root, points))) {
+                            mismatches.incrementAndGet();
+                        }
+                    }
+                } catch (final Throwable t) {
+                    synchronized (errors) {
+                        errors.add(t);
+                    }
+                }
+            }, "picker-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(0, errors.size(), "picker threads failed: " + errors);
+        assertEquals(0, mismatches.get(), "picks differing from the reference run");
+    }
+
+    private static List<String> pickAll(final RayPickAction action, final Group root, final List<Vector2f> points) {
+        final List<String> results = new ArrayList<>(points.size());
+        for (final Vector2f point : points) {
+            action.setNormalizedPoint(point);
+            action.apply(root);
+            final StringBuilder result = new StringBuilder();
+            for (final PickedPoint p : action.getPickedPoints()) {
+                result.append(p.getCoord()).append(p.getPath()).append(';');
+            }
+            results.add(result.toString());
+        }
+        return results;
+    }
+
+    /**
+     * Creates a camera looking at a grid of tiles, each in its own
+     * transformed Group and made up of two triangles, with a second,
+     * larger tile behind them so most rays hit more than one shape.
+     */
+    private static Group createScene() {
+        final Group root = new Group();
+        final PerspectiveCamera camera = new PerspectiveCamera();
+        camera.setPosition(new Vector3f(0, 0, 12));
+        root.addChild(camera);
+
+        final Coordinate3 coords = new Coordinate3();
+        final Vec3fCollection data = new Vec3fCollection();
+        data.add(new Vector3f(0.5f, 0.5f, 0));
+        data.add(new Vector3f(-0.5f, 0.5f, 0));
+        data.add(new Vector3f(-0.5f, -0.5f, 0));
+        data.add(new Vector3f(0.5f, 0.5f, 0));
+        data.add(new Vector3f(-0.5f, -0.5f, 0));
+        data.add(new Vector3f(0.5f, -0.5f, 0));
+        coords.setData(data);
+        root.addChild(coords);
+
+        final TriangleSet tile = new TriangleSet();
+        for (int y = 0; y < TILES; y++) {
+            for (int x = 0; x < TILES; x++) {
+                final Group group = new Group();
+                group.setName("Tile " + x + "," + y);
+                group.getTransform().setTranslation(new Vector3f(x - TILES / 2f + 0.5f, y - TILES / 2f + 0.5f, 0));
+                group.addChild(tile);
+                root.addChild(group);
+            }
+        }
+
+        final Group background = new Group();
+        background.setName("Background");
+        background.getTransform().setTranslation(new Vector3f(0, 0, -1));
+        background.getTransform().setScale(TILES);
+        background.addChild(tile);
+        root.addChild(background);
+        return root;
+    }
+}
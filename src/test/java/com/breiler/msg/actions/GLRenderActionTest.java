@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ *
+ */
+
+package com.breiler.msg.actions;
+
+import com.breiler.msg.collections.Vec3fCollection;
+import com.breiler.msg.nodes.Coordinate3;
+import com.breiler.msg.nodes.Group;
+import com.breiler.msg.nodes.PerspectiveCamera;
+import com.breiler.msg.nodes.TriangleSet;
+import com.jogamp.opengl.GLAutoDrawable;
+import com.jogamp.opengl.GLCapabilities;
+import com.jogamp.opengl.GLDrawableFactory;
+import com.jogamp.opengl.GLEventListener;
+import com.jogamp.opengl.GLException;
+import com.jogamp.opengl.GLOffscreenAutoDrawable;
+import com.jogamp.opengl.GLProfile;
+import org.junit.jupiter.api.Test;
+
+import javax.vecmath.Vector3f;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.abort;
+
+/**
+ * Renders into an offscreen drawable to check view frustum culling.
+ * Skipped where no OpenGL implementation is available.
+ */
+public class GLRenderActionTest {
+    /**
+     * The root Group holds a camera followed by geometry far outside
+     * the unit cube. Nothing visible may be culled before the camera
+     * has loaded its matrices, while geometry outside the view still is.
+     */
+    @Test
+    public void cullingUsesCameraInSameGroup() {
+        final Group root = createScene();
+        final GLRenderAction action = new GLRenderAction();
+        action.setCullingEnabled(true);
+
+        final GLOffscreenAutoDrawable drawable = createDrawable();
+        drawable.addGLEventListener(new GLEventListener() {
+            public void init(final GLAutoDrawable drawable) {
+            }
+
+            public void dispose(final GLAutoDrawable drawable) {
+            }
+
+            public void display(final GLAutoDrawable drawable) {
+                action.apply(root);
+            }
+
+            public void reshape(final GLAutoDrawable drawable, final int x, final int y, final int width, final int height) {
+            }
+        });
+        try {
+            for (int frame = 0; frame < 2; frame++) {
+                drawable.display();
+                assertEquals(1, action.getNumDrawn(), "drawn in frame " + frame);
+                assertEquals(1, action.getNumCulled(), "culled in frame " + frame);
+            }
+        } finally {
+            drawable.destroy();
+        }
+    }
+
+    /**
+     * Creates a small offscreen drawable, or skips the calling test
+     * if OpenGL is not available.
+     */
+    public static GLOffscreenAutoDrawable createDrawable() {
+        try {
+            final GLProfile profile = GLProfile.getDefault();
+            final GLCapabilities caps = new GLCapabilities(profile);
+            caps.setOnscreen(false);
+            return GLDrawableFactory.getFactory(profile).createOffscreenAutoDrawable(null, caps, null, 64, 64);
+        } catch (final GLException e) {
+            return abort("No OpenGL available: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Creates a root Group holding a camera, a tile in front of it and
+     * a tile well to the side of its view, both far from the origin.
+     */
+    private static Group createScene() {
+        final Group root = new Group();
+        final PerspectiveCamera camera = new PerspectiveCamera();
+        camera.setPosition(new Vector3f(0, 0, 60));
+        root.addChild(camera);
+
+        final Coordinate3 coords = new Coordinate3();
+        final Vec3fCollection data = new Vec3fCollection();
+        data.add(new Vector3f(0.5f, 0.5f, 0));
+        data.add(new Vector3f(-0.5f, 0.5f, 0));
+        data.add(new Vector3f(-0.5f, -0.5f, 0));
+        coords.setData(data);
+        root.addChild(coords);
+
+        final TriangleSet tile = new TriangleSet();
+        final Group visible = new Group();
+        visible.setName("Visible");
+        visible.getTransform().setTranslation(new Vector3f(0, 0, 20));
+        visible.getTransform().setScale(10);
+        visible.addChild(tile);
+        root.addChild(visible);
+
+        final Group outside = new Group();
+        outside.setName("Outside");
+        outside.getTransform().setTranslation(new Vector3f(500, 0, 20));
+        outside.getTransform().setScale(10);
+        outside.addChild(tile);
+        root.addChild(outside);
+        return root;
+    }
+}
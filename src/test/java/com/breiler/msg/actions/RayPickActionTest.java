@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ *
+ */
+
+package com.breiler.msg.actions;
+
+import com.breiler.msg.collections.Vec3fCollection;
+import com.breiler.msg.nodes.Coordinate3;
+import com.breiler.msg.nodes.Group;
+import com.breiler.msg.nodes.PerspectiveCamera;
+import com.breiler.msg.nodes.TriangleSet;
+import org.junit.jupiter.api.Test;
+
+import javax.vecmath.Vector2f;
+import javax.vecmath.Vector3f;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks picking by a normalized point as the camera moves.
+ */
+public class RayPickActionTest {
+    private static final Vector2f CENTER = new Vector2f(0.5f, 0.5f);
+
+    @Test
+    public void closestPickFollowsCameraMovedBetweenPicks() {
+        final RayPickAction action = new RayPickAction();
+        action.setPickAll(false);
+        checkPickAfterCameraMove(action);
+    }
+
+    @Test
+    public void pickAllFollowsCameraMovedBetweenPicks() {
+        final RayPickAction action = new RayPickAction();
+        checkPickAfterCameraMove(action);
+    }
+
+    /**
+     * Picks the center of the view, first with the camera looking at a
+     * tile, then with the camera moved to look past it and back. The
+     * bounds of the root are cached before, so culling against the ray
+     * of the previous pick would give the wrong results.
+     */
+    private static void checkPickAfterCameraMove(final RayPickAction action) {
+        final PerspectiveCamera camera = new PerspectiveCamera();
+        final Group root = createScene(camera);
+        new GetBoundingBoxAction().apply(root);
+        action.setNormalizedPoint(CENTER);
+
+        camera.setPosition(new Vector3f(10, 0, 10));
+        action.apply(root);
+        assertEquals(1, action.getPickedPoints().size(), "pick in front of the tile");
+
+        camera.setPosition(new Vector3f(0, 0, 10));
+        action.apply(root);
+        assertEquals(0, action.getPickedPoints().size(), "pick next to the tile");
+
+        camera.setPosition(new Vector3f(10, 0, 10));
+        action.apply(root);
+        assertEquals(1, action.getPickedPoints().size(), "pick in front of the tile again");
+    }
+
+    /**
+     * Creates a scene with the given camera and a tile centered at
+     * (10, 0, 0).
+     */
+    private static Group createScene(final PerspectiveCamera camera) {
+        final Group root = new Group();
+        root.addChild(camera);
+        final Coordinate3 coords = new Coordinate3();
+        final Vec3fCollection data = new Vec3fCollection();
+        data.add(new Vector3f(-0.5f, -0.5f, 0));
+        data.add(new Vector3f(0.5f, -0.5f, 0));
+        data.add(new Vector3f(0, 0.5f, 0));
+        coords.setData(data);
+        root.addChild(coords);
+        final Group tile = new Group();
+        tile.getTransform().setTranslation(new Vector3f(10, 0, 0));
+        tile.addChild(new TriangleSet());
+        root.addChild(tile);
+        return root;
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ *
+ */
+
+package com.breiler.msg.collections;
+
+import com.breiler.msg.actions.RayPickAction;
+import com.breiler.msg.impl.BufferFactory;
+import com.breiler.msg.math.Line;
+import com.breiler.msg.nodes.Coordinate3;
+import com.breiler.msg.nodes.Group;
+import com.breiler.msg.nodes.TriangleSet;
+import org.junit.jupiter.api.Test;
+
+import javax.vecmath.Vector3f;
+import java.nio.FloatBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the bulk operations of Vec3fCollection and when it returns
+ * its backing store to the BufferFactory pool.
+ */
+public class Vec3fCollectionTest {
+    @Test
+    public void addAllAppendsRanges() {
+        final Vec3fCollection data = new Vec3fCollection(1);
+        data.add(1, 2, 3);
+        data.addAll(new float[]{0, 4, 5, 6, 7, 8, 9}, 1, 2);
+        final FloatBuffer src = FloatBuffer.wrap(new float[]{0, 0, 0, 10, 11, 12});
+        src.position(1);
+        data.addAll(src, 3, 1);
+        assertEquals(1, src.position());
+        assertEquals(6, src.limit());
+        assertEquals(4, data.size());
+
+        final float[] dest = new float[14];
+        data.get(0, dest, 1, 4);
+        assertArrayEquals(new float[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 0}, dest);
+        data.get(2, dest, 0, 1);
+        assertEquals(7, dest[0], 0);
+        assertEquals(new Vector3f(10, 11, 12), data.get(3));
+    }
+
+    @Test
+    public void setOverwritesRange() {
+        final Vec3fCollection data = createRow(4);
+        data.set(1, new float[]{9, 1, 1, 1, 2, 2, 2}, 1, 2);
+        assertEquals(new Vector3f(0, 0, 0), data.get(0));
+        assertEquals(new Vector3f(1, 1, 1), data.get(1));
+        assertEquals(new Vector3f(2, 2, 2), data.get(2));
+        assertEquals(new Vector3f(3, 3, 3), data.get(3));
+        assertThrows(IndexOutOfBoundsException.class, () -> data.set(3, new float[6], 0, 2));
+        assertThrows(IndexOutOfBoundsException.class, () -> data.get(-1, new float[3], 0, 1));
+        assertThrows(IndexOutOfBoundsException.class, () -> data.get(4));
+    }
+
+    @Test
+    public void removeRangeMovesRestDown() {
+        final Vec3fCollection data = createRow(6);
+        data.removeRange(1, 3);
+        assertEquals(4, data.size());
+        assertEquals(new Vector3f(0, 0, 0), data.get(0));
+        assertEquals(new Vector3f(3, 3, 3), data.get(1));
+        assertEquals(new Vector3f(5, 5, 5), data.get(3));
+        data.removeRange(2, 4);
+        assertEquals(2, data.size());
+        data.removeRange(1, 1);
+        assertEquals(2, data.size());
+        assertThrows(IndexOutOfBoundsException.class, () -> data.removeRange(1, 3));
+        assertEquals(new Vector3f(3, 3, 3), data.remove(1));
+        assertEquals(1, data.size());
+    }
+
+    @Test
+    public void swapRemoveMovesLast() {
+        final Vec3fCollection data = createRow(4);
+        data.swapRemove(1);
+        assertEquals(3, data.size());
+        assertEquals(new Vector3f(3, 3, 3), data.get(1));
+        data.swapRemove(2);
+        assertEquals(2, data.size());
+        assertEquals(new Vector3f(0, 0, 0), data.get(0));
+        assertEquals(new Vector3f(3, 3, 3), data.get(1));
+    }
+
+    @Test
+    public void modificationsChangeVersion() {
+        final Vec3fCollection data = createRow(4);
+        final Set<Integer> versions = new HashSet<Integer>();
+        versions.add(data.getVersion());
+        data.addAll(new float[3], 0, 1);
+        versions.add(data.getVersion());
+        data.set(0, new float[3], 0, 1);
+        versions.add(data.getVersion());
+        data.removeRange(0, 2);
+        versions.add(data.getVersion());
+        data.swapRemove(0);
+        versions.add(data.getVersion());
+        data.clear();
+        versions.add(data.getVersion());
+        assertEquals(6, versions.size());
+    }
+
+    @Test
+    public void trimToSizeKeepsContents() {
+        final Vec3fCollection data = createRow(1000);
+        data.removeRange(10, 1000);
+        final long live = BufferFactory.getLiveBytes();
+        data.trimToSize();
+        assertTrue(BufferFactory.getLiveBytes() < live - 8192, "store shrunk");
+        assertEquals(10, data.size());
+        assertEquals(new Vector3f(9, 9, 9), data.get(9));
+        data.add(10, 10, 10);
+        assertEquals(new Vector3f(10, 10, 10), data.get(10));
+    }
+
+    @Test
+    public void ensureCapacityAvoidsGrowing() {
+        final Vec3fCollection data = new Vec3fCollection(1);
+        data.ensureCapacity(1000);
+        final long live = BufferFactory.getLiveBytes();
+        createRow(data, 1000);
+        assertTrue(BufferFactory.getLiveBytes() <= live, "store not reallocated");
+    }
+
+    @Test
+    public void readOnlyCollectionRejectsBulkOperations() {
+        final Vec3fCollection snapshot = createRow(4).snapshot();
+        assertThrows(ReadOnlyBufferException.class, () -> snapshot.addAll(new float[3], 0, 1));
+        assertThrows(ReadOnlyBufferException.class, () -> snapshot.removeRange(0, 1));
+        assertThrows(ReadOnlyBufferException.class, () -> snapshot.trimToSize());
+        assertThrows(ReadOnlyBufferException.class, () -> snapshot.ensureCapacity(10));
+        assertEquals(4, snapshot.size());
+    }
+
+    @Test
+    public void traversedStoreIsPooledWhenGrowing() {
+        final Vec3fCollection data = createTriangle();
+        final Group root = new Group();
+        final Coordinate3 coords = new Coordinate3();
+        coords.setData(data);
+        root.addChild(coords);
+        root.addChild(new TriangleSet());
+        final RayPickAction action = new RayPickAction();
+        action.setRay(new Line(new Vector3f(0, 0, -1), new Vector3f(0, 0, 10)));
+        action.apply(root);
+        assertEquals(1, action.getPickedPoints().size());
+
+        // The old store is released as the new one is allocated
+        final long buffers = BufferFactory.getLiveBuffers();
+        grow(data);
+        assertEquals(buffers, BufferFactory.getLiveBuffers());
+
+        action.apply(root);
+        assertEquals(1, action.getPickedPoints().size());
+    }
+
+    @Test
+    public void handedOutStoreIsNotPooled() {
+        final Vec3fCollection data = createTriangle();
+        final FloatBuffer view = data.getData();
+        final long buffers = BufferFactory.getLiveBuffers();
+        grow(data);
+        assertEquals(buffers + 1, BufferFactory.getLiveBuffers());
+        data.set(0, 1, 2, 3);
+        assertEquals(-0.5f, view.get(0), 0);
+    }
+
+    @Test
+    public void snapshotStoreIsNotPooled() {
+        final Vec3fCollection data = createTriangle();
+        final Vec3fCollection snapshot = data.snapshot();
+        grow(data);
+        data.set(0, 1, 2, 3);
+        assertEquals(new Vector3f(-0.5f, -0.5f, 0), snapshot.get(0));
+        assertEquals(new Vector3f(1, 2, 3), data.get(0));
+    }
+
+    /**
+     * Adds enough vectors to make the collection reallocate its store.
+     */
+    private static void grow(final Vec3fCollection data) {
+        for (int i = 0; i < 100; i++) {
+            data.add(new Vector3f(i, i, i));
+        }
+    }
+
+    /**
+     * Creates a collection holding the given number of vectors, each
+     * with all components equal to its index.
+     */
+    private static Vec3fCollection createRow(final int size) {
+        final Vec3fCollection data = new Vec3fCollection(size);
+        createRow(data, size);
+        return data;
+    }
+
+    private static void createRow(final Vec3fCollection data, final int size) {
+        for (int i = 0; i < size; i++) {
+            data.add(i, i, i);
+        }
+    }
+
+    private static Vec3fCollection createTriangle() {
+        final Vec3fCollection data = new Vec3fCollection(3);
+        data.add(new Vector3f(-0.5f, -0.5f, 0));
+        data.add(new Vector3f(0.5f, -0.5f, 0));
+        data.add(new Vector3f(0, 0.5f, 0));
+        return data;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ *
+ */
+
+package com.breiler.msg.elements;
+
+import com.breiler.msg.actions.GetBoundingBoxAction;
+import com.breiler.msg.actions.RayPickAction;
+import com.breiler.msg.collections.Vec3fCollection;
+import com.breiler.msg.math.Line;
+import com.breiler.msg.nodes.Coordinate3;
+import com.breiler.msg.nodes.Group;
+import com.breiler.msg.nodes.Node;
+import com.breiler.msg.nodes.Transform;
+import com.breiler.msg.nodes.TriangleSet;
+import org.junit.jupiter.api.Test;
+
+import javax.vecmath.Matrix4f;
+import javax.vecmath.Vector3f;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Checks the model matrix products cached for nodes with transforms.
+ */
+public class ModelMatrixElementTest {
+    @Test
+    public void sharedTransformReusesCachePerParent() {
+        final Transform shared = new Transform();
+        final Matrix4f matrix = new Matrix4f();
+        matrix.setIdentity();
+        matrix.setTranslation(new Vector3f(0, 1, 0));
+        shared.setTransform(matrix);
+        final Probe probe = new Probe();
+
+        final Group root = new Group();
+        for (int i = 0; i < 2; i++) {
+            final Group parent = new Group();
+            parent.getTransform().setTranslation(new Vector3f(10 * i, 0, 0));
+            parent.addChild(shared);
+            parent.addChild(probe);
+            root.addChild(parent);
+        }
+
+        final RayPickAction action = createAction();
+        action.apply(root);
+        final List<ModelMatrixElement.Cache> first = new ArrayList<>(probe.caches);
+        assertEquals(2, first.size());
+        assertNotNull(first.get(0));
+        assertNotNull(first.get(1));
+        assertNotSame(first.get(0), first.get(1));
+        assertEquals(new Vector3f(0, 1, 0), translation(first.get(0).getMatrix()));
+        assertEquals(new Vector3f(10, 1, 0), translation(first.get(1).getMatrix()));
+
+        for (int i = 0; i < 10; i++) {
+            probe.caches.clear();
+            action.apply(root);
+            assertEquals(2, probe.caches.size());
+            assertSame(first.get(0), probe.caches.get(0), "cache reallocated for the first parent");
+            assertSame(first.get(1), probe.caches.get(1), "cache reallocated for the second parent");
+        }
+    }
+
+    @Test
+    public void transformModifiedInPlaceIsNotReusedStale() {
+        final Transform transform = new Transform();
+        final Matrix4f matrix = transform.getTransform();
+        final Probe probe = new Probe();
+        final Group root = new Group();
+        root.addChild(transform);
+        root.addChild(probe);
+        root.addChild(createTriangle());
+
+        final RayPickAction action = createAction();
+        final GetBoundingBoxAction boundsAction = new GetBoundingBoxAction();
+        boundsAction.apply(root);
+        action.apply(root);
+        assertEquals(new Vector3f(0, 0, 0), translation(probe.caches.get(0).getMatrix()));
+
+        // Modified through the kept matrix, without touching the node
+        matrix.setTranslation(new Vector3f(5, 0, 0));
+        probe.caches.clear();
+        action.apply(root);
+        assertEquals(new Vector3f(5, 0, 0), translation(probe.caches.get(0).getMatrix()));
+        boundsAction.apply(root);
+        assertEquals(5, boundsAction.getBoundingSphere().getCenter().x, 1e-5f, "bounds of the parent");
+    }
+
+    static RayPickAction createAction() {
+        final RayPickAction action = new RayPickAction();
+        action.setRay(new Line(new Vector3f(0, 0, -1), new Vector3f(0, 0, 10)));
+        return action;
+    }
+
+    static Vector3f translation(final Matrix4f matrix) {
+        final Vector3f res = new Vector3f();
+        matrix.get(res);
+        return res;
+    }
+
+    /**
+     * Creates coordinates and a triangle set drawing a triangle
+     * centered at the origin.
+     */
+    static Group createTriangle() {
+        final Group group = new Group();
+        final Coordinate3 coords = new Coordinate3();
+        final Vec3fCollection data = new Vec3fCollection();
+        data.add(new Vector3f(-0.5f, -0.5f, 0));
+        data.add(new Vector3f(0.5f, -0.5f, 0));
+        data.add(new Vector3f(0, 0.5f, 0));
+        coords.setData(data);
+        group.addChild(coords);
+        group.addChild(new TriangleSet());
+        return group;
+    }
+
+    /**
+     * Records the cache holding the model matrix each time it is
+     * traversed.
+     */
+    static class Probe extends Node {
+        final List<ModelMatrixElement.Cache> caches = new ArrayList<>();
+
+        @Override
+        public void rayPick(final RayPickAction action) {
+            caches.add(ModelMatrixElement.getInstance(action.getState()).getCache());
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ *
+ */
+
+package com.breiler.msg.impl;
+
+import com.breiler.msg.nodes.Group;
+import org.junit.jupiter.api.Test;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the pooling and accounting of BufferFactory.
+ */
+public class BufferFactoryTest {
+    // Rounded up to a block of 4096 bytes
+    private static final int NUM_FLOATS = 1000;
+
+    @Test
+    public void releasedMemoryIsReusedZeroed() {
+        final FloatBuffer first = BufferFactory.newFloatBuffer(NUM_FLOATS);
+        for (int i = 0; i < NUM_FLOATS; i++) {
+            first.put(i, i + 1);
+        }
+        final long pooled = BufferFactory.getPooledBytes();
+        BufferFactory.release(first);
+        assertEquals(pooled + 4096, BufferFactory.getPooledBytes());
+
+        final FloatBuffer second = BufferFactory.newFloatBuffer(NUM_FLOATS);
+        assertEquals(pooled, BufferFactory.getPooledBytes());
+        assertEquals(NUM_FLOATS, second.limit());
+        assertTrue(second.isDirect());
+        for (int i = 0; i < NUM_FLOATS; i++) {
+            assertEquals(0, second.get(i), 0, "float " + i);
+        }
+        BufferFactory.release(second);
+    }
+
+    @Test
+    public void releaseIgnoresForeignAndReleasedBuffers() {
+        final IntBuffer buffer = BufferFactory.newIntBuffer(NUM_FLOATS);
+        final long pooled = BufferFactory.getPooledBytes();
+        BufferFactory.release(buffer);
+        BufferFactory.release(buffer);
+        BufferFactory.release(IntBuffer.allocate(NUM_FLOATS));
+        BufferFactory.release(null);
+        assertEquals(pooled + 4096, BufferFactory.getPooledBytes());
+    }
+
+    @Test
+    public void largeBuffersAreNotPooled() {
+        final FloatBuffer buffer = BufferFactory.newFloatBuffer(1024 * 1024);
+        final long pooled = BufferFactory.getPooledBytes();
+        BufferFactory.release(buffer);
+        assertEquals(pooled, BufferFactory.getPooledBytes());
+    }
+
+    @Test
+    public void liveBytesAreAccountedToOwner() {
+        final String type = Group.class.getName();
+        final long before = getOrZero(BufferFactory.getLiveBytesByOwnerType().get(type));
+        final FloatBuffer buffer = BufferFactory.newFloatBuffer(NUM_FLOATS);
+        final Group owner = new Group();
+        BufferFactory.setOwner(buffer, owner);
+        assertEquals(before + 4096, getOrZero(BufferFactory.getLiveBytesByOwnerType().get(type)));
+        BufferFactory.release(buffer);
+        assertEquals(before, getOrZero(BufferFactory.getLiveBytesByOwnerType().get(type)));
+    }
+
+    @Test
+    public void lowerMaximumDiscardsPooledMemory() {
+        final long max = BufferFactory.getMaxPooledBytes();
+        try {
+            BufferFactory.release(BufferFactory.newFloatBuffer(NUM_FLOATS));
+            BufferFactory.setMaxPooledBytes(0);
+            final FloatBuffer buffer = BufferFactory.newFloatBuffer(NUM_FLOATS);
+            final long pooled = BufferFactory.getPooledBytes();
+            BufferFactory.release(buffer);
+            // The arena of this thread is not emptied, but receives
+            // no more blocks
+            assertEquals(pooled, BufferFactory.getPooledBytes());
+        } finally {
+            BufferFactory.setMaxPooledBytes(max);
+        }
+    }
+
+    private static long getOrZero(final Long value) {
+        return (value != null) ? value : 0;
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ *
+ */
+
+package com.breiler.msg.impl;
+
+import com.breiler.msg.math.Line;
+import org.junit.jupiter.api.Test;
+
+import javax.vecmath.Vector3f;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks TriangleBVH queries against intersecting every triangle.
+ */
+public class TriangleBVHTest {
+    @Test
+    public void allHitsMatchBruteForce() {
+        checkAgainstBruteForce(2000, 500, 1);
+    }
+
+    @Test
+    public void allHitsMatchBruteForceWithParallelBuild() {
+        checkAgainstBruteForce(40000, 50, 2);
+    }
+
+    @Test
+    public void sameCentroidsMatchBruteForce() {
+        // Leaves can not be split, so they may exceed the usual size
+        final Random random = new Random(3);
+        final float[] triangles = new float[9 * 50];
+        for (int i = 0; i < 50; i++) {
+            final float size = 0.5f + random.nextFloat();
+            setTriangle(triangles, i, new float[]{-size, -size, 0, 2 * size, -size, 0, -size, 2 * size, 0});
+        }
+        final TriangleBVH bvh = TriangleBVH.build(triangles, 50);
+        final Line ray = new Line(new Vector3f(0, 0, -1), new Vector3f(0.1f, 0.1f, 10));
+        assertEquals(bruteForce(triangles, 50, ray, 0, Float.POSITIVE_INFINITY), allHits(bvh, ray, 0, Float.POSITIVE_INFINITY));
+    }
+
+    @Test
+    public void emptyHierarchyHasNoHits() {
+        final TriangleBVH bvh = TriangleBVH.build(new float[0], 0);
+        assertEquals(0, bvh.getNumTriangles());
+        final Line ray = new Line(new Vector3f(0, 0, -1), new Vector3f(0, 0, 10));
+        assertEquals(new TreeSet<Integer>(), allHits(bvh, ray, 0, Float.POSITIVE_INFINITY));
+    }
+
+    @Test
+    public void tooFewFloatsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> TriangleBVH.build(new float[17], 2));
+    }
+
+    /**
+     * Builds a hierarchy over the given number of random triangles and
+     * compares all hits, the closest hit and hits within a limited
+     * range of random rays to intersecting every triangle.
+     */
+    private static void checkAgainstBruteForce(final int numTriangles, final int numRays, final long seed) {
+        final Random random = new Random(seed);
+        final float[] triangles = createTriangles(random, numTriangles);
+        final TriangleBVH bvh = TriangleBVH.build(triangles, numTriangles);
+        assertEquals(numTriangles, bvh.getNumTriangles());
+        int numHits = 0;
+        for (int r = 0; r < numRays; r++) {
+            final Line ray = createRay(random);
+            final Set<Integer> expected = bruteForce(triangles, numTriangles, ray, 0, Float.POSITIVE_INFINITY);
+            numHits += expected.size();
+            assertEquals(expected, allHits(bvh, ray, 0, Float.POSITIVE_INFINITY), "all hits of ray " + r);
+            assertEquals(closest(triangles, numTriangles, ray), closestHit(bvh, ray), 0, "closest hit of ray " + r);
+            assertEquals(bruteForce(triangles, numTriangles, ray, 5, 15), allHits(bvh, ray, 5, 15), "range of ray " + r);
+        }
+        // Most rays should hit something for the comparison to mean much
+        assertTrue(numHits > numRays, numHits + " hits");
+    }
+
+    private static Set<Integer> allHits(final TriangleBVH bvh, final Line ray, final float tMin, final float tMax) {
+        final Set<Integer> hits = new TreeSet<Integer>();
+        bvh.intersect(ray, tMin, tMax, new TriangleBVH.HitCallback() {
+            public float hit(final int triangleIndex, final float t, final Vector3f point, final float tMax) {
+                hits.add(triangleIndex);
+                return tMax;
+            }
+        });
+        return hits;
+    }
+
+    private static float closestHit(final TriangleBVH bvh, final Line ray) {
+        return bvh.intersect(ray, 0, Float.POSITIVE_INFINITY, new TriangleBVH.HitCallback() {
+            public float hit(final int triangleIndex, final float t, final Vector3f point, final float tMax) {
+                return t;
+            }
+        });
+    }
+
+    private static Set<Integer> bruteForce(final float[] triangles, final int numTriangles,
+                                           final Line ray, final float tMin, final float tMax) {
+        final Set<Integer> hits = new TreeSet<Integer>();
+        for (int i = 0; i < numTriangles; i++) {
+            final float t = intersect(triangles, i, ray);
+            if (t >= tMin && t <= tMax) {
+                hits.add(i);
+            }
+        }
+        return hits;
+    }
+
+    private static float closest(final float[] triangles, final int numTriangles, final Line ray) {
+        float closest = Float.POSITIVE_INFINITY;
+        for (int i = 0; i < numTriangles; i++) {
+            final float t = intersect(triangles, i, ray);
+            if (t >= 0) {
+                closest = Math.min(closest, t);
+            }
+        }
+        return closest;
+    }
+
+    /**
+     * Returns the parameter of the intersection of the ray with the
+     * given triangle, or NaN if there is none.
+     */
+    private static float intersect(final float[] triangles, final int index, final Line ray) {
+        final int base = 9 * index;
+        final Vector3f v0 = new Vector3f(triangles[base], triangles[base + 1], triangles[base + 2]);
+        final Vector3f v1 = new Vector3f(triangles[base + 3], triangles[base + 4], triangles[base + 5]);
+        final Vector3f v2 = new Vector3f(triangles[base + 6], triangles[base + 7], triangles[base + 8]);
+        final Vector3f tuv = new Vector3f();
+        if (!new RayTriangleIntersection().intersectTriangle(ray, v0, v1, v2, tuv)) {
+            return Float.NaN;
+        }
+        return tuv.x;
+    }
+
+    /**
+     * Creates small triangles scattered through a cube of 20 units
+     * centered at the origin.
+     */
+    private static float[] createTriangles(final Random random, final int numTriangles) {
+        final float[] triangles = new float[9 * numTriangles];
+        final float[] vertices = new float[9];
+        for (int i = 0; i < numTriangles; i++) {
+            final float x = 20 * random.nextFloat() - 10;
+            final float y = 20 * random.nextFloat() - 10;
+            final float z = 20 * random.nextFloat() - 10;
+            for (int j = 0; j < 9; j += 3) {
+                vertices[j] = x + 2 * random.nextFloat() - 1;
+                vertices[j + 1] = y + 2 * random.nextFloat() - 1;
+                vertices[j + 2] = z + 2 * random.nextFloat() - 1;
+            }
+            setTriangle(triangles, i, vertices);
+        }
+        return triangles;
+    }
+
+    private static void setTriangle(final float[] triangles, final int index, final float[] vertices) {
+        System.arraycopy(vertices, 0, triangles, 9 * index, 9);
+    }
+
+    /**
+     * Creates a ray starting outside the cube holding the triangles and
+     * aimed at a random point inside it.
+     */
+    private static Line createRay(final Random random) {
+        final Vector3f origin = new Vector3f(random.nextFloat() - 0.5f, random.nextFloat() - 0.5f, random.nextFloat() - 0.5f);
+        origin.normalize();
+        origin.scale(20);
+        final Vector3f target = new Vector3f(8 * random.nextFloat() - 4, 8 * random.nextFloat() - 4, 8 * random.nextFloat() - 4);
+        final Vector3f direction = new Vector3f();
+        direction.sub(target, origin);
+        direction.normalize();
+        return new Line(direction, origin);
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ *
+ */
+
+package com.breiler.msg.io;
+
+import com.breiler.msg.collections.Vec3fCollection;
+import com.breiler.msg.collections.Vec4fCollection;
+import com.breiler.msg.nodes.Color4;
+import com.breiler.msg.nodes.Coordinate3;
+import com.breiler.msg.nodes.Group;
+import com.breiler.msg.nodes.IndexedTriangleSet;
+import com.breiler.msg.nodes.TriangleSet;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.vecmath.Vector3f;
+import javax.vecmath.Vector4f;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Reads small .glb and .gltf files built in memory.
+ */
+public class GltfReaderTest {
+    private static final float[] QUAD = {0, 0, 0, 1, 0, 0, 0, 1, 0, 1, 1, 0};
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void binaryFileIsRead() throws IOException {
+        final ByteBuffer bin = buffer(48);
+        bin.asFloatBuffer().put(QUAD, 0, 9);
+        bin.position(36);
+        bin.asIntBuffer().put(new int[]{2, 1, 0});
+        final Path file = writeBinary("{\"asset\":{\"version\":\"2.0\"},\"scene\":0,\"scenes\":[{\"nodes\":[0]}]," +
+                "\"nodes\":[{\"name\":\"parent\",\"translation\":[1,2,3],\"children\":[1]},{\"mesh\":0}]," +
+                "\"meshes\":[{\"name\":\"triangle\",\"primitives\":[{\"attributes\":{\"POSITION\":0},\"indices\":1}]}]," +
+                "\"accessors\":[{\"bufferView\":0,\"componentType\":5126,\"count\":3,\"type\":\"VEC3\"}," +
+                "{\"bufferView\":1,\"componentType\":5125,\"count\":3,\"type\":\"SCALAR\"}]," +
+                "\"bufferViews\":[{\"buffer\":0,\"byteLength\":36},{\"buffer\":0,\"byteOffset\":36,\"byteLength\":12}]," +
+                "\"buffers\":[{\"byteLength\":48}]}", bin);
+
+        final Group root = GltfReader.read(file);
+        assertEquals("scene.glb", root.getName());
+        assertEquals(1, root.getNumChildren());
+        final Group parent = (Group) root.getChild(0);
+        assertEquals("parent", parent.getName());
+        final Vector3f translation = new Vector3f();
+        parent.getTransform().get(translation);
+        assertEquals(new Vector3f(1, 2, 3), translation);
+
+        final Group shape = (Group) ((Group) parent.getChild(0)).getChild(0);
+        assertEquals("triangle", shape.getName());
+        final Vec3fCollection coords = ((Coordinate3) shape.getChild(0)).getData();
+        assertEquals(3, coords.size());
+        assertEquals(new Vector3f(0, 1, 0), coords.get(2));
+        assertEquals(Arrays.asList(2, 1, 0), toList(((IndexedTriangleSet) shape.getChild(1)).getIndices()));
+    }
+
+    @Test
+    public void embeddedBufferIsRead() throws IOException {
+        // A strip of two triangles with unsigned short indices, and a
+        // triangle without indices sharing its colors
+        final ByteBuffer data = buffer(56);
+        data.asFloatBuffer().put(QUAD);
+        data.position(48);
+        data.asShortBuffer().put(new short[]{0, 1, 2, 3});
+        final Path file = writeText("{\"asset\":{\"version\":\"2.0\"},\"nodes\":[{\"mesh\":0}]," +
+                "\"meshes\":[{\"primitives\":[" +
+                "{\"attributes\":{\"POSITION\":0,\"COLOR_0\":0},\"indices\":1,\"mode\":5}," +
+                "{\"attributes\":{\"POSITION\":2,\"COLOR_0\":0}}," +
+                "{\"attributes\":{\"POSITION\":0},\"mode\":1}]}]," +
+                "\"accessors\":[{\"bufferView\":0,\"componentType\":5126,\"count\":4,\"type\":\"VEC3\"}," +
+                "{\"bufferView\":1,\"componentType\":5123,\"count\":4,\"type\":\"SCALAR\"}," +
+                "{\"bufferView\":0,\"componentType\":5126,\"count\":3,\"type\":\"VEC3\"}]," +
+                "\"bufferViews\":[{\"buffer\":0,\"byteLength\":48},{\"buffer\":0,\"byteOffset\":48,\"byteLength\":8}]," +
+                "\"buffers\":[{\"byteLength\":56,\"uri\":\"data:application/octet-stream;base64," +
+                Base64.getEncoder().encodeToString(data.array()) + "\"}]}");
+
+        final Group root = GltfReader.read(file);
+        final Group node = (Group) root.getChild(0);
+        // The line primitive is skipped
+        assertEquals(2, node.getNumChildren());
+
+        final Group strip = (Group) node.getChild(0);
+        final Vec4fCollection colors = ((Color4) strip.getChild(0)).getData();
+        assertEquals(new Vector4f(1, 1, 0, 1), colors.get(3));
+        assertEquals(Arrays.asList(0, 1, 2, 2, 1, 3),
+                toList(((IndexedTriangleSet) strip.getChild(2)).getIndices()));
+
+        final Group triangle = (Group) node.getChild(1);
+        assertEquals(3, ((Coordinate3) triangle.getChild(1)).getData().size());
+        assertInstanceOf(TriangleSet.class, triangle.getChild(2));
+        // Accessors used by both primitives are shared
+        assertSame(colors, ((Color4) triangle.getChild(0)).getData());
+    }
+
+    @Test
+    public void cycleIsRejected() throws IOException {
+        final Path file = writeText("{\"asset\":{\"version\":\"2.0\"},\"scenes\":[{\"nodes\":[0]}]," +
+                "\"nodes\":[{\"children\":[1]},{\"children\":[0]}]}");
+        final IOException e = assertThrows(IOException.class, () -> GltfReader.read(file));
+        assertTrue(e.getMessage().contains("its own ancestor"), e.getMessage());
+    }
+
+    @Test
+    public void accessorBeyondBufferIsRejected() throws IOException {
+        final Path file = writeBinary("{\"asset\":{\"version\":\"2.0\"},\"nodes\":[{\"mesh\":0}]," +
+                "\"meshes\":[{\"primitives\":[{\"attributes\":{\"POSITION\":0}}]}]," +
+                "\"accessors\":[{\"bufferView\":0,\"componentType\":5126,\"count\":4,\"type\":\"VEC3\"}]," +
+                "\"bufferViews\":[{\"buffer\":0,\"byteLength\":36}]," +
+                "\"buffers\":[{\"byteLength\":36}]}", buffer(36));
+        assertThrows(IOException.class, () -> GltfReader.read(file));
+    }
+
+    @Test
+    public void truncatedBinaryFileIsRejected() throws IOException {
+        final Path file = writeBinary("{\"asset\":{\"version\":\"2.0\"},\"buffers\":[{\"byteLength\":36}]}", buffer(36));
+        final byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 4));
+        assertThrows(IOException.class, () -> GltfReader.read(file));
+    }
+
+    private static ByteBuffer buffer(final int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private Path writeText(final String json) throws IOException {
+        final Path file = directory.resolve("scene.gltf");
+        Files.write(file, json.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private Path writeBinary(final String json, final ByteBuffer bin) throws IOException {
+        // Chunks are padded to four bytes, the JSON one with spaces
+        final byte[] text = json.getBytes(StandardCharsets.UTF_8);
+        final int textLength = (text.length + 3) & ~3;
+        final int binLength = (bin.capacity() + 3) & ~3;
+        final ByteBuffer b = buffer(12 + 8 + textLength + 8 + binLength);
+        b.putInt(0x46546C67).putInt(2).putInt(b.capacity());
+        b.putInt(textLength).putInt(0x4E4F534A).put(text);
+        while (b.position() % 4 != 0) {
+            b.put((byte) ' ');
+        }
+        b.putInt(binLength).putInt(0x004E4942).put(bin.array());
+        final Path file = directory.resolve("scene.glb");
+        Files.write(file, b.array());
+        return file;
+    }
+
+    private static List<Integer> toList(final IntBuffer buffer) {
+        final Integer[] res = new Integer[buffer.limit()];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = buffer.get(i);
+        }
+        return Arrays.asList(res);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ *
+ */
+
+package com.breiler.msg.io;
+
+import com.breiler.msg.collections.Vec3fCollection;
+import com.breiler.msg.nodes.Coordinate3;
+import com.breiler.msg.nodes.Group;
+import com.breiler.msg.nodes.IndexedTriangleSet;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.vecmath.Vector3f;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Reads small OBJ files.
+ */
+public class ObjReaderTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    public void polygonIsSplitIntoFan() throws IOException {
+        final Group mesh = read("# A unit square\n" +
+                "o square\n" +
+                "v 0 0 0\nv 1 0 0\nv 1 1 0\nv 0 1 0\n" +
+                "vt 0 0\nvn 0 0 1\n" +
+                "f 1/1/1 2/1/1 3//1 4\n");
+        assertEquals("square.obj", mesh.getName());
+        final Vec3fCollection coords = getCoordinates(mesh);
+        assertEquals(4, coords.size());
+        assertEquals(new Vector3f(1, 1, 0), coords.get(2));
+        assertArrayEquals(new int[]{0, 1, 2, 0, 2, 3}, getIndices(mesh));
+    }
+
+    @Test
+    public void relativeIndicesReferToPrecedingVertices() throws IOException {
+        final Group mesh = read("v 0 0 0\nv 1 0 0\nv 0 1 0\nf -3 -2 -1\n" +
+                "v 5 0 0\nv 6 0 0\nv 5 1 0\nf -3 -2 -1\nf 1 2 -1\n");
+        assertArrayEquals(new int[]{0, 1, 2, 3, 4, 5, 0, 1, 5}, getIndices(mesh));
+    }
+
+    @Test
+    public void weldingMergesEqualVertices() throws IOException {
+        final String text = "v 0 0 0\nv 1 0 0\nv 1 1 0\nv 0 0 0\nv 1 1 0\nv 0 1 0\nf 1 2 3\nf 4 5 6\n";
+        final Path file = write(text);
+        assertEquals(6, getCoordinates(ObjReader.read(file)).size());
+
+        final Group welded = ObjReader.read(file, true);
+        final Vec3fCollection coords = getCoordinates(welded);
+        assertEquals(4, coords.size());
+        final int[] indices = getIndices(welded);
+        assertEquals(indices[0], indices[3]);
+        assertEquals(indices[2], indices[4]);
+        assertEquals(new Vector3f(0, 1, 0), coords.get(indices[5]));
+    }
+
+    @Test
+    public void invalidFacesAreRejected() {
+        assertThrows(IOException.class, () -> read("v 0 0 0\nv 1 0 0\nv 0 1 0\nf 1 2 4\n"));
+        assertThrows(IOException.class, () -> read("v 0 0 0\nv 1 0 0\nf 1 2\n"));
+        assertThrows(IOException.class, () -> read("v 0 0 0\nv 1 0 0\nv 0 1 0\nf 0 1 2\n"));
+    }
+
+    private Group read(final String text) throws IOException {
+        return ObjReader.read(write(text));
+    }
+
+    private Path write(final String text) throws IOException {
+        final Path file = directory.resolve("square.obj");
+        Files.write(file, text.getBytes(StandardCharsets.US_ASCII));
+        return file;
+    }
+
+    private static Vec3fCollection getCoordinates(final Group mesh) {
+        return ((Coordinate3) mesh.getChild(0)).getData();
+    }
+
+    private static int[] getIndices(final Group mesh) {
+        final IntBuffer indices = ((IndexedTriangleSet) mesh.getChild(1)).getIndices();
+        final int[] res = new int[indices.limit()];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = indices.get(i);
+        }
+        return res;
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ *
+ */
+
+package com.breiler.msg.io;
+
+import com.breiler.msg.collections.Vec2fCollection;
+import com.breiler.msg.collections.Vec3fCollection;
+import com.breiler.msg.collections.Vec4fCollection;
+import com.breiler.msg.nodes.Color4;
+import com.breiler.msg.nodes.Coordinate3;
+import com.breiler.msg.nodes.Group;
+import com.breiler.msg.nodes.IndexedTriangleSet;
+import com.breiler.msg.nodes.Node;
+import com.breiler.msg.nodes.PerspectiveCamera;
+import com.breiler.msg.nodes.TextureCoordinate2;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.vecmath.Vector2f;
+import javax.vecmath.Vector3f;
+import javax.vecmath.Vector4f;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that scene graphs written by SceneWriter are read back
+ * unchanged, and that corrupt files are rejected.
+ */
+public class SceneReaderTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    public void roundTripKeepsGraph() throws IOException {
+        final Group root = new Group();
+        root.setName("Root");
+        root.getTransform().setTranslation(new Vector3f(1, 2, 3));
+        final PerspectiveCamera camera = new PerspectiveCamera();
+        camera.setPosition(new Vector3f(0, 0, 5));
+        camera.setHeightAngle(0.5f);
+        root.addChild(camera);
+
+        final Group shared = new Group();
+        final Coordinate3 coords = new Coordinate3();
+        final Vec3fCollection coordData = new Vec3fCollection();
+        coordData.add(0, 0, 0);
+        coordData.add(1, 0, 0);
+        coordData.add(0, 1, 0);
+        coords.setData(coordData);
+        shared.addChild(coords);
+        final Color4 colors = new Color4();
+        final Vec4fCollection colorData = new Vec4fCollection();
+        colorData.add(new Vector4f(1, 0, 0, 1));
+        colors.setData(colorData);
+        shared.addChild(colors);
+        final TextureCoordinate2 texCoords = new TextureCoordinate2();
+        final Vec2fCollection texData = new Vec2fCollection();
+        texData.add(new Vector2f(0.5f, 0.25f));
+        texCoords.setData(texData);
+        shared.addChild(texCoords);
+        final IndexedTriangleSet triangles = new IndexedTriangleSet();
+        triangles.setIndices(IntBuffer.wrap(new int[]{0, 1, 2}));
+        shared.addChild(triangles);
+        root.addChild(shared);
+        root.addChild(shared);
+
+        final Group read = (Group) writeAndRead(root);
+        assertEquals("Root", read.getName());
+        final Vector3f translation = new Vector3f();
+        read.getTransform().get(translation);
+        assertEquals(new Vector3f(1, 2, 3), translation);
+        assertEquals(3, read.getNumChildren());
+        final PerspectiveCamera readCamera = (PerspectiveCamera) read.getChild(0);
+        assertEquals(new Vector3f(0, 0, 5), readCamera.getPosition());
+        assertEquals(0.5f, readCamera.getHeightAngle(), 0);
+        assertSame(read.getChild(1), read.getChild(2));
+
+        final Group readShared = (Group) read.getChild(1);
+        final Vec3fCollection readCoords = ((Coordinate3) readShared.getChild(0)).getData();
+        assertEquals(3, readCoords.size());
+        assertEquals(new Vector3f(0, 1, 0), readCoords.get(2));
+        assertEquals(new Vector4f(1, 0, 0, 1), ((Color4) readShared.getChild(1)).getData().get(0));
+        assertEquals(new Vector2f(0.5f, 0.25f), ((TextureCoordinate2) readShared.getChild(2)).getData().get(0));
+        final IntBuffer indices = ((IndexedTriangleSet) readShared.getChild(3)).getIndices();
+        assertEquals(3, indices.limit());
+        assertEquals(2, indices.get(2));
+    }
+
+    @Test
+    public void largeCollectionIsMapped() throws IOException {
+        final Coordinate3 coords = new Coordinate3();
+        final Vec3fCollection data = new Vec3fCollection();
+        for (int i = 0; i < 30000; i++) {
+            data.add(i, -i, 0.5f * i);
+        }
+        coords.setData(data);
+        final Path file = directory.resolve("large.msg");
+        SceneWriter.write(coords, file);
+
+        final Vec3fCollection read = ((Coordinate3) SceneReader.read(file, FileChannel.MapMode.READ_ONLY)).getData();
+        assertEquals(30000, read.size());
+        assertEquals(new Vector3f(29999, -29999, 0.5f * 29999), read.get(29999));
+        assertThrows(ReadOnlyBufferException.class, () -> read.set(0, 1, 2, 3));
+
+        final Vec3fCollection writable = ((Coordinate3) SceneReader.read(file)).getData();
+        writable.set(0, 1, 2, 3);
+        assertEquals(new Vector3f(0, 0, 0), ((Coordinate3) SceneReader.read(file)).getData().get(0));
+    }
+
+    @Test
+    public void referenceToOpenGroupIsRejected() throws IOException {
+        final ByteBuffer b = header();
+        b.putInt(SceneFormat.GROUP).putInt(-1).put((byte) 0).putInt(1);
+        b.putInt(SceneFormat.REFERENCE).putInt(0);
+        final IOException e = assertThrows(IOException.class, () -> read(b));
+        assertTrue(e.getMessage().contains("its own ancestor"), e.getMessage());
+    }
+
+    @Test
+    public void referenceToClosedGroupIsAccepted() throws IOException {
+        final ByteBuffer b = header();
+        b.putInt(SceneFormat.GROUP).putInt(-1).put((byte) 0).putInt(2);
+        b.putInt(SceneFormat.GROUP).putInt(-1).put((byte) 0).putInt(0);
+        b.putInt(SceneFormat.REFERENCE).putInt(1);
+        final Group root = (Group) read(b);
+        assertEquals(2, root.getNumChildren());
+        assertSame(root.getChild(0), root.getChild(1));
+        assertNull(root.getName());
+    }
+
+    @Test
+    public void stringLongerThanFileIsRejected() {
+        final ByteBuffer b = header();
+        b.putInt(SceneFormat.GROUP).putInt(Integer.MAX_VALUE);
+        assertThrows(IOException.class, () -> read(b));
+    }
+
+    @Test
+    public void otherFilesAreRejected() {
+        final ByteBuffer b = ByteBuffer.allocate(64);
+        b.put("Not a scene".getBytes());
+        assertThrows(IOException.class, () -> read(b));
+    }
+
+    private Node writeAndRead(final Node root) throws IOException {
+        final Path file = directory.resolve("scene.msg");
+        SceneWriter.write(root, file);
+        return SceneReader.read(file);
+    }
+
+    private Node read(final ByteBuffer contents) throws IOException {
+        final Path file = directory.resolve("crafted.msg");
+        Files.write(file, Arrays.copyOf(contents.array(), contents.position()));
+        return SceneReader.read(file);
+    }
+
+    /**
+     * Returns a buffer holding a big-endian file header, with room for
+     * a few nodes.
+     */
+    private static ByteBuffer header() {
+        final ByteBuffer b = ByteBuffer.allocate(256);
+        b.putInt(SceneFormat.MAGIC).putInt(SceneFormat.BYTE_ORDER_MARK).putInt(SceneFormat.VERSION).putInt(0);
+        return b;
+    }
+}
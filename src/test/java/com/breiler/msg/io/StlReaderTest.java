@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ *
+ */
+
+package com.breiler.msg.io;
+
+import com.breiler.msg.collections.Vec3fCollection;
+import com.breiler.msg.nodes.Coordinate3;
+import com.breiler.msg.nodes.Group;
+import com.breiler.msg.nodes.IndexedTriangleSet;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.vecmath.Vector3f;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Reads a square made of two triangles from binary and ASCII STL
+ * files.
+ */
+public class StlReaderTest {
+    // The two triangles of a unit square, sharing two vertices
+    private static final float[][] TRIANGLES = {
+        {0, 0, 0, 1, 0, 0, 1, 1, 0},
+        {0, 0, 0, 1, 1, 0, 0, 1, 0},
+    };
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void binaryFileIsWelded() throws IOException {
+        checkSquare(StlReader.read(writeBinary("solid square")), 4);
+    }
+
+    @Test
+    public void binaryFileIsReadUnwelded() throws IOException {
+        checkSquare(StlReader.read(writeBinary("square"), false), 6);
+    }
+
+    @Test
+    public void asciiFileIsWelded() throws IOException {
+        checkSquare(StlReader.read(writeAscii()), 4);
+    }
+
+    @Test
+    public void asciiFileIsReadUnwelded() throws IOException {
+        checkSquare(StlReader.read(writeAscii(), false), 6);
+    }
+
+    @Test
+    public void truncatedBinaryFileIsRejected() throws IOException {
+        final Path file = writeBinary("square");
+        final byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 10));
+        assertThrows(IOException.class, () -> StlReader.read(file));
+    }
+
+    /**
+     * Checks that the mesh holds the given number of vertices and
+     * describes the square.
+     */
+    static void checkSquare(final Group mesh, final int numVertices) {
+        final Vec3fCollection coords = ((Coordinate3) mesh.getChild(0)).getData();
+        final IntBuffer indices = ((IndexedTriangleSet) mesh.getChild(1)).getIndices();
+        assertEquals(numVertices, coords.size());
+        assertEquals(6, indices.limit());
+        for (int t = 0; t < TRIANGLES.length; t++) {
+            for (int v = 0; v < 3; v++) {
+                final float[] expected = TRIANGLES[t];
+                assertEquals(new Vector3f(expected[3 * v], expected[3 * v + 1], expected[3 * v + 2]),
+                        coords.get(indices.get(3 * t + v)), "vertex " + v + " of triangle " + t);
+            }
+        }
+    }
+
+    private Path writeBinary(final String header) throws IOException {
+        final ByteBuffer b = ByteBuffer.allocate(84 + 50 * TRIANGLES.length).order(ByteOrder.LITTLE_ENDIAN);
+        b.put(header.getBytes(StandardCharsets.US_ASCII));
+        b.putInt(80, TRIANGLES.length);
+        b.position(84);
+        for (final float[] triangle : TRIANGLES) {
+            b.putFloat(0).putFloat(0).putFloat(1);
+            for (final float f : triangle) {
+                b.putFloat(f);
+            }
+            b.putShort((short) 0);
+        }
+        final Path file = directory.resolve("binary.stl");
+        Files.write(file, b.array());
+        return file;
+    }
+
+    private Path writeAscii() throws IOException {
+        final StringBuilder text = new StringBuilder("solid square\n");
+        for (final float[] triangle : TRIANGLES) {
+            text.append("  facet normal 0 0 1\n    outer loop\n");
+            for (int v = 0; v < 3; v++) {
+                text.append("      vertex ").append(triangle[3 * v]).append(' ')
+                        .append(triangle[3 * v + 1]).append(' ').append(triangle[3 * v + 2]).append('\n');
+            }
+            text.append("    endloop\n  endfacet\n");
+        }
+        text.append("endsolid square\n");
+        final Path file = directory.resolve("ascii.stl");
+        Files.write(file, text.toString().getBytes(StandardCharsets.US_ASCII));
+        return file;
+    }
+}
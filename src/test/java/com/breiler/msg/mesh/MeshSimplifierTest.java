@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ *
+ */
+
+package com.breiler.msg.mesh;
+
+import com.breiler.msg.collections.Vec3fCollection;
+import org.junit.jupiter.api.Test;
+
+import java.nio.IntBuffer;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks MeshSimplifier on a grid bent into a wave.
+ */
+public class MeshSimplifierTest {
+    private static final int SIZE = 40;
+    private static final float SCALE = 10;
+
+    @Test
+    public void errorScalesWithMesh() {
+        final IntBuffer indices = createIndices(SIZE);
+        final MeshSimplifier original = new MeshSimplifier(createGrid(SIZE, 1), indices);
+        final MeshSimplifier scaled = new MeshSimplifier(createGrid(SIZE, SCALE), indices);
+        for (int target = original.getNumTriangles() / 2; target >= 32; target /= 4) {
+            final MeshSimplifier.Result a = original.simplify(target);
+            final MeshSimplifier.Result b = scaled.simplify(target);
+            final float ratio = b.getError() / a.getError();
+            assertEquals(SCALE, ratio, 1e-2f * SCALE, a + " / " + b);
+        }
+    }
+
+    @Test
+    public void reducesToTargetWithValidIndices() {
+        final MeshSimplifier simplifier = new MeshSimplifier(createGrid(SIZE, 1), createIndices(SIZE));
+        assertEquals(2 * SIZE * SIZE, simplifier.getNumTriangles());
+        final MeshSimplifier.Result result = simplifier.simplify(100);
+        assertTrue(result.getNumTriangles() <= 100, result.toString());
+        assertTrue(result.getNumTriangles() > 0, result.toString());
+        final IntBuffer indices = result.getIndices();
+        assertEquals(3 * result.getNumTriangles(), indices.limit());
+        final int numVertices = result.getCoordinates().size();
+        for (int i = 0; i < indices.limit(); i++) {
+            assertTrue(indices.get(i) >= 0 && indices.get(i) < numVertices, "index " + i);
+        }
+    }
+
+    @Test
+    public void stopsAtMaximumError() {
+        final MeshSimplifier simplifier = new MeshSimplifier(createGrid(SIZE, 1), createIndices(SIZE));
+        final float maxError = simplifier.simplify(32).getError() / 4;
+        final MeshSimplifier.Result result = simplifier.simplify(32, maxError);
+        assertTrue(result.getError() <= maxError, result.toString());
+        assertTrue(result.getNumTriangles() > 32, result.toString());
+    }
+
+    @Test
+    public void parallelLevelsMatchSequentialOnes() {
+        final MeshSimplifier simplifier = new MeshSimplifier(createGrid(SIZE, 1), createIndices(SIZE));
+        final int[] targets = {1600, 400, 100};
+        final List<MeshSimplifier.Result> results = simplifier.simplify(targets);
+        assertEquals(targets.length, results.size());
+        for (int i = 0; i < targets.length; i++) {
+            final MeshSimplifier.Result expected = simplifier.simplify(targets[i]);
+            assertEquals(expected.getNumTriangles(), results.get(i).getNumTriangles());
+            assertEquals(expected.getError(), results.get(i).getError(), 0);
+        }
+    }
+
+    /**
+     * Creates the vertices of a grid of the given number of cells in
+     * each direction, bent into a wave, multiplied by the given scale.
+     */
+    static Vec3fCollection createGrid(final int size, final float scale) {
+        final Vec3fCollection coords = new Vec3fCollection((size + 1) * (size + 1));
+        for (int y = 0; y <= size; y++) {
+            for (int x = 0; x <= size; x++) {
+                final double u = (double) x / size;
+                final double v = (double) y / size;
+                final double z = 0.1 * Math.sin(2 * Math.PI * u) * Math.cos(3 * Math.PI * v);
+                coords.add(scale * (float) u, scale * (float) v, scale * (float) z);
+            }
+        }
+        return coords;
+    }
+
+    static IntBuffer createIndices(final int size) {
+        final IntBuffer indices = IntBuffer.allocate(6 * size * size);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                final int i = y * (size + 1) + x;
+                indices.put(i).put(i + 1).put(i + size + 2);
+                indices.put(i).put(i + size + 2).put(i + size + 1);
+            }
+        }
+        indices.flip();
+        return indices;
+    }
+}
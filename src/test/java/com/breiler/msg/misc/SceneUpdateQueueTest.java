@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ *
+ */
+
+package com.breiler.msg.misc;
+
+import com.breiler.msg.collections.Vec3fCollection;
+import com.breiler.msg.nodes.Group;
+import org.junit.jupiter.api.Test;
+
+import javax.vecmath.Matrix4f;
+import javax.vecmath.Vector3f;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that queued changes are applied in order and that repeated
+ * changes to the same target are coalesced.
+ */
+public class SceneUpdateQueueTest {
+    @Test
+    public void transformsAreCoalesced() {
+        final SceneUpdateQueue queue = new SceneUpdateQueue();
+        final Group node = new Group();
+        final Group other = new Group();
+        final Matrix4f transform = new Matrix4f();
+        for (int i = 1; i <= 3; i++) {
+            transform.m03 = i;
+            queue.setTransform(node, transform);
+        }
+        queue.setTransform(other, transform);
+        // The queue keeps its own copy
+        transform.setIdentity();
+
+        assertFalse(queue.isEmpty());
+        assertEquals(2, queue.apply());
+        assertTrue(queue.isEmpty());
+        assertEquals(3, node.getTransform().m03, 0);
+        assertEquals(3, other.getTransform().m03, 0);
+        assertEquals(0, queue.apply());
+    }
+
+    @Test
+    public void contentsAreCoalesced() {
+        final SceneUpdateQueue queue = new SceneUpdateQueue();
+        final Vec3fCollection collection = new Vec3fCollection();
+        final float[] components = {1, 2, 3};
+        queue.setContents(collection, new float[]{0, 0, 0, 1, 1, 1});
+        queue.setContents(collection, components);
+        components[0] = 7;
+
+        assertEquals(1, queue.apply());
+        assertEquals(1, collection.size());
+        assertEquals(new Vector3f(1, 2, 3), collection.get(0));
+        assertThrows(IllegalArgumentException.class, () -> queue.setContents(collection, new float[4]));
+    }
+
+    @Test
+    public void changesAreAppliedInOrder() {
+        final SceneUpdateQueue queue = new SceneUpdateQueue();
+        final List<String> log = new ArrayList<>();
+        queue.update("key", () -> log.add("superseded"));
+        queue.update(() -> log.add("first"));
+        queue.update("other", () -> log.add("second"));
+        queue.update("key", () -> log.add("third"));
+        assertEquals(3, queue.apply());
+        assertEquals(Arrays.asList("first", "second", "third"), log);
+
+        // A key is free again once its change has been applied
+        queue.update("key", () -> log.add("fourth"));
+        assertEquals(1, queue.apply());
+        assertEquals("fourth", log.get(3));
+    }
+
+    @Test
+    public void childChangesAreApplied() {
+        final SceneUpdateQueue queue = new SceneUpdateQueue();
+        final Group parent = new Group();
+        final Group a = new Group();
+        final Group b = new Group();
+        final Group c = new Group();
+        queue.addChild(parent, a);
+        queue.addChild(parent, b);
+        queue.insertChild(parent, 0, c);
+        queue.removeChild(parent, a);
+        queue.replaceChild(parent, b, a);
+        assertEquals(0, parent.getNumChildren());
+
+        assertEquals(5, queue.apply());
+        assertEquals(Arrays.asList(c, a), parent.getChildren());
+    }
+
+    @Test
+    public void failuresDoNotStopOtherChanges() {
+        final SceneUpdateQueue queue = new SceneUpdateQueue();
+        final IllegalStateException first = new IllegalStateException("first");
+        final IllegalStateException second = new IllegalStateException("second");
+        final AtomicInteger applied = new AtomicInteger();
+        queue.update(() -> {
+            throw first;
+        });
+        queue.update(applied::incrementAndGet);
+        queue.update(() -> {
+            throw second;
+        });
+        queue.update(applied::incrementAndGet);
+
+        final IllegalStateException e = assertThrows(IllegalStateException.class, queue::apply);
+        assertSame(first, e);
+        assertSame(second, e.getSuppressed()[0]);
+        assertEquals(2, applied.get());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void concurrentProducersKeepLatestTransform() throws InterruptedException {
+        final int numThreads = 4;
+        final int numUpdates = 10000;
+        final SceneUpdateQueue queue = new SceneUpdateQueue();
+        final Group[] nodes = new Group[numThreads];
+        final AtomicInteger counter = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; t++) {
+            final Group node = nodes[t] = new Group();
+            threads[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                final Matrix4f transform = new Matrix4f();
+                for (int i = 1; i <= numUpdates; i++) {
+                    transform.m03 = i;
+                    queue.setTransform(node, transform);
+                    queue.update(counter::incrementAndGet);
+                }
+            });
+            threads[t].start();
+        }
+
+        // Apply while the producers are running, as a renderer would
+        start.countDown();
+        int numApplied = 0;
+        for (final Thread thread : threads) {
+            while (thread.isAlive()) {
+                numApplied += queue.apply();
+            }
+            thread.join();
+        }
+        numApplied += queue.apply();
+
+        assertEquals(numThreads * numUpdates, counter.get());
+        assertTrue(numApplied <= 2 * numThreads * numUpdates);
+        for (final Group node : nodes) {
+            assertEquals(numUpdates, node.getTransform().m03, 0);
+        }
+    }
+}
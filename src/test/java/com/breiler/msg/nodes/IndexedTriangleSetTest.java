@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ *
+ */
+
+package com.breiler.msg.nodes;
+
+import com.breiler.msg.actions.RayPickAction;
+import com.breiler.msg.collections.Vec2fCollection;
+import com.breiler.msg.collections.Vec3fCollection;
+import com.breiler.msg.math.Line;
+import org.junit.jupiter.api.Test;
+
+import javax.vecmath.Vector2f;
+import javax.vecmath.Vector3f;
+import java.nio.IntBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks picking of IndexedTriangleSets with valid and invalid indices.
+ */
+public class IndexedTriangleSetTest {
+    // Enough for picking to go through a TriangleBVH
+    private static final int NUM_TRIANGLES = 100;
+
+    @Test
+    public void validIndicesArePicked() {
+        assertEquals(1, pick(createIndices(), false));
+        assertEquals(1, pick(createIndices(), true));
+    }
+
+    @Test
+    public void indexPastCoordinatesIsNotPicked() {
+        final int[] indices = createIndices();
+        indices[indices.length - 1] = 3 * NUM_TRIANGLES;
+        assertEquals(0, pick(indices, false));
+    }
+
+    @Test
+    public void negativeIndexIsNotPicked() {
+        final int[] indices = createIndices();
+        indices[0] = -1;
+        assertEquals(0, pick(indices, false));
+    }
+
+    @Test
+    public void fewTrianglesWithIndexPastCoordinatesAreNotPicked() {
+        assertEquals(0, pick(new int[]{0, 1, 3 * NUM_TRIANGLES}, false));
+    }
+
+    @Test
+    public void setIndicesRechecksRange() {
+        final Group root = new Group();
+        root.addChild(createCoordinates());
+        final IndexedTriangleSet triangles = new IndexedTriangleSet();
+        triangles.setIndices(IntBuffer.wrap(new int[]{0, 1, 3 * NUM_TRIANGLES}));
+        root.addChild(triangles);
+        assertEquals(0, pick(root));
+
+        triangles.setIndices(IntBuffer.wrap(new int[]{0, 1, 2}));
+        assertEquals(1, pick(root));
+    }
+
+    /**
+     * Picks the first triangle of a set with the given indices and
+     * returns the number of points picked.
+     */
+    private static int pick(final int[] indices, final boolean shortTexCoords) {
+        final Group root = new Group();
+        root.addChild(createCoordinates());
+        if (shortTexCoords) {
+            // Covers only the first triangle, so can't be used
+            final TextureCoordinate2 texCoords = new TextureCoordinate2();
+            final Vec2fCollection data = new Vec2fCollection();
+            data.add(new Vector2f(0, 0));
+            data.add(new Vector2f(1, 0));
+            data.add(new Vector2f(0, 1));
+            texCoords.setData(data);
+            root.addChild(texCoords);
+        }
+        final IndexedTriangleSet triangles = new IndexedTriangleSet();
+        triangles.setIndices(IntBuffer.wrap(indices));
+        root.addChild(triangles);
+        return pick(root);
+    }
+
+    private static int pick(final Node root) {
+        final RayPickAction action = new RayPickAction();
+        action.setRay(new Line(new Vector3f(0, 0, -1), new Vector3f(0.25f, 0.25f, 10)));
+        action.apply(root);
+        return action.getPickedPoints().size();
+    }
+
+    /**
+     * Creates coordinates for a row of unit triangles, the first of
+     * which has its right angle at the origin.
+     */
+    private static Coordinate3 createCoordinates() {
+        final Vec3fCollection data = new Vec3fCollection();
+        for (int i = 0; i < NUM_TRIANGLES; i++) {
+            data.add(new Vector3f(2 * i, 0, 0));
+            data.add(new Vector3f(2 * i + 1, 0, 0));
+            data.add(new Vector3f(2 * i, 1, 0));
+        }
+        final Coordinate3 coords = new Coordinate3();
+        coords.setData(data);
+        return coords;
+    }
+
+    private static int[] createIndices() {
+        final int[] indices = new int[3 * NUM_TRIANGLES];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = i;
+        }
+        return indices;
+    }
+}
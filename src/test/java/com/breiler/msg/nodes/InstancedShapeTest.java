@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ *
+ */
+
+package com.breiler.msg.nodes;
+
+import com.breiler.msg.actions.GetBoundingBoxAction;
+import com.breiler.msg.actions.RayPickAction;
+import com.breiler.msg.collections.Vec3fCollection;
+import com.breiler.msg.math.Box3f;
+import com.breiler.msg.math.Line;
+import com.breiler.msg.misc.PickedPoint;
+import org.junit.jupiter.api.Test;
+
+import javax.vecmath.Matrix4f;
+import javax.vecmath.Vector3f;
+import java.nio.IntBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks picking and bounds of a row of instances of a unit square,
+ * spaced two units apart along x.
+ */
+public class InstancedShapeTest {
+    private static final int NUM_INSTANCES = 100;
+
+    @Test
+    public void pickAllTellsInstance() {
+        checkPicks(createShape(), true);
+    }
+
+    @Test
+    public void closestPickTellsInstance() {
+        checkPicks(createShape(), false);
+    }
+
+    @Test
+    public void removedInstanceIsReplacedByLast() {
+        final InstancedShape shape = createShape();
+        shape.removeInstance(0);
+        assertEquals(NUM_INSTANCES - 1, shape.getNumInstances());
+        assertEquals(-1, pick(shape, 0));
+        assertEquals(0, pick(shape, NUM_INSTANCES - 1));
+        assertEquals(1, pick(shape, 1));
+    }
+
+    @Test
+    public void movedInstanceIsPickedAtNewPlace() {
+        final InstancedShape shape = createShape();
+        assertEquals(-1, pick(shape, NUM_INSTANCES));
+        shape.setInstanceTransform(3, translation(NUM_INSTANCES));
+        assertEquals(3, pick(shape, NUM_INSTANCES));
+        assertEquals(-1, pick(shape, 3));
+    }
+
+    @Test
+    public void boundsCoverAllInstances() {
+        final InstancedShape shape = createShape();
+        checkBounds(shape, 2 * NUM_INSTANCES - 1);
+        shape.addInstance(translation(NUM_INSTANCES));
+        checkBounds(shape, 2 * NUM_INSTANCES + 1);
+        shape.clearInstances();
+        final GetBoundingBoxAction action = new GetBoundingBoxAction();
+        action.apply(shape);
+        assertTrue(action.getBoundingBox().isEmpty());
+    }
+
+    private static void checkPicks(final InstancedShape shape, final boolean pickAll) {
+        final Group root = new Group();
+        root.addChild(shape);
+        final RayPickAction action = new RayPickAction();
+        action.setPickAll(pickAll);
+        for (int i = 0; i < NUM_INSTANCES; i++) {
+            action.setRay(createRay(i));
+            action.apply(root);
+            assertEquals(1, action.getPickedPoints().size(), "points picked on instance " + i);
+            assertEquals(i, action.getPickedPoint().getInstanceIndex());
+        }
+    }
+
+    /**
+     * Picks the place of the instance with the given index in the
+     * original row, and returns the index of the instance picked there,
+     * or -1 if none.
+     */
+    private static int pick(final InstancedShape shape, final int place) {
+        final RayPickAction action = new RayPickAction();
+        action.setRay(createRay(place));
+        action.apply(shape);
+        final PickedPoint point = action.getPickedPoint();
+        return (point != null) ? point.getInstanceIndex() : -1;
+    }
+
+    private static void checkBounds(final InstancedShape shape, final float maxX) {
+        final GetBoundingBoxAction action = new GetBoundingBoxAction();
+        action.apply(shape);
+        final Box3f box = action.getBoundingBox();
+        assertEquals(0, box.getMin().x, 1e-5f);
+        assertEquals(0, box.getMin().y, 1e-5f);
+        assertEquals(maxX, box.getMax().x, 1e-5f);
+        assertEquals(1, box.getMax().y, 1e-5f);
+    }
+
+    private static Line createRay(final int place) {
+        return new Line(new Vector3f(0, 0, -1), new Vector3f(2 * place + 0.25f, 0.75f, 10));
+    }
+
+    private static Matrix4f translation(final int place) {
+        final Matrix4f transform = new Matrix4f();
+        transform.setIdentity();
+        transform.setTranslation(new Vector3f(2 * place, 0, 0));
+        return transform;
+    }
+
+    private static InstancedShape createShape() {
+        final Vec3fCollection data = new Vec3fCollection();
+        data.add(0, 0, 0);
+        data.add(1, 0, 0);
+        data.add(1, 1, 0);
+        data.add(0, 1, 0);
+        final Coordinate3 coords = new Coordinate3();
+        coords.setData(data);
+        final IndexedTriangleSet triangles = new IndexedTriangleSet();
+        triangles.setIndices(IntBuffer.wrap(new int[]{0, 1, 2, 0, 2, 3}));
+
+        final InstancedShape shape = new InstancedShape();
+        shape.setCoordinates(coords);
+        shape.setTriangles(triangles);
+        for (int i = 0; i < NUM_INSTANCES; i++) {
+            shape.addInstance(translation(i));
+        }
+        return shape;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ *
+ */
+
+package com.breiler.msg.nodes;
+
+import com.breiler.msg.actions.GLRenderAction;
+import com.breiler.msg.actions.GLRenderActionTest;
+import com.breiler.msg.collections.Vec3fCollection;
+import com.jogamp.opengl.GLAutoDrawable;
+import com.jogamp.opengl.GLEventListener;
+import com.jogamp.opengl.GLOffscreenAutoDrawable;
+import org.junit.jupiter.api.Test;
+
+import javax.vecmath.Vector3f;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Renders an LOD whose levels use coordinates set above it, without
+ * culling, to check that it switches levels with the eye distance.
+ * Skipped where no OpenGL implementation is available.
+ */
+public class LODTest {
+    @Test
+    public void levelFollowsDistanceToInheritedCoordinates() {
+        final Group root = new Group();
+        final PerspectiveCamera camera = new PerspectiveCamera();
+        camera.setFarDistance(5000);
+        root.addChild(camera);
+
+        final Coordinate3 coords = new Coordinate3();
+        final Vec3fCollection data = new Vec3fCollection();
+        data.add(new Vector3f(1, 0, 0));
+        data.add(new Vector3f(0, 1, 0));
+        data.add(new Vector3f(-1, 0, 0));
+        coords.setData(data);
+        root.addChild(coords);
+
+        final LOD lod = new LOD();
+        lod.setThresholds(50);
+        lod.addChild(new TriangleSet());
+        lod.addChild(new TriangleSet());
+        root.addChild(lod);
+
+        final GLRenderAction action = new GLRenderAction();
+        final GLOffscreenAutoDrawable drawable = GLRenderActionTest.createDrawable();
+        drawable.addGLEventListener(new GLEventListener() {
+            public void init(final GLAutoDrawable drawable) {
+            }
+
+            public void dispose(final GLAutoDrawable drawable) {
+            }
+
+            public void display(final GLAutoDrawable drawable) {
+                action.apply(root);
+            }
+
+            public void reshape(final GLAutoDrawable drawable, final int x, final int y, final int width, final int height) {
+            }
+        });
+        try {
+            camera.setPosition(new Vector3f(0, 0, 10));
+            drawable.display();
+            assertEquals(0, lod.getRenderedLevel());
+
+            camera.setPosition(new Vector3f(0, 0, 200));
+            drawable.display();
+            assertEquals(1, lod.getRenderedLevel());
+
+            camera.setPosition(new Vector3f(0, 0, 10));
+            drawable.display();
+            assertEquals(0, lod.getRenderedLevel());
+
+            // Moving the inherited coordinates away must be noticed
+            for (int i = 0; i < data.size(); i++) {
+                final Vector3f v = data.get(i);
+                data.set(i, v.x, v.y, -1000);
+            }
+            drawable.display();
+            assertEquals(1, lod.getRenderedLevel());
+        } finally {
+            drawable.destroy();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ *
+ */
+
+package com.breiler.msg.nodes;
+
+import com.breiler.msg.actions.GetBoundingBoxAction;
+import com.breiler.msg.actions.RayPickAction;
+import com.breiler.msg.collections.Vec3fCollection;
+import com.breiler.msg.math.Line;
+import org.junit.jupiter.api.Test;
+
+import javax.vecmath.Vector3f;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Checks that data cached by nodes follows changes to the scene graph.
+ */
+public class NodeTest {
+    @Test
+    public void sharedNodeChangesReachAllParents() {
+        final Group shared = createTile();
+        final Group first = new Group();
+        first.addChild(shared);
+        final Group second = new Group();
+        second.addChild(shared);
+        second.addChild(shared);
+        final Group third = new Group();
+        third.getTransform().setTranslation(new Vector3f(0, 10, 0));
+        third.addChild(shared);
+
+        // Fill the bounds caches of all parents
+        checkCenter(first, 0, 0);
+        checkCenter(second, 0, 0);
+        checkCenter(third, 0, 10);
+
+        shared.getTransform().setTranslation(new Vector3f(5, 0, 0));
+        checkCenter(first, 5, 0);
+        checkCenter(second, 5, 0);
+        checkCenter(third, 5, 10);
+
+        // Still a child of the second group once
+        second.removeChild(shared);
+        third.removeChild(shared);
+        shared.getTransform().setTranslation(new Vector3f(-5, 0, 0));
+        checkCenter(first, -5, 0);
+        checkCenter(second, -5, 0);
+        assertEquals(2, shared.getParents().size());
+        assertSame(first, shared.getParent());
+    }
+
+    @Test
+    public void transformModifiedInPlaceUpdatesCachedBounds() {
+        final Group tile = createTile();
+        final Group root = new Group();
+        root.addChild(tile);
+        checkCenter(root, 0, 0);
+
+        // No touch() needed after modifying the matrix in place
+        tile.getTransform().setTranslation(new Vector3f(5, 0, 0));
+        checkCenter(root, 5, 0);
+    }
+
+    @Test
+    public void transformModifiedInPlaceUpdatesPickCulling() {
+        final Group tile = createTile();
+        final Group root = new Group();
+        root.addChild(tile);
+        final RayPickAction action = new RayPickAction();
+        action.setPickAll(false);
+        action.setRay(new Line(new Vector3f(0, 0, -1), new Vector3f(5, 0, 10)));
+        action.apply(root);
+        assertEquals(0, action.getPickedPoints().size());
+
+        // The cached bounds of both groups would cull the tile at its
+        // new place if they were not updated
+        tile.getTransform().setTranslation(new Vector3f(5, 0, 0));
+        action.apply(root);
+        assertEquals(1, action.getPickedPoints().size());
+    }
+
+    static void checkCenter(final Node node, final float x, final float y) {
+        final GetBoundingBoxAction action = new GetBoundingBoxAction();
+        action.apply(node);
+        final Vector3f center = action.getBoundingSphere().getCenter();
+        assertEquals(x, center.x, 1e-5f, "x of the center of " + node);
+        assertEquals(y, center.y, 1e-5f, "y of the center of " + node);
+    }
+
+    /**
+     * Creates a Group holding a triangle centered at the origin.
+     */
+    static Group createTile() {
+        final Group tile = new Group();
+        tile.setName("Tile");
+        final Coordinate3 coords = new Coordinate3();
+        final Vec3fCollection data = new Vec3fCollection();
+        data.add(new Vector3f(-0.5f, -0.5f, 0));
+        data.add(new Vector3f(0.5f, -0.5f, 0));
+        data.add(new Vector3f(0, 0.5f, 0));
+        coords.setData(data);
+        tile.addChild(coords);
+        tile.addChild(new TriangleSet());
+        return tile;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ *
+ */
+
+package com.breiler.msg.nodes;
+
+import com.breiler.msg.collections.Vec3fCollection;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.vecmath.Vector3f;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that snapshots of a large scene graph copy only the parts
+ * changed since the previous snapshot.
+ */
+public class SceneSnapshotTest {
+    private static final int NUM_BRANCHES = 100;
+    private static final int NUM_LEAVES = 100;
+    private static final int BRANCH = NUM_BRANCHES / 2;
+    private static final int LEAF = NUM_LEAVES / 2;
+
+    private Group root;
+
+    @BeforeEach
+    public void setUp() {
+        root = new Group();
+        for (int i = 0; i < NUM_BRANCHES; i++) {
+            final Group branch = new Group();
+            for (int j = 0; j < NUM_LEAVES; j++) {
+                branch.addChild(createLeaf());
+            }
+            root.addChild(branch);
+        }
+    }
+
+    @Test
+    public void unchangedGraphIsShared() {
+        check(SceneSnapshot.take(root), 1 + NUM_BRANCHES * (1 + 3 * NUM_LEAVES), 0);
+        check(SceneSnapshot.take(root), 0, 1);
+    }
+
+    @Test
+    public void coordinatesModifiedInPlaceAreCopiedAgain() {
+        final SceneSnapshot first = SceneSnapshot.take(root);
+        getCoordinates(root).getData().set(0, new Vector3f(1, 2, 3));
+
+        // Root, branch, leaf and its coordinates are copied again; the
+        // other branches, the other leaves of the branch and the
+        // triangle set of the leaf are shared
+        final SceneSnapshot second = SceneSnapshot.take(root);
+        check(second, 4, (NUM_BRANCHES - 1) + (NUM_LEAVES - 1) + 1);
+        assertEquals(new Vector3f(1, 2, 3), getCoordinates((Group) second.getRoot()).getData().get(0));
+        assertEquals(new Vector3f(-0.5f, -0.5f, 0), getCoordinates((Group) first.getRoot()).getData().get(0));
+    }
+
+    @Test
+    public void transformModifiedInPlaceIsCopiedAgain() {
+        final SceneSnapshot first = SceneSnapshot.take(root);
+        final Group leaf = getLeaf(root);
+        leaf.getTransform().setTranslation(new Vector3f(5, 0, 0));
+
+        // Root, branch and leaf are copied again
+        final SceneSnapshot second = SceneSnapshot.take(root);
+        check(second, 3, (NUM_BRANCHES - 1) + (NUM_LEAVES - 1) + 2);
+        final Vector3f translation = new Vector3f();
+        getLeaf((Group) second.getRoot()).getTransform().get(translation);
+        assertEquals(new Vector3f(5, 0, 0), translation);
+        getLeaf((Group) first.getRoot()).getTransform().get(translation);
+        assertEquals(new Vector3f(), translation);
+    }
+
+    private static void check(final SceneSnapshot snapshot, final int numCopied, final int numShared) {
+        assertEquals(numCopied, snapshot.getNumCopied(), "nodes copied");
+        assertEquals(numShared, snapshot.getNumShared(), "subtrees shared");
+    }
+
+    private static Group getLeaf(final Group root) {
+        return (Group) ((Group) root.getChild(BRANCH)).getChild(LEAF);
+    }
+
+    private static Coordinate3 getCoordinates(final Group root) {
+        return (Coordinate3) getLeaf(root).getChild(0);
+    }
+
+    /**
+     * Creates a Group holding a triangle with its own coordinates.
+     */
+    private static Group createLeaf() {
+        final Group leaf = new Group();
+        final Coordinate3 coords = new Coordinate3();
+        final Vec3fCollection data = new Vec3fCollection();
+        data.add(new Vector3f(-0.5f, -0.5f, 0));
+        data.add(new Vector3f(0.5f, -0.5f, 0));
+        data.add(new Vector3f(0, 0.5f, 0));
+        coords.setData(data);
+        leaf.addChild(coords);
+        leaf.addChild(new TriangleSet());
+        return leaf;
+    }
+}